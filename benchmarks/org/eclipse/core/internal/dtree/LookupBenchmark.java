@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+import java.util.Random;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Compares the throughput of lookups in a delta data tree for an increasing
+ * number of threads, with the result of each lookup stored in:
+ * <ul>
+ * <li>an instance taken from a shared pool of 100 instances guarded by a
+ * lock, as <code>DataTreeLookup.newLookup</code> used to do,</li>
+ * <li>a new instance, as <code>lookup(IPath)</code> does,</li>
+ * <li>an instance supplied by the caller and reused for every lookup, as
+ * <code>lookup(IPath, DataTreeLookup)</code> allows.</li>
+ * </ul>
+ * Each thread checks the result of its lookups.  With the pool, a result
+ * can be overwritten by another thread that was handed the same instance;
+ * such results are counted.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.dtree.LookupBenchmark [maxThreads [seconds]]
+ * </pre>
+ */
+public class LookupBenchmark {
+	private static final int FILES = 200;
+	private static final int LAYERS = 8;
+	private static final int PROJECTS = 50;
+
+	private static final int POOLED = 0;
+	private static final int ALLOCATING = 1;
+	private static final int SUPPLIED = 2;
+	private static final String[] NAMES = {"pool", "new instance", "caller-supplied"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	/**
+	 * The shared pool that lookups used to take their results from.
+	 */
+	static final class LookupPool {
+		private static final int POOL_SIZE = 100;
+		private final DataTreeLookup[] instancePool = new DataTreeLookup[POOL_SIZE];
+		private int nextFree = 0;
+
+		LookupPool() {
+			for (int i = 0; i < POOL_SIZE; i++)
+				instancePool[i] = new DataTreeLookup();
+		}
+
+		DataTreeLookup newLookup(IPath nodeKey, boolean isPresent, Object data, boolean foundInFirstDelta) {
+			DataTreeLookup instance;
+			synchronized (instancePool) {
+				instance = instancePool[nextFree];
+				nextFree = ++nextFree % POOL_SIZE;
+			}
+			instance.set(nodeKey, isPresent, data, foundInFirstDelta);
+			return instance;
+		}
+	}
+
+	volatile boolean running;
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 2) * 1000L;
+		DeltaDataTree tree = createTree();
+		LookupBenchmark benchmark = new LookupBenchmark();
+		//warm up
+		for (int kind = 0; kind < NAMES.length; kind++)
+			benchmark.run(tree, kind, maxThreads, millis / 4, new int[1]);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			StringBuffer line = new StringBuffer(threads + " threads:"); //$NON-NLS-1$
+			for (int kind = 0; kind < NAMES.length; kind++) {
+				int[] overwritten = new int[1];
+				long lookups = benchmark.run(tree, kind, threads, millis, overwritten);
+				line.append(' ').append(NAMES[kind]).append(' ').append(lookups * 1000 / millis).append(" lookups/s"); //$NON-NLS-1$
+				if (overwritten[0] > 0)
+					line.append(" (").append(overwritten[0]).append(" overwritten)"); //$NON-NLS-1$ //$NON-NLS-2$
+				line.append(kind < NAMES.length - 1 ? "," : ""); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Returns a delta tree of <code>LAYERS</code> layers.  The file
+	 * <code>/p&lt;i&gt;/f&lt;j&gt;</code> holds the number of the last layer
+	 * that changed it: layer <code>k</code> changes the files for which
+	 * <code>j % LAYERS == k</code>.
+	 */
+	static DeltaDataTree createTree() {
+		DeltaDataTree tree = new DeltaDataTree();
+		for (int i = 0; i < PROJECTS; i++) {
+			tree.createChild(Path.ROOT, "p" + i, null); //$NON-NLS-1$
+			for (int j = 0; j < FILES; j++)
+				tree.createChild(projectPath(i), "f" + j, new Integer(0)); //$NON-NLS-1$
+		}
+		for (int k = 1; k < LAYERS; k++) {
+			tree.immutable();
+			tree = tree.newEmptyDeltaTree();
+			for (int i = 0; i < PROJECTS; i++)
+				for (int j = k; j < FILES; j += LAYERS)
+					tree.setData(projectPath(i).append("f" + j), new Integer(k)); //$NON-NLS-1$
+		}
+		tree.immutable();
+		return tree;
+	}
+
+	static IPath projectPath(int project) {
+		return Path.ROOT.append("p" + project); //$NON-NLS-1$
+	}
+
+	/**
+	 * Looks up random files in the given tree with the given number of
+	 * threads for the given time, storing the results as asked, and returns
+	 * the number of lookups.  The number of results overwritten by another
+	 * thread is added to the given counter.
+	 */
+	long run(final DeltaDataTree tree, final int kind, int threads, long millis, final int[] overwritten) throws InterruptedException {
+		final IPath[] paths = new IPath[PROJECTS * FILES];
+		final Integer[] values = new Integer[paths.length];
+		for (int i = 0; i < PROJECTS; i++)
+			for (int j = 0; j < FILES; j++) {
+				paths[i * FILES + j] = projectPath(i).append("f" + j); //$NON-NLS-1$
+				values[i * FILES + j] = new Integer(j % LAYERS);
+			}
+		final LookupPool pool = new LookupPool();
+		final long[] counts = new long[threads];
+		Thread[] readers = new Thread[threads];
+		running = true;
+		for (int t = 0; t < threads; t++) {
+			final int index = t;
+			readers[t] = new Thread() {
+				public void run() {
+					Random random = new Random(index);
+					DataTreeLookup reused = new DataTreeLookup();
+					long count = 0;
+					int wrong = 0;
+					while (running) {
+						int file = random.nextInt(paths.length);
+						IPath key = paths[file];
+						DataTreeLookup result;
+						if (kind == POOLED) {
+							tree.lookup(key, reused);
+							result = pool.newLookup(reused.key, reused.isPresent, reused.data, reused.foundInFirstDelta);
+						} else if (kind == ALLOCATING) {
+							result = tree.lookup(key);
+						} else {
+							tree.lookup(key, reused);
+							result = reused;
+						}
+						if (result.key != key || !values[file].equals(result.data))
+							wrong++;
+						count++;
+					}
+					counts[index] = count;
+					synchronized (overwritten) {
+						overwritten[0] += wrong;
+					}
+				}
+			};
+			readers[t].start();
+		}
+		Thread.sleep(millis);
+		running = false;
+		long total = 0;
+		for (int t = 0; t < threads; t++) {
+			readers[t].join();
+			total += counts[t];
+		}
+		return total;
+	}
+}
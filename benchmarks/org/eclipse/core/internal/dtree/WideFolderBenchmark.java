@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Measures the time to create the children of a folder one at a time, and
+ * then to delete every other one, for an increasing number of children.
+ * The time per child should grow much more slowly than the number of
+ * children, as the children of a folder with many children are held in
+ * chunks.  The names of the remaining children are checked to be sorted.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.dtree.WideFolderBenchmark [maxChildren]
+ * </pre>
+ */
+public class WideFolderBenchmark {
+	public static void main(String[] args) {
+		int maxChildren = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		//warm up
+		run(maxChildren / 10);
+		for (int children = 1000; children <= maxChildren; children *= 2) {
+			long[] times = run(children);
+			System.out.println(children + " children: " + times[0] / children + " ns per create, " + times[1] / (children / 2) + " ns per delete"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	/**
+	 * Creates the given number of children of a folder, deletes every other
+	 * one, and returns the time each took, in nanoseconds.
+	 */
+	static long[] run(int children) {
+		DeltaDataTree tree = new DeltaDataTree();
+		tree.createChild(Path.ROOT, "p", null); //$NON-NLS-1$
+		IPath folder = Path.ROOT.append("p"); //$NON-NLS-1$
+		long start = System.nanoTime();
+		for (int i = 0; i < children; i++)
+			tree.createChild(folder, "f" + i, null); //$NON-NLS-1$
+		long created = System.nanoTime();
+		for (int i = 0; i < children; i += 2)
+			tree.deleteChild(folder, "f" + i); //$NON-NLS-1$
+		long deleted = System.nanoTime();
+		String[] names = tree.getNamesOfChildren(folder);
+		if (names.length != children / 2)
+			System.out.println(names.length + " children left instead of " + children / 2); //$NON-NLS-1$
+		for (int i = 1; i < names.length; i++)
+			if (names[i - 1].compareTo(names[i]) >= 0)
+				System.out.println("Children out of order: " + names[i - 1] + ", " + names[i]); //$NON-NLS-1$ //$NON-NLS-2$
+		return new long[] {created - start, deleted - created};
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import org.eclipse.core.filesystem.*;
+import org.eclipse.core.filesystem.provider.FileInfo;
+import org.eclipse.core.internal.filesystem.local.LocalFile;
+
+/**
+ * Measures the time taken to fetch the information of the children of a
+ * local directory by the local file store, by a listing followed by a
+ * <code>java.io.File</code> request per child as the local file store makes
+ * without its native library, and by the directory stream that
+ * {@link UnifiedTree} uses for local directories when the Java runtime
+ * provides one.  The directory stream is checked to describe the children
+ * like the local file store.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.localstore.ChildInfosBenchmark [entries [runs]]
+ * </pre>
+ */
+public class ChildInfosBenchmark {
+	private static final int[] ATTRIBUTES = {EFS.ATTRIBUTE_READ_ONLY, EFS.ATTRIBUTE_EXECUTABLE, EFS.ATTRIBUTE_SYMLINK};
+
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		File directory = createDirectory(entries);
+		try {
+			IFileStore store = new LocalFile(directory);
+			if (!FilesAccess.isAvailable()) {
+				System.out.println("Directory streams are not available"); //$NON-NLS-1$
+				return;
+			}
+			compare(store.childInfos(EFS.NONE, null), FilesAccess.childInfos(directory));
+			for (int run = 0; run < runs; run++) {
+				long start = System.nanoTime();
+				store.childInfos(EFS.NONE, null);
+				long storeTime = System.nanoTime() - start;
+				start = System.nanoTime();
+				listFiles(directory);
+				long fileTime = System.nanoTime() - start;
+				start = System.nanoTime();
+				FilesAccess.childInfos(directory);
+				long streamTime = System.nanoTime() - start;
+				System.out.println(entries + " entries: file store " + storeTime / 1000000 + "ms, java.io " + fileTime / 1000000 + "ms, directory stream " + streamTime / 1000000 + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Fails if the given listings do not describe the same children alike.
+	 */
+	private static void compare(IFileInfo[] expected, IFileInfo[] actual) {
+		if (expected.length != actual.length)
+			throw new IllegalStateException(actual.length + " children instead of " + expected.length); //$NON-NLS-1$
+		java.util.Arrays.sort(expected);
+		java.util.Arrays.sort(actual);
+		for (int i = 0; i < expected.length; i++) {
+			IFileInfo a = expected[i], b = actual[i];
+			boolean same = a.getName().equals(b.getName()) && a.exists() == b.exists() && a.isDirectory() == b.isDirectory() && a.getLength() == b.getLength() && a.getLastModified() == b.getLastModified();
+			for (int j = 0; j < ATTRIBUTES.length; j++)
+				same &= a.getAttribute(ATTRIBUTES[j]) == b.getAttribute(ATTRIBUTES[j]);
+			String target = a.getStringAttribute(EFS.ATTRIBUTE_LINK_TARGET);
+			same &= target == null ? b.getStringAttribute(EFS.ATTRIBUTE_LINK_TARGET) == null : target.equals(b.getStringAttribute(EFS.ATTRIBUTE_LINK_TARGET));
+			if (!same)
+				throw new IllegalStateException(b + " instead of " + a); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns a new temporary directory with the given number of children:
+	 * mostly files, some of them read-only, and some directories.
+	 */
+	private static File createDirectory(int entries) throws IOException {
+		File directory = File.createTempFile("children", null); //$NON-NLS-1$
+		directory.delete();
+		directory.mkdir();
+		for (int i = 0; i < entries; i++) {
+			File child = new File(directory, "child" + i); //$NON-NLS-1$
+			if (i % 100 == 0) {
+				child.mkdir();
+				continue;
+			}
+			OutputStream out = new FileOutputStream(child);
+			try {
+				out.write(new byte[i % 10]);
+			} finally {
+				out.close();
+			}
+			if (i % 10 == 0)
+				child.setReadOnly();
+		}
+		return directory;
+	}
+
+	/**
+	 * Returns the information of the children of the given directory, read
+	 * the way the local file store reads it without its native library.
+	 */
+	private static IFileInfo[] listFiles(File directory) {
+		String[] names = directory.list();
+		IFileInfo[] infos = new IFileInfo[names.length];
+		for (int i = 0; i < names.length; i++) {
+			File child = new File(directory, names[i]);
+			FileInfo info = new FileInfo(names[i]);
+			long lastModified = child.lastModified();
+			if (lastModified > 0) {
+				info.setExists(true);
+				info.setLastModified(lastModified);
+				info.setLength(child.length());
+				info.setDirectory(child.isDirectory());
+				info.setAttribute(EFS.ATTRIBUTE_READ_ONLY, !child.canWrite());
+				info.setAttribute(EFS.ATTRIBUTE_EXECUTABLE, child.canExecute());
+			}
+			infos[i] = info;
+		}
+		return infos;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (int i = 0; i < children.length; i++)
+				delete(children[i]);
+		file.delete();
+	}
+}
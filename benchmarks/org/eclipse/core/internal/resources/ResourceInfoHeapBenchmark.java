@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+import org.eclipse.core.internal.watson.ElementTree;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Reports the heap taken by the tree of a synthetic workspace with a million
+ * files, with the infos of files and folders kept on the heap and then kept
+ * compact, and the time to read the modification stamp of every file.  The
+ * direct memory taken by the compact infos is reported separately, as it is
+ * not part of the heap.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path, with a heap large enough for both trees:
+ * <pre>
+ * java -Xmx1g org.eclipse.core.internal.resources.ResourceInfoHeapBenchmark [files]
+ * </pre>
+ */
+public class ResourceInfoHeapBenchmark {
+	private static final int PROJECTS = 10;
+	private static final int FILES_PER_FOLDER = 1000;
+
+	public static void main(String[] args) {
+		int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		long empty = usedHeap();
+		ElementTree tree = createWorkspace(files, false);
+		long heap = usedHeap() - empty;
+		long heapRead = readStamps(tree, files);
+		tree = null;
+		empty = usedHeap();
+		tree = createWorkspace(files, true);
+		long compact = usedHeap() - empty;
+		long compactRead = readStamps(tree, files);
+		int infos = files + files / FILES_PER_FOLDER;
+		System.out.println(files + " files, " + infos + " file and folder infos"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.out.println("heap infos: " + heap / (1024 * 1024) + " MB of heap, " + heapRead / files + " ns per stamp read"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		System.out.println("compact infos: " + compact / (1024 * 1024) + " MB of heap, " + (long) infos * CompactResourceInfo.SLOT_SIZE / (1024 * 1024) + " MB of direct memory, " + compactRead / files + " ns per stamp read"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		System.out.println("heap saved per info: " + (heap - compact) / infos + " bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns a tree of projects, folders and files, with the given number
+	 * of files.
+	 */
+	static ElementTree createWorkspace(int files, boolean compact) {
+		ElementTree tree = new ElementTree();
+		long nodeId = 1;
+		int folders = (files + FILES_PER_FOLDER - 1) / FILES_PER_FOLDER;
+		for (int p = 0; p < PROJECTS; p++) {
+			IPath project = Path.ROOT.append("p" + p); //$NON-NLS-1$
+			tree.createElement(project, newInfo(new ProjectInfo(), IResource.PROJECT, nodeId++));
+			for (int f = p; f < folders; f += PROJECTS) {
+				IPath folder = project.append("f" + f); //$NON-NLS-1$
+				tree.createElement(folder, newInfo(compact ? (ResourceInfo) new CompactResourceInfo() : new HeapResourceInfo(), IResource.FOLDER, nodeId++));
+				for (int i = f * FILES_PER_FOLDER; i < Math.min(files, (f + 1) * FILES_PER_FOLDER); i++)
+					tree.createElement(folder.append("file" + i + ".txt"), newInfo(compact ? (ResourceInfo) new CompactResourceInfo() : new HeapResourceInfo(), IResource.FILE, nodeId++)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		tree.immutable();
+		return tree;
+	}
+
+	private static ResourceInfo newInfo(ResourceInfo info, int type, long nodeId) {
+		info.setNodeId(nodeId);
+		info.setType(type);
+		info.set(ICoreConstants.M_LOCAL_EXISTS);
+		info.setLocalSyncInfo(System.currentTimeMillis());
+		return info;
+	}
+
+	/**
+	 * Reads the modification stamp of every file in the given tree, and
+	 * returns the time it took, in nanoseconds.
+	 */
+	static long readStamps(ElementTree tree, int files) {
+		IPath[] projects = tree.getChildren(Path.ROOT);
+		long start = System.nanoTime();
+		long sum = 0;
+		for (int p = 0; p < projects.length; p++) {
+			IPath[] folders = tree.getChildren(projects[p]);
+			for (int f = 0; f < folders.length; f++) {
+				IPath[] children = tree.getChildren(folders[f]);
+				for (int i = 0; i < children.length; i++)
+					sum += ((ResourceInfo) tree.getElementData(children[i])).getModificationStamp();
+			}
+		}
+		long time = System.nanoTime() - start;
+		if (sum == 0)
+			System.out.println("No stamps"); //$NON-NLS-1$
+		return time;
+	}
+
+	/**
+	 * Returns the heap in use once garbage has been collected.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.watson;
+
+import java.util.*;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Measures the time to import an increasing number of files, found in no
+ * particular order as by a refresh, into a single folder of an element tree,
+ * first with <code>createElement</code> for each file and then with
+ * <code>createElements</code> for all of them.  The time per file should stay
+ * about the same for the bulk insert as the number of files grows.  Both
+ * trees are checked to have the same children.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.watson.BulkImportBenchmark [maxFiles]
+ * </pre>
+ */
+public class BulkImportBenchmark {
+	private static final IPath FOLDER = Path.ROOT.append("p").append("folder"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	public static void main(String[] args) {
+		int maxFiles = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		//warm up
+		run(maxFiles / 10);
+		for (int files = maxFiles / 8; files <= maxFiles; files *= 2) {
+			long[] times = run(files);
+			System.out.println(files + " files: " + times[0] / 1000000 + " ms one at a time (" + times[0] / files + " ns per file), " + times[1] / 1000000 + " ms in bulk (" + times[1] / files + " ns per file)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		}
+	}
+
+	/**
+	 * Imports the given number of files one at a time and then in bulk, and
+	 * returns the time each took, in nanoseconds.
+	 */
+	static long[] run(int files) {
+		List list = new ArrayList(files);
+		for (int i = 0; i < files; i++)
+			list.add("file" + i + ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+		Collections.shuffle(list, new Random(files));
+		String[] names = (String[]) list.toArray(new String[files]);
+		Object[] data = new Object[files];
+		for (int i = 0; i < files; i++)
+			data[i] = new Integer(i);
+
+		ElementTree single = createFolder();
+		long start = System.nanoTime();
+		for (int i = 0; i < files; i++)
+			single.createElement(FOLDER.append(names[i]), data[i]);
+		long singleTime = System.nanoTime() - start;
+
+		ElementTree bulk = createFolder();
+		start = System.nanoTime();
+		bulk.createElements(FOLDER, names, data);
+		long bulkTime = System.nanoTime() - start;
+
+		IPath[] singleChildren = single.getChildren(FOLDER);
+		IPath[] bulkChildren = bulk.getChildren(FOLDER);
+		if (!Arrays.equals(singleChildren, bulkChildren))
+			System.out.println("The trees differ for " + files + " files"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < bulkChildren.length; i++)
+			if (!single.getElementData(bulkChildren[i]).equals(bulk.getElementData(bulkChildren[i])))
+				System.out.println("The data of " + bulkChildren[i] + " differs"); //$NON-NLS-1$ //$NON-NLS-2$
+		return new long[] {singleTime, bulkTime};
+	}
+
+	/**
+	 * Returns a new tree holding a project with an empty folder, on top of an
+	 * immutable tree, as the workspace tree is during an operation.
+	 */
+	private static ElementTree createFolder() {
+		ElementTree tree = new ElementTree();
+		tree.createElement(FOLDER.removeLastSegments(1), null);
+		tree.createElement(FOLDER, null);
+		tree.immutable();
+		return tree.newEmptyDelta();
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.watson;
+
+import java.util.Random;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Measures the throughput of threads reading an immutable element tree
+ * through its delta chain, for an increasing number of threads.  The reads
+ * do not synchronize on the tree, so the throughput should grow with the
+ * number of threads, up to the number of processors.
+ * <p>
+ * A second run collapses the layers of the delta chain while the threads
+ * read, and checks every element read against the contents of the tree.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.watson.ElementTreeReadBenchmark [maxThreads [seconds]]
+ * </pre>
+ */
+public class ElementTreeReadBenchmark {
+	private static final int FILES = 200;
+	private static final int LAYERS = 16;
+	private static final int PROJECTS = 50;
+
+	/**
+	 * The trees of the delta chain being read, oldest first.
+	 */
+	volatile ElementTree[] chain;
+	volatile boolean running;
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 2) * 1000L;
+		ElementTreeReadBenchmark benchmark = new ElementTreeReadBenchmark();
+		System.out.println("Reading a delta chain of " + LAYERS / 2 + " layers"); //$NON-NLS-1$ //$NON-NLS-2$
+		long single = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			long reads = benchmark.run(threads, millis, false);
+			if (threads == 1)
+				single = reads;
+			System.out.println(threads + " threads: " + reads * 1000 / millis + " reads/s, speedup " + (single == 0 ? 0 : reads * 100 / single / 100.0)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		System.out.println("Reading while the delta chain is collapsed"); //$NON-NLS-1$
+		long reads = benchmark.run(maxThreads, millis, true);
+		System.out.println(maxThreads + " threads: " + reads * 1000 / millis + " reads/s"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns a new delta chain of <code>LAYERS</code> trees.  The file
+	 * <code>/p&lt;i&gt;/f&lt;j&gt;</code> holds the number of the last layer
+	 * that changed it: layer <code>k</code> changes the files for which
+	 * <code>j % LAYERS == k</code>.
+	 */
+	static ElementTree[] createChain() {
+		ElementTree[] trees = new ElementTree[LAYERS];
+		ElementTree tree = new ElementTree();
+		for (int i = 0; i < PROJECTS; i++) {
+			IPath project = projectPath(i);
+			tree.createElement(project, new Integer(0));
+			for (int j = 0; j < FILES; j++)
+				tree.createElement(project.append("f" + j), new Integer(0)); //$NON-NLS-1$
+		}
+		trees[0] = tree;
+		for (int k = 1; k < LAYERS; k++) {
+			tree = tree.newEmptyDelta();
+			for (int i = 0; i < PROJECTS; i++)
+				for (int j = k; j < FILES; j += LAYERS)
+					tree.setElementData(filePath(i, j), new Integer(k));
+			trees[k] = tree;
+		}
+		//roots the chain at the newest tree, so reading older trees searches the layers
+		tree.immutable();
+		return trees;
+	}
+
+	static IPath filePath(int project, int file) {
+		return projectPath(project).append("f" + file); //$NON-NLS-1$
+	}
+
+	static IPath projectPath(int project) {
+		return Path.ROOT.append("p" + project); //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads the tree in the middle of the delta chain with the given number of
+	 * threads for the given time, and returns the number of reads.  If asked
+	 * to, the layers between the tree and the root of the chain are collapsed
+	 * meanwhile, and the chain is created again once they all are.
+	 */
+	long run(final int threads, long millis, boolean collapse) throws InterruptedException {
+		chain = createChain();
+		running = true;
+		final long[] reads = new long[threads];
+		final int[] errors = new int[1];
+		Thread[] readers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int index = t;
+			readers[t] = new Thread() {
+				public void run() {
+					Random random = new Random(index);
+					long count = 0;
+					while (running) {
+						int read = LAYERS / 2;
+						ElementTree tree = chain[read];
+						int project = random.nextInt(PROJECTS);
+						int file = random.nextInt(FILES);
+						int layer = file % LAYERS;
+						int expected = layer <= read ? layer : 0;
+						try {
+							Object data = tree.getElementData(filePath(project, file));
+							if (!new Integer(expected).equals(data))
+								error(filePath(project, file) + ": " + data + " instead of " + expected); //$NON-NLS-1$ //$NON-NLS-2$
+						} catch (RuntimeException e) {
+							error(filePath(project, file) + ": " + e); //$NON-NLS-1$
+						}
+						count++;
+					}
+					reads[index] = count;
+				}
+
+				private void error(String message) {
+					synchronized (errors) {
+						if (errors[0]++ < 10)
+							System.out.println(message);
+					}
+				}
+			};
+			readers[t].start();
+		}
+		long end = System.currentTimeMillis() + millis;
+		int collapses = 0;
+		while (System.currentTimeMillis() < end) {
+			if (!collapse) {
+				Thread.sleep(end - System.currentTimeMillis());
+				continue;
+			}
+			ElementTree[] trees = chain;
+			ElementTree root = trees[LAYERS - 1];
+			for (int k = LAYERS / 2 + 1; k < LAYERS - 1; k++) {
+				trees[k].collapseTo(root);
+				collapses++;
+			}
+			chain = createChain();
+		}
+		running = false;
+		long total = 0;
+		for (int t = 0; t < threads; t++) {
+			readers[t].join();
+			total += reads[t];
+		}
+		if (collapse)
+			System.out.println(collapses + " collapses, " + errors[0] + " wrong reads"); //$NON-NLS-1$ //$NON-NLS-2$
+		else if (errors[0] > 0)
+			System.out.println(errors[0] + " wrong reads"); //$NON-NLS-1$
+		return total;
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.watson;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Measures the memory allocated and the time taken by a full visit of an
+ * element tree on top of a delta chain, with an <code>ElementTreeIterator</code>
+ * whose visitor asks for the name of each element, then for its path, and
+ * with a walk that gets the children of each element from the tree, for
+ * comparison.  A visit asking only for names should allocate next to nothing
+ * per element, and one asking for paths a single path per element.
+ * <p>
+ * The memory allocated is read from the thread's allocation counter, which
+ * only some VMs provide.  Elsewhere only the time is reported.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.watson.IterationBenchmark [projects]
+ * </pre>
+ */
+public class IterationBenchmark {
+	private static final int FOLDERS = 10;
+	private static final int FILES = 100;
+	private static final int LAYERS = 6;
+
+	private static final int NAMES = 0;
+	private static final int PATHS = 1;
+	private static final int CHILDREN = 2;
+	private static final String[] KINDS = {"iterator, names", "iterator, paths", "getChildren walk"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	static int visited;
+
+	public static void main(String[] args) {
+		int projects = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		ElementTree tree = createTree(projects);
+		int elements = projects * FOLDERS * (FILES + 1) + projects + 1;
+		System.out.println(elements + " elements on " + LAYERS + " delta layers"); //$NON-NLS-1$ //$NON-NLS-2$
+		//warm up
+		for (int i = 0; i < 5; i++)
+			for (int kind = 0; kind < KINDS.length; kind++)
+				visit(tree, kind);
+		boolean measured = allocatedBytes() >= 0;
+		for (int kind = 0; kind < KINDS.length; kind++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			visited = 0;
+			visit(tree, kind);
+			long time = System.nanoTime() - start;
+			allocated = allocatedBytes() - allocated;
+			if (visited != elements)
+				System.out.println(visited + " elements visited instead of " + elements); //$NON-NLS-1$
+			System.out.println(KINDS[kind] + ": " + time / 1000000 + " ms, " + (measured ? allocated / elements + " bytes allocated per element" : "allocation not measured")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+	}
+
+	/**
+	 * Returns a tree of the given number of projects, each with folders of
+	 * files, whose last <code>LAYERS</code> layers each changed some files.
+	 */
+	static ElementTree createTree(int projects) {
+		ElementTree tree = new ElementTree();
+		for (int p = 0; p < projects; p++) {
+			IPath project = Path.ROOT.append("p" + p); //$NON-NLS-1$
+			tree.createElement(project, new Integer(0));
+			for (int f = 0; f < FOLDERS; f++) {
+				IPath folder = project.append("f" + f); //$NON-NLS-1$
+				tree.createElement(folder, new Integer(0));
+				for (int i = 0; i < FILES; i++)
+					tree.createElement(folder.append("file" + i), new Integer(0)); //$NON-NLS-1$
+			}
+		}
+		for (int k = 1; k <= LAYERS; k++) {
+			tree.immutable();
+			tree = tree.newEmptyDelta();
+			for (int p = 0; p < projects; p++)
+				for (int i = k; i < FILES; i += LAYERS + 1)
+					tree.setElementData(Path.ROOT.append("p" + p).append("f" + (i % FOLDERS)).append("file" + i), new Integer(k)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		return tree;
+	}
+
+	static void visit(ElementTree tree, final int kind) {
+		if (kind == CHILDREN) {
+			walk(tree, Path.ROOT);
+			return;
+		}
+		new ElementTreeIterator(tree, Path.ROOT).iterate(new IElementContentVisitor() {
+			public boolean visitElement(ElementTree elementTree, IPathRequestor requestor, Object elementContents) {
+				if (kind == NAMES)
+					requestor.requestName();
+				else if (kind == PATHS)
+					requestor.requestPath();
+				visited++;
+				return true;
+			}
+		});
+	}
+
+	private static void walk(ElementTree tree, IPath path) {
+		tree.getElementData(path);
+		visited++;
+		IPath[] children = tree.getChildren(path);
+		for (int i = 0; i < children.length; i++)
+			walk(tree, children[i]);
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if
+	 * the VM does not count them.
+	 */
+	private static long allocatedBytes() {
+		try {
+			Object bean = ManagementFactory.getThreadMXBean();
+			Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", new Class[] {long.class}); //$NON-NLS-1$ //$NON-NLS-2$
+			return ((Long) method.invoke(bean, new Object[] {new Long(Thread.currentThread().getId())})).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.watson;
+
+import java.util.Random;
+import org.eclipse.core.internal.dtree.DeltaDataTree;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Compares old element trees that keep complete snapshots with trees that
+ * search their delta chain, as chosen by <code>DeltaDataTree.keepSnapshots</code>.
+ * For each, it measures the time to add a layer to the chain with
+ * <code>newEmptyDelta</code>, the time to look up elements in the oldest
+ * tree, the time to collapse the trees between the oldest and the newest
+ * with <code>collapseTo</code>, and the time to look up elements again once
+ * they are collapsed.  It also reports the heap taken by the chain, as the
+ * snapshots keep the nodes that changed since each tree.  Every element
+ * read is checked against the contents of the tree.
+ * <p>
+ * This class is not part of the plug-in.  Run it with the plug-in and its
+ * prerequisites on the class path:
+ * <pre>
+ * java org.eclipse.core.internal.watson.SnapshotBenchmark [layers [lookups]]
+ * </pre>
+ */
+public class SnapshotBenchmark {
+	private static final int FILES = 1000;
+	private static final int PROJECTS = 100;
+
+	public static void main(String[] args) {
+		int layers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		//warm up
+		run(false, layers, lookups / 10, false);
+		run(true, layers, lookups / 10, false);
+		run(false, layers, lookups, true);
+		run(true, layers, lookups, true);
+	}
+
+	/**
+	 * Creates a delta chain of the given number of trees, with or without
+	 * snapshots, looks up elements in its oldest tree, collapses it, and
+	 * prints the time each step took if asked to.
+	 */
+	static void run(boolean snapshots, int layers, int lookups, boolean print) {
+		DeltaDataTree.keepSnapshots = snapshots;
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		ElementTree[] trees = createChain(layers);
+		long created = System.nanoTime();
+		heap = usedHeap() - heap;
+		long lookupTime = lookUp(trees, lookups);
+		long collapseStart = System.nanoTime();
+		ElementTree newest = trees[layers - 1];
+		for (int k = layers - 2; k > 0; k--)
+			trees[k].collapseTo(newest);
+		long collapsed = System.nanoTime();
+		long collapsedLookupTime = lookUp(trees, lookups);
+		if (!print)
+			return;
+		System.out.println((snapshots ? "Snapshots: " : "Delta chains: ") + layers + " layers, " + heap / 1024 + " KB"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		System.out.println("  newEmptyDelta: " + (created - start) / layers / 1000 + " us per layer"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.out.println("  lookup in the oldest tree: " + lookupTime / lookups + " ns"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.out.println("  collapseTo: " + (collapsed - collapseStart) / Math.max(1, layers - 2) / 1000 + " us per tree"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.out.println("  lookup in the oldest tree once collapsed: " + collapsedLookupTime / lookups + " ns"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns a new delta chain of the given number of trees, made immutable
+	 * one after the other, so that the chain is rooted at the newest.  The
+	 * file <code>/p&lt;i&gt;/f&lt;j&gt;</code> holds the number of the last
+	 * layer that changed it: layer <code>k</code> changes the files for which
+	 * <code>j % layers == k</code>.
+	 */
+	static ElementTree[] createChain(int layers) {
+		ElementTree[] trees = new ElementTree[layers];
+		ElementTree tree = new ElementTree();
+		for (int i = 0; i < PROJECTS; i++) {
+			IPath project = Path.ROOT.append("p" + i); //$NON-NLS-1$
+			tree.createElement(project, new Integer(0));
+			for (int j = 0; j < FILES; j++)
+				tree.createElement(project.append("f" + j), new Integer(0)); //$NON-NLS-1$
+		}
+		tree.immutable();
+		trees[0] = tree;
+		for (int k = 1; k < layers; k++) {
+			tree = tree.newEmptyDelta();
+			for (int i = 0; i < PROJECTS; i++)
+				for (int j = k; j < FILES; j += layers)
+					tree.setElementData(filePath(i, j), new Integer(k));
+			tree.immutable();
+			trees[k] = tree;
+		}
+		return trees;
+	}
+
+	static IPath filePath(int project, int file) {
+		return Path.ROOT.append("p" + project).append("f" + file); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Looks up the given number of random files in the oldest tree of the
+	 * given chain, and returns the time it took, in nanoseconds.
+	 */
+	static long lookUp(ElementTree[] trees, int lookups) {
+		Random random = new Random(0);
+		IPath[] paths = new IPath[1024];
+		for (int i = 0; i < paths.length; i++)
+			paths[i] = filePath(random.nextInt(PROJECTS), random.nextInt(FILES));
+		ElementTree oldest = trees[0];
+		Integer expected = new Integer(0);
+		int wrong = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++)
+			if (!expected.equals(oldest.getElementData(paths[i & (paths.length - 1)])))
+				wrong++;
+		long time = System.nanoTime() - start;
+		if (wrong > 0)
+			System.out.println(wrong + " wrong reads"); //$NON-NLS-1$
+		return time;
+	}
+
+	/**
+	 * Returns the heap in use once garbage has been collected.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
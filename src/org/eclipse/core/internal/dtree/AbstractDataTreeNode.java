@@ -25,7 +25,24 @@ public abstract class AbstractDataTreeNode {
 	 * Singleton indicating no children.
 	 */
 	static final AbstractDataTreeNode[] NO_CHILDREN = new AbstractDataTreeNode[0];
+
+	/**
+	 * Child arrays at least this long are assembled with a small number of
+	 * delta nodes by binary search and block copies, rather than by a full merge.
+	 * @see #spliceWith(AbstractDataTreeNode[], AbstractDataTreeNode[], boolean)
+	 */
+	private static final int SPLICE_THRESHOLD = 64;
+	/**
+	 * The children of this node sorted by name, or <code>null</code> if
+	 * this node has many children, which are then held in chunks.
+	 * @see #chunkedChildren
+	 */
 	protected AbstractDataTreeNode children[];
+	/**
+	 * The children of this node if it has many children, otherwise <code>null</code>.
+	 * Adding or deleting a few children of such a node does not copy all its children.
+	 */
+	private ChunkedChildren chunkedChildren;
 	protected String name;
 
 	/* Node types for comparison */
@@ -84,6 +101,12 @@ public abstract class AbstractDataTreeNode {
 		// Can't just return newNodes if oldNodes has length 0
 		// because newNodes may contain deleted nodes.
 
+		// Adding or removing a few children of a very wide node is common
+		// (e.g. when creating files one by one in a large folder), and a full
+		// merge would compare every existing child name each time.
+		if (oldNodes.length >= SPLICE_THRESHOLD && newNodes.length * 16 <= oldNodes.length)
+			return spliceWith(oldNodes, newNodes, keepDeleted);
+
 		AbstractDataTreeNode[] resultNodes = new AbstractDataTreeNode[oldNodes.length + newNodes.length];
 
 		// do a merge
@@ -123,6 +146,78 @@ public abstract class AbstractDataTreeNode {
 		return resultNodes;
 	}
 
+	/**
+	 * Returns the result of assembling a long array of nodes with a much
+	 * shorter array of forward delta nodes.  The result is the same as that
+	 * of <code>assembleWith(AbstractDataTreeNode[], AbstractDataTreeNode[], boolean)</code>,
+	 * but each delta node is located by a binary search, and the unchanged
+	 * nodes between them are block copied into a result array of exactly
+	 * the right size.  The cost is thus dominated by a single array copy
+	 * rather than by one name comparison per node.
+	 */
+	private static AbstractDataTreeNode[] spliceWith(AbstractDataTreeNode[] oldNodes, AbstractDataTreeNode[] newNodes, boolean keepDeleted) {
+		int newLength = newNodes.length;
+		// for each delta node, its index in oldNodes (or -1) and the node to splice in (or null)
+		int[] positions = new int[newLength];
+		AbstractDataTreeNode[] splicedNodes = new AbstractDataTreeNode[newLength];
+		int resultLength = oldNodes.length;
+		int left = 0;
+		for (int i = 0; i < newLength; i++) {
+			AbstractDataTreeNode newNode = newNodes[i];
+			int index = indexOf(oldNodes, left, newNode.name);
+			AbstractDataTreeNode node;
+			if (index >= 0) {
+				node = oldNodes[index].assembleWith(newNode);
+				left = index + 1;
+				resultLength--;
+			} else {
+				node = newNode;
+				left = -index - 1;
+			}
+			if (node != null && (!node.isDeleted() || keepDeleted)) {
+				splicedNodes[i] = node;
+				resultLength++;
+			}
+			positions[i] = index;
+		}
+
+		AbstractDataTreeNode[] resultNodes = new AbstractDataTreeNode[resultLength];
+		int oldIndex = 0;
+		int resultIndex = 0;
+		for (int i = 0; i < newLength; i++) {
+			int index = positions[i];
+			int end = index >= 0 ? index : -index - 1;
+			System.arraycopy(oldNodes, oldIndex, resultNodes, resultIndex, end - oldIndex);
+			resultIndex += end - oldIndex;
+			oldIndex = index >= 0 ? end + 1 : end;
+			if (splicedNodes[i] != null)
+				resultNodes[resultIndex++] = splicedNodes[i];
+		}
+		System.arraycopy(oldNodes, oldIndex, resultNodes, resultIndex, oldNodes.length - oldIndex);
+		return resultNodes;
+	}
+
+	/**
+	 * Returns the index of the node with the given name in the given sorted
+	 * array of nodes, searching from the given index onwards.  If there is no
+	 * such node, returns <code>(-(insertion point) - 1)</code>.
+	 */
+	private static int indexOf(AbstractDataTreeNode[] nodes, int left, String localName) {
+		int right = nodes.length - 1;
+		while (left <= right) {
+			int mid = (left + right) >>> 1;
+			int compare = localName.compareTo(nodes[mid].name);
+			if (compare < 0) {
+				right = mid - 1;
+			} else if (compare > 0) {
+				left = mid + 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(left + 1);
+	}
+
 	/**
 	 * Returns the result of assembling this node with the given forward delta node.
 	 */
@@ -135,26 +230,54 @@ public abstract class AbstractDataTreeNode {
 		}
 
 		// node must be either a DataDeltaNode or a NoDataDeltaNode
+		AbstractDataTreeNode result;
 		if (node.hasData()) {
 			if (this.isDelta()) {
 				// keep deletions because they still need 
 				// to hide child nodes in the parent.
-				AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, true);
-				return new DataDeltaNode(name, node.getData(), assembledChildren);
+				result = new DataDeltaNode(name, node.getData());
+				result.assembleChildren(this, node, true);
+				return result;
 			}
 			// This is a complete picture, so deletions 
 			// wipe out the child and are no longer useful
-			AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, false);
-			return new DataTreeNode(name, node.getData(), assembledChildren);
+			result = new DataTreeNode(name, node.getData());
+			result.assembleChildren(this, node, false);
+			return result;
 		}
 		if (this.isDelta()) {
-			AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, true);
 			if (this.hasData())
-				return new DataDeltaNode(name, this.getData(), assembledChildren);
-			return new NoDataDeltaNode(name, assembledChildren);
+				result = new DataDeltaNode(name, this.getData());
+			else
+				result = new NoDataDeltaNode(name);
+			result.assembleChildren(this, node, true);
+			return result;
+		}
+		result = new DataTreeNode(name, this.getData());
+		result.assembleChildren(this, node, false);
+		return result;
+	}
+
+	/**
+	 * Sets the children of this new node to the result of assembling the
+	 * children of the given old node with those of the given forward delta node.
+	 * Adding or deleting a few children of a node with many children only
+	 * copies the chunks of children that change.
+	 */
+	private void assembleChildren(AbstractDataTreeNode oldNode, AbstractDataTreeNode deltaNode, boolean keepDeleted) {
+		AbstractDataTreeNode[] newNodes = deltaNode.getChildren();
+		ChunkedChildren chunks = oldNode.chunkedChildren;
+		int oldSize = oldNode.size();
+		if (newNodes.length > 0 && oldSize >= ChunkedChildren.MIN_SIZE && newNodes.length * 16 <= oldSize) {
+			if (chunks == null)
+				chunks = ChunkedChildren.of(oldNode.children);
+			setChildren(chunks.assembleWith(newNodes, keepDeleted));
+		} else if (chunks != null && newNodes.length == 0) {
+			chunkedChildren = chunks;
+			children = null;
+		} else {
+			setChildren(assembleWith(oldNode.getChildren(), newNodes, keepDeleted));
 		}
-		AbstractDataTreeNode[] assembledChildren = assembleWith(children, node.children, false);
-		return new DataTreeNode(name, this.getData(), assembledChildren);
 	}
 
 	/**
@@ -172,7 +295,7 @@ public abstract class AbstractDataTreeNode {
 		int childIndex = indexOfChild(key.segment(keyIndex));
 		if (childIndex >= 0) {
 			AbstractDataTreeNode copy = copy();
-			copy.children[childIndex] = children[childIndex].assembleWith(node, key, keyIndex + 1);
+			copy.setChild(childIndex, getChild(childIndex).assembleWith(node, key, keyIndex + 1));
 			return copy;
 		}
 
@@ -205,7 +328,7 @@ public abstract class AbstractDataTreeNode {
 	 */
 	AbstractDataTreeNode childAtOrNull(String localName) {
 		int index = indexOfChild(localName);
-		return index >= 0 ? children[index] : null;
+		return index >= 0 ? getChild(index) : null;
 	}
 
 	/**
@@ -218,14 +341,31 @@ public abstract class AbstractDataTreeNode {
 	 * @param localName name of child to retrieve
 	 */
 	AbstractDataTreeNode childAtIgnoreCase(String localName) {
+		ChunkedChildren chunks = chunkedChildren;
+		if (chunks == null)
+			return childAtIgnoreCase(children, localName, null);
 		AbstractDataTreeNode result = null;
-		for (int i = 0; i < children.length; i++) {
-			if (children[i].getName().equalsIgnoreCase(localName)) {
+		for (int i = 0, imax = chunks.chunkCount(); i < imax; i++) {
+			result = childAtIgnoreCase(chunks.chunk(i), localName, result);
+			if (result != null && !result.isDeleted())
+				return result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the node with the given local name, ignoring case, among the
+	 * given nodes, favouring real nodes over deleted nodes, or the given
+	 * deleted node if there is no real node with that name.
+	 */
+	private static AbstractDataTreeNode childAtIgnoreCase(AbstractDataTreeNode[] nodes, String localName, AbstractDataTreeNode result) {
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].getName().equalsIgnoreCase(localName)) {
 				//if we find a deleted child, keep looking for a real child
-				if (children[i].isDeleted())
-					result = children[i];
+				if (nodes[i].isDeleted())
+					result = nodes[i];
 				else
-					return children[i];
+					return nodes[i];
 			}
 		}
 		return result;
@@ -233,14 +373,18 @@ public abstract class AbstractDataTreeNode {
 
 	/** 
 	 */
-	protected static AbstractDataTreeNode[] compareWith(AbstractDataTreeNode[] oldNodes, AbstractDataTreeNode[] newNodes, IComparator comparator) {
+	protected static AbstractDataTreeNode[] compareWith(AbstractDataTreeNode[] oldNodes, AbstractDataTreeNode[] newNodes, final IComparator comparator) {
 
 		int oldLen = oldNodes.length;
 		int newLen = newNodes.length;
 		int oldIndex = 0;
 		int newIndex = 0;
-		AbstractDataTreeNode[] comparedNodes = new AbstractDataTreeNode[oldLen + newLen];
+		final AbstractDataTreeNode[] comparedNodes = new AbstractDataTreeNode[oldLen + newLen];
 		int count = 0;
+		/* children present in both trees, compared once all children have been matched */
+		final AbstractDataTreeNode[] pairedNodes = new AbstractDataTreeNode[Math.min(oldLen, newLen)];
+		final int[] pairedSlots = new int[pairedNodes.length];
+		int pairCount = 0;
 
 		while (oldIndex < oldLen && newIndex < newLen) {
 			DataTreeNode oldNode = (DataTreeNode) oldNodes[oldIndex];
@@ -261,13 +405,9 @@ public abstract class AbstractDataTreeNode {
 				}
 				++newIndex;
 			} else {
-				AbstractDataTreeNode comparedNode = oldNode.compareWith(newNode, comparator);
-				NodeComparison comparison = (NodeComparison) comparedNode.getData();
-
-				/* skip empty comparisons */
-				if (!(comparison.isUnchanged() && comparedNode.size() == 0)) {
-					comparedNodes[count++] = comparedNode;
-				}
+				pairedNodes[pairCount] = newNode;
+				pairedSlots[pairCount++] = count;
+				comparedNodes[count++] = oldNode;
 				++oldIndex;
 				++newIndex;
 			}
@@ -291,24 +431,59 @@ public abstract class AbstractDataTreeNode {
 			}
 		}
 
+		if (pairCount > 0) {
+			final AbstractDataTreeNode[] paired;
+			if (pairCount < pairedNodes.length) {
+				System.arraycopy(pairedNodes, 0, paired = new AbstractDataTreeNode[pairCount], 0, pairCount);
+			} else {
+				paired = pairedNodes;
+			}
+			ParallelComparison.compare(new ParallelComparison.Comparison() {
+				void compare(int index) {
+					int slot = pairedSlots[index];
+					comparedNodes[slot] = ((DataTreeNode) comparedNodes[slot]).compareWith((DataTreeNode) paired[index], comparator);
+				}
+			}, paired, comparator);
+
+			/* skip empty comparisons */
+			int kept = 0;
+			for (int i = 0, pair = 0; i < count; i++) {
+				AbstractDataTreeNode comparedNode = comparedNodes[i];
+				if (pair < pairCount && pairedSlots[pair] == i) {
+					pair++;
+					NodeComparison comparison = (NodeComparison) comparedNode.getData();
+					if (comparison.isUnchanged() && comparedNode.size() == 0)
+						continue;
+				}
+				comparedNodes[kept++] = comparedNode;
+			}
+			count = kept;
+		}
+
 		if (count == 0) {
 			return NO_CHILDREN;
 		}
-		if (count < comparedNodes.length) {
-			System.arraycopy(comparedNodes, 0, comparedNodes = new AbstractDataTreeNode[count], 0, count);
+		AbstractDataTreeNode[] result = comparedNodes;
+		if (count < result.length) {
+			System.arraycopy(comparedNodes, 0, result = new AbstractDataTreeNode[count], 0, count);
 		}
-		return comparedNodes;
+		return result;
 	}
 
 	/** 
 	 */
-	protected static AbstractDataTreeNode[] compareWithParent(AbstractDataTreeNode[] nodes, IPath key, DeltaDataTree parent, IComparator comparator) {
+	protected static AbstractDataTreeNode[] compareWithParent(final AbstractDataTreeNode[] nodes, final IPath key, final DeltaDataTree parent, final IComparator comparator) {
 
-		AbstractDataTreeNode[] comparedNodes = new AbstractDataTreeNode[nodes.length];
+		final AbstractDataTreeNode[] comparedNodes = new AbstractDataTreeNode[nodes.length];
+		ParallelComparison.compare(new ParallelComparison.Comparison() {
+			void compare(int index) {
+				AbstractDataTreeNode node = nodes[index];
+				comparedNodes[index] = node.compareWithParent(key.append(node.getName()), parent, comparator);
+			}
+		}, nodes, comparator);
 		int count = 0;
-		for (int i = 0; i < nodes.length; ++i) {
-			AbstractDataTreeNode node = nodes[i];
-			AbstractDataTreeNode comparedNode = node.compareWithParent(key.append(node.getName()), parent, comparator);
+		for (int i = 0; i < comparedNodes.length; ++i) {
+			AbstractDataTreeNode comparedNode = comparedNodes[i];
 			NodeComparison comparison = (NodeComparison) comparedNode.getData();
 			// Skip it if it's an empty comparison (and no children).
 			if (!(comparison.isUnchanged() && comparedNode.size() == 0)) {
@@ -318,10 +493,11 @@ public abstract class AbstractDataTreeNode {
 		if (count == 0) {
 			return NO_CHILDREN;
 		}
-		if (count < comparedNodes.length) {
-			System.arraycopy(comparedNodes, 0, comparedNodes = new AbstractDataTreeNode[count], 0, count);
+		AbstractDataTreeNode[] result = comparedNodes;
+		if (count < result.length) {
+			System.arraycopy(comparedNodes, 0, result = new AbstractDataTreeNode[count], 0, count);
 		}
-		return comparedNodes;
+		return result;
 	}
 
 	abstract AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator);
@@ -369,15 +545,44 @@ public abstract class AbstractDataTreeNode {
 	protected void copyChildren(int from, int to, AbstractDataTreeNode otherNode, int start) {
 		int other = start;
 		for (int i = from; i <= to; i++, other++) {
-			this.children[i] = otherNode.children[other];
+			this.children[i] = otherNode.getChild(other);
 		}
 	}
 
 	/**
-	 * Returns an array of the node's children
+	 * Gives this new node the children of the given node.  Chunks of
+	 * children are shared, an array of children is copied.
+	 */
+	void copyChildrenFrom(AbstractDataTreeNode node) {
+		ChunkedChildren chunks = node.chunkedChildren;
+		if (chunks != null) {
+			chunkedChildren = chunks;
+			children = null;
+			return;
+		}
+		AbstractDataTreeNode[] nodes = node.children;
+		if (nodes.length == 0) {
+			children = NO_CHILDREN;
+		} else {
+			System.arraycopy(nodes, 0, children = new AbstractDataTreeNode[nodes.length], 0, nodes.length);
+		}
+	}
+
+	/**
+	 * Returns the child at the given index.
+	 */
+	AbstractDataTreeNode getChild(int index) {
+		ChunkedChildren chunks = chunkedChildren;
+		return chunks == null ? children[index] : chunks.get(index);
+	}
+
+	/**
+	 * Returns an array of the node's children.  If the node has many
+	 * children, they are copied to a new array.
 	 */
 	public AbstractDataTreeNode[] getChildren() {
-		return children;
+		ChunkedChildren chunks = chunkedChildren;
+		return chunks == null ? children : chunks.toArray();
 	}
 
 	/**
@@ -413,6 +618,9 @@ public abstract class AbstractDataTreeNode {
 	 * Returns the index of the specified child's name in the receiver.
 	 */
 	protected int indexOfChild(String localName) {
+		ChunkedChildren chunks = chunkedChildren;
+		if (chunks != null)
+			return chunks.indexOf(localName);
 		AbstractDataTreeNode[] nodes = this.children;
 		int left = 0;
 		int right = nodes.length - 1;
@@ -456,10 +664,11 @@ public abstract class AbstractDataTreeNode {
 	 * Returns the local names of the receiver's children.
 	 */
 	String[] namesOfChildren() {
-		String names[] = new String[children.length];
+		AbstractDataTreeNode[] nodes = getChildren();
+		String names[] = new String[nodes.length];
 		/* copy child names (Reverse loop optimized) */
-		for (int i = children.length; --i >= 0;)
-			names[i] = children[i].getName();
+		for (int i = nodes.length; --i >= 0;)
+			names[i] = nodes[i].getName();
 		return names;
 	}
 
@@ -469,7 +678,7 @@ public abstract class AbstractDataTreeNode {
 	void replaceChild(String localName, DataTreeNode node) {
 		int i = indexOfChild(localName);
 		if (i >= 0) {
-			children[i] = node;
+			setChild(i, node);
 		} else {
 			throw new ObjectNotFoundException(NLS.bind(Messages.dtree_missingChild, localName));
 		}
@@ -480,6 +689,30 @@ public abstract class AbstractDataTreeNode {
 	 */
 	protected void setChildren(AbstractDataTreeNode newChildren[]) {
 		children = newChildren;
+		chunkedChildren = null;
+	}
+
+	/**
+	 * Set the node's children, keeping them in chunks unless there are few of them.
+	 */
+	private void setChildren(ChunkedChildren newChildren) {
+		if (newChildren.size() < ChunkedChildren.MIN_SIZE / 2) {
+			setChildren(newChildren.size() == 0 ? NO_CHILDREN : newChildren.toArray());
+		} else {
+			chunkedChildren = newChildren;
+			children = null;
+		}
+	}
+
+	/**
+	 * Replaces the child at the given index with the given node of the same name.
+	 */
+	void setChild(int index, AbstractDataTreeNode node) {
+		ChunkedChildren chunks = chunkedChildren;
+		if (chunks == null)
+			children[index] = node;
+		else
+			chunkedChildren = chunks.set(index, node);
 	}
 
 	/**
@@ -521,7 +754,8 @@ public abstract class AbstractDataTreeNode {
 	 * Returns the number of children of the receiver
 	 */
 	int size() {
-		return children.length;
+		ChunkedChildren chunks = chunkedChildren;
+		return chunks == null ? children.length : chunks.size();
 	}
 
 	/* (non-Javadoc
@@ -530,7 +764,7 @@ public abstract class AbstractDataTreeNode {
 	public void storeStrings(StringPool set) {
 		name = set.add(name);
 		//copy children pointer in case of concurrent modification
-		AbstractDataTreeNode[] nodes = children;
+		AbstractDataTreeNode[] nodes = getChildren();
 		if (nodes != null)
 			for (int i = nodes.length; --i >= 0;)
 				nodes[i].storeStrings(set);
@@ -541,7 +775,7 @@ public abstract class AbstractDataTreeNode {
 	 * for debugging purposes only (no NLS support needed)
 	 */
 	public String toString() {
-		return "an AbstractDataTreeNode(" + this.getName() + ") with " + getChildren().length + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return "an AbstractDataTreeNode(" + this.getName() + ") with " + size() + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	/**
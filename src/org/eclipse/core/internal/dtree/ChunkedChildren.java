@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+/**
+ * The children of a node with many children, sorted by name.  The children
+ * are split into chunks, each a sorted array, and the chunks are indexed by
+ * their first child.  Like a two level B-tree, a search looks up the chunk
+ * and then the child, and a change copies the chunks it touches and the
+ * index, leaving the others shared.  Adding or deleting a few children thus
+ * costs a number of copies proportional to the square root of the number
+ * of children, rather than to the number of children.
+ * <p>
+ * Instances are immutable, and can be shared by any number of nodes.
+ * @see AbstractDataTreeNode#size()
+ */
+final class ChunkedChildren {
+	/**
+	 * The smallest number of nodes kept in chunks.  Nodes with fewer children
+	 * keep them in a single array.
+	 */
+	static final int MIN_SIZE = 512;
+
+	/**
+	 * The smallest number of children in a chunk, when there are enough.
+	 */
+	private static final int MIN_CHUNK_SIZE = 64;
+
+	/**
+	 * The chunks, in name order.  None is empty.
+	 */
+	private final AbstractDataTreeNode[][] chunks;
+
+	/**
+	 * The index of the first child of each chunk among all the children.
+	 */
+	private final int[] offsets;
+
+	private final int size;
+
+	private ChunkedChildren(AbstractDataTreeNode[][] chunks, int chunkCount) {
+		if (chunkCount < chunks.length)
+			System.arraycopy(chunks, 0, chunks = new AbstractDataTreeNode[chunkCount][], 0, chunkCount);
+		this.chunks = chunks;
+		this.offsets = new int[chunkCount];
+		int total = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			offsets[i] = total;
+			total += chunks[i].length;
+		}
+		this.size = total;
+	}
+
+	/**
+	 * Returns the given sorted nodes split into chunks.
+	 */
+	static ChunkedChildren of(AbstractDataTreeNode[] nodes) {
+		int chunkSize = chunkSizeFor(nodes.length);
+		int chunkCount = (nodes.length + chunkSize - 1) / chunkSize;
+		AbstractDataTreeNode[][] chunks = new AbstractDataTreeNode[chunkCount][];
+		for (int i = 0; i < chunkCount; i++) {
+			int start = i * chunkSize;
+			int length = Math.min(chunkSize, nodes.length - start);
+			System.arraycopy(nodes, start, chunks[i] = new AbstractDataTreeNode[length], 0, length);
+		}
+		return new ChunkedChildren(chunks, chunkCount);
+	}
+
+	/**
+	 * Returns the number of children per chunk for the given number of
+	 * children, so that there are about as many chunks as children per chunk.
+	 */
+	private static int chunkSizeFor(int size) {
+		return Math.max(MIN_CHUNK_SIZE, (int) Math.sqrt(size));
+	}
+
+	/**
+	 * Returns the result of assembling these children with the given forward
+	 * delta nodes, which must be sorted by name.  The result is the same as
+	 * that of <code>AbstractDataTreeNode.assembleWith(AbstractDataTreeNode[], AbstractDataTreeNode[], boolean)</code>
+	 * on the children as a single array.  Each delta node goes to the chunk
+	 * in which it sorts, and only the chunks that receive delta nodes are
+	 * assembled again.  Chunks that become empty are dropped, and chunks that
+	 * grow too large are split.
+	 */
+	ChunkedChildren assembleWith(AbstractDataTreeNode[] newNodes, boolean keepDeleted) {
+		int chunkSize = chunkSizeFor(size + newNodes.length);
+		int chunkCount = chunks.length;
+		AbstractDataTreeNode[][] result = new AbstractDataTreeNode[chunkCount + newNodes.length][];
+		int resultCount = 0;
+		// the chunks before this index have been copied to the result
+		int copied = 0;
+		int newIndex = 0;
+		while (newIndex < newNodes.length) {
+			int i = chunkFor(newNodes[newIndex].name);
+			System.arraycopy(chunks, copied, result, resultCount, i - copied);
+			resultCount += i - copied;
+			copied = i + 1;
+			// the delta nodes sorting before the next chunk belong to this one
+			int end = newNodes.length;
+			if (copied < chunkCount) {
+				String next = chunks[copied][0].name;
+				end = newIndex + 1;
+				while (end < newNodes.length && newNodes[end].name.compareTo(next) < 0)
+					end++;
+			}
+			AbstractDataTreeNode[] group = new AbstractDataTreeNode[end - newIndex];
+			System.arraycopy(newNodes, newIndex, group, 0, group.length);
+			newIndex = end;
+			AbstractDataTreeNode[] chunk = AbstractDataTreeNode.assembleWith(chunks[i], group, keepDeleted);
+			if (chunk.length > 2 * chunkSize) {
+				int pieces = (chunk.length + chunkSize - 1) / chunkSize;
+				int needed = resultCount + pieces + chunkCount - copied + newNodes.length - newIndex;
+				if (needed > result.length)
+					System.arraycopy(result, 0, result = new AbstractDataTreeNode[needed][], 0, resultCount);
+				for (int start = 0; start < chunk.length; start += chunkSize) {
+					int length = Math.min(chunkSize, chunk.length - start);
+					System.arraycopy(chunk, start, result[resultCount++] = new AbstractDataTreeNode[length], 0, length);
+				}
+			} else if (chunk.length > 0) {
+				result[resultCount++] = chunk;
+			}
+		}
+		System.arraycopy(chunks, copied, result, resultCount, chunkCount - copied);
+		resultCount += chunkCount - copied;
+		return new ChunkedChildren(result, resultCount);
+	}
+
+	/**
+	 * Returns the chunk at the given index.  The chunk must not be modified.
+	 */
+	AbstractDataTreeNode[] chunk(int index) {
+		return chunks[index];
+	}
+
+	/**
+	 * Returns the number of chunks.
+	 */
+	int chunkCount() {
+		return chunks.length;
+	}
+
+	/**
+	 * Returns the child at the given index among all the children.
+	 */
+	AbstractDataTreeNode get(int index) {
+		int chunk = chunkAt(index);
+		return chunks[chunk][index - offsets[chunk]];
+	}
+
+	/**
+	 * Returns the index of the chunk holding the child at the given index.
+	 */
+	private int chunkAt(int index) {
+		int left = 0;
+		int right = offsets.length - 1;
+		while (left < right) {
+			int mid = (left + right + 1) >>> 1;
+			if (offsets[mid] <= index)
+				left = mid;
+			else
+				right = mid - 1;
+		}
+		return left;
+	}
+
+	/**
+	 * Returns the index of the chunk in which a child with the given name
+	 * sorts: the last chunk whose first child does not sort after the name,
+	 * or the first chunk.
+	 */
+	private int chunkFor(String localName) {
+		int left = 0;
+		int right = chunks.length - 1;
+		while (left < right) {
+			int mid = (left + right + 1) >>> 1;
+			if (chunks[mid][0].name.compareTo(localName) <= 0)
+				left = mid;
+			else
+				right = mid - 1;
+		}
+		return left;
+	}
+
+	/**
+	 * Returns the index of the child with the given name among all the
+	 * children, or -1 if there is no such child.
+	 */
+	int indexOf(String localName) {
+		if (chunks.length == 0)
+			return -1;
+		int chunkIndex = chunkFor(localName);
+		AbstractDataTreeNode[] chunk = chunks[chunkIndex];
+		int low = 0;
+		int high = chunk.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int compare = localName.compareTo(chunk[mid].name);
+			if (compare < 0) {
+				high = mid - 1;
+			} else if (compare > 0) {
+				low = mid + 1;
+			} else {
+				return offsets[chunkIndex] + mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns children that are the same as these, except for the child at
+	 * the given index, which is replaced with the given node of the same name.
+	 */
+	ChunkedChildren set(int index, AbstractDataTreeNode node) {
+		int chunk = chunkAt(index);
+		AbstractDataTreeNode[][] newChunks = new AbstractDataTreeNode[chunks.length][];
+		System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+		AbstractDataTreeNode[] newChunk = new AbstractDataTreeNode[chunks[chunk].length];
+		System.arraycopy(chunks[chunk], 0, newChunk, 0, newChunk.length);
+		newChunk[index - offsets[chunk]] = node;
+		newChunks[chunk] = newChunk;
+		return new ChunkedChildren(newChunks, newChunks.length);
+	}
+
+	/**
+	 * Returns the number of children.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns all the children in a new array, sorted by name.
+	 */
+	AbstractDataTreeNode[] toArray() {
+		AbstractDataTreeNode[] nodes = new AbstractDataTreeNode[size];
+		for (int i = 0; i < chunks.length; i++)
+			System.arraycopy(chunks[i], 0, nodes, offsets[i], chunks[i].length);
+		return nodes;
+	}
+}
@@ -38,6 +38,7 @@ public class DataDeltaNode extends DataTreeNode {
 	 * @see AbstractDataTreeNode#asBackwardDelta(DeltaDataTree, DeltaDataTree, IPath)
 	 */
 	AbstractDataTreeNode asBackwardDelta(DeltaDataTree myTree, DeltaDataTree parentTree, IPath key) {
+		AbstractDataTreeNode[] children = getChildren();
 		AbstractDataTreeNode[] newChildren;
 		if (children.length == 0) {
 			newChildren = NO_CHILDREN;
@@ -51,7 +52,7 @@ public class DataDeltaNode extends DataTreeNode {
 	}
 
 	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWithParent(children, key, parent, comparator);
+		AbstractDataTreeNode[] comparedChildren = compareWithParent(getChildren(), key, parent, comparator);
 		Object oldData = parent.getData(key);
 		Object newData = data;
 		/* don't compare data of root */
@@ -68,14 +69,9 @@ public class DataDeltaNode extends DataTreeNode {
 	 * children, but a shallow copy of name and data.
 	 */
 	AbstractDataTreeNode copy() {
-		AbstractDataTreeNode[] childrenCopy;
-		if (children.length == 0) {
-			childrenCopy = NO_CHILDREN;
-		} else {
-			childrenCopy = new AbstractDataTreeNode[children.length];
-			System.arraycopy(children, 0, childrenCopy, 0, children.length);
-		}
-		return new DataDeltaNode(name, data, childrenCopy);
+		DataDeltaNode copy = new DataDeltaNode(name, data);
+		copy.copyChildrenFrom(this);
+		return copy;
 	}
 
 	/**
@@ -90,7 +86,7 @@ public class DataDeltaNode extends DataTreeNode {
 	 * Simplifies the given node, and answers its replacement.
 	 */
 	AbstractDataTreeNode simplifyWithParent(IPath key, DeltaDataTree parent, IComparator comparer) {
-		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(children, key, parent, comparer);
+		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(getChildren(), key, parent, comparer);
 		/* don't compare root nodes */
 		if (!key.isRoot() && comparer.compare(parent.getData(key), data) == 0) 
 			return new NoDataDeltaNode(name, simplifiedChildren);
@@ -102,7 +98,7 @@ public class DataDeltaNode extends DataTreeNode {
 	 * for debugging purposes only (no NLS support needed)
 	 */
 	public String toString() {
-		return "a DataDeltaNode(" + this.getName() + ") with " + getChildren().length + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return "a DataDeltaNode(" + this.getName() + ") with " + size() + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	/**
@@ -13,36 +13,24 @@ package org.eclipse.core.internal.dtree;
 import org.eclipse.core.runtime.IPath;
 
 /**
- * The result of doing a lookup() in a data tree.  Uses an instance
- * pool that assumes no more than POOL_SIZE instance will ever be
- * needed concurrently.  Reclaims and reuses instances on an LRU basis.
+ * The result of doing a lookup() in a data tree.  A new instance is
+ * returned for each lookup, so that results can be retained and shared
+ * between threads without risk of being overwritten by a later lookup.
+ * Callers that do not retain results can instead supply their own
+ * instance to be filled in, avoiding the allocation.
  */
 public class DataTreeLookup {
 	public IPath key;
 	public boolean isPresent;
 	public Object data;
 	public boolean foundInFirstDelta;
-	private static final int POOL_SIZE = 100;
-	/**
-	 * The array of lookup instances available for use.
-	 */
-	private static DataTreeLookup[] instancePool;
-	/**
-	 * The index of the next available lookup instance.
-	 */
-	private static int nextFree = 0;
-	static {
-		instancePool = new DataTreeLookup[POOL_SIZE];
-		//fill the pool with objects
-		for (int i = 0; i < POOL_SIZE; i++) {
-			instancePool[i] = new DataTreeLookup();
-		}
-	}
 
 	/**
-	 * Constructors for internal use only.  Use factory methods.
+	 * Creates an empty lookup object, which can be filled in by
+	 * <code>DeltaDataTree.lookup(IPath, DataTreeLookup)</code> and reused
+	 * for subsequent lookups by the same thread.
 	 */
-	private DataTreeLookup() {
+	public DataTreeLookup() {
 		super();
 	}
 
@@ -50,15 +38,8 @@ public class DataTreeLookup {
 	 * Factory method for creating a new lookup object.
 	 */
 	public static DataTreeLookup newLookup(IPath nodeKey, boolean isPresent, Object data) {
-		DataTreeLookup instance;
-		synchronized (instancePool) {
-			instance = instancePool[nextFree];
-			nextFree = ++nextFree % POOL_SIZE;
-		}
-		instance.key = nodeKey;
-		instance.isPresent = isPresent;
-		instance.data = data;
-		instance.foundInFirstDelta = false;
+		DataTreeLookup instance = new DataTreeLookup();
+		instance.set(nodeKey, isPresent, data, false);
 		return instance;
 	}
 
@@ -66,15 +47,18 @@ public class DataTreeLookup {
 	 * Factory method for creating a new lookup object.
 	 */
 	public static DataTreeLookup newLookup(IPath nodeKey, boolean isPresent, Object data, boolean foundInFirstDelta) {
-		DataTreeLookup instance;
-		synchronized (instancePool) {
-			instance = instancePool[nextFree];
-			nextFree = ++nextFree % POOL_SIZE;
-		}
-		instance.key = nodeKey;
-		instance.isPresent = isPresent;
-		instance.data = data;
-		instance.foundInFirstDelta = foundInFirstDelta;
+		DataTreeLookup instance = new DataTreeLookup();
+		instance.set(nodeKey, isPresent, data, foundInFirstDelta);
 		return instance;
 	}
+
+	/**
+	 * Sets the result of a lookup.
+	 */
+	void set(IPath nodeKey, boolean isPresent, Object data, boolean foundInFirstDelta) {
+		this.key = nodeKey;
+		this.isPresent = isPresent;
+		this.data = data;
+		this.foundInFirstDelta = foundInFirstDelta;
+	}
 }
@@ -67,6 +67,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 			Assert.isTrue(false, Messages.dtree_reverse);
 		}
 
+		AbstractDataTreeNode[] children = getChildren();
 		int nextChild = 0;
 		for (int i = 0; i < children.length; i++) {
 			AbstractDataTreeNode child = children[i].asReverseComparisonNode(comparator);
@@ -89,12 +90,13 @@ public class DataTreeNode extends AbstractDataTreeNode {
 			System.arraycopy(children, 0, newChildren, 0, nextChild);
 			children = newChildren;
 		}
+		setChildren(children);
 
 		return this;
 	}
 
 	AbstractDataTreeNode compareWith(DataTreeNode other, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWith(children, other.children, comparator);
+		AbstractDataTreeNode[] comparedChildren = compareWith(getChildren(), other.getChildren(), comparator);
 		Object oldData = data;
 		Object newData = other.data;
 
@@ -118,12 +120,9 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 * Creates and returns a new copy of the receiver.
 	 */
 	AbstractDataTreeNode copy() {
-		if (children.length > 0) {
-			AbstractDataTreeNode[] childrenCopy = new AbstractDataTreeNode[children.length];
-			System.arraycopy(children, 0, childrenCopy, 0, children.length);
-			return new DataTreeNode(name, data, childrenCopy);
-		}
-		return new DataTreeNode(name, data, children);
+		DataTreeNode copy = new DataTreeNode(name, data);
+		copy.copyChildrenFrom(this);
+		return copy;
 	}
 
 	/**
@@ -137,7 +136,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 */
 	DataTreeNode copyWithNewChild(String localName, DataTreeNode childNode) {
 
-		AbstractDataTreeNode[] children = this.children;
+		AbstractDataTreeNode[] children = getChildren();
 		int left = 0;
 		int right = children.length - 1;
 		while (left <= right) {
@@ -177,11 +176,12 @@ public class DataTreeNode extends AbstractDataTreeNode {
 		if (index == -1) {
 			newNode = (DataTreeNode) this.copy();
 		} else {
-			newSize = this.size() - 1;
+			AbstractDataTreeNode[] oldChildren = getChildren();
+			newSize = oldChildren.length - 1;
 			children = new AbstractDataTreeNode[newSize];
 			newNode = new DataTreeNode(this.getName(), this.getData(), children);
-			newNode.copyChildren(0, index - 1, this, 0); //#from:to:with:startingAt:
-			newNode.copyChildren(index, newSize - 1, this, index + 1);
+			System.arraycopy(oldChildren, 0, children, 0, index);
+			System.arraycopy(oldChildren, index + 1, children, index, newSize - index);
 		}
 		return newNode;
 	}
@@ -284,7 +284,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 * Although typed as abstract nodes, the given nodes must be complete.
 	 */
 	protected static AbstractDataTreeNode forwardDeltaWithOrNullIfEqual(AbstractDataTreeNode oldNode, AbstractDataTreeNode newNode, IComparator comparer) {
-		AbstractDataTreeNode[] childDeltas = forwardDeltaWith(oldNode.children, newNode.children, comparer);
+		AbstractDataTreeNode[] childDeltas = forwardDeltaWith(oldNode.getChildren(), newNode.getChildren(), comparer);
 		Object newData = newNode.getData();
 		if (comparer.compare(oldNode.getData(), newData) == 0) {
 			if (childDeltas.length == 0) {
@@ -347,7 +347,7 @@ public class DataTreeNode extends AbstractDataTreeNode {
 	 * for debugging purposes only (no NLS support needed)
 	 */
 	public String toString() {
-		return "a DataTreeNode(" + this.getName() + ") with " + getChildren().length + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return "a DataTreeNode(" + this.getName() + ") with " + size() + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	/**
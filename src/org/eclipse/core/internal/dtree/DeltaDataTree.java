@@ -10,6 +10,9 @@
  *******************************************************************************/
 package org.eclipse.core.internal.dtree;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.internal.utils.StringPool;
 import org.eclipse.core.runtime.*;
@@ -36,8 +39,69 @@ import org.eclipse.core.runtime.*;
  */
 
 public class DeltaDataTree extends AbstractDataTree {
-	private AbstractDataTreeNode rootNode;
-	private DeltaDataTree parent;
+	/**
+	 * The root node of a tree, together with the parent it is a delta against,
+	 * or <code>null</code> if the root node is complete.
+	 */
+	private static final class Layer {
+		final DeltaDataTree parent;
+		final AbstractDataTreeNode rootNode;
+
+		Layer(AbstractDataTreeNode rootNode, DeltaDataTree parent) {
+			this.rootNode = rootNode;
+			this.parent = parent;
+		}
+	}
+
+	/**
+	 * The representation of this tree.  The root node and parent of an
+	 * immutable tree can still be replaced when the delta chain it belongs to
+	 * is rerooted or collapsed, and are therefore replaced at once.  Each
+	 * representation has the contents of the tree, so searches of the chain
+	 * that do not hold a lock find these contents whichever representation
+	 * of each layer they read, as long as they read it once.
+	 */
+	private volatile Layer layer;
+
+	/**
+	 * Whether lookups record the number of layers of the delta chain they
+	 * search.  Off by default, since every lookup then writes to counters
+	 * shared by all trees.  Only one lookup in <code>LOOKUP_SAMPLE_MASK + 1</code>
+	 * is recorded.  The counters are not synchronized, and are striped by
+	 * thread, so that lookups on different threads seldom write to the same
+	 * counters.  Lookups recorded at the same time on threads sharing a stripe
+	 * may be lost, which does not matter for an average.
+	 * @see #setCollectLookupStatistics(boolean)
+	 */
+	private static volatile boolean collectLookupStatistics = false;
+	private static final int LOOKUP_SAMPLE_MASK = 63;
+	private static final int LOOKUP_STRIPES = 16;
+	/**
+	 * The space between the counters of two stripes, so that they are on
+	 * different cache lines.
+	 */
+	private static final int LOOKUP_STRIPE_SPACING = 16;
+	/**
+	 * The counters of each stripe: the number of lookups, the number of
+	 * lookups recorded, and the number of layers they searched.
+	 */
+	private static final long[] lookupCounters = new long[LOOKUP_STRIPES * LOOKUP_STRIPE_SPACING];
+
+	/**
+	 * Whether a tree that stops being complete when its delta chain is rerooted
+	 * keeps its complete root node as a snapshot for searches.  Complete root
+	 * nodes of successive trees share every subtree that did not change between
+	 * them, so a snapshot only costs the nodes on paths that changed, and lets
+	 * searches of old trees visit a single layer instead of the delta chain.
+	 * Off by default.
+	 */
+	public static boolean keepSnapshots = false;
+
+	/**
+	 * A complete tree with the same contents as this tree, or <code>null</code>.
+	 * Only immutable trees have snapshots.
+	 */
+	private volatile DeltaDataTree snapshot;
 
 	/**
 	 * Creates a new empty tree.
@@ -52,13 +116,11 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	root node of new tree.
 	 */
 	public DeltaDataTree(AbstractDataTreeNode rootNode) {
-		this.rootNode = rootNode;
-		this.parent = null;
+		this.layer = new Layer(rootNode, null);
 	}
 
 	protected DeltaDataTree(AbstractDataTreeNode rootNode, DeltaDataTree parent) {
-		this.rootNode = rootNode;
-		this.parent = parent;
+		this.layer = new Layer(rootNode, parent);
 	}
 
 	/**
@@ -96,6 +158,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * as opposed to making a copy.
 	 */
 	public DeltaDataTree asReverseComparisonTree(IComparator comparator) {
+		AbstractDataTreeNode rootNode = getRootNode();
 		/* don't reverse the root node if it's the absolute root (name==null) */
 		if (rootNode.getName() == null) {
 			AbstractDataTreeNode[] children = rootNode.getChildren();
@@ -127,7 +190,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @param deltaNode delta node to use to assemble the new node.
 	 */
 	protected void assembleNode(IPath key, AbstractDataTreeNode deltaNode) {
-		rootNode = rootNode.assembleWith(deltaNode, key, 0);
+		setRootNode(getRootNode().assembleWith(deltaNode, key, 0));
 	}
 
 	/**
@@ -153,6 +216,47 @@ public class DeltaDataTree extends AbstractDataTree {
 		return new DeltaDataTree(getRootNode().assembleWith(deltaTree.getRootNode()), this);
 	}
 
+	/**
+	 * Returns a complete node containing the contents of the subtree rooted
+	 * at <code>key</code> in the receiver, or <code>null</code> if the key is
+	 * not present.  The node is assembled from the nodes at the key in each
+	 * layer of the delta chain, so unchanged descendants are shared with the
+	 * receiver rather than copied one path at a time.  Nodes are never
+	 * modified once they belong to a layer, and the result is a new node, so
+	 * the caller may rename it.
+	 *
+	 * @param key
+	 *	key of subtree whose contents we want to copy.
+	 */
+	protected AbstractDataTreeNode assembleCompleteSubtree(IPath key) {
+		int keyLength = key.segmentCount();
+		AbstractDataTreeNode assembled = null;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
+			boolean complete = !node.isDelta();
+			for (int i = 0; i < keyLength; i++) {
+				node = node.childAtOrNull(key.segment(i));
+				if (node == null) {
+					break;
+				}
+				complete |= !node.isDelta();
+			}
+			if (node != null) {
+				if (node.isDeleted())
+					break;
+				assembled = assembled == null ? node : node.assembleWith(assembled);
+				if (!assembled.isDelta())
+					return assembled.copy();
+			} else if (complete) {
+				// Not found, but complete node encountered, so should not check parent tree.
+				break;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Compares this tree with another tree, starting from the given path.  The
 	 * given path will be the root node of the returned tree.  Both this
@@ -220,9 +324,8 @@ public class DeltaDataTree extends AbstractDataTree {
 		//c will have the same content as this tree, but its parent will be "parent".
 		DeltaDataTree c = collapseTo.forwardDeltaWith(this, comparator);
 
-		//update my internal root node and parent pointers.
-		this.parent = collapseTo;
-		this.rootNode = c.rootNode;
+		//update my internal root node and parent pointers at once.
+		this.layer = new Layer(c.getRootNode(), collapseTo);
 		return this;
 	}
 
@@ -293,7 +396,8 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * Returns a copy of the tree which shares its instance variables.
 	 */
 	protected AbstractDataTree copy() {
-		return new DeltaDataTree(rootNode, parent);
+		Layer current = layer;
+		return new DeltaDataTree(current.rootNode, current.parent);
 	}
 
 	/**
@@ -309,7 +413,7 @@ public class DeltaDataTree extends AbstractDataTree {
 			return null;
 		}
 		if (node.isDelta())
-			return naiveCopyCompleteSubtree(key);
+			return assembleCompleteSubtree(key);
 		//copy the node in case the user wants to hammer the subtree name
 		return node.copy();
 	}
@@ -330,6 +434,46 @@ public class DeltaDataTree extends AbstractDataTree {
 		addChild(parentKey, localName, new DataTreeNode(localName, data));
 	}
 
+	/**
+	 * Creates new children of the given parent in a single step.  The
+	 * result is the same as that of calling <code>createChild</code> for
+	 * each name in turn, but the children of the parent are merged with
+	 * the new children once, rather than copied for each new child.
+	 *
+	 * @param parentKey key of parent for new children.
+	 * @param localNames distinct names for the new children.
+	 * @param data the data for the new children, in the same order as the names.
+	 * @exception ObjectNotFoundException
+	 *	parentKey does not exist in the receiver
+	 * @exception RuntimeException
+	 *	receiver is immutable
+	 */
+	public void createChildren(IPath parentKey, String[] localNames, Object[] data) {
+		if (isImmutable())
+			handleImmutableTree();
+		if (!includes(parentKey))
+			handleNotFound(parentKey);
+		int count = localNames.length;
+		if (count == 0)
+			return;
+		AbstractDataTreeNode[] children = new AbstractDataTreeNode[count];
+		boolean sorted = true;
+		for (int i = 0; i < count; i++) {
+			children[i] = new DataTreeNode(localNames[i], data[i]);
+			if (i > 0 && localNames[i - 1].compareTo(localNames[i]) > 0)
+				sorted = false;
+		}
+		//the children of a node are kept in name order
+		if (!sorted) {
+			Arrays.sort(children, new Comparator<AbstractDataTreeNode>() {
+				public int compare(AbstractDataTreeNode node1, AbstractDataTreeNode node2) {
+					return node1.getName().compareTo(node2.getName());
+				}
+			});
+		}
+		this.assembleNode(parentKey, new NoDataDeltaNode(parentKey.lastSegment(), children));
+	}
+
 	/**
 	 * Returns a delta data tree that represents an empty delta.
 	 * (i.e. it represents a delta on another (unspecified) tree, 
@@ -357,8 +501,7 @@ public class DeltaDataTree extends AbstractDataTree {
 		if (isImmutable())
 			handleImmutableTree();
 		if (key.isRoot()) {
-			setParent(null);
-			setRootNode(node);
+			layer = new Layer(node, null);
 		} else {
 			addChild(key.removeLastSegments(1), key.lastSegment(), node);
 		}
@@ -382,8 +525,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @see AbstractDataTree#empty()
 	 */
 	public void empty() {
-		rootNode = new DataTreeNode(null, null);
-		parent = null;
+		layer = new Layer(new DataTreeNode(null, null), null);
 	}
 
 	/**
@@ -392,7 +534,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * it introduces no changes).  The parent is left unchanged.
 	 */
 	void emptyDelta() {
-		rootNode = new NoDataDeltaNode(null);
+		setRootNode(new NoDataDeltaNode(null));
 	}
 
 	/**
@@ -402,7 +544,7 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	key of node to find
 	 */
 	public AbstractDataTreeNode findNodeAt(IPath key) {
-		AbstractDataTreeNode node = rootNode;
+		AbstractDataTreeNode node = getRootNode();
 		int segmentCount = key.segmentCount();
 		for (int i = 0; i < segmentCount; i++) {
 			node = node.childAtOrNull(key.segment(i));
@@ -462,6 +604,20 @@ public class DeltaDataTree extends AbstractDataTree {
 		return newTree;
 	}
 
+	/**
+	 * Returns the average number of delta chain layers searched per lookup
+	 * since statistics were last reset, or zero if no lookups were recorded.
+	 * @see #setCollectLookupStatistics(boolean)
+	 */
+	public static double getAverageLookupDepth() {
+		long count = 0, layers = 0;
+		for (int i = 0; i < lookupCounters.length; i += LOOKUP_STRIPE_SPACING) {
+			count += lookupCounters[i + 1];
+			layers += lookupCounters[i + 2];
+		}
+		return count == 0 ? 0 : (double) layers / count;
+	}
+
 	/**
 	 * @see AbstractDataTree#getChildCount(IPath)
 	 */
@@ -484,8 +640,10 @@ public class DeltaDataTree extends AbstractDataTree {
 
 		AbstractDataTreeNode[] childNodes = null;
 		int keyLength = parentKey.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(parentKey.segment(i));
@@ -501,11 +659,11 @@ public class DeltaDataTree extends AbstractDataTree {
 					break;
 				}
 				if (childNodes == null) {
-					childNodes = node.children;
+					childNodes = node.getChildren();
 				} else {
 					// Be sure to assemble(old, new) rather than (new, old).
 					// Keep deleted nodes if we haven't encountered the complete node yet.
-					childNodes = AbstractDataTreeNode.assembleWith(node.children, childNodes, !complete);
+					childNodes = AbstractDataTreeNode.assembleWith(node.getChildren(), childNodes, !complete);
 				}
 			}
 			if (complete) {
@@ -558,8 +716,10 @@ public class DeltaDataTree extends AbstractDataTree {
 		 */
 
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -612,14 +772,14 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * Returns the parent of the tree.
 	 */
 	public DeltaDataTree getParent() {
-		return parent;
+		return layer.parent;
 	}
 
 	/**
 	 * Returns the root node of the tree.
 	 */
 	protected AbstractDataTreeNode getRootNode() {
-		return rootNode;
+		return layer.rootNode;
 	}
 
 	/**
@@ -646,7 +806,55 @@ public class DeltaDataTree extends AbstractDataTree {
 	}
 	
 	public boolean isEmptyDelta() {
-		return rootNode.getChildren().length == 0;
+		return getRootNode().size() == 0;
+	}
+
+	/**
+	 * Returns a tree with the content of this tree, except below the given
+	 * children of the root node, which have the content they have in the
+	 * corresponding given trees.  This joins a tree written down to the
+	 * children of the root with the trees written for the subtree of each
+	 * child.
+	 * <p>
+	 * If the given parent is null, the result is a complete tree.  Otherwise
+	 * it is a delta on the parent, this tree must be a delta on a tree with
+	 * the same content as the parent, and each of the given trees is taken as
+	 * a change from the corresponding given parent subtree.  The result is
+	 * not immutable.
+	 * </p>
+	 * @param parent the parent of the result, or <code>null</code>
+	 * @param names the names of children of the root, in sorted order
+	 * @param subtrees the tree holding the subtree of each named child
+	 * @param subtreeParents the tree holding the subtree of each named child
+	 *     in the parent, or <code>null</code> if the parent is null
+	 */
+	public DeltaDataTree joinSubtrees(DeltaDataTree parent, String[] names, DeltaDataTree[] subtrees, DeltaDataTree[] subtreeParents) {
+		AbstractDataTreeNode[] nodes = new AbstractDataTreeNode[names.length];
+		int count = 0;
+		for (int i = 0; i < names.length; i++) {
+			AbstractDataTreeNode node;
+			if (parent == null) {
+				node = subtrees[i].safeCopyCompleteSubtree(rootKey().append(names[i]));
+			} else if (subtrees[i] == subtreeParents[i]) {
+				node = null;
+			} else if (subtrees[i].getParent() == subtreeParents[i]) {
+				node = subtrees[i].getRootNode().childAtOrNull(names[i]);
+			} else {
+				// the subtree chain was written in another order; any delta will do
+				IComparator identity = new IComparator() {
+					public int compare(Object o1, Object o2) {
+						return o1 == o2 ? 0 : NodeComparison.K_CHANGED;
+					}
+				};
+				node = subtreeParents[i].forwardDeltaWith(subtrees[i], identity).getRootNode().childAtOrNull(names[i]);
+			}
+			if (node != null)
+				nodes[count++] = node;
+		}
+		if (count < nodes.length)
+			System.arraycopy(nodes, 0, nodes = new AbstractDataTreeNode[count], 0, count);
+		AbstractDataTreeNode root = getRootNode().assembleWith(new NoDataDeltaNode(getRootNode().getName(), nodes));
+		return new DeltaDataTree(root, parent);
 	}
 
 	/**
@@ -658,9 +866,32 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @param key  key of node for which we want to retrieve data.
 	 */
 	public DataTreeLookup lookup(IPath key) {
+		DataTreeLookup result = new DataTreeLookup();
+		lookup(key, result);
+		return result;
+	}
+
+	/**
+	 * Stores in the given lookup object:
+	 *  - the node key
+	 * 	- a flag indicating whether the specified node was found
+	 *  - the data for the node, if it was found
+	 * 
+	 * Unlike <code>lookup(IPath)</code>, this method neither allocates nor
+	 * locks.  Callers that perform many lookups can reuse a single result
+	 * object, provided it is not shared between threads.
+	 *
+	 * @param key  key of node for which we want to retrieve data.
+	 * @param result  the lookup object in which to store the result.
+	 */
+	public void lookup(IPath key, DataTreeLookup result) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		int layers = 0;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			layers++;
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -671,7 +902,10 @@ public class DeltaDataTree extends AbstractDataTree {
 			}
 			if (node != null) {
 				if (node.hasData()) {
-					return DataTreeLookup.newLookup(key, true, node.getData(), tree == this);
+					result.set(key, true, node.getData(), tree == this);
+					if (collectLookupStatistics)
+						sampleLookup(layers);
+					return;
 				} else if (node.isDeleted()) {
 					break;
 				}
@@ -681,7 +915,9 @@ public class DeltaDataTree extends AbstractDataTree {
 				break;
 			}
 		}
-		return DataTreeLookup.newLookup(key, false, null);
+		result.set(key, false, null, false);
+		if (collectLookupStatistics)
+			sampleLookup(layers);
 	}
 
 	/**
@@ -696,9 +932,33 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * @param key  key of node for which we want to retrieve data.
 	 */
 	public DataTreeLookup lookupIgnoreCase(IPath key) {
+		DataTreeLookup result = new DataTreeLookup();
+		lookupIgnoreCase(key, result);
+		return result;
+	}
+
+	/**
+	 * Stores in the given lookup object:
+	 *  - the node key
+	 * 	- a flag indicating whether the specified node was found
+	 *  - the data for the node, if it was found
+	 * 
+	 * This is a case-insensitive variant of the <code>lookup</code>
+	 * method.  Unlike <code>lookupIgnoreCase(IPath)</code>, it neither
+	 * allocates nor locks.  Callers that perform many lookups can reuse a single result
+	 * object, provided it is not shared between threads.
+	 *
+	 * @param key  key of node for which we want to retrieve data.
+	 * @param result  the lookup object in which to store the result.
+	 */
+	public void lookupIgnoreCase(IPath key, DataTreeLookup result) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		int layers = 0;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			layers++;
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtIgnoreCase(key.segment(i));
@@ -709,7 +969,10 @@ public class DeltaDataTree extends AbstractDataTree {
 			}
 			if (node != null) {
 				if (node.hasData()) {
-					return DataTreeLookup.newLookup(key, true, node.getData(), tree == this);
+					result.set(key, true, node.getData(), tree == this);
+					if (collectLookupStatistics)
+						sampleLookup(layers);
+					return;
 				} else if (node.isDeleted()) {
 					break;
 				}
@@ -719,7 +982,9 @@ public class DeltaDataTree extends AbstractDataTree {
 				break;
 			}
 		}
-		return DataTreeLookup.newLookup(key, false, null);
+		result.set(key, false, null, false);
+		if (collectLookupStatistics)
+			sampleLookup(layers);
 	}
 
 	/**
@@ -728,37 +993,60 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * The parent trees are unaffected.
 	 */
 	public void makeComplete() {
+		DeltaDataTree complete = snapshot;
+		if (complete != null) {
+			layer = new Layer(complete.getRootNode(), null);
+			snapshot = null;
+			return;
+		}
 		AbstractDataTreeNode assembled = getRootNode();
 		DeltaDataTree myParent = getParent();
 		while (myParent != null) {
 			assembled = myParent.getRootNode().assembleWith(assembled);
 			myParent = myParent.getParent();
 		}
-		setRootNode(assembled);
-		setParent(null);
+		layer = new Layer(assembled, null);
 	}
 
 	/**
-	 * Returns a complete node containing the contents of the subtree 
-	 * rooted at <code>key</code> in the receiver.  Uses the public API.
-	 *
-	 * @param key
-	 *	key of subtree whose contents we want to copy.
+	 * Returns whether the subtree at the given key may have different content
+	 * in this tree and in the given tree.  Returns false only if the trees are
+	 * in the same delta chain, and no layer between either of them and their
+	 * closest common ancestor has a node on the path to the key or below it.
+	 * Both trees must be immutable.
 	 */
-	protected AbstractDataTreeNode naiveCopyCompleteSubtree(IPath key) {
-		String[] childNames = getNamesOfChildren(key);
-		int numChildren = childNames.length;
-		AbstractDataTreeNode[] childNodes;
-		if (numChildren == 0) {
-			childNodes = AbstractDataTreeNode.NO_CHILDREN;
-		} else {
-			childNodes = new AbstractDataTreeNode[numChildren];
-			/* do for each child */
-			for (int i = numChildren; --i >= 0;) {
-				childNodes[i] = copyCompleteSubtree(key.append(childNames[i]));
-			}
+	public boolean mayDifferAt(DeltaDataTree other, IPath key) {
+		if (this == other)
+			return false;
+		HashSet ancestors = new HashSet();
+		for (DeltaDataTree tree = this; tree != null; tree = tree.getParent())
+			ancestors.add(tree);
+		DeltaDataTree common = other;
+		for (; common != null && !ancestors.contains(common); common = common.getParent())
+			if (common.hasNodeOnPath(key))
+				return true;
+		if (common == null)
+			return true;
+		for (DeltaDataTree tree = this; tree != common; tree = tree.getParent())
+			if (tree.hasNodeOnPath(key))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether the layer of this tree has a node on the path to the
+	 * given key or below it, or a complete or deleted node above it.
+	 */
+	private boolean hasNodeOnPath(IPath key) {
+		AbstractDataTreeNode node = getRootNode();
+		for (int i = 0, segmentCount = key.segmentCount(); i < segmentCount; i++) {
+			if (!node.isDelta())
+				return true;
+			node = node.childAtOrNull(key.segment(i));
+			if (node == null)
+				return false;
 		}
-		return new DataTreeNode(key.lastSegment(), getData(key), childNodes);
+		return true;
 	}
 
 	/**
@@ -776,6 +1064,50 @@ public class DeltaDataTree extends AbstractDataTree {
 		return newTree;
 	}
 
+	/**
+	 * Records the number of delta chain layers searched by a lookup, if it
+	 * is among the sampled ones.  Lookups are sampled by count rather than by
+	 * key, so that frequent lookups of the same keys are not all recorded.
+	 */
+	private static void sampleLookup(int layers) {
+		int stripe = ((int) Thread.currentThread().getId() & (LOOKUP_STRIPES - 1)) * LOOKUP_STRIPE_SPACING;
+		long[] counters = lookupCounters;
+		if ((++counters[stripe] & LOOKUP_SAMPLE_MASK) != 0)
+			return;
+		counters[stripe + 1]++;
+		counters[stripe + 2] += layers;
+	}
+
+	/**
+	 * Returns the tree at which searches of this tree start: its snapshot
+	 * if it has one, otherwise this tree.
+	 */
+	private DeltaDataTree searchStart() {
+		DeltaDataTree start = snapshot;
+		return start == null ? this : start;
+	}
+
+	/**
+	 * Resets the lookup statistics.
+	 * @see #setCollectLookupStatistics(boolean)
+	 */
+	public static void resetLookupStatistics() {
+		for (int i = 0; i < lookupCounters.length; i += LOOKUP_STRIPE_SPACING) {
+			lookupCounters[i + 1] = 0;
+			lookupCounters[i + 2] = 0;
+		}
+	}
+
+	/**
+	 * Sets whether lookups record the number of delta chain layers they
+	 * search, for <code>getAverageLookupDepth</code>.  Recording costs every
+	 * lookup a write to shared counters, so it should only be turned on by
+	 * clients that act on the statistics.
+	 */
+	public static void setCollectLookupStatistics(boolean collect) {
+		collectLookupStatistics = collect;
+	}
+
 	/**
 	 * Makes the receiver the root tree in the list of trees on which it is based.
 	 * The receiver's representation becomes a complete tree, while its parents'
@@ -815,10 +1147,13 @@ public class DeltaDataTree extends AbstractDataTree {
 		this.reroot(sourceParent);
 		DeltaDataTree backwardDelta = sourceTree.asBackwardDelta();
 		DeltaDataTree complete = sourceParent.assembleWithForwardDelta(sourceTree);
-		sourceTree.setRootNode(complete.getRootNode());
-		sourceTree.setParent(null);
-		sourceParent.setRootNode(backwardDelta.getRootNode());
-		sourceParent.setParent(sourceTree);
+		// Searches running concurrently without a lock may read either
+		// representation of each tree, and find the same contents.
+		sourceTree.layer = new Layer(complete.getRootNode(), null);
+		sourceTree.snapshot = null;
+		if (keepSnapshots)
+			sourceParent.snapshot = new DeltaDataTree(sourceParent.getRootNode());
+		sourceParent.layer = new Layer(backwardDelta.getRootNode(), sourceTree);
 	}
 
 	/**
@@ -833,58 +1168,23 @@ public class DeltaDataTree extends AbstractDataTree {
 		if (node == null)
 			return null;
 		if (node.isDelta())
-			return safeNaiveCopyCompleteSubtree(key);
+			return assembleCompleteSubtree(key);
 		//copy the node in case the user wants to hammer the subtree name
 		return node.copy();
 	}
 
-	/**
-	 * Returns a complete node containing the contents of the subtree 
-	 * rooted at @key in the receiver.  Returns null if this node does not exist in
-	 * the tree.  This is a thread-safe version of naiveCopyCompleteSubtree
-	 *
-	 * @param key
-	 *	key of subtree whose contents we want to copy.
-	 */
-	protected AbstractDataTreeNode safeNaiveCopyCompleteSubtree(IPath key) {
-		try {
-			String[] childNames = getNamesOfChildren(key);
-			int numChildren = childNames.length;
-			AbstractDataTreeNode[] childNodes;
-			if (numChildren == 0) {
-				childNodes = AbstractDataTreeNode.NO_CHILDREN;
-			} else {
-				childNodes = new AbstractDataTreeNode[numChildren];
-				/* do for each child */
-				int actualChildCount = 0;
-				for (int i = numChildren; --i >= 0;) {
-					childNodes[i] = safeCopyCompleteSubtree(key.append(childNames[i]));
-					if (childNodes[i] != null)
-						actualChildCount++;
-				}
-				//if there are less actual children due to concurrent deletion, shrink the child array
-				if (actualChildCount < numChildren) {
-					AbstractDataTreeNode[] actualChildNodes = new AbstractDataTreeNode[actualChildCount];
-					for (int iOld = 0, iNew = 0; iOld < numChildren; iOld++)
-						if (childNodes[iOld] != null)
-							actualChildNodes[iNew++] = childNodes[iOld];
-					childNodes = actualChildNodes;
-				}
-			}
-			return new DataTreeNode(key.lastSegment(), getData(key), childNodes);
-		} catch (ObjectNotFoundException e) {
-			return null;
-		}
-	}
-
 	/**
 	 * Returns the specified node.  Search in the parent if necessary.  Return null
 	 * if the node is not found or if it has been deleted
 	 */
 	protected AbstractDataTreeNode searchNodeAt(IPath key) {
 		int keyLength = key.segmentCount();
-		for (DeltaDataTree tree = this; tree != null; tree = tree.parent) {
-			AbstractDataTreeNode node = tree.rootNode;
+		int layers = 0;
+		Layer current;
+		for (DeltaDataTree tree = searchStart(); tree != null; tree = current.parent) {
+			layers++;
+			current = tree.layer;
+			AbstractDataTreeNode node = current.rootNode;
 			boolean complete = !node.isDelta();
 			for (int i = 0; i < keyLength; i++) {
 				node = node.childAtOrNull(key.segment(i));
@@ -898,6 +1198,8 @@ public class DeltaDataTree extends AbstractDataTree {
 			if (node != null) {
 				if (node.isDeleted())
 					break;
+				if (collectLookupStatistics)
+					sampleLookup(layers);
 				return node;
 			}
 			if (complete) {
@@ -905,6 +1207,8 @@ public class DeltaDataTree extends AbstractDataTree {
 				break;
 			}
 		}
+		if (collectLookupStatistics)
+			sampleLookup(layers);
 		return null;
 	}
 
@@ -923,14 +1227,23 @@ public class DeltaDataTree extends AbstractDataTree {
 	 * Sets the parent of the tree.
 	 */
 	protected void setParent(DeltaDataTree aTree) {
-		parent = aTree;
+		layer = new Layer(getRootNode(), aTree);
 	}
 
 	/**
 	 * Sets the root node of the tree
 	 */
 	void setRootNode(AbstractDataTreeNode aNode) {
-		rootNode = aNode;
+		layer = new Layer(aNode, getParent());
+	}
+
+	/**
+	 * Stops the threads that compare large trees in parallel, once they are
+	 * done with the comparisons in progress.
+	 * @see IThreadSafeComparator
+	 */
+	public static void shutdownComparisons() {
+		ParallelComparison.shutdown();
 	}
 
 	/**
@@ -940,9 +1253,10 @@ public class DeltaDataTree extends AbstractDataTree {
 	 *	- removes any empty (leaf NoDataDelta) nodes
 	 */
 	protected void simplify(IComparator comparer) {
-		if (parent == null)
+		Layer current = layer;
+		if (current.parent == null)
 			return;
-		setRootNode(rootNode.simplifyWithParent(rootKey(), parent, comparer));
+		layer = new Layer(current.rootNode.simplifyWithParent(rootKey(), current.parent, comparer), current.parent);
 	}
 	
 	/* (non-Javadoc)
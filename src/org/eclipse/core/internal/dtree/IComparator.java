@@ -12,7 +12,9 @@ package org.eclipse.core.internal.dtree;
 
 /**
  * An interface for comparing two data tree objects.  Provides information
- * on how an object has changed from one tree to another.
+ * on how an object has changed from one tree to another.  Comparators are
+ * only called from the thread comparing the trees, unless they implement
+ * {@link IThreadSafeComparator}.
  */
 public interface IComparator {
 	/**
@@ -0,0 +1,21 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+/**
+ * A comparator that can be called from several threads at once.  Trees
+ * are only compared on several threads with comparators that implement
+ * this interface; other comparators are always called from the thread
+ * that compares the trees.
+ */
+public interface IThreadSafeComparator extends IComparator {
+	// marker interface
+}
@@ -51,6 +51,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * @see AbstractDataTreeNode#asBackwardDelta(DeltaDataTree, DeltaDataTree, IPath)
 	 */
 	AbstractDataTreeNode asBackwardDelta(DeltaDataTree myTree, DeltaDataTree parentTree, IPath key) {
+		AbstractDataTreeNode[] children = getChildren();
 		int numChildren = children.length;
 		if (numChildren == 0)
 			return new NoDataDeltaNode(name, NO_CHILDREN);
@@ -65,7 +66,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * @see AbstractDataTreeNode#compareWithParent(IPath, DeltaDataTree, IComparator)
 	 */
 	AbstractDataTreeNode compareWithParent(IPath key, DeltaDataTree parent, IComparator comparator) {
-		AbstractDataTreeNode[] comparedChildren = compareWithParent(children, key, parent, comparator);
+		AbstractDataTreeNode[] comparedChildren = compareWithParent(getChildren(), key, parent, comparator);
 		Object oldData = parent.getData(key);
 		return new DataTreeNode(key.lastSegment(), new NodeComparison(oldData, oldData, NodeComparison.K_CHANGED, 0), comparedChildren);
 	}
@@ -75,14 +76,9 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * children, but a shallow copy of name and data.
 	 */
 	AbstractDataTreeNode copy() {
-		AbstractDataTreeNode[] childrenCopy;
-		if (children.length == 0) {
-			childrenCopy = NO_CHILDREN;
-		} else {
-			childrenCopy = new AbstractDataTreeNode[children.length];
-			System.arraycopy(children, 0, childrenCopy, 0, children.length);
-		}
-		return new NoDataDeltaNode(name, childrenCopy);
+		NoDataDeltaNode copy = new NoDataDeltaNode(name);
+		copy.copyChildrenFrom(this);
+		return copy;
 	}
 
 	/**
@@ -104,7 +100,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * Simplifies the given node, and returns its replacement.
 	 */
 	AbstractDataTreeNode simplifyWithParent(IPath key, DeltaDataTree parent, IComparator comparer) {
-		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(children, key, parent, comparer);
+		AbstractDataTreeNode[] simplifiedChildren = simplifyWithParent(getChildren(), key, parent, comparer);
 		return new NoDataDeltaNode(name, simplifiedChildren);
 	}
 
@@ -113,7 +109,7 @@ public class NoDataDeltaNode extends AbstractDataTreeNode {
 	 * for debugging purposes only (no NLS support needed)
 	 */
 	public String toString() {
-		return "a NoDataDeltaNode(" + this.getName() + ") with " + getChildren().length + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return "a NoDataDeltaNode(" + this.getName() + ") with " + size() + " children."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
 	/**
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.dtree;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares sibling subtrees on several threads when they are large enough
+ * to be worth it.  The first set of siblings encountered whose subtrees
+ * together hold at least <code>SPLIT_THRESHOLD</code> nodes is split, one
+ * sibling per unit of work; everything below that level, and everything
+ * below a set of siblings that is too small, is compared sequentially.
+ * <p>
+ * The calling thread takes part in the comparison, and helper threads never
+ * wait for other work, so a comparison completes even when no helper
+ * thread is available.  The trees being compared must be immutable.  Only
+ * comparators that implement {@link IThreadSafeComparator} are called from
+ * several threads; trees are compared sequentially with other comparators.
+ * <p>
+ * The helper threads end once they have been idle for a few seconds, and
+ * are stopped by {@link #shutdown()}.
+ */
+final class ParallelComparison {
+	/**
+	 * Unit of work: computes the comparison of the sibling at a given index.
+	 */
+	static abstract class Comparison {
+		abstract void compare(int index);
+	}
+
+	/**
+	 * The minimum number of nodes below a set of siblings for their
+	 * comparisons to be split across threads.
+	 */
+	private static final int SPLIT_THRESHOLD = 5000;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Set on threads that are already within a split, or within a subtree that is
+	 * too small to split, so nested sibling sets are compared sequentially.
+	 */
+	private static final ThreadLocal<Boolean> sequential = new ThreadLocal<Boolean>();
+
+	private static ThreadPoolExecutor helpers;
+
+	private ParallelComparison() {
+		super();
+	}
+
+	/**
+	 * Returns the number of nodes in the given subtrees, counting no
+	 * further than the given limit.
+	 */
+	private static int countNodes(AbstractDataTreeNode[] nodes, int limit) {
+		int count = nodes.length;
+		for (int i = 0; i < nodes.length && count < limit; i++)
+			count += countNodes(nodes[i].getChildren(), limit - count);
+		return count;
+	}
+
+	private static synchronized Executor getHelpers() {
+		if (helpers == null) {
+			ThreadFactory factory = new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Data tree comparison"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			// when every helper is busy, further helpers are discarded and the caller does the work
+			helpers = new ThreadPoolExecutor(0, THREADS - 1, 5, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory, new ThreadPoolExecutor.DiscardPolicy());
+		}
+		return helpers;
+	}
+
+	/**
+	 * Calls the given comparison once for each of the given sibling nodes,
+	 * in parallel if the siblings have enough descendants and the given
+	 * comparator is thread safe.
+	 */
+	static void compare(Comparison comparison, AbstractDataTreeNode[] nodes, IComparator comparator) {
+		int count = nodes.length;
+		if (THREADS < 2 || count < 2 || !(comparator instanceof IThreadSafeComparator) || sequential.get() != null) {
+			for (int i = 0; i < count; i++)
+				comparison.compare(i);
+			return;
+		}
+		boolean split = countNodes(nodes, SPLIT_THRESHOLD) >= SPLIT_THRESHOLD;
+		sequential.set(Boolean.TRUE);
+		try {
+			if (split) {
+				compareInParallel(comparison, count);
+			} else {
+				for (int i = 0; i < count; i++)
+					comparison.compare(i);
+			}
+		} finally {
+			sequential.set(null);
+		}
+	}
+
+	/**
+	 * Stops the helper threads once they are done with the comparisons in
+	 * progress.  Later comparisons start new helper threads.
+	 */
+	static synchronized void shutdown() {
+		if (helpers == null)
+			return;
+		helpers.shutdown();
+		helpers = null;
+	}
+
+	private static void compareInParallel(final Comparison comparison, final int count) {
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(count);
+		final Throwable[] failure = new Throwable[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				boolean helper = sequential.get() == null;
+				if (helper)
+					sequential.set(Boolean.TRUE);
+				try {
+					for (int i; (i = next.getAndIncrement()) < count;) {
+						try {
+							comparison.compare(i);
+						} catch (Throwable t) {
+							synchronized (failure) {
+								if (failure[0] == null)
+									failure[0] = t;
+							}
+						} finally {
+							done.countDown();
+						}
+					}
+				} finally {
+					if (helper)
+						sequential.set(null);
+				}
+			}
+		};
+		Executor executor = getHelpers();
+		for (int i = Math.min(THREADS, count) - 1; i > 0; i--)
+			executor.execute(worker);
+		worker.run();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		synchronized (failure) {
+			if (failure[0] instanceof RuntimeException)
+				throw (RuntimeException) failure[0];
+			if (failure[0] instanceof Error)
+				throw (Error) failure[0];
+		}
+	}
+}
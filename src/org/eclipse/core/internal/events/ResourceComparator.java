@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.events;
 
+import org.eclipse.core.internal.dtree.IThreadSafeComparator;
 import org.eclipse.core.internal.resources.ICoreConstants;
 import org.eclipse.core.internal.resources.ResourceInfo;
 import org.eclipse.core.internal.watson.IElementComparator;
@@ -23,8 +24,10 @@ import org.eclipse.core.resources.IResourceDelta;
  * as specified by IComparator, the compare operation returns
  * a set of flags instead.  The delta computation only cares
  * whether the comparison is zero (equal) or non-zero (not equal).
+ * Comparing only reads the given infos, so the comparator can be called
+ * from several threads at once.
  */
-public class ResourceComparator implements IElementComparator, ICoreConstants {
+public class ResourceComparator implements IElementComparator, IThreadSafeComparator, ICoreConstants {
 	/* Singleton instances */
 	protected static final ResourceComparator notificationSingleton = new ResourceComparator(true, false);
 	protected static final ResourceComparator buildSingleton = new ResourceComparator(false, false);
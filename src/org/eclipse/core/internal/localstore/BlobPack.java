@@ -0,0 +1,650 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.eclipse.core.internal.resources.ResourceException;
+import org.eclipse.core.internal.resources.ResourceStatus;
+import org.eclipse.core.internal.utils.*;
+import org.eclipse.core.resources.IResourceStatus;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Stores blobs as records appended to a few large pack files, rather than
+ * as one file per blob.  A record either holds the UUID and contents of a
+ * blob, or marks a blob as deleted, so the blobs of the packs can always be
+ * found again by reading the packs in order.  An index of the blobs, and of
+ * the size of the packs it covers, is saved when the store is closed, so only
+ * the records appended after that need to be read when it is opened again.
+ * <p>
+ * Blobs are read through read-only mappings of the pack files, except for
+ * the last pack, which is read through its file.  New blobs are appended
+ * to the last pack, until it exceeds {@link #MAX_PACK_SIZE}.
+ * Deleting blobs only appends records, and a pack in which less than
+ * {@link #MIN_LIVE_PERCENT} percent of the bytes belong to blobs that are
+ * not deleted is compacted in a background job, by copying these blobs to
+ * the last pack and deleting the pack file.  The job copies one blob at a
+ * time, so that blobs can be added meanwhile.  A pack file that cannot be
+ * deleted, because the
+ * platform does not delete mapped files, is deleted when the store is
+ * opened again.
+ * <p>
+ * This class is thread safe.
+ */
+final class BlobPack {
+	/**
+	 * A pack file.
+	 */
+	private static final class Pack {
+		/** the mapping of the pack, or null */
+		ByteBuffer buffer;
+		final File file;
+		/** the number of bytes of the records of blobs that are not deleted */
+		long liveBytes;
+		final int number;
+		/** the number of bytes of the complete records of the pack */
+		long size;
+
+		Pack(File directory, int number) {
+			this.number = number;
+			this.file = new File(directory, number + PACK_EXTENSION);
+		}
+	}
+
+	/**
+	 * Compacts the packs that are mostly deleted.
+	 */
+	private final class CompactJob extends Job {
+		CompactJob() {
+			super(Messages.history_compacting);
+			setSystem(true);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				compact(monitor);
+			} catch (IOException e) {
+				String message = NLS.bind(Messages.localstore_couldNotWrite, directory.getAbsolutePath());
+				return new ResourceStatus(IResourceStatus.FAILED_WRITE_LOCAL, new Path(directory.getAbsolutePath()), message, e);
+			}
+			return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * The location of the contents of a blob in a pack.
+	 */
+	private static final class Location {
+		final boolean compressed;
+		final int length;
+		final long offset;
+		final Pack pack;
+
+		Location(Pack pack, long offset, int length, boolean compressed) {
+			this.pack = pack;
+			this.offset = offset;
+			this.length = length;
+			this.compressed = compressed;
+		}
+	}
+
+	/**
+	 * Reads the contents of a buffer.
+	 */
+	private static final class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+	}
+
+	private static final String INDEX_FILE = "packs.index"; //$NON-NLS-1$
+	private static final int INDEX_VERSION = 1;
+	/** the size above which no blobs are appended to a pack */
+	private static final long MAX_PACK_SIZE = 64 * 1024 * 1024;
+	private static final int MIN_LIVE_PERCENT = 50;
+	private static final String PACK_EXTENSION = ".pack"; //$NON-NLS-1$
+	private static final byte RECORD_BLOB = 1;
+	private static final byte RECORD_COMPRESSED_BLOB = 2;
+	private static final byte RECORD_DELETED = 3;
+	/** the size of the type and UUID of a record */
+	private static final int RECORD_ID_SIZE = 1 + UniversalUniqueIdentifier.BYTES_SIZE;
+	/** the size of a record of a blob, without its contents */
+	private static final int RECORD_HEADER_SIZE = RECORD_ID_SIZE + 4;
+
+	/** the blobs that are not deleted, or null if the store is not open */
+	private Map<UniversalUniqueIdentifier, Location> blobs;
+	/** numbers of the packs that could not be deleted yet, ignored until they are */
+	private final Set<Integer> deletedPacks = new TreeSet<Integer>();
+	private final Job compactJob = new CompactJob();
+	private final File directory;
+	/** the pack blobs are appended to, or null */
+	private Pack last;
+	/** the file of the last pack, or null if it is not open */
+	private RandomAccessFile output;
+	private final SortedMap<Integer, Pack> packs = new TreeMap<Integer, Pack>();
+
+	BlobPack(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Appends a blob with the given contents, and closes the stream.
+	 */
+	synchronized void add(UniversalUniqueIdentifier uuid, InputStream contents, boolean compress) throws CoreException {
+		open();
+		long start = -1;
+		try {
+			RandomAccessFile file = getOutput();
+			start = last.size;
+			file.seek(start);
+			file.writeByte(compress ? RECORD_COMPRESSED_BLOB : RECORD_BLOB);
+			file.write(uuid.toBytes());
+			// an incomplete record is recognized by its negative length
+			file.writeInt(-1);
+			OutputStream data = new BufferedOutputStream(Channels.newOutputStream(file.getChannel()), 8192);
+			GZIPOutputStream compressed = compress ? new GZIPOutputStream(data) : null;
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = contents.read(buffer)) != -1)
+				(compressed == null ? data : compressed).write(buffer, 0, read);
+			if (compressed != null)
+				compressed.finish();
+			data.flush();
+			long length = file.getFilePointer() - start - RECORD_HEADER_SIZE;
+			if (length > Integer.MAX_VALUE)
+				throw new IOException();
+			file.seek(start + RECORD_ID_SIZE);
+			file.writeInt((int) length);
+			last.size = start + RECORD_HEADER_SIZE + length;
+			last.liveBytes += RECORD_HEADER_SIZE + length;
+			Location previous = blobs.put(uuid, new Location(last, start + RECORD_HEADER_SIZE, (int) length, compress));
+			if (previous != null)
+				previous.pack.liveBytes -= RECORD_HEADER_SIZE + previous.length;
+		} catch (IOException e) {
+			truncate(start);
+			String message = NLS.bind(Messages.localstore_couldNotWrite, last.file.getAbsolutePath());
+			throw new ResourceException(IResourceStatus.FAILED_WRITE_LOCAL, new Path(last.file.getAbsolutePath()), message, e);
+		} finally {
+			FileUtil.safeClose(contents);
+		}
+	}
+
+	/**
+	 * Saves the index and closes the files of the packs.
+	 */
+	synchronized void close() throws IOException {
+		// a compaction in progress stops at the next blob
+		compactJob.cancel();
+		if (blobs == null)
+			return;
+		try {
+			saveIndex();
+		} finally {
+			if (output != null)
+				output.close();
+			output = null;
+			last = null;
+			blobs = null;
+			packs.clear();
+		}
+	}
+
+	/**
+	 * Copies the blobs that are not deleted out of the packs that are mostly
+	 * deleted, then deletes these packs.  The packs are only held while one
+	 * blob is copied.  Stops when the packs are closed.
+	 */
+	void compact(IProgressMonitor monitor) throws IOException {
+		Set<Pack> sparse;
+		List<UniversalUniqueIdentifier> live = new ArrayList<UniversalUniqueIdentifier>();
+		synchronized (this) {
+			if (blobs == null)
+				return;
+			sparse = getSparsePacks();
+			if (sparse.isEmpty())
+				return;
+			for (Map.Entry<UniversalUniqueIdentifier, Location> entry : blobs.entrySet())
+				if (sparse.contains(entry.getValue().pack))
+					live.add(entry.getKey());
+		}
+		long start = System.currentTimeMillis();
+		int copied = 0;
+		for (UniversalUniqueIdentifier uuid : live) {
+			if (monitor.isCanceled())
+				return;
+			synchronized (this) {
+				if (blobs == null)
+					return;
+				// blobs deleted meanwhile are not copied
+				Location location = blobs.get(uuid);
+				if (location == null || !sparse.contains(location.pack))
+					continue;
+				ByteBuffer record = read(location.pack, location.offset - RECORD_HEADER_SIZE, location.length + RECORD_HEADER_SIZE);
+				RandomAccessFile file = getOutput();
+				long position = last.size;
+				try {
+					while (record.hasRemaining())
+						position += file.getChannel().write(record, position);
+				} catch (IOException e) {
+					truncate(last.size);
+					throw e;
+				}
+				blobs.put(uuid, new Location(last, last.size + RECORD_HEADER_SIZE, location.length, location.compressed));
+				last.size = position;
+				last.liveBytes += RECORD_HEADER_SIZE + location.length;
+				copied++;
+			}
+		}
+		synchronized (this) {
+			if (blobs == null)
+				return;
+			for (Pack pack : sparse) {
+				packs.remove(new Integer(pack.number));
+				pack.buffer = null;
+				if (!pack.file.delete() && pack.file.exists())
+					deletedPacks.add(new Integer(pack.number));
+			}
+			saveIndex();
+		}
+		if (Policy.DEBUG_HISTORY)
+			Policy.debug("Time to compact " + sparse.size() + " history packs, copying " + copied + " blobs: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	synchronized boolean contains(UniversalUniqueIdentifier uuid) throws CoreException {
+		open();
+		return blobs.containsKey(uuid);
+	}
+
+	/**
+	 * Deletes the given blobs, and schedules the compaction of the packs that
+	 * are mostly deleted.  Returns the blobs that are not in the packs.
+	 */
+	synchronized Set<UniversalUniqueIdentifier> delete(Set<UniversalUniqueIdentifier> uuids) throws CoreException {
+		open();
+		Set<UniversalUniqueIdentifier> missing = new HashSet<UniversalUniqueIdentifier>();
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		for (UniversalUniqueIdentifier uuid : uuids) {
+			Location location = blobs.remove(uuid);
+			if (location == null) {
+				missing.add(uuid);
+				continue;
+			}
+			location.pack.liveBytes -= RECORD_HEADER_SIZE + location.length;
+			records.write(RECORD_DELETED);
+			byte[] bytes = uuid.toBytes();
+			records.write(bytes, 0, bytes.length);
+		}
+		if (records.size() == 0)
+			return missing;
+		long start = -1;
+		try {
+			RandomAccessFile file = getOutput();
+			start = last.size;
+			file.seek(start);
+			file.write(records.toByteArray());
+			last.size += records.size();
+		} catch (IOException e) {
+			truncate(start);
+			String message = NLS.bind(Messages.localstore_couldNotWrite, directory.getAbsolutePath());
+			throw new ResourceException(IResourceStatus.FAILED_WRITE_LOCAL, new Path(directory.getAbsolutePath()), message, e);
+		}
+		if (!getSparsePacks().isEmpty())
+			compactJob.schedule();
+		return missing;
+	}
+
+	/**
+	 * Returns the packs other than the last one in which less than
+	 * {@link #MIN_LIVE_PERCENT} percent of the bytes are not deleted.
+	 */
+	private Set<Pack> getSparsePacks() {
+		Set<Pack> sparse = new HashSet<Pack>();
+		for (Pack pack : packs.values())
+			if (pack != last && pack.liveBytes * 100 < pack.size * MIN_LIVE_PERCENT)
+				sparse.add(pack);
+		return sparse;
+	}
+
+	/**
+	 * Returns the contents of the given blob, or <code>null</code> if it is
+	 * not in the packs.
+	 */
+	synchronized InputStream get(UniversalUniqueIdentifier uuid) throws CoreException {
+		open();
+		Location location = blobs.get(uuid);
+		if (location == null)
+			return null;
+		try {
+			InputStream input = new BufferInputStream(read(location.pack, location.offset, location.length));
+			return location.compressed ? new GZIPInputStream(input) : input;
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotRead, location.pack.file.getAbsolutePath());
+			throw new ResourceException(IResourceStatus.FAILED_READ_LOCAL, new Path(location.pack.file.getAbsolutePath()), message, e);
+		}
+	}
+
+	private File getIndexFile() {
+		return new File(directory, INDEX_FILE);
+	}
+
+	/**
+	 * Returns the file of the pack blobs are appended to, starting a new
+	 * pack if the last one is full.
+	 */
+	private RandomAccessFile getOutput() throws IOException {
+		if (last != null && last.size >= MAX_PACK_SIZE) {
+			if (output != null)
+				output.close();
+			output = null;
+			last = null;
+		}
+		if (last == null) {
+			int number = packs.isEmpty() ? 1 : packs.lastKey().intValue() + 1;
+			// never reuse the number of a pack that could not be deleted
+			for (Integer deleted : deletedPacks)
+				number = Math.max(number, deleted.intValue() + 1);
+			last = new Pack(directory, number);
+			packs.put(new Integer(number), last);
+		}
+		if (output == null) {
+			directory.mkdirs();
+			output = new RandomAccessFile(last.file, "rw"); //$NON-NLS-1$
+		}
+		return output;
+	}
+
+	/**
+	 * Returns a mapping of the complete records of the given pack, which
+	 * must not be the last one.
+	 */
+	private ByteBuffer map(Pack pack) throws IOException {
+		// packs other than the last one do not grow
+		if (pack.buffer != null)
+			return pack.buffer;
+		FileInputStream input = new FileInputStream(pack.file);
+		try {
+			// the mapping remains valid once the channel is closed
+			pack.buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, pack.size);
+		} finally {
+			FileUtil.safeClose(input);
+		}
+		return pack.buffer;
+	}
+
+	/**
+	 * Reads the index and the records appended to the packs since it was
+	 * saved, if this has not been done yet.  If this fails, the store is
+	 * left closed.
+	 */
+	private void open() throws CoreException {
+		if (blobs != null)
+			return;
+		blobs = new HashMap<UniversalUniqueIdentifier, Location>();
+		boolean opened = false;
+		try {
+			if (!readIndex()) {
+				blobs.clear();
+				packs.clear();
+				deletedPacks.clear();
+			}
+			// packs that still cannot be deleted stay deleted until they can
+			for (Iterator<Integer> i = deletedPacks.iterator(); i.hasNext();) {
+				File file = new File(directory, i.next() + PACK_EXTENSION);
+				if (file.delete() || !file.exists())
+					i.remove();
+			}
+			String[] names = directory.list();
+			Set<Integer> found = new HashSet<Integer>();
+			for (int i = 0; names != null && i < names.length; i++) {
+				if (!names[i].endsWith(PACK_EXTENSION))
+					continue;
+				try {
+					found.add(Integer.valueOf(names[i].substring(0, names[i].length() - PACK_EXTENSION.length())));
+				} catch (NumberFormatException e) {
+					//not a pack
+				}
+			}
+			found.removeAll(deletedPacks);
+			// forget the packs that were deleted
+			packs.keySet().retainAll(found);
+			for (Pack pack : packs.values()) {
+				if (pack.file.length() < pack.size) {
+					// the index does not match the packs: read them all again
+					blobs.clear();
+					packs.clear();
+					break;
+				}
+			}
+			for (Iterator<Location> i = blobs.values().iterator(); i.hasNext();)
+				if (!packs.containsKey(new Integer(i.next().pack.number)))
+					i.remove();
+			// read the records appended to the packs, in the order they were written
+			for (Integer number : new TreeSet<Integer>(found)) {
+				Pack pack = packs.get(number);
+				if (pack == null) {
+					pack = new Pack(directory, number.intValue());
+					packs.put(number, pack);
+				}
+				try {
+					scan(pack);
+				} catch (IOException e) {
+					String message = NLS.bind(Messages.localstore_couldNotRead, pack.file.getAbsolutePath());
+					throw new ResourceException(IResourceStatus.FAILED_READ_LOCAL, new Path(pack.file.getAbsolutePath()), message, e);
+				}
+			}
+			for (Location location : blobs.values())
+				location.pack.liveBytes += RECORD_HEADER_SIZE + location.length;
+			last = packs.isEmpty() ? null : packs.get(packs.lastKey());
+			opened = true;
+		} finally {
+			if (!opened) {
+				// a store that failed to open is read again by the next call, rather than used partially
+				blobs = null;
+				last = null;
+				packs.clear();
+				deletedPacks.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the given bytes of the given pack.  The packs other than the
+	 * last one are mapped once.  The last pack grows with every blob added,
+	 * so its bytes are read from its file instead of mapping it again.
+	 */
+	private ByteBuffer read(Pack pack, long offset, int length) throws IOException {
+		if (pack != last) {
+			ByteBuffer bytes = map(pack).duplicate();
+			bytes.limit((int) (offset + length));
+			bytes.position((int) offset);
+			return bytes.slice();
+		}
+		if (output == null) {
+			directory.mkdirs();
+			output = new RandomAccessFile(last.file, "rw"); //$NON-NLS-1$
+		}
+		byte[] bytes = new byte[length];
+		output.seek(offset);
+		output.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Reads the saved index.  Returns false if it cannot be read.
+	 */
+	private boolean readIndex() {
+		File file = getIndexFile();
+		if (!file.exists())
+			return false;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+			if (input.readInt() != INDEX_VERSION)
+				return false;
+			for (int i = input.readInt(); i > 0; i--)
+				deletedPacks.add(new Integer(input.readInt()));
+			Map<Integer, Pack> numbers = new HashMap<Integer, Pack>();
+			for (int i = input.readInt(); i > 0; i--) {
+				Pack pack = new Pack(directory, input.readInt());
+				pack.size = input.readLong();
+				numbers.put(new Integer(pack.number), pack);
+				packs.put(new Integer(pack.number), pack);
+			}
+			byte[] bytes = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+			for (int i = input.readInt(); i > 0; i--) {
+				input.readFully(bytes);
+				Pack pack = numbers.get(new Integer(input.readInt()));
+				long offset = input.readLong();
+				int length = input.readInt();
+				boolean compressed = input.readBoolean();
+				if (pack == null)
+					return false;
+				blobs.put(new UniversalUniqueIdentifier(bytes), new Location(pack, offset, length, compressed));
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			FileUtil.safeClose(input);
+		}
+	}
+
+	/**
+	 * Saves the index of the blobs and of the size of the packs.
+	 */
+	private void saveIndex() throws IOException {
+		File file = getIndexFile();
+		directory.mkdirs();
+		SafeFileOutputStream safe = new SafeFileOutputStream(file);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(safe, 8192));
+			output.writeInt(INDEX_VERSION);
+			output.writeInt(deletedPacks.size());
+			for (Integer number : deletedPacks)
+				output.writeInt(number.intValue());
+			output.writeInt(packs.size());
+			for (Pack pack : packs.values()) {
+				output.writeInt(pack.number);
+				output.writeLong(pack.size);
+			}
+			output.writeInt(blobs.size());
+			for (Map.Entry<UniversalUniqueIdentifier, Location> entry : blobs.entrySet()) {
+				Location location = entry.getValue();
+				output.write(entry.getKey().toBytes());
+				output.writeInt(location.pack.number);
+				output.writeLong(location.offset);
+				output.writeInt(location.length);
+				output.writeBoolean(location.compressed);
+			}
+			output.close();
+		} finally {
+			FileUtil.safeClose(safe);
+		}
+	}
+
+	/**
+	 * Reads the records of the given pack that follow its known size.  An
+	 * incomplete record, left by a failure while it was written, is removed.
+	 */
+	private void scan(Pack pack) throws IOException {
+		long length = pack.file.length();
+		if (length == pack.size)
+			return;
+		long position = pack.size;
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(pack.file), 8192));
+		try {
+			for (long skipped = 0; skipped < position;)
+				skipped += input.skip(position - skipped);
+			byte[] bytes = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+			while (position + RECORD_ID_SIZE <= length) {
+				int type = input.read();
+				input.readFully(bytes);
+				UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier(bytes);
+				if (type == RECORD_DELETED) {
+					blobs.remove(uuid);
+					position += RECORD_ID_SIZE;
+					continue;
+				}
+				if (type != RECORD_BLOB && type != RECORD_COMPRESSED_BLOB || position + RECORD_HEADER_SIZE > length)
+					break;
+				int size = input.readInt();
+				if (size < 0 || position + RECORD_HEADER_SIZE + size > length)
+					break;
+				blobs.put(uuid, new Location(pack, position + RECORD_HEADER_SIZE, size, type == RECORD_COMPRESSED_BLOB));
+				for (long skipped = 0; skipped < size;)
+					skipped += input.skip(size - skipped);
+				position += RECORD_HEADER_SIZE + size;
+			}
+		} finally {
+			input.close();
+		}
+		pack.size = position;
+		if (position < length)
+			truncate(pack, position);
+	}
+
+	/**
+	 * Removes what was written to the last pack after the given position.
+	 */
+	private void truncate(long position) {
+		if (position < 0 || last == null)
+			return;
+		try {
+			getOutput().setLength(position);
+			last.size = position;
+		} catch (IOException e) {
+			// the incomplete record is removed when the store is opened again
+		}
+	}
+
+	private void truncate(Pack pack, long position) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(pack.file, "rw"); //$NON-NLS-1$
+		try {
+			file.setLength(position);
+		} finally {
+			file.close();
+		}
+	}
+}
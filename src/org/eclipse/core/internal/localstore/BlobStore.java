@@ -10,21 +10,57 @@
  *******************************************************************************/
 package org.eclipse.core.internal.localstore;
 
-import java.io.InputStream;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
-import org.eclipse.core.internal.utils.UniversalUniqueIdentifier;
-import org.eclipse.core.runtime.Assert;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.internal.resources.ResourceException;
+import org.eclipse.core.internal.utils.*;
+import org.eclipse.core.resources.IResourceStatus;
+import org.eclipse.core.runtime.*;
+import org.eclipse.osgi.util.NLS;
 
 /**
  * Blob store which maps UUIDs to blobs on disk. The UUID is mapped
  * to a file in the file-system and the blob is the file contents. For scalability,
  * the blobs are split among 255 directories with the names 00 to FF.
+ * <p>
+ * A content addressed store derives the UUID of a blob from a SHA-1 hash of
+ * its contents, as a name based UUID of version 5, so that storing the same
+ * contents twice stores a single blob.  Such blobs may be shared by several
+ * history states, and must only be deleted once none of them refers to it.
+ * A compressing store keeps the blobs it adds compressed with GZIP.  Both
+ * kinds of blobs can be read by any store.
+ * <p>
+ * A packed store adds blobs to a {@link BlobPack} in the <code>packs</code>
+ * directory, rather than one file per blob.  Blobs stored in files remain
+ * readable, and are deleted one by one.
  */
 public class BlobStore {
+	/** Option for deriving the UUIDs of new blobs from their contents. */
+	public static final int CONTENT_ADDRESSED = 1;
+	/** Option for compressing new blobs. */
+	public static final int COMPRESS = 2;
+	/** Option for adding new blobs to pack files. */
+	public static final int PACKED = 4;
+
+	/** suffix of the files of compressed blobs */
+	private static final String COMPRESSED_SUFFIX = ".gz"; //$NON-NLS-1$
+	/** suffix of the files of blobs being written */
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	/** version number of name based UUIDs using SHA-1 */
+	private static final int CONTENT_VERSION = 5;
+
+	private final boolean compress;
+	private final boolean contentAddressed;
 	protected IFileStore localStore;
+	/** the pack files new blobs are added to, or null */
+	private final BlobPack pack;
 
 	/** Limits the range of directories' names. */
 	protected byte mask;
@@ -39,24 +75,70 @@ public class BlobStore {
 	 * should be an existing valid directory.
 	 */
 	public BlobStore(IFileStore store, int limit) {
+		this(store, limit, 0);
+	}
+
+	/**
+	 * Creates a blob store with the given options, a combination of
+	 * {@link #CONTENT_ADDRESSED}, {@link #COMPRESS} and {@link #PACKED}.
+	 */
+	public BlobStore(IFileStore store, int limit, int options) {
 		Assert.isNotNull(store);
+		this.contentAddressed = (options & CONTENT_ADDRESSED) != 0;
+		this.compress = (options & COMPRESS) != 0;
+		File packs = null;
+		try {
+			if ((options & PACKED) != 0)
+				packs = store.getChild("packs").toLocalFile(EFS.NONE, null); //$NON-NLS-1$
+		} catch (CoreException e) {
+			//packs are only supported in the local file system
+		}
+		this.pack = packs == null ? null : new BlobPack(packs);
 		localStore = store;
 		Assert.isTrue(localStore.fetchInfo().isDirectory());
 		Assert.isTrue(limit == 256 || limit == 128 || limit == 64 || limit == 32 || limit == 16 || limit == 8 || limit == 4 || limit == 2 || limit == 1);
 		mask = (byte) (limit - 1);
 	}
 
+	/**
+	 * Returns whether the given UUID was derived from the contents of its
+	 * blob, in which case the blob may be shared by several history states.
+	 */
+	public static boolean isContentAddressed(UniversalUniqueIdentifier uuid) {
+		byte version = uuid.toBytes()[UniversalUniqueIdentifier.TIME_HIGH_AND_VERSION];
+		return (version & UniversalUniqueIdentifier.HIGH_NIBBLE_MASK) >>> UniversalUniqueIdentifier.SHIFT_NIBBLE == CONTENT_VERSION;
+	}
+
 	public UniversalUniqueIdentifier addBlob(IFileStore target, boolean moveContents) throws CoreException {
-		UniversalUniqueIdentifier uuid = new UniversalUniqueIdentifier();
-		folderFor(uuid).mkdir(EFS.NONE, null);
-		IFileStore destination = fileFor(uuid);
-		if (moveContents)
-			target.move(destination, EFS.NONE, null);
-		else
-			target.copy(destination, EFS.NONE, null);
+		UniversalUniqueIdentifier uuid = identifierFor(target);
+		addBlob(target, moveContents, uuid);
 		return uuid;
 	}
 
+	/**
+	 * Stores the given file as the blob with the given UUID, which must come
+	 * from {@link #identifierFor(IFileStore)}.  Blobs can be added by several
+	 * threads at once.
+	 */
+	public void addBlob(IFileStore target, boolean moveContents, UniversalUniqueIdentifier uuid) throws CoreException {
+		if (!contentAddressed && !compress && pack == null) {
+			folderFor(uuid).mkdir(EFS.NONE, null);
+			IFileStore destination = fileFor(uuid);
+			if (moveContents)
+				target.move(destination, EFS.NONE, null);
+			else
+				target.copy(destination, EFS.NONE, null);
+			return;
+		}
+		if (contentAddressed && exists(uuid)) {
+			// the same contents are already stored
+			if (moveContents)
+				target.delete(EFS.NONE, null);
+			return;
+		}
+		store(target, false, moveContents, uuid);
+	}
+
 	/* (non-Javadoc)
 	 * @see UniversalUniqueIdentifier#appendByteString(StringBuffer, byte)
 	 */
@@ -71,6 +153,46 @@ public class BlobStore {
 		buffer.append(hexString);
 	}
 
+	/**
+	 * Returns the file of the blob with the given UUID, if it is compressed.
+	 */
+	private IFileStore compressedFileFor(UniversalUniqueIdentifier uuid) {
+		IFileStore root = folderFor(uuid);
+		return root.getChild(bytesToHexString(uuid.toBytes()) + COMPRESSED_SUFFIX);
+	}
+
+	/**
+	 * Returns the content derived UUID of the blob with the given contents,
+	 * and closes the stream.
+	 */
+	private UniversalUniqueIdentifier contentIdentifier(InputStream contents, String path) throws CoreException {
+		byte[] hash;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = contents.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+			hash = digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			//every Java runtime supports SHA-1
+			throw new IllegalStateException(e.getMessage());
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.localstore_couldNotRead, path);
+			throw new ResourceException(IResourceStatus.FAILED_READ_LOCAL, new Path(path), message, e);
+		} finally {
+			FileUtil.safeClose(contents);
+		}
+		// mark the hash as a name based UUID, as defined by RFC 4122
+		byte[] bytes = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+		System.arraycopy(hash, 0, bytes, 0, bytes.length);
+		int version = UniversalUniqueIdentifier.TIME_HIGH_AND_VERSION;
+		bytes[version] = (byte) ((bytes[version] & UniversalUniqueIdentifier.LOW_NIBBLE_MASK) | CONTENT_VERSION << UniversalUniqueIdentifier.SHIFT_NIBBLE);
+		int variant = UniversalUniqueIdentifier.CLOCK_SEQUENCE_HIGH_AND_RESERVED;
+		bytes[variant] = (byte) ((bytes[variant] & 0x3F) | 0x80);
+		return new UniversalUniqueIdentifier(bytes);
+	}
+
 	/* (non-Javadoc)
 	 * Converts an array of bytes into a String.
 	 *
@@ -83,13 +205,38 @@ public class BlobStore {
 		return buffer.toString();
 	}
 
+	/**
+	 * Saves the index of the pack files, if any.
+	 */
+	public void close() {
+		if (pack == null)
+			return;
+		try {
+			pack.close();
+		} catch (IOException e) {
+			//the index is rebuilt from the packs the next time they are opened
+		}
+	}
+
 	/**
 	 * Deletes a blobFile.
 	 */
 	public void deleteBlob(UniversalUniqueIdentifier uuid) {
 		Assert.isNotNull(uuid);
+		if (pack != null) {
+			deleteBlobs(Collections.singleton(uuid));
+			return;
+		}
+		deleteBlobFile(uuid);
+	}
+
+	/**
+	 * Deletes the file of a blob.
+	 */
+	private void deleteBlobFile(UniversalUniqueIdentifier uuid) {
 		try {
 			fileFor(uuid).delete(EFS.NONE, null);
+			compressedFileFor(uuid).delete(EFS.NONE, null);
 		} catch (CoreException e) {
 			//ignore
 		}
@@ -99,8 +246,29 @@ public class BlobStore {
 	 * Delete all of the blobs in the given set.
 	 */
 	public void deleteBlobs(Set<UniversalUniqueIdentifier> set) {
+		if (pack != null) {
+			try {
+				// the blobs that are not in the packs are in files
+				set = pack.delete(set);
+			} catch (CoreException e) {
+				//ignore
+			}
+		}
 		for (UniversalUniqueIdentifier id : set)
-			deleteBlob(id);
+			deleteBlobFile(id);
+	}
+
+	/**
+	 * Returns whether the blob with the given UUID is stored, compressed or not.
+	 */
+	public boolean exists(UniversalUniqueIdentifier uuid) {
+		try {
+			if (pack != null && pack.contains(uuid))
+				return true;
+		} catch (CoreException e) {
+			//look for the file of the blob
+		}
+		return fileFor(uuid).fetchInfo().exists() || compressedFileFor(uuid).fetchInfo().exists();
 	}
 
 	public IFileStore fileFor(UniversalUniqueIdentifier uuid) {
@@ -119,7 +287,17 @@ public class BlobStore {
 	}
 
 	public InputStream getBlob(UniversalUniqueIdentifier uuid) throws CoreException {
+		if (pack != null) {
+			InputStream packed = pack.get(uuid);
+			if (packed != null)
+				return packed;
+		}
 		IFileStore blobFile = fileFor(uuid);
+		if (!blobFile.fetchInfo().exists()) {
+			IFileStore compressed = compressedFileFor(uuid);
+			if (compressed.fetchInfo().exists())
+				return uncompress(compressed.openInputStream(EFS.NONE, null), compressed.toString());
+		}
 		return blobFile.openInputStream(EFS.NONE, null);
 	}
 
@@ -134,4 +312,99 @@ public class BlobStore {
 			hash ^= randomArray[bytes[i] + 128]; // +128 makes sure the index is >0
 		return hash;
 	}
+
+	/**
+	 * Returns the UUID to store the contents of the given file under.  It is
+	 * derived from the contents if this store is content addressed.
+	 */
+	public UniversalUniqueIdentifier identifierFor(IFileStore target) throws CoreException {
+		if (!contentAddressed)
+			return new UniversalUniqueIdentifier();
+		return contentIdentifier(target.openInputStream(EFS.NONE, null), target.toString());
+	}
+
+	/**
+	 * Copies the blob with the given UUID to the UUID derived from its
+	 * contents, unless a blob with the same contents is already stored, and
+	 * returns the new UUID.  The given blob is kept, as states may refer to
+	 * it until they are saved with the new UUID.  Returns <code>null</code>
+	 * if the given blob is not stored.
+	 */
+	public UniversalUniqueIdentifier migrateBlob(UniversalUniqueIdentifier uuid) throws CoreException {
+		if (pack != null && pack.contains(uuid)) {
+			UniversalUniqueIdentifier result = contentIdentifier(pack.get(uuid), uuid.toString());
+			if (!exists(result))
+				pack.add(result, pack.get(uuid), compress);
+			return result;
+		}
+		IFileStore source = fileFor(uuid);
+		boolean compressed = false;
+		if (!source.fetchInfo().exists()) {
+			source = compressedFileFor(uuid);
+			compressed = true;
+			if (!source.fetchInfo().exists())
+				return null;
+		}
+		UniversalUniqueIdentifier result = contentIdentifier(getBlob(uuid), source.toString());
+		if (!exists(result))
+			store(source, compressed, false, result);
+		return result;
+	}
+
+	/**
+	 * Stores the given file as the blob with the given UUID, compressing or
+	 * uncompressing it as needed.  The blob is written to a temporary file
+	 * first, so that a blob is never found incomplete.  The temporary file is
+	 * private to the thread, as the same contents may be stored by others.
+	 */
+	private void store(IFileStore source, boolean sourceCompressed, boolean moveContents, UniversalUniqueIdentifier uuid) throws CoreException {
+		if (pack != null) {
+			InputStream input = source.openInputStream(EFS.NONE, null);
+			pack.add(uuid, sourceCompressed ? uncompress(input, source.toString()) : input, compress);
+			if (moveContents)
+				source.delete(EFS.NONE, null);
+			return;
+		}
+		folderFor(uuid).mkdir(EFS.NONE, null);
+		IFileStore destination = compress ? compressedFileFor(uuid) : fileFor(uuid);
+		IFileStore temp = destination.getParent().getChild(destination.getName() + '.' + Thread.currentThread().getId() + TEMP_SUFFIX);
+		if (sourceCompressed == compress) {
+			if (moveContents)
+				source.move(temp, EFS.OVERWRITE, null);
+			else
+				source.copy(temp, EFS.OVERWRITE, null);
+		} else {
+			InputStream input = source.openInputStream(EFS.NONE, null);
+			if (sourceCompressed)
+				input = uncompress(input, source.toString());
+			OutputStream output = temp.openOutputStream(EFS.NONE, null);
+			if (compress) {
+				try {
+					output = new GZIPOutputStream(output);
+				} catch (IOException e) {
+					FileUtil.safeClose(input);
+					FileUtil.safeClose(output);
+					String message = NLS.bind(Messages.localstore_couldNotWrite, temp.toString());
+					throw new ResourceException(IResourceStatus.FAILED_WRITE_LOCAL, new Path(temp.toString()), message, e);
+				}
+			}
+			FileUtil.transferStreams(input, output, temp.toString(), null);
+			if (moveContents)
+				source.delete(EFS.NONE, null);
+		}
+		temp.move(destination, EFS.OVERWRITE, null);
+	}
+
+	/**
+	 * Returns a stream reading the uncompressed contents of the given stream.
+	 */
+	private InputStream uncompress(InputStream input, String path) throws CoreException {
+		try {
+			return new GZIPInputStream(input);
+		} catch (IOException e) {
+			FileUtil.safeClose(input);
+			String message = NLS.bind(Messages.localstore_couldNotRead, path);
+			throw new ResourceException(IResourceStatus.FAILED_READ_LOCAL, new Path(path), message, e);
+		}
+	}
 }
@@ -17,6 +17,7 @@ import java.util.*;
 import org.eclipse.core.internal.resources.ResourceException;
 import org.eclipse.core.internal.resources.ResourceStatus;
 import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
 import org.eclipse.core.resources.IResourceStatus;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
@@ -24,6 +25,22 @@ import org.eclipse.osgi.util.NLS;
 /**
  * A bucket is a persistent dictionary having paths as keys. Values are determined
  * by subclasses.
+ * <p>
+ * Index files are either a stream of entries, which is read in full when the
+ * bucket is loaded, or, for subclasses whose entry values can be read
+ * independently of each other, a sorted index:
+ * <pre>
+ * FILE ::= VERSION_ID ENTRY_COUNT KEY_OFFSET* ENTRY*
+ * VERSION_ID ::= byte (the subclass version, with SORTED_INDEX set)
+ * ENTRY_COUNT ::= int
+ * KEY_OFFSET ::= int (from the start of the file, in key order)
+ * ENTRY ::= KEY VALUE
+ * KEY ::= string (does not include project name)
+ * </pre>
+ * A sorted index is kept in memory as it was read.  Values are looked up
+ * by binary search over its keys and only read when they are asked for,
+ * and changes are kept aside until the bucket is saved.
+ * </p>
  * 
  *  @since 3.1
  */
@@ -142,12 +159,52 @@ public abstract class Bucket {
 	 */
 	static final String INDEXES_DIR_NAME = ".indexes"; //$NON-NLS-1$	
 
+	/**
+	 * The flag set in the version of index files in the sorted format.
+	 */
+	private static final int SORTED_INDEX = 0x40;
+	/**
+	 * The size of the version and entry count of a sorted index.
+	 */
+	private static final int SORTED_HEADER_SIZE = 5;
+
+	/**
+	 * A value that is copied from the sorted index as it is.
+	 */
+	private static final class StoredValue {
+		final int length;
+		final int offset;
+
+		StoredValue(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
 	/**
 	 * Map of the history entries in this bucket. Maps (String -> byte[][] or String[][]),
 	 * where the key is the path of the object we are storing history for, and
-	 * the value is the history entry data (UUID,timestamp) pairs.
+	 * the value is the history entry data (UUID,timestamp) pairs.  If a sorted
+	 * index is loaded, only maps the entries changed since, to <code>null</code> 
+	 * if they were removed.
 	 */
-	private final Map<String,Object> entries;
+	private Map<String,Object> entries;
+	/**
+	 * The contents of the buckets loaded before this one, or <code>null</code>.
+	 */
+	private BucketCache cache;
+	/**
+	 * The contents of the sorted index file loaded, or <code>null</code>.
+	 */
+	private byte[] index;
+	/**
+	 * The number of entries in the sorted index loaded.
+	 */
+	private int indexCount;
+	/**
+	 * Reads the sorted index loaded.
+	 */
+	private DataInputStream indexInput;
 	/**
 	 * The file system location of this bucket index file.
 	 */
@@ -160,6 +217,14 @@ public abstract class Bucket {
 	 * The project name for the bucket currently loaded. <code>null</code> if this is the root bucket. 
 	 */
 	protected String projectName;
+	/**
+	 * The size of the index file when it was last read or written, in bytes.
+	 */
+	private long size;
+	/**
+	 * Whether index files are written in the sorted format, when supported.
+	 */
+	private boolean sortedIndex;
 
 	public Bucket() {
 		this.entries = new HashMap<String,Object>();
@@ -174,6 +239,8 @@ public abstract class Bucket {
 	 * @exception CoreException
 	 */
 	public final int accept(Visitor visitor, IPath filter, int depth) throws CoreException {
+		// visitors may change any entry
+		materialize();
 		if (entries.isEmpty())
 			return Visitor.CONTINUE;
 		try {
@@ -208,6 +275,13 @@ public abstract class Bucket {
 		}
 	}
 
+	/**
+	 * Called before an index file is read or written. Subclasses to override.
+	 */
+	protected void beginIndexFile() {
+		// does not do anything by default
+	}
+
 	/**
 	 * Tries to delete as many empty levels as possible.
 	 */
@@ -222,6 +296,16 @@ public abstract class Bucket {
 		cleanUp(toDelete.getParentFile());
 	}
 
+	/**
+	 * Closes the sorted index loaded, if any.  Changes to it must have been
+	 * saved or materialized.
+	 */
+	private void closeIndex() {
+		index = null;
+		indexInput = null;
+		indexCount = 0;
+	}
+
 	/**
 	 * Factory method for creating entries. Subclasses to override.
 	 */
@@ -229,27 +313,86 @@ public abstract class Bucket {
 
 	/**
 	 * Flushes this bucket so it has no contents and is not associated to any 
-	 * location. Any uncommitted changes are lost.
+	 * location. Any uncommitted changes are lost, including those of the
+	 * buckets kept in memory.
 	 */
 	public void flush() {
 		projectName = null;
 		location = null;
 		entries.clear();
+		closeIndex();
 		needSaving = false;
+		if (cache != null)
+			cache.clear();
+	}
+
+	/**
+	 * Forgets the contents of the buckets whose index files are under the
+	 * given directory, including their unsaved changes, whether they are
+	 * loaded in this bucket or kept in memory.
+	 */
+	void forget(File directory) {
+		if (location != null && location.getPath().startsWith(directory.getPath() + File.separatorChar)) {
+			projectName = null;
+			location = null;
+			entries.clear();
+			closeIndex();
+			needSaving = false;
+		}
+		if (cache != null)
+			cache.forget(directory);
+	}
+
+	/**
+	 * Returns the cache of the contents of the buckets loaded before this
+	 * one, or <code>null</code>.
+	 */
+	BucketCache getCache() {
+		return cache;
 	}
 
 	/**
 	 * Returns how many entries there are in this bucket.
 	 */
 	public final int getEntryCount() {
-		return entries.size();
+		if (index == null)
+			return entries.size();
+		int count = indexCount;
+		for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String,Object> changed = i.next();
+			boolean stored;
+			try {
+				stored = indexOf(changed.getKey()) >= 0;
+			} catch (IOException e) {
+				stored = false;
+			}
+			if (stored && changed.getValue() == null)
+				count--;
+			else if (!stored && changed.getValue() != null)
+				count++;
+		}
+		return count;
 	}
 
 	/**
 	 * Returns the value for entry corresponding to the given path (null if none found). 
 	 */
 	public final Object getEntryValue(String path) {
-		return entries.get(path);
+		if (index == null || entries.containsKey(path))
+			return entries.get(path);
+		try {
+			int position = indexOf(path);
+			if (position < 0)
+				return null;
+			beginIndexFile();
+			return readEntryValue(seek(valueOffset(position)));
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.resources_readMeta, location.getAbsolutePath());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, e));
+		} catch (CoreException e) {
+			Policy.log(e.getStatus());
+		}
+		return null;
 	}
 
 	/**
@@ -267,6 +410,44 @@ public abstract class Bucket {
 	 */
 	protected abstract String getVersionFileName();
 
+	/**
+	 * Returns the position in the sorted index loaded of the entry with the
+	 * given path, or -1 if there is none.
+	 */
+	private int indexOf(String path) throws IOException {
+		String key = storedKey(path, projectName);
+		int low = 0;
+		int high = indexCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = seek(keyOffset(middle)).readUTF().compareTo(key);
+			if (comparison < 0)
+				low = middle + 1;
+			else if (comparison > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether the values of entries can be read independently of
+	 * each other, so that index files can be written in the sorted format.
+	 * Subclasses to override.
+	 */
+	protected boolean isSortedIndexSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the offset of the key of the entry at the given position in the
+	 * sorted index loaded.
+	 */
+	private int keyOffset(int position) {
+		return readInt(index, SORTED_HEADER_SIZE + 4 * position);
+	}
+
 	/**
 	 * Loads the contents from a file under the given directory.
 	 */
@@ -277,7 +458,8 @@ public abstract class Bucket {
 	/**
 	 * Loads the contents from a file under the given directory. If <code>force</code> is
 	 * <code>false</code>, if this bucket already contains the contents from the current location, 
-	 * avoids reloading.
+	 * avoids reloading.  If this bucket has a cache, the contents of the previous location are
+	 * kept in it, and the contents of the new location are taken from it when possible.
 	 */
 	public void load(String newProjectName, File baseLocation, boolean force) throws CoreException {
 		try {
@@ -286,16 +468,44 @@ public abstract class Bucket {
 				this.projectName = newProjectName;
 				return;
 			}
-			// previously loaded bucket may not have been saved... save before loading new one
-			save();
+			File newLocation = new File(baseLocation, getIndexFileName());
+			// a sorted index is cheap enough to read again
+			if (index == null && cache != null && !force && location != null && cache.add(new BucketCache.Contents(location, projectName, entries, needSaving, size), this)) {
+				// the previous contents are now owned by the cache
+				this.entries = new HashMap<String,Object>();
+				this.needSaving = false;
+			} else {
+				// previously loaded bucket may not have been saved... save before loading new one
+				save();
+			}
+			closeIndex();
+			BucketCache.Contents cached = cache == null ? null : cache.remove(newLocation);
+			if (cached != null && !force) {
+				this.projectName = newProjectName;
+				this.location = newLocation;
+				this.entries = cached.entries;
+				this.needSaving = cached.needSaving;
+				this.size = cached.size;
+				return;
+			}
 			this.projectName = newProjectName;
-			this.location = new File(baseLocation, getIndexFileName());
+			this.location = newLocation;
 			this.entries.clear();
+			this.size = 0;
 			if (!this.location.isFile())
 				return;
+			this.size = location.length();
+			beginIndexFile();
 			DataInputStream source = new DataInputStream(new BufferedInputStream(new FileInputStream(location), 8192));
 			try {
 				int version = source.readByte();
+				if (version == (getVersion() | SORTED_INDEX) && isSortedIndexSupported()) {
+					byte[] contents = new byte[(int) size];
+					contents[0] = (byte) version;
+					source.readFully(contents, 1, contents.length - 1);
+					openIndex(contents);
+					return;
+				}
 				if (version != getVersion()) {
 					// unknown version
 					String message = NLS.bind(Messages.resources_readMetaWrongVersion, location.getAbsolutePath(), Integer.toString(version));
@@ -315,6 +525,101 @@ public abstract class Bucket {
 		}
 	}
 
+	/**
+	 * Replaces the sorted index loaded with its entries and the changes made
+	 * to it, if there is one.
+	 */
+	private void materialize() throws CoreException {
+		if (index == null)
+			return;
+		Map<String,Object> changes = entries;
+		Map<String,Object> all = new HashMap<String,Object>(indexCount + changes.size());
+		try {
+			beginIndexFile();
+			for (int i = 0; i < indexCount; i++) {
+				DataInputStream source = seek(keyOffset(i));
+				all.put(readEntryKey(source), readEntryValue(source));
+			}
+		} catch (IOException ioe) {
+			String message = NLS.bind(Messages.resources_readMeta, location.getAbsolutePath());
+			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, ioe);
+			throw new ResourceException(status);
+		}
+		for (Iterator<Map.Entry<String,Object>> i = changes.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String,Object> changed = i.next();
+			if (changed.getValue() == null)
+				all.remove(changed.getKey());
+			else
+				all.put(changed.getKey(), changed.getValue());
+		}
+		entries = all;
+		closeIndex();
+	}
+
+	/**
+	 * Keeps the given contents of a sorted index file as the index loaded,
+	 * after checking that its key directory is consistent.
+	 */
+	private void openIndex(byte[] contents) throws IOException {
+		if (contents.length < SORTED_HEADER_SIZE)
+			throw new EOFException();
+		int count = readInt(contents, 1);
+		if (count < 0 || SORTED_HEADER_SIZE + 4L * count > contents.length)
+			throw new IOException();//caught and rethrown by callers
+		// keys must follow each other and fit in the file
+		int end = SORTED_HEADER_SIZE + 4 * count;
+		for (int i = 0; i < count; i++) {
+			int offset = readInt(contents, SORTED_HEADER_SIZE + 4 * i);
+			if (offset < end || offset > contents.length - 2)
+				throw new IOException();
+			end = offset + 2 + ((contents[offset] & 0xFF) << 8 | contents[offset + 1] & 0xFF);
+			if (end > contents.length)
+				throw new IOException();
+		}
+		index = contents;
+		indexCount = count;
+		indexInput = new DataInputStream(new ByteArrayInputStream(contents));
+	}
+
+	/**
+	 * Writes the changes made to the sorted index loaded in place, if they
+	 * all replace the value of an entry with a value of the same length.
+	 * Returns whether they did.
+	 */
+	private boolean patchIndex() throws IOException, CoreException {
+		if (location.length() != index.length)
+			return false;
+		int[] offsets = new int[entries.size()];
+		byte[][] values = new byte[offsets.length][];
+		int count = 0;
+		beginIndexFile();
+		for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String,Object> changed = i.next();
+			if (changed.getValue() == null)
+				return false;
+			int position = indexOf(changed.getKey());
+			if (position < 0)
+				return false;
+			ByteArrayOutputStream value = new ByteArrayOutputStream();
+			writeEntryValue(new DataOutputStream(value), changed.getValue());
+			offsets[count] = valueOffset(position);
+			if (value.size() != valueEnd(position) - offsets[count])
+				return false;
+			values[count++] = value.toByteArray();
+		}
+		RandomAccessFile file = new RandomAccessFile(location, "rw"); //$NON-NLS-1$
+		try {
+			for (int i = 0; i < count; i++) {
+				file.seek(offsets[i]);
+				file.write(values[i]);
+				System.arraycopy(values[i], 0, index, offsets[i], values[i].length);
+			}
+		} finally {
+			file.close();
+		}
+		return true;
+	}
+
 	private String readEntryKey(DataInputStream source) throws IOException {
 		if (projectName == null)
 			return source.readUTF();
@@ -326,37 +631,59 @@ public abstract class Bucket {
 	 */
 	protected abstract Object readEntryValue(DataInputStream source) throws IOException, CoreException;
 
+	private static int readInt(byte[] contents, int offset) {
+		return (contents[offset] & 0xFF) << 24 | (contents[offset + 1] & 0xFF) << 16 | (contents[offset + 2] & 0xFF) << 8 | contents[offset + 3] & 0xFF;
+	}
+
 	/**
-	 * Saves this bucket's contents back to its location.
+	 * Saves this bucket's contents back to its location, as well as the
+	 * changed contents of the buckets kept in memory.
 	 */
 	public void save() throws CoreException {
+		if (cache != null)
+			cache.save(this);
 		if (!needSaving)
 			return;
+		if (index == null)
+			size = write(location, projectName, entries);
+		else
+			saveIndex();
+		needSaving = false;
+	}
+
+	/**
+	 * Writes the changes made to the sorted index loaded.  Unchanged values
+	 * are copied as they are.
+	 */
+	private void saveIndex() throws CoreException {
 		try {
-			if (entries.isEmpty()) {
-				needSaving = false;
-				cleanUp(location);
+			if (patchIndex()) {
+				entries.clear();
 				return;
 			}
-			// ensure the parent location exists 
-			File parent = location.getParentFile();
-			if (parent == null)
-				throw new IOException();//caught and rethrown below
-			parent.mkdirs();
-			DataOutputStream destination = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(location), 8192));
-			try {
-				destination.write(getVersion());
-				destination.writeInt(entries.size());
-				for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
-					Map.Entry<String,Object> entry = i.next();
-					writeEntryKey(destination, entry.getKey());
-					writeEntryValue(destination, entry.getValue());
-				}
-				destination.close();
-			} finally {
-				FileUtil.safeClose(destination);
+			SortedMap<String,Object> merged = new TreeMap<String,Object>();
+			for (int i = 0; i < indexCount; i++) {
+				int offset = valueOffset(i);
+				merged.put(seek(keyOffset(i)).readUTF(), new StoredValue(offset, valueEnd(i) - offset));
 			}
-			needSaving = false;
+			for (Iterator<Map.Entry<String,Object>> i = entries.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String,Object> changed = i.next();
+				String key = storedKey(changed.getKey(), projectName);
+				if (changed.getValue() == null)
+					merged.remove(key);
+				else
+					merged.put(key, changed.getValue());
+			}
+			entries.clear();
+			if (merged.isEmpty()) {
+				closeIndex();
+				cleanUp(location);
+				size = 0;
+				return;
+			}
+			byte[] contents = writeSorted(location, merged);
+			openIndex(contents);
+			size = contents.length;
 		} catch (IOException ioe) {
 			String message = NLS.bind(Messages.resources_writeMeta, location.getAbsolutePath());
 			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, ioe);
@@ -364,32 +691,163 @@ public abstract class Bucket {
 		}
 	}
 
+	/**
+	 * Returns a stream reading the sorted index loaded from the given offset.
+	 */
+	private DataInputStream seek(int offset) throws IOException {
+		indexInput.reset();
+		indexInput.skip(offset);
+		return indexInput;
+	}
+
+	/**
+	 * Sets the cache keeping the contents of the buckets loaded before this one.
+	 */
+	void setCache(BucketCache cache) {
+		this.cache = cache;
+	}
+
 	/**
 	 * Sets the value for the entry with the given path. If <code>value</code> is <code>null</code>,
 	 * removes the entry. 
 	 */
 	public final void setEntryValue(String path, Object value) {
-		if (value == null)
+		if (index != null)
+			// null marks the entries removed from the sorted index
+			entries.put(path, value);
+		else if (value == null)
 			entries.remove(path);
 		else
 			entries.put(path, value);
 		needSaving = true;
 	}
 
-	private void writeEntryKey(DataOutputStream destination, String path) throws IOException {
-		if (projectName == null) {
-			destination.writeUTF(path);
-			return;
-		}
+	/**
+	 * Sets whether index files are written in the sorted format, when supported.
+	 */
+	void setSortedIndex(boolean sortedIndex) {
+		this.sortedIndex = sortedIndex;
+	}
+
+	/**
+	 * Returns the key of the given path in the index file of the given project.
+	 */
+	private static String storedKey(String path, String indexProjectName) {
+		if (indexProjectName == null)
+			return path;
 		// omit the project name
 		int pathLength = path.length();
-		int projectLength = projectName.length();
-		String key = (pathLength == projectLength + 1) ? "" : path.substring(projectLength + 1); //$NON-NLS-1$
-		destination.writeUTF(key);
+		int projectLength = indexProjectName.length();
+		return (pathLength == projectLength + 1) ? "" : path.substring(projectLength + 1); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the offset following the value of the entry at the given
+	 * position in the sorted index loaded.
+	 */
+	private int valueEnd(int position) {
+		return position + 1 < indexCount ? keyOffset(position + 1) : index.length;
+	}
+
+	/**
+	 * Returns the offset of the value of the entry at the given position in
+	 * the sorted index loaded.
+	 */
+	private int valueOffset(int position) {
+		int offset = keyOffset(position);
+		return offset + 2 + ((index[offset] & 0xFF) << 8 | index[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * Writes the given entries to the given index file, or deletes the file
+	 * if there are no entries.  Returns the size of the file.
+	 */
+	long write(File indexFile, String indexProjectName, Map<String,Object> indexEntries) throws CoreException {
+		try {
+			if (indexEntries.isEmpty()) {
+				cleanUp(indexFile);
+				return 0;
+			}
+			// ensure the parent location exists 
+			File parent = indexFile.getParentFile();
+			if (parent == null)
+				throw new IOException();//caught and rethrown below
+			parent.mkdirs();
+			if (sortedIndex && isSortedIndexSupported()) {
+				SortedMap<String,Object> sorted = new TreeMap<String,Object>();
+				for (Iterator<Map.Entry<String,Object>> i = indexEntries.entrySet().iterator(); i.hasNext();) {
+					Map.Entry<String,Object> entry = i.next();
+					sorted.put(storedKey(entry.getKey(), indexProjectName), entry.getValue());
+				}
+				return writeSorted(indexFile, sorted).length;
+			}
+			beginIndexFile();
+			DataOutputStream destination = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 8192));
+			try {
+				destination.write(getVersion());
+				destination.writeInt(indexEntries.size());
+				for (Iterator<Map.Entry<String,Object>> i = indexEntries.entrySet().iterator(); i.hasNext();) {
+					Map.Entry<String,Object> entry = i.next();
+					writeEntryKey(destination, entry.getKey(), indexProjectName);
+					writeEntryValue(destination, entry.getValue());
+				}
+				destination.close();
+			} finally {
+				FileUtil.safeClose(destination);
+			}
+			return destination.size();
+		} catch (IOException ioe) {
+			String message = NLS.bind(Messages.resources_writeMeta, indexFile.getAbsolutePath());
+			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, ioe);
+			throw new ResourceException(status);
+		}
+	}
+
+	private void writeEntryKey(DataOutputStream destination, String path, String indexProjectName) throws IOException {
+		destination.writeUTF(storedKey(path, indexProjectName));
 	}
 
 	/**
 	 * Defines how an entry is to be persisted to the bucket file.
 	 */
 	protected abstract void writeEntryValue(DataOutputStream destination, Object entryValue) throws IOException, CoreException;
+
+	/**
+	 * Writes the given entries, by key, to the given index file in the sorted
+	 * format.  Returns the contents of the file.
+	 */
+	private byte[] writeSorted(File indexFile, SortedMap<String,Object> sorted) throws IOException, CoreException {
+		int headerSize = SORTED_HEADER_SIZE + 4 * sorted.size();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(buffer);
+		int[] offsets = new int[sorted.size()];
+		int count = 0;
+		beginIndexFile();
+		for (Iterator<Map.Entry<String,Object>> i = sorted.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String,Object> entry = i.next();
+			offsets[count++] = headerSize + body.size();
+			body.writeUTF(entry.getKey());
+			if (entry.getValue() instanceof StoredValue) {
+				StoredValue stored = (StoredValue) entry.getValue();
+				body.write(index, stored.offset, stored.length);
+			} else
+				writeEntryValue(body, entry.getValue());
+		}
+		ByteArrayOutputStream file = new ByteArrayOutputStream(headerSize + body.size());
+		DataOutputStream header = new DataOutputStream(file);
+		header.write(getVersion() | SORTED_INDEX);
+		header.writeInt(count);
+		for (int i = 0; i < count; i++)
+			header.writeInt(offsets[i]);
+		buffer.writeTo(file);
+		byte[] contents = file.toByteArray();
+		FileOutputStream destination = new FileOutputStream(indexFile);
+		try {
+			destination.write(contents);
+			destination.close();
+		} finally {
+			FileUtil.safeClose(destination);
+		}
+		return contents;
+	}
 }
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Keeps the contents of the buckets most recently loaded by a bucket tree in
+ * memory, so that loading one of them again does not read its index file.
+ * Changed contents are written to their index file when they are evicted,
+ * or when the bucket is saved.  The cache is bounded both in number of
+ * buckets and in the memory taken by their entries.
+ * <p>
+ * This class is not thread safe: it is only used by the bucket it belongs
+ * to, which is itself guarded by its bucket tree's clients.
+ *
+ * @see Bucket#load(String, File, boolean)
+ */
+final class BucketCache {
+	/**
+	 * The contents of a bucket that is not the current one.
+	 */
+	static final class Contents {
+		final Map<String, Object> entries;
+		final File location;
+		/** an estimate of the memory taken by the entries, in bytes */
+		final long memory;
+		boolean needSaving;
+		final String projectName;
+		/** the size of the index file, in bytes */
+		final long size;
+
+		Contents(File location, String projectName, Map<String, Object> entries, boolean needSaving, long size) {
+			this.location = location;
+			this.projectName = projectName;
+			this.entries = entries;
+			this.needSaving = needSaving;
+			this.size = size;
+			this.memory = memoryOf(entries);
+		}
+	}
+
+	/** the estimated memory taken by an object header and a reference to it */
+	private static final int OBJECT_OVERHEAD = 16;
+
+	private long bytes;
+	/** the cached contents, by index file, least recently used first */
+	private final LinkedHashMap<File, Contents> contents = new LinkedHashMap<File, Contents>(16, 0.75f, true);
+	private int hits;
+	private final long maxBytes;
+	private final int maxEntries;
+	private int misses;
+
+	BucketCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds the contents of a bucket, evicting the least recently used
+	 * contents as needed.  Changed contents are written by the given bucket
+	 * before they are evicted.  Returns false if the contents do not fit in
+	 * the cache at all, in which case they were not added.
+	 */
+	boolean add(Contents added, Bucket bucket) throws CoreException {
+		if (maxEntries <= 0 || added.memory > maxBytes)
+			return false;
+		for (Iterator<Contents> i = contents.values().iterator(); i.hasNext() && (contents.size() >= maxEntries || bytes + added.memory > maxBytes);) {
+			Contents evicted = i.next();
+			if (evicted.needSaving)
+				bucket.write(evicted.location, evicted.projectName, evicted.entries);
+			i.remove();
+			bytes -= evicted.memory;
+		}
+		contents.put(added.location, added);
+		bytes += added.memory;
+		return true;
+	}
+
+	/**
+	 * Forgets all contents, including unsaved changes.
+	 */
+	void clear() {
+		contents.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Forgets the contents of the buckets whose index files are under the
+	 * given directory, including their unsaved changes.
+	 */
+	void forget(File directory) {
+		String prefix = directory.getPath() + File.separatorChar;
+		for (Iterator<Contents> i = contents.values().iterator(); i.hasNext();) {
+			Contents forgotten = i.next();
+			if (!forgotten.location.getPath().startsWith(prefix))
+				continue;
+			i.remove();
+			bytes -= forgotten.memory;
+		}
+	}
+
+	int getHitCount() {
+		return hits;
+	}
+
+	int getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Removes and returns the contents of the bucket with the given index
+	 * file, or <code>null</code> if they are not cached.
+	 */
+	Contents remove(File location) {
+		Contents removed = contents.remove(location);
+		if (removed == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		bytes -= removed.memory;
+		return removed;
+	}
+
+	/**
+	 * Returns an estimate of the memory taken by the given entries, in
+	 * bytes.  Entry values are arrays of byte arrays or of string arrays.
+	 */
+	static long memoryOf(Map<String, Object> entries) {
+		long memory = OBJECT_OVERHEAD;
+		for (Iterator<Map.Entry<String, Object>> i = entries.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Object> entry = i.next();
+			// the map entry, and the key with its characters
+			memory += 3 * OBJECT_OVERHEAD + 2 * entry.getKey().length();
+			Object value = entry.getValue();
+			if (!(value instanceof Object[]))
+				continue;
+			Object[] elements = (Object[]) value;
+			memory += OBJECT_OVERHEAD + 4 * elements.length;
+			for (int j = 0; j < elements.length; j++) {
+				if (elements[j] instanceof byte[]) {
+					memory += OBJECT_OVERHEAD + ((byte[]) elements[j]).length;
+				} else if (elements[j] instanceof String[]) {
+					String[] strings = (String[]) elements[j];
+					memory += OBJECT_OVERHEAD + 4 * strings.length;
+					for (int k = 0; k < strings.length; k++)
+						if (strings[k] != null)
+							memory += 2 * OBJECT_OVERHEAD + 2 * strings[k].length();
+				}
+			}
+		}
+		return memory;
+	}
+
+	/**
+	 * Writes the changed contents with the given bucket.
+	 */
+	void save(Bucket bucket) throws CoreException {
+		for (Contents changed : contents.values()) {
+			if (!changed.needSaving)
+				continue;
+			bucket.write(changed.location, changed.projectName, changed.entries);
+			changed.needSaving = false;
+		}
+	}
+}
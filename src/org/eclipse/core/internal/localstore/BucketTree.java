@@ -17,6 +17,7 @@ import org.eclipse.core.internal.localstore.Bucket.Visitor;
 import org.eclipse.core.internal.resources.ResourceException;
 import org.eclipse.core.internal.resources.Workspace;
 import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
@@ -31,6 +32,24 @@ public class BucketTree {
 	public static final int DEPTH_ZERO = 0;
 
 	private final static int SEGMENT_QUOTA = 256; //two hex characters
+
+	/**
+	 * System property for the number of buckets kept in memory, besides the
+	 * current one.  Zero disables the cache.
+	 */
+	private static final String PROP_CACHE_ENTRIES = ResourcesPlugin.PI_RESOURCES + ".bucketCacheEntries"; //$NON-NLS-1$
+	private static final int DEFAULT_CACHE_ENTRIES = 32;
+	/**
+	 * System property for the estimated memory, in bytes, taken by the
+	 * entries of the buckets kept in memory.
+	 */
+	private static final String PROP_CACHE_SIZE = ResourcesPlugin.PI_RESOURCES + ".bucketCacheSize"; //$NON-NLS-1$
+	private static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+	/**
+	 * System property for writing index files as sorted indexes, for the
+	 * buckets that support it.  Older versions cannot read sorted indexes.
+	 */
+	private static final String PROP_SORTED_INDEX = ResourcesPlugin.PI_RESOURCES + ".bucketSortedIndex"; //$NON-NLS-1$
 	
 	/**
 	 * Store all bucket names to avoid creating garbage when traversing the tree
@@ -50,6 +69,10 @@ public class BucketTree {
 	public BucketTree(Workspace workspace, Bucket bucket) {
 		this.current = bucket;
 		this.workspace = workspace;
+		int cacheEntries = Integer.getInteger(PROP_CACHE_ENTRIES, DEFAULT_CACHE_ENTRIES).intValue();
+		if (cacheEntries > 0)
+			bucket.setCache(new BucketCache(cacheEntries, Integer.getInteger(PROP_CACHE_SIZE, DEFAULT_CACHE_SIZE).intValue()));
+		bucket.setSortedIndex(Boolean.getBoolean(PROP_SORTED_INDEX));
 	}
 
 	/**
@@ -59,10 +82,24 @@ public class BucketTree {
 	 * @param depth
 	 */
 	public void accept(Bucket.Visitor visitor, IPath base, int depth) throws CoreException {
+		accept(visitor, base, depth, this);
+	}
+
+	/**
+	 * From a starting point in the tree, visit all nodes under it, holding the
+	 * given lock while each bucket is loaded, visited and saved.  The lock is
+	 * released between buckets, so that threads using the tree while holding
+	 * the lock can run in the meantime.
+	 */
+	public void accept(Bucket.Visitor visitor, IPath base, int depth, Object lock) throws CoreException {
 		if (Path.ROOT.equals(base)) {
-			current.load(null, locationFor(Path.ROOT));
-			if (current.accept(visitor, base, DEPTH_ZERO) != Visitor.CONTINUE)
-				return;
+			synchronized (lock) {
+				// buckets kept in memory must be on disk to be found
+				current.save();
+				current.load(null, locationFor(Path.ROOT));
+				if (current.accept(visitor, base, DEPTH_ZERO) != Visitor.CONTINUE)
+					return;
+			}
 			if (depth == DEPTH_ZERO)
 				return;
 			boolean keepVisiting = true;
@@ -70,15 +107,48 @@ public class BucketTree {
 			IProject[] projects = workspace.getRoot().getProjects(IContainer.INCLUDE_HIDDEN);
 			for (int i = 0; keepVisiting && i < projects.length; i++) {
 				IPath projectPath = projects[i].getFullPath();
-				keepVisiting = internalAccept(visitor, projectPath, locationFor(projectPath), depth, 1);
+				keepVisiting = internalAccept(visitor, projectPath, locationFor(projectPath), depth, 1, lock);
+			}
+		} else {
+			synchronized (lock) {
+				current.save();
 			}
-		} else
-			internalAccept(visitor, base, locationFor(base), depth, 0);
+			internalAccept(visitor, base, locationFor(base), depth, 0, lock);
+		}
 	}
 
 	public void close() throws CoreException {
 		current.save();
 		saveVersion();
+		if (Policy.DEBUG_HISTORY && current.getCache() != null)
+			Policy.debug("Bucket cache for " + current.getIndexFileName() + ": " + getCacheHitCount() + " hits, " + getCacheMissCount() + " misses"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Returns how many times a bucket was loaded from the buckets kept in memory.
+	 */
+	public int getCacheHitCount() {
+		BucketCache cache = current.getCache();
+		return cache == null ? 0 : cache.getHitCount();
+	}
+
+	/**
+	 * Returns how many times a bucket was not found in the buckets kept in memory.
+	 */
+	public int getCacheMissCount() {
+		BucketCache cache = current.getCache();
+		return cache == null ? 0 : cache.getMissCount();
+	}
+
+	/**
+	 * Forgets the buckets of the given project that are kept in memory,
+	 * including their unsaved changes.  Used once the project's metadata
+	 * area has been deleted: visiting the tree only finds the buckets that
+	 * are on disk, so the buckets of the project would otherwise be found
+	 * again if a project with the same name is created.
+	 */
+	public void forgetProject(IPath projectPath) {
+		current.forget(locationFor(projectPath));
 	}
 
 	public Bucket getCurrent() {
@@ -94,9 +164,12 @@ public class BucketTree {
 	 *  
 	 * @return whether to continue visiting other branches 
 	 */
-	private boolean internalAccept(Bucket.Visitor visitor, IPath base, File bucketDir, int depthRequested, int currentDepth) throws CoreException {
-		current.load(base.segment(0), bucketDir);
-		int outcome = current.accept(visitor, base, depthRequested);
+	private boolean internalAccept(Bucket.Visitor visitor, IPath base, File bucketDir, int depthRequested, int currentDepth, Object lock) throws CoreException {
+		int outcome;
+		synchronized (lock) {
+			current.load(base.segment(0), bucketDir);
+			outcome = current.accept(visitor, base, depthRequested);
+		}
 		if (outcome != Visitor.CONTINUE)
 			return outcome == Visitor.RETURN;
 		if (depthRequested <= currentDepth)
@@ -106,7 +179,7 @@ public class BucketTree {
 			return true;
 		for (int i = 0; i < subDirs.length; i++)
 			if (subDirs[i].isDirectory())
-				if (!internalAccept(visitor, base, subDirs[i], depthRequested, currentDepth + 1))
+				if (!internalAccept(visitor, base, subDirs[i], depthRequested, currentDepth + 1, lock))
 					return false;
 		return true;
 	}
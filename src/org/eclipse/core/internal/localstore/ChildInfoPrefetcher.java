@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.core.filesystem.*;
+
+/**
+ * Fetches the children of file system folders on a pool of worker threads,
+ * ahead of a {@link UnifiedTree} traversal that will need them.  Only the
+ * file system is accessed on the worker threads; the traversal, and all
+ * changes to the workspace, stay on the thread that requests the fetches.
+ * <p>
+ * Fetches are started in the order they were requested, and at most a
+ * bounded number of them are started and not yet taken at any time, which
+ * keeps the fetched lists that are held in memory to the folders the
+ * traversal is about to reach.  All methods except {@link Fetch#run()} must
+ * be called by the thread performing the traversal.
+ */
+class ChildInfoPrefetcher {
+	/**
+	 * The number of fetches started per worker thread that may be
+	 * waiting to be taken.
+	 */
+	private static final int FETCHES_PER_THREAD = 32;
+
+	private static final int NEW = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int CANCELLED = 3;
+
+	/**
+	 * A request to fetch the children of a folder.
+	 */
+	final class Fetch implements Runnable {
+		private final IFileStore store;
+		/* accessed only by the traversal thread */
+		boolean started;
+		/* guarded by this fetch */
+		private int state = NEW;
+		private IFileInfo[] result;
+
+		Fetch(IFileStore store) {
+			this.store = store;
+		}
+
+		/**
+		 * Abandons this fetch.  Its result will never be taken.
+		 */
+		void cancel() {
+			synchronized (this) {
+				if (state == NEW)
+					state = CANCELLED;
+			}
+			finished(this);
+		}
+
+		public void run() {
+			synchronized (this) {
+				if (state != NEW || shutdown)
+					return;
+				state = RUNNING;
+			}
+			IFileInfo[] infos = null;
+			try {
+				infos = UnifiedTree.fetchChildInfos(store);
+				//sort here rather than on the traversal thread
+				if (infos != null && infos.length > 1)
+					Arrays.sort(infos);
+			} catch (Exception e) {
+				//the traversal fetches the children itself, and handles the failure
+			} finally {
+				synchronized (this) {
+					result = infos;
+					state = DONE;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Returns the children of the folder, waiting for the fetch to complete
+		 * if it is running.  Returns <code>null</code> if the fetch has not been
+		 * performed or failed, in which case the caller must fetch the children
+		 * itself.
+		 */
+		IFileInfo[] take() {
+			IFileInfo[] infos = null;
+			boolean interrupted = false;
+			synchronized (this) {
+				if (state == NEW)
+					state = CANCELLED;
+				while (state == RUNNING) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (state == DONE)
+					infos = result;
+				result = null;
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			finished(this);
+			return infos;
+		}
+	}
+
+	private ThreadPoolExecutor executor;
+	/** the number of fetches that have been started and not yet taken or cancelled */
+	private int outstanding;
+	private volatile boolean shutdown;
+	private final int threads;
+	/** fetches that have been requested but not yet started */
+	private final LinkedList<Fetch> waiting = new LinkedList<Fetch>();
+
+	ChildInfoPrefetcher(int threads) {
+		this.threads = threads;
+	}
+
+	private void finished(Fetch fetch) {
+		if (fetch.started) {
+			fetch.started = false;
+			outstanding--;
+			startFetches();
+		}
+	}
+
+	private Executor getExecutor() {
+		if (executor == null) {
+			ThreadFactory factory = new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Refresh child fetcher"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+		}
+		return executor;
+	}
+
+	/**
+	 * Requests that the children of the given folder be fetched.  The
+	 * returned fetch must eventually be either taken or cancelled.
+	 */
+	Fetch request(IFileStore store) {
+		Fetch fetch = new Fetch(store);
+		waiting.add(fetch);
+		startFetches();
+		return fetch;
+	}
+
+	/**
+	 * Stops fetching.  Fetches that have not been started are never performed.
+	 */
+	void shutdown() {
+		shutdown = true;
+		waiting.clear();
+		if (executor != null)
+			executor.shutdown();
+	}
+
+	private void startFetches() {
+		int limit = threads * FETCHES_PER_THREAD;
+		while (outstanding < limit && !waiting.isEmpty() && !shutdown) {
+			Fetch fetch = waiting.removeFirst();
+			synchronized (fetch) {
+				if (fetch.state != NEW)
+					continue;
+			}
+			fetch.started = true;
+			outstanding++;
+			getExecutor().execute(fetch);
+		}
+	}
+}
@@ -29,15 +29,41 @@ import org.xml.sax.InputSource;
  * Manages the synchronization between the workspace's view and the file system.  
  */
 public class FileSystemResourceManager implements ICoreConstants, IManager {
+	/**
+	 * System property naming the number of threads on which a deep refresh
+	 * fetches the children of folders ahead of the traversal. A value less
+	 * than two makes refresh fetch children only when it reaches them.
+	 */
+	private static final String PROP_REFRESH_THREADS = ResourcesPlugin.PI_RESOURCES + ".refreshThreads"; //$NON-NLS-1$
+	private static final int DEFAULT_REFRESH_THREADS = 4;
+	private static final int REFRESH_THREADS = Integer.getInteger(PROP_REFRESH_THREADS, DEFAULT_REFRESH_THREADS).intValue();
+	/**
+	 * System property enabling the folder fingerprints that let the first deep
+	 * refresh of a project in a session skip folders whose entries did not
+	 * change since the previous session. See {@link RefreshFingerprints}.
+	 * <p>
+	 * Only enable it when files are not edited outside the workbench while it
+	 * is shut down.  Editing the contents of a file does not change its
+	 * folder, so that refresh misses content changes made to existing files
+	 * between sessions.  Later refreshes in the session find them, and
+	 * only additions, removals and renames of entries are found right away.
+	 * </p>
+	 */
+	private static final String PROP_REFRESH_FINGERPRINTS = ResourcesPlugin.PI_RESOURCES + ".refreshFingerprints"; //$NON-NLS-1$
 
 	/**
 	 * The history store is initialized lazily - always use the accessor method
 	 */
 	protected IHistoryStore _historyStore;
+	/**
+	 * The fingerprints of refreshed folders, or null if they are not used
+	 */
+	private final RefreshFingerprints refreshFingerprints;
 	protected Workspace workspace;
 
 	public FileSystemResourceManager(Workspace workspace) {
 		this.workspace = workspace;
+		this.refreshFingerprints = Boolean.getBoolean(PROP_REFRESH_FINGERPRINTS) ? new RefreshFingerprints(workspace) : null;
 	}
 
 	/**
@@ -862,10 +888,26 @@ public class FileSystemResourceManager implements ICoreConstants, IManager {
 			//try to get all info in one shot, if file system supports it
 			IFileTree fileTree = fileStore.getFileSystem().fetchFileTree(fileStore, new SubProgressMonitor(monitor, 0));
 			UnifiedTree tree = fileTree == null ? new UnifiedTree(target) : new UnifiedTree(target, fileTree);
-			tree.accept(visitor, depth);
+			RefreshFingerprints.Traversal fingerprints = null;
+			if (depth == IResource.DEPTH_INFINITE) {
+				tree.setPrefetchThreads(REFRESH_THREADS);
+				if (refreshFingerprints != null && fileTree == null) {
+					fingerprints = refreshFingerprints.beginTraversal(target);
+					tree.setFingerprints(fingerprints);
+				}
+			}
+			visitor.batchFileCreation();
+			try {
+				tree.accept(visitor, depth);
+			} finally {
+				visitor.createPendingFiles();
+			}
 			IStatus result = visitor.getErrorStatus();
 			if (!result.isOK())
 				throw new ResourceException(result);
+			//only a complete traversal leaves every listed folder in sync
+			if (fingerprints != null)
+				refreshFingerprints.endTraversal(fingerprints);
 			return visitor.resourcesChanged();
 		} finally {
 			monitor.done();
@@ -918,6 +960,16 @@ public class FileSystemResourceManager implements ICoreConstants, IManager {
 		return files ? (IResource) root.getFile(path) : (IResource) root.getFolder(path);
 	}
 
+	/**
+	 * Saves the fingerprints of the folders of the given project that were
+	 * refreshed, so the first refresh in the next session can skip those
+	 * that are unchanged.
+	 */
+	public void saveRefreshFingerprints(IProject project) throws CoreException {
+		if (refreshFingerprints != null)
+			refreshFingerprints.save(project);
+	}
+
 	/* (non-javadoc)
 	 * @see IResouce.setLocalTimeStamp
 	 */
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileInfo;
+import org.eclipse.core.filesystem.provider.FileInfo;
+
+/**
+ * Gives access to the directory streams and POSIX file attributes of
+ * <code>java.nio.file.Files</code> on the default file system.  This bundle
+ * is compiled against J2SE-1.5, so the API is accessed reflectively, and is
+ * only available when running on Java 7 or later, on a file system that
+ * supports the POSIX attribute view.  Paths and attributes are handled as
+ * plain objects.
+ */
+final class FilesAccess {
+	private static Method fileKey;
+	private static Object followLinks;
+	private static Method getFileName;
+	private static Method isDirectory;
+	private static Method isSymbolicLink;
+	private static Method lastModifiedTime;
+	/**
+	 * The precision of the time stamps of <code>java.io.File</code>, in
+	 * milliseconds, or 0 until it is known.
+	 */
+	private static long lastModifiedPrecision;
+	private static Method newDirectoryStream;
+	private static Object noFollowLinks;
+	private static Object ownerExecute;
+	private static Object ownerWrite;
+	private static Method permissions;
+	private static Class posixAttributes;
+	private static Method readAttributes;
+	private static Method readSymbolicLink;
+	private static Method size;
+	private static Method toMillis;
+	private static Method toPath;
+	private static final boolean available = initialize();
+
+	private FilesAccess() {
+		super();
+	}
+
+	/**
+	 * Returns the information of the entries of the given directory, read
+	 * with one directory stream and the attributes of each entry.  Like the
+	 * local file system, symbolic links are described by the attributes of
+	 * their target, with the link attributes set; the information of a broken
+	 * link, or of an entry deleted meanwhile, does not exist.
+	 * <p>
+	 * Everything is taken from the attributes read for the entry.  Refresh
+	 * stores the time stamp as the local sync info, which is later compared
+	 * with <code>IFileStore.fetchInfo()</code>, so it is truncated to the
+	 * precision of <code>java.io.File</code>, which only has seconds on some
+	 * runtimes.  Like the native local file system, an entry is read-only if
+	 * its owner cannot write it, and hidden if its name starts with a dot.
+	 * </p>
+	 *
+	 * @exception IOException if the directory cannot be listed
+	 */
+	static IFileInfo[] childInfos(File directory) throws IOException {
+		Object stream = invoke(newDirectoryStream, null, new Object[] {invoke(toPath, directory, new Object[0])});
+		try {
+			ArrayList<IFileInfo> infos = new ArrayList<IFileInfo>();
+			for (Iterator<?> i = ((Iterable<?>) stream).iterator(); i.hasNext();)
+				infos.add(fetchInfo(directory, i.next()));
+			return infos.toArray(new IFileInfo[infos.size()]);
+		} catch (RuntimeException e) {
+			//directory streams report failures while iterating as unchecked exceptions
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			((Closeable) stream).close();
+		}
+	}
+
+	private static IFileInfo fetchInfo(File directory, Object path) throws IOException {
+		String name = invoke(getFileName, path, new Object[0]).toString();
+		FileInfo info = new FileInfo(name);
+		try {
+			Object attributes = invoke(readAttributes, null, new Object[] {path, posixAttributes, noFollowLinks});
+			if (((Boolean) invoke(isSymbolicLink, attributes, new Object[0])).booleanValue()) {
+				info.setAttribute(EFS.ATTRIBUTE_SYMLINK, true);
+				info.setStringAttribute(EFS.ATTRIBUTE_LINK_TARGET, invoke(readSymbolicLink, null, new Object[] {path}).toString());
+				attributes = invoke(readAttributes, null, new Object[] {path, posixAttributes, followLinks});
+			}
+			long lastModified = ((Long) invoke(toMillis, invoke(lastModifiedTime, attributes, new Object[0]), new Object[0])).longValue();
+			if (lastModifiedPrecision == 0 && lastModified % 1000 != 0)
+				//the first time stamp that is not in whole seconds tells the precision of java.io.File
+				lastModifiedPrecision = new File(directory, name).lastModified() % 1000 == 0 ? 1000 : 1;
+			if (lastModifiedPrecision == 1000)
+				lastModified -= lastModified % 1000;
+			info.setExists(true);
+			info.setLastModified(lastModified);
+			info.setDirectory(((Boolean) invoke(isDirectory, attributes, new Object[0])).booleanValue());
+			info.setLength(((Long) invoke(size, attributes, new Object[0])).longValue());
+			Set<?> granted = (Set<?>) invoke(permissions, attributes, new Object[0]);
+			info.setAttribute(EFS.ATTRIBUTE_READ_ONLY, !granted.contains(ownerWrite));
+			info.setAttribute(EFS.ATTRIBUTE_HIDDEN, name.charAt(0) == '.');
+			info.setAttribute(EFS.ATTRIBUTE_EXECUTABLE, granted.contains(ownerExecute));
+		} catch (IOException e) {
+			//broken link or deleted entry
+		}
+		return info;
+	}
+
+	/**
+	 * Returns an object that uniquely identifies the given file, such as its
+	 * device and inode, or <code>null</code> if the file system provides none.
+	 * Symbolic links are followed.
+	 *
+	 * @exception IOException if the attributes of the file cannot be read
+	 */
+	static Object getFileKey(File file) throws IOException {
+		Object attributes = invoke(readAttributes, null, new Object[] {invoke(toPath, file, new Object[0]), posixAttributes, followLinks});
+		return invoke(fileKey, attributes, new Object[0]);
+	}
+
+	private static boolean initialize() {
+		try {
+			ClassLoader loader = FilesAccess.class.getClassLoader();
+			Class fileSystems = Class.forName("java.nio.file.FileSystems", true, loader); //$NON-NLS-1$
+			Class fileSystem = Class.forName("java.nio.file.FileSystem", true, loader); //$NON-NLS-1$
+			Class files = Class.forName("java.nio.file.Files", true, loader); //$NON-NLS-1$
+			Class path = Class.forName("java.nio.file.Path", true, loader); //$NON-NLS-1$
+			Class linkOption = Class.forName("java.nio.file.LinkOption", true, loader); //$NON-NLS-1$
+			Class permission = Class.forName("java.nio.file.attribute.PosixFilePermission", true, loader); //$NON-NLS-1$
+			Class fileTime = Class.forName("java.nio.file.attribute.FileTime", true, loader); //$NON-NLS-1$
+			posixAttributes = Class.forName("java.nio.file.attribute.PosixFileAttributes", true, loader); //$NON-NLS-1$
+			Object defaultFileSystem = fileSystems.getMethod("getDefault", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			Set views = (Set) fileSystem.getMethod("supportedFileAttributeViews", new Class[0]).invoke(defaultFileSystem, new Object[0]); //$NON-NLS-1$
+			if (!views.contains("posix")) //$NON-NLS-1$
+				return false;
+			toPath = File.class.getMethod("toPath", new Class[0]); //$NON-NLS-1$
+			getFileName = path.getMethod("getFileName", new Class[0]); //$NON-NLS-1$
+			newDirectoryStream = files.getMethod("newDirectoryStream", new Class[] {path}); //$NON-NLS-1$
+			readSymbolicLink = files.getMethod("readSymbolicLink", new Class[] {path}); //$NON-NLS-1$
+			Object options = Array.newInstance(linkOption, 0);
+			readAttributes = files.getMethod("readAttributes", new Class[] {path, Class.class, options.getClass()}); //$NON-NLS-1$
+			followLinks = options;
+			options = Array.newInstance(linkOption, 1);
+			Array.set(options, 0, linkOption.getField("NOFOLLOW_LINKS").get(null)); //$NON-NLS-1$
+			noFollowLinks = options;
+			isSymbolicLink = posixAttributes.getMethod("isSymbolicLink", new Class[0]); //$NON-NLS-1$
+			isDirectory = posixAttributes.getMethod("isDirectory", new Class[0]); //$NON-NLS-1$
+			size = posixAttributes.getMethod("size", new Class[0]); //$NON-NLS-1$
+			lastModifiedTime = posixAttributes.getMethod("lastModifiedTime", new Class[0]); //$NON-NLS-1$
+			toMillis = fileTime.getMethod("toMillis", new Class[0]); //$NON-NLS-1$
+			permissions = posixAttributes.getMethod("permissions", new Class[0]); //$NON-NLS-1$
+			fileKey = posixAttributes.getMethod("fileKey", new Class[0]); //$NON-NLS-1$
+			ownerExecute = permission.getField("OWNER_EXECUTE").get(null); //$NON-NLS-1$
+			ownerWrite = permission.getField("OWNER_WRITE").get(null); //$NON-NLS-1$
+			return true;
+		} catch (Exception e) {
+			//not running on Java 7 or later
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object[] arguments) throws IOException {
+		try {
+			return method.invoke(target, arguments);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e.getMessage());
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getTargetException();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause.getMessage());
+		}
+	}
+
+	static boolean isAvailable() {
+		return available;
+	}
+}
@@ -52,6 +52,12 @@ public class HistoryBucket extends Bucket {
 		 */
 		private byte[][] data;
 
+		/**
+		 * Whether the UUID of a state has been replaced, so the states must be
+		 * sorted again.
+		 */
+		private boolean unsorted;
+
 		/**
 		 * Comparison logic for states in byte[] form.
 		 * 
@@ -158,7 +164,8 @@ public class HistoryBucket extends Bucket {
 
 		/**
 		 * Compacts the data array removing any null slots. If non-null slots
-		 * are found, the entry is marked for removal. 
+		 * are found, the entry is marked for removal. States whose UUID was
+		 * replaced are sorted again, and duplicates are discarded.
 		 */
 		private void compact() {
 			if (!isDirty())
@@ -167,6 +174,17 @@ public class HistoryBucket extends Bucket {
 			for (int i = 0; i < data.length; i++)
 				if (data[i] != null)
 					data[occurrences++] = data[i];
+			if (unsorted) {
+				unsorted = false;
+				Arrays.sort(data, 0, occurrences, COMPARATOR);
+				int unique = occurrences == 0 ? 0 : 1;
+				for (int i = 1; i < occurrences; i++)
+					if (compareStates(data[unique - 1], data[i]) != 0)
+						data[unique++] = data[i];
+				for (int i = unique; i < occurrences; i++)
+					data[i] = null;
+				occurrences = unique;
+			}
 			if (occurrences == data.length)
 				// no states deleted
 				return;
@@ -210,6 +228,19 @@ public class HistoryBucket extends Bucket {
 			return data.length == 0;
 		}
 
+		public boolean isOccurrenceDeleted(int i) {
+			return data[i] == null;
+		}
+
+		/**
+		 * Replaces the UUID of the given state, keeping its timestamp.
+		 */
+		public void setUUID(int i, UniversalUniqueIdentifier uuid) {
+			markDirty();
+			data[i] = getState(uuid, getTimestamp(i));
+			unsorted = true;
+		}
+
 		public void visited() {
 			compact();
 		}
@@ -229,6 +260,8 @@ public class HistoryBucket extends Bucket {
 	 * UUID	 ::= byte[16]
 	 * LAST_MODIFIED ::= byte[8]
 	 * </pre>
+	 * Entries can also be written as a sorted index of version 2, see
+	 * {@link Bucket}.
 	 * </p>
 	 * <p>
 	 * Version 1 (3.1 M4):
@@ -249,18 +282,23 @@ public class HistoryBucket extends Bucket {
 		super();
 	}
 
-	public void addBlob(IPath path, UniversalUniqueIdentifier uuid, long lastModified) {
+	/**
+	 * Adds a state to the entry with the given path.  Returns
+	 * <code>false</code> if the entry already has the same state.
+	 */
+	public boolean addBlob(IPath path, UniversalUniqueIdentifier uuid, long lastModified) {
 		byte[] state = HistoryEntry.getState(uuid, lastModified);
 		String pathAsString = path.toString();
 		byte[][] existing = (byte[][]) getEntryValue(pathAsString);
 		if (existing == null) {
 			setEntryValue(pathAsString, new byte[][] {state});
-			return;
+			return true;
 		}
 		byte[][] newValue = HistoryEntry.insert(existing, state);
 		if (newValue == null)
-			return;
+			return false;
 		setEntryValue(pathAsString, newValue);
+		return true;
 	}
 
 	public void addBlobs(HistoryEntry fileEntry) {
@@ -299,6 +337,13 @@ public class HistoryBucket extends Bucket {
 		return "history.version"; //$NON-NLS-1$
 	}
 
+	/**
+	 * States are read on their own.
+	 */
+	protected boolean isSortedIndexSupported() {
+		return true;
+	}
+
 	protected Object readEntryValue(DataInputStream source) throws IOException {
 		int length = source.readUnsignedShort();
 		byte[][] uuids = new byte[length][HistoryEntry.DATA_LENGTH];
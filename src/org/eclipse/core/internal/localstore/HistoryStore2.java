@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.localstore;
 
-import java.io.InputStream;
+import java.io.*;
 import java.util.*;
 import org.eclipse.core.filesystem.*;
 import org.eclipse.core.internal.localstore.Bucket.Entry;
@@ -19,7 +19,21 @@ import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.utils.*;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.osgi.util.NLS;
 
+/**
+ * A history store keeping the states of files in a bucket tree, and their
+ * contents in a blob store.
+ * <p>
+ * The tree and the bookkeeping of blobs are guarded by the store itself.
+ * Clean-ups and garbage removals are serialized by a separate lock, and only
+ * hold the store while they visit one bucket or take the blobs to delete,
+ * so that states can be added in the meantime.  Blobs are written and
+ * deleted without holding the store; the blobs of states being added are
+ * never deleted, and a state being added with a blob being deleted waits
+ * until the blob is deleted, then stores it again.
+ * </p>
+ */
 public class HistoryStore2 implements IHistoryStore {
 
 	class HistoryCopyVisitor extends Bucket.Visitor {
@@ -45,9 +59,15 @@ public class HistoryStore2 implements IHistoryStore {
 			HistoryEntry entry = i.next();
 			tree.loadBucketFor(entry.getPath());
 			HistoryBucket bucket = (HistoryBucket) tree.getCurrent();
+			replaceMigratedBlobs(entry);
+			addReferences(entry);
 			bucket.addBlobs(entry);
-			while (i.hasNext())
-				bucket.addBlobs(i.next());
+			while (i.hasNext()) {
+				entry = i.next();
+				replaceMigratedBlobs(entry);
+				addReferences(entry);
+				bucket.addBlobs(entry);
+			}
 			bucket.save();
 		}
 
@@ -61,8 +81,80 @@ public class HistoryStore2 implements IHistoryStore {
 		}
 	}
 
+	/**
+	 * System property for storing history states by content, so that
+	 * identical states share a blob.
+	 */
+	private static final String PROP_CONTENT_ADDRESSED = ResourcesPlugin.PI_RESOURCES + ".historyContentAddressed"; //$NON-NLS-1$
+	/**
+	 * System property for compressing the blobs of new history states.
+	 */
+	private static final String PROP_COMPRESS = ResourcesPlugin.PI_RESOURCES + ".historyCompress"; //$NON-NLS-1$
+	/**
+	 * System property for adding the blobs of new history states to pack
+	 * files, rather than one file per blob.
+	 */
+	private static final String PROP_PACKED = ResourcesPlugin.PI_RESOURCES + ".historyPacked"; //$NON-NLS-1$
+	/**
+	 * Name of the file listing the blobs copied to shared blobs that are yet
+	 * to be deleted, in the root of the blob store.
+	 */
+	private static final String MIGRATED_BLOBS_FILE = "migrated.index"; //$NON-NLS-1$
+
+	/**
+	 * The number of states being added for each shared blob.  These blobs are
+	 * not deleted until the states are added.
+	 */
+	private final Map<UniversalUniqueIdentifier, Integer> adding = new HashMap<UniversalUniqueIdentifier, Integer>();
 	private BlobStore blobStore;
 	private Set<UniversalUniqueIdentifier> blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
+	private final boolean contentAddressed = Boolean.getBoolean(PROP_CONTENT_ADDRESSED);
+	/**
+	 * The blobs being deleted, or null.
+	 */
+	private Set<UniversalUniqueIdentifier> deleting;
+	/**
+	 * The references counted by the clean-up in progress, or null.
+	 */
+	private Map<UniversalUniqueIdentifier, Integer> counting;
+	/**
+	 * Serializes clean-ups, garbage removals and shutdown.  Acquired before
+	 * the store, never while holding it.
+	 */
+	private final Object maintenanceLock = new Object();
+	/**
+	 * Blobs copied to shared blobs by clean-ups.  They are deleted once the
+	 * buckets are saved and no state refers to them anymore.  They are listed
+	 * in the migrated blobs file, so that they are still deleted after a
+	 * clean-up is cancelled or the workspace exits.
+	 */
+	private Set<UniversalUniqueIdentifier> migratedBlobs = new HashSet<UniversalUniqueIdentifier>();
+	/**
+	 * The file listing the migrated blobs, or null if the blob store is not
+	 * in the local file system.
+	 */
+	private File migratedBlobsFile;
+	/**
+	 * The shared blobs the clean-up in progress is replacing blobs with, by
+	 * replaced blob, or null.  States copied meanwhile are copied with the
+	 * shared blobs.
+	 */
+	private Map<UniversalUniqueIdentifier, UniversalUniqueIdentifier> migrating;
+	/**
+	 * The migrated blobs that states copied during the clean-up in progress
+	 * still refer to, or null.
+	 */
+	private Set<UniversalUniqueIdentifier> migratingKept;
+	/**
+	 * The number of states referring to each blob that is shared by content,
+	 * or null if they have not been counted since the last clean-up.
+	 */
+	private Map<UniversalUniqueIdentifier, Integer> references;
+	/**
+	 * Shared blobs that lost a reference while the references were not
+	 * counted.  They are deleted by the next clean-up if unreferenced.
+	 */
+	private Set<UniversalUniqueIdentifier> sharedBlobsToRemove = new HashSet<UniversalUniqueIdentifier>();
 	final BucketTree tree;
 	private Workspace workspace;
 
@@ -74,14 +166,29 @@ public class HistoryStore2 implements IHistoryStore {
 			//ignore the failure here because there is no way to surface it.
 			//any attempt to write to the store will throw an appropriate exception
 		}
-		this.blobStore = new BlobStore(store, limit);
+		int options = 0;
+		if (contentAddressed)
+			options |= BlobStore.CONTENT_ADDRESSED;
+		if (Boolean.getBoolean(PROP_COMPRESS))
+			options |= BlobStore.COMPRESS;
+		if (Boolean.getBoolean(PROP_PACKED))
+			options |= BlobStore.PACKED;
+		this.blobStore = new BlobStore(store, limit, options);
 		this.tree = new BucketTree(workspace, new HistoryBucket());
+		try {
+			File root = store.toLocalFile(EFS.NONE, null);
+			if (root != null)
+				migratedBlobsFile = new File(root, MIGRATED_BLOBS_FILE);
+		} catch (CoreException e) {
+			//migrated blobs are only remembered in memory
+		}
+		readMigratedBlobs();
 	}
 
 	/**
 	 * @see IHistoryStore#addState(IPath, IFileStore, IFileInfo, boolean)
 	 */
-	public synchronized IFileState addState(IPath key, IFileStore localFile, IFileInfo info, boolean moveContents) {
+	public IFileState addState(IPath key, IFileStore localFile, IFileInfo info, boolean moveContents) {
 		long lastModified = info.getLastModified();
 		if (Policy.DEBUG_HISTORY)
 			System.out.println("History: Adding state for key: " + key + ", file: " + localFile + ", timestamp: " + lastModified + ", size: " + localFile.fetchInfo().getLength()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
@@ -89,17 +196,54 @@ public class HistoryStore2 implements IHistoryStore {
 			return null;
 		UniversalUniqueIdentifier uuid = null;
 		try {
-			uuid = blobStore.addBlob(localFile, moveContents);
-			tree.loadBucketFor(key);
-			HistoryBucket currentBucket = (HistoryBucket) tree.getCurrent();
-			currentBucket.addBlob(key, uuid, lastModified);
-			//			currentBucket.save();
+			uuid = blobStore.identifierFor(localFile);
+			beginAdding(uuid);
+			try {
+				// the contents are stored without holding the store
+				blobStore.addBlob(localFile, moveContents, uuid);
+				synchronized (this) {
+					tree.loadBucketFor(key);
+					HistoryBucket currentBucket = (HistoryBucket) tree.getCurrent();
+					if (currentBucket.addBlob(key, uuid, lastModified))
+						addReference(uuid);
+					//			currentBucket.save();
+				}
+			} finally {
+				endAdding(uuid);
+			}
 		} catch (CoreException e) {
 			log(e);
 		}
 		return new FileState(this, key, lastModified, uuid);
 	}
 
+	/**
+	 * Records a new reference to the given blob.  A reference added while a
+	 * clean-up is counting them is counted twice if the clean-up has yet to
+	 * visit it, which only delays the removal of the blob.
+	 */
+	private void addReference(UniversalUniqueIdentifier uuid) {
+		// the blob may have lost its last reference before, or be checked by a collection of garbage
+		blobsToRemove.remove(uuid);
+		if (!BlobStore.isContentAddressed(uuid))
+			return;
+		sharedBlobsToRemove.remove(uuid);
+		if (references != null)
+			increment(references, uuid);
+		if (counting != null)
+			increment(counting, uuid);
+	}
+
+	/**
+	 * Records new references to the blobs of the given entry.  States that
+	 * the destination already has are counted twice, which only delays the
+	 * removal of their blob until the references are counted again.
+	 */
+	private void addReferences(HistoryEntry entry) {
+		for (int i = 0; i < entry.getOccurrences(); i++)
+			addReference(entry.getUUID(i));
+	}
+
 	public synchronized Set<IPath> allFiles(IPath root, int depth, IProgressMonitor monitor) {
 		final Set<IPath> allFiles = new HashSet<IPath>();
 		try {
@@ -123,7 +267,7 @@ public class HistoryStore2 implements IHistoryStore {
 			if (i < maxStates && fileEntry.getTimestamp(i) >= minTimeStamp)
 				continue;
 			// "delete" the current uuid						
-			blobsToRemove.add(fileEntry.getUUID(i));
+			removeReference(fileEntry.getUUID(i));
 			fileEntry.deleteOccurrence(i);
 		}
 	}
@@ -145,7 +289,41 @@ public class HistoryStore2 implements IHistoryStore {
 		tree.getCurrent().save();
 	}
 
-	public synchronized void clean(final IProgressMonitor monitor) {
+	/**
+	 * Begins adding a state with the given blob, once it is not being deleted.
+	 */
+	private synchronized void beginAdding(UniversalUniqueIdentifier uuid) {
+		if (!BlobStore.isContentAddressed(uuid))
+			return;
+		while (deleting != null && deleting.contains(uuid)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				//ignore
+			}
+		}
+		increment(adding, uuid);
+	}
+
+	/**
+	 * Applies the clean-up policy to the whole store.  Only holds the store
+	 * while it visits a bucket, so that states can be added meanwhile.  The
+	 * changed buckets kept in memory are then saved.
+	 */
+	public void clean(IProgressMonitor monitor) {
+		synchronized (maintenanceLock) {
+			internalClean(monitor);
+			synchronized (this) {
+				try {
+					tree.getCurrent().save();
+				} catch (CoreException e) {
+					log(e);
+				}
+			}
+		}
+	}
+
+	private void internalClean(final IProgressMonitor monitor) {
 		long start = System.currentTimeMillis();
 		try {
 			monitor.beginTask(Messages.resources_pruningHistory, IProgressMonitor.UNKNOWN);
@@ -153,54 +331,255 @@ public class HistoryStore2 implements IHistoryStore {
 			final long minimumTimestamp = System.currentTimeMillis() - description.getFileStateLongevity();
 			final int maxStates = description.getMaxFileStates();
 			final int[] entryCount = new int[1];
-			if (description.isApplyFileStatePolicy()) {
+			final boolean applyPolicy = description.isApplyFileStatePolicy();
+			final Map<UniversalUniqueIdentifier, Integer> counted;
+			synchronized (this) {
+				// shared blobs are counted again, and deleted once they are known to be unreferenced
+				if (references != null)
+					sharedBlobsToRemove.addAll(references.keySet());
+				references = null;
+				counted = contentAddressed || !sharedBlobsToRemove.isEmpty() ? new HashMap<UniversalUniqueIdentifier, Integer>() : null;
+				counting = counted;
+			}
+			// blobs that are not shared are replaced once the walk is done, without holding the store
+			final Set<UniversalUniqueIdentifier> unshared = contentAddressed || !migratedBlobs.isEmpty() ? new HashSet<UniversalUniqueIdentifier>() : null;
+			if (applyPolicy || counted != null || unshared != null) {
 				tree.accept(new Bucket.Visitor() {
 					public int visit(Entry fileEntry) {
 						if (monitor.isCanceled())
 							return STOP;
 						entryCount[0] += fileEntry.getOccurrences();
-						applyPolicy((HistoryEntry) fileEntry, maxStates, minimumTimestamp);
-						// remove unreferenced blobs, when blobsToRemove size is greater than 100
-						removeUnreferencedBlobs(100);
+						if (applyPolicy)
+							applyPolicy((HistoryEntry) fileEntry, maxStates, minimumTimestamp);
+						countReferences((HistoryEntry) fileEntry, counted, unshared);
 						return monitor.isCanceled() ? STOP : CONTINUE;
 					}
-				}, Path.ROOT, BucketTree.DEPTH_INFINITE);
+				}, Path.ROOT, BucketTree.DEPTH_INFINITE, this);
+			}
+			Map<UniversalUniqueIdentifier, UniversalUniqueIdentifier> migrated = null;
+			if (unshared != null && !monitor.isCanceled())
+				migrated = migrateBlobs(unshared, counted, monitor);
+			synchronized (this) {
+				counting = null;
+				if (counted != null && !monitor.isCanceled()) {
+					for (UniversalUniqueIdentifier uuid : sharedBlobsToRemove)
+						if (!counted.containsKey(uuid))
+							blobsToRemove.add(uuid);
+					sharedBlobsToRemove.clear();
+					references = counted;
+				}
 			}
 			if (Policy.DEBUG_HISTORY) {
 				Policy.debug("Time to apply history store policies: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$ //$NON-NLS-2$
 				Policy.debug("Total number of history store entries: " + entryCount[0]); //$NON-NLS-1$
+				if (migrated != null && !migrated.isEmpty())
+					Policy.debug("Number of history store blobs copied to shared blobs: " + migrated.size()); //$NON-NLS-1$
 			}
-			// remove all remaining unreferenced blobs
-			removeUnreferencedBlobs(0);
+			// remove all unreferenced blobs, without holding the store
+			removeUnreferencedBlobs();
 		} catch (Exception e) {
 			String message = Messages.history_problemsCleaning;
 			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, message, e);
 			Policy.log(status);
 		} finally {
+			synchronized (this) {
+				counting = null;
+				migrating = null;
+				migratingKept = null;
+			}
 			monitor.done();
 		}
 	}
-	
+
+	/**
+	 * Counts the references of the remaining states of the given entry to
+	 * shared blobs, and collects the other blobs they refer to.  Either
+	 * argument may be null.
+	 */
+	static void countReferences(HistoryEntry fileEntry, Map<UniversalUniqueIdentifier, Integer> counted, Set<UniversalUniqueIdentifier> unshared) {
+		for (int i = 0; i < fileEntry.getOccurrences(); i++) {
+			if (fileEntry.isOccurrenceDeleted(i))
+				continue;
+			UniversalUniqueIdentifier uuid = fileEntry.getUUID(i);
+			if (!BlobStore.isContentAddressed(uuid)) {
+				if (unshared != null)
+					unshared.add(uuid);
+			} else if (counted != null) {
+				increment(counted, uuid);
+			}
+		}
+	}
+
+	/**
+	 * Copies the given blobs, which are not shared, to shared blobs if the
+	 * store is content addressed, and replaces them in every state.  The
+	 * blobs are read and copied without holding the store.  The replaced
+	 * states are saved, including the buckets kept in memory, and unless the
+	 * clean-up is cancelled, the migrated blobs no state refers to anymore
+	 * are then scheduled for removal.  Returns the shared blobs by replaced
+	 * blob.
+	 */
+	private Map<UniversalUniqueIdentifier, UniversalUniqueIdentifier> migrateBlobs(Set<UniversalUniqueIdentifier> unshared, final Map<UniversalUniqueIdentifier, Integer> counted, final IProgressMonitor monitor) throws CoreException {
+		final Map<UniversalUniqueIdentifier, UniversalUniqueIdentifier> migrated = new HashMap<UniversalUniqueIdentifier, UniversalUniqueIdentifier>();
+		if (contentAddressed) {
+			for (Iterator<UniversalUniqueIdentifier> i = unshared.iterator(); i.hasNext() && !monitor.isCanceled();) {
+				UniversalUniqueIdentifier uuid = i.next();
+				try {
+					UniversalUniqueIdentifier shared = blobStore.migrateBlob(uuid);
+					// leave states whose blob is missing alone
+					if (shared != null)
+						migrated.put(uuid, shared);
+				} catch (CoreException e) {
+					log(e);
+				}
+			}
+		}
+		final Set<UniversalUniqueIdentifier> kept = new HashSet<UniversalUniqueIdentifier>();
+		synchronized (this) {
+			if (migrated.isEmpty() && migratedBlobs.isEmpty())
+				return migrated;
+			// the replaced blobs are listed before any state stops referring to them
+			if (migratedBlobs.addAll(migrated.keySet()))
+				writeMigratedBlobs();
+			migrating = migrated;
+			migratingKept = kept;
+		}
+		tree.accept(new Bucket.Visitor() {
+			public int visit(Entry fileEntry) {
+				HistoryEntry historyEntry = (HistoryEntry) fileEntry;
+				for (int i = 0; i < historyEntry.getOccurrences(); i++) {
+					if (historyEntry.isOccurrenceDeleted(i))
+						continue;
+					UniversalUniqueIdentifier uuid = historyEntry.getUUID(i);
+					UniversalUniqueIdentifier shared = migrated.get(uuid);
+					if (shared != null) {
+						historyEntry.setUUID(i, shared);
+						if (counted != null)
+							increment(counted, shared);
+					} else if (!BlobStore.isContentAddressed(uuid)) {
+						kept.add(uuid);
+					}
+				}
+				return monitor.isCanceled() ? STOP : CONTINUE;
+			}
+		}, Path.ROOT, BucketTree.DEPTH_INFINITE, this);
+		synchronized (this) {
+			// the replaced blobs may only be deleted once no index on disk refers to them
+			tree.getCurrent().save();
+			if (monitor.isCanceled())
+				return migrated;
+			// the blobs of states added meanwhile are kept
+			Set<UniversalUniqueIdentifier> unreferenced = new HashSet<UniversalUniqueIdentifier>(migratedBlobs);
+			unreferenced.removeAll(kept);
+			migratedBlobs.removeAll(unreferenced);
+			blobsToRemove.addAll(unreferenced);
+			writeMigratedBlobs();
+		}
+		return migrated;
+	}
+
+	/**
+	 * Reads the migrated blobs file, if any.
+	 */
+	private void readMigratedBlobs() {
+		if (migratedBlobsFile == null || !migratedBlobsFile.exists())
+			return;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new SafeFileInputStream(migratedBlobsFile));
+			int count = input.readInt();
+			byte[] bytes = new byte[UniversalUniqueIdentifier.BYTES_SIZE];
+			for (int i = 0; i < count; i++) {
+				input.readFully(bytes);
+				migratedBlobs.add(new UniversalUniqueIdentifier(bytes));
+			}
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.resources_readMeta, migratedBlobsFile.getAbsolutePath());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_READ_METADATA, null, message, e));
+		} finally {
+			FileUtil.safeClose(input);
+		}
+	}
+
+	/**
+	 * Replaces the blobs of the given copied entry that the clean-up in
+	 * progress has copied to shared blobs, or remembers that they are still
+	 * referred to.
+	 */
+	private void replaceMigratedBlobs(HistoryEntry entry) {
+		if (migrating == null)
+			return;
+		boolean replaced = false;
+		for (int i = 0; i < entry.getOccurrences(); i++) {
+			UniversalUniqueIdentifier uuid = entry.getUUID(i);
+			UniversalUniqueIdentifier shared = migrating.get(uuid);
+			if (shared != null) {
+				entry.setUUID(i, shared);
+				replaced = true;
+			} else if (!BlobStore.isContentAddressed(uuid)) {
+				migratingKept.add(uuid);
+			}
+		}
+		// sort the states again
+		if (replaced)
+			entry.visited();
+	}
+
 	/*
-	 * Remove blobs from the blobStore. When the size of blobsToRemove exceeds the limit,
-	 * remove the given blobs from blobStore. If the limit is zero or negative, remove blobs
-	 * regardless of the limit.
+	 * Remove unreferenced blobs from the blobStore.  The blobs to remove are
+	 * taken while holding the store, and deleted without holding it.  The blobs
+	 * of states being added are kept for later.
 	 */
-	void removeUnreferencedBlobs(int limit) {
-		if (limit <= 0 || limit <= blobsToRemove.size()) {
-			long start = System.currentTimeMillis();
-			// remove unreferenced blobs
-			blobStore.deleteBlobs(blobsToRemove);
-			if (Policy.DEBUG_HISTORY)
-				Policy.debug("Time to remove " + blobsToRemove.size() + " unreferenced blobs: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$			
+	void removeUnreferencedBlobs() {
+		long start = System.currentTimeMillis();
+		Set<UniversalUniqueIdentifier> toRemove;
+		synchronized (this) {
+			toRemove = blobsToRemove;
 			blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
+			for (UniversalUniqueIdentifier uuid : adding.keySet())
+				if (toRemove.remove(uuid))
+					blobsToRemove.add(uuid);
+			deleting = toRemove;
+		}
+		try {
+			// remove unreferenced blobs
+			blobStore.deleteBlobs(toRemove);
+		} finally {
+			synchronized (this) {
+				deleting = null;
+				notifyAll();
+			}
+		}
+		if (Policy.DEBUG_HISTORY)
+			Policy.debug("Time to remove " + toRemove.size() + " unreferenced blobs: " + (System.currentTimeMillis() - start) + "ms."); //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$			
+	}
+
+	/**
+	 * Records that a state no longer refers to the given blob, and schedules
+	 * the blob for removal if no other state refers to it.
+	 */
+	void removeReference(UniversalUniqueIdentifier uuid) {
+		if (!BlobStore.isContentAddressed(uuid)) {
+			blobsToRemove.add(uuid);
+			return;
+		}
+		if (references == null) {
+			sharedBlobsToRemove.add(uuid);
+			return;
+		}
+		Integer count = references.get(uuid);
+		if (count == null || count.intValue() <= 1) {
+			references.remove(uuid);
+			blobsToRemove.add(uuid);
+		} else {
+			references.put(uuid, new Integer(count.intValue() - 1));
 		}
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.internal.localstore.IHistoryStore#closeHistory(org.eclipse.core.resources.IResource)
 	 */
-	public void closeHistoryStore(IResource resource) {
+	public synchronized void closeHistoryStore(IResource resource) {
 		try {
 			tree.getCurrent().save();
 			tree.getCurrent().flush();
@@ -254,8 +633,21 @@ public class HistoryStore2 implements IHistoryStore {
 		}
 	}
 
+	/**
+	 * Ends adding a state with the given blob.
+	 */
+	private synchronized void endAdding(UniversalUniqueIdentifier uuid) {
+		if (!BlobStore.isContentAddressed(uuid))
+			return;
+		Integer count = adding.get(uuid);
+		if (count.intValue() == 1)
+			adding.remove(uuid);
+		else
+			adding.put(uuid, new Integer(count.intValue() - 1));
+	}
+
 	public boolean exists(IFileState target) {
-		return blobStore.fileFor(((FileState) target).getUUID()).fetchInfo().exists();
+		return blobStore.exists(((FileState) target).getUUID());
 	}
 
 	public InputStream getContents(IFileState target) throws CoreException {
@@ -287,6 +679,14 @@ public class HistoryStore2 implements IHistoryStore {
 		return tree;
 	}
 
+	/**
+	 * Adds one to the count of the given blob.
+	 */
+	private static void increment(Map<UniversalUniqueIdentifier, Integer> counts, UniversalUniqueIdentifier uuid) {
+		Integer count = counts.get(uuid);
+		counts.put(uuid, new Integer(count == null ? 1 : count.intValue() + 1));
+	}
+
 	/**
 	 * Return a boolean value indicating whether or not the given file
 	 * should be added to the history store based on the current history
@@ -322,12 +722,14 @@ public class HistoryStore2 implements IHistoryStore {
 
 	public synchronized void remove(IPath root, IProgressMonitor monitor) {
 		try {
-			final Set<UniversalUniqueIdentifier> tmpBlobsToRemove = blobsToRemove;
+			// the buckets of a deleted project are no longer on disk
+			if (root.segmentCount() == 1 && !workspace.getMetaArea().locationFor(root).toFile().exists())
+				tree.forgetProject(root);
 			tree.accept(new Bucket.Visitor() {
 				public int visit(Entry fileEntry) {
 					for (int i = 0; i < fileEntry.getOccurrences(); i++)
 						// remember we need to delete the files later
-						tmpBlobsToRemove.add(((HistoryEntry) fileEntry).getUUID(i));
+						removeReference(((HistoryEntry) fileEntry).getUUID(i));
 					fileEntry.delete();
 					return CONTINUE;
 				}
@@ -340,28 +742,75 @@ public class HistoryStore2 implements IHistoryStore {
 	/**
 	 * @see IHistoryStore#removeGarbage()
 	 */
-	public synchronized void removeGarbage() {
-		try {
-			final Set<UniversalUniqueIdentifier> tmpBlobsToRemove = blobsToRemove;
-			tree.accept(new Bucket.Visitor() {
-				public int visit(Entry fileEntry) {
-					for (int i = 0; i < fileEntry.getOccurrences(); i++)
-						// remember we need to delete the files later
-						tmpBlobsToRemove.remove(((HistoryEntry) fileEntry).getUUID(i));
-					return CONTINUE;
+	public void removeGarbage() {
+		synchronized (maintenanceLock) {
+			try {
+				final Set<UniversalUniqueIdentifier> tmpBlobsToRemove;
+				synchronized (this) {
+					// shared blobs waiting to be counted and copied blobs are checked as well
+					blobsToRemove.addAll(sharedBlobsToRemove);
+					sharedBlobsToRemove.clear();
+					blobsToRemove.addAll(migratedBlobs);
+					tmpBlobsToRemove = blobsToRemove;
 				}
-			}, Path.ROOT, BucketTree.DEPTH_INFINITE);
-			blobStore.deleteBlobs(blobsToRemove);
-			blobsToRemove = new HashSet<UniversalUniqueIdentifier>();
-		} catch (Exception e) {
-			String message = Messages.history_problemsCleaning;
-			ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, message, e);
-			Policy.log(status);
+				// states added meanwhile take their blob out of the set themselves
+				tree.accept(new Bucket.Visitor() {
+					public int visit(Entry fileEntry) {
+						for (int i = 0; i < fileEntry.getOccurrences(); i++)
+							// remember we need to delete the files later
+							tmpBlobsToRemove.remove(((HistoryEntry) fileEntry).getUUID(i));
+						return CONTINUE;
+					}
+				}, Path.ROOT, BucketTree.DEPTH_INFINITE, this);
+				synchronized (this) {
+					// migrated blobs still referred to are copied again by the next clean-up
+					migratedBlobs.clear();
+					writeMigratedBlobs();
+				}
+				removeUnreferencedBlobs();
+			} catch (Exception e) {
+				String message = Messages.history_problemsCleaning;
+				ResourceStatus status = new ResourceStatus(IResourceStatus.FAILED_DELETE_LOCAL, null, message, e);
+				Policy.log(status);
+			}
 		}
 	}
 
-	public synchronized void shutdown(IProgressMonitor monitor) throws CoreException {
-		tree.close();
+	/**
+	 * Writes the migrated blobs file, or deletes it if there are no migrated
+	 * blobs left.  Failures are logged: the blobs are then deleted if the
+	 * clean-up completes, and left behind otherwise.
+	 */
+	private void writeMigratedBlobs() {
+		if (migratedBlobsFile == null)
+			return;
+		if (migratedBlobs.isEmpty()) {
+			migratedBlobsFile.delete();
+			return;
+		}
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new SafeFileOutputStream(migratedBlobsFile));
+			output.writeInt(migratedBlobs.size());
+			for (UniversalUniqueIdentifier uuid : migratedBlobs)
+				output.write(uuid.toBytes());
+			output.close();
+			output = null;
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.resources_writeMeta, migratedBlobsFile.getAbsolutePath());
+			Policy.log(new ResourceStatus(IResourceStatus.FAILED_WRITE_METADATA, null, message, e));
+		} finally {
+			FileUtil.safeClose(output);
+		}
+	}
+
+	public void shutdown(IProgressMonitor monitor) throws CoreException {
+		synchronized (maintenanceLock) {
+			synchronized (this) {
+				tree.close();
+				blobStore.close();
+			}
+		}
 	}
 
 	public void startup(IProgressMonitor monitor) {
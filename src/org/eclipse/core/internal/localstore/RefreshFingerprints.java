@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.internal.resources.*;
+import org.eclipse.core.internal.utils.*;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Remembers, for each folder listed by a completed deep refresh, the last
+ * modification time of the folder in the file system and its number of
+ * entries.  The fingerprints are saved with the workspace, and the first deep
+ * refresh of a project in the next session does not list the folders whose
+ * fingerprint is unchanged: their entries are taken from the workspace, and
+ * only their sub-folders are visited.
+ * <p>
+ * Adding, removing or renaming an entry of a folder changes the modification
+ * time of the folder, but changing the contents of a file does not, so files
+ * changed outside the workspace while it was shut down are not found in
+ * folders whose fingerprint is unchanged.  Checking the time stamp of each
+ * file would cost about as much as listing the folder, so the fingerprints
+ * are only enabled on request, for workspaces whose files are not edited
+ * between sessions.
+ */
+public class RefreshFingerprints {
+	private static final int VERSION = 1;
+
+	/**
+	 * The last modification time and number of entries of a folder.
+	 */
+	static final class Fingerprint {
+		final int entries;
+		final long lastModified;
+
+		Fingerprint(long lastModified, int entries) {
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * The fingerprints of the folders of a project.
+	 */
+	private static final class ProjectFingerprints {
+		boolean dirty;
+		final Map<IPath, Fingerprint> folders = new HashMap<IPath, Fingerprint>();
+		final URI location;
+
+		ProjectFingerprints(URI location) {
+			this.location = location;
+		}
+	}
+
+	/**
+	 * The fingerprints used and recorded by a single traversal.  Only used by
+	 * the thread performing the traversal.
+	 */
+	final class Traversal {
+		/* fingerprints of the folders listed by this traversal, by full path */
+		final Map<IPath, Fingerprint> recorded = new HashMap<IPath, Fingerprint>();
+		/* fingerprints saved by the previous session, by full path */
+		private final Map<IPath, Fingerprint> saved;
+		final IResource target;
+
+		Traversal(IResource target, Map<IPath, Fingerprint> saved) {
+			this.target = target;
+			this.saved = saved;
+		}
+
+		/**
+		 * Returns whether the entries of the given folder may be unchanged
+		 * since the previous session, judging by its modification time alone.
+		 */
+		boolean mayBeUnchanged(IPath path, long lastModified) {
+			Fingerprint fingerprint = saved.get(path);
+			return fingerprint != null && fingerprint.lastModified == lastModified;
+		}
+
+		/**
+		 * Records the fingerprint of a folder whose entries are known to match
+		 * the workspace once the traversal has visited them.
+		 */
+		void record(IPath path, long lastModified, int entries) {
+			recorded.put(path, new Fingerprint(lastModified, entries));
+		}
+
+		/**
+		 * Returns whether the entries of the given folder are unchanged since
+		 * the previous session, and if so records its fingerprint.
+		 */
+		boolean isUnchanged(IPath path, long lastModified, int entries) {
+			Fingerprint fingerprint = saved.get(path);
+			if (fingerprint == null || fingerprint.lastModified != lastModified || fingerprint.entries != entries)
+				return false;
+			recorded.put(path, fingerprint);
+			return true;
+		}
+	}
+
+	private final Map<String, ProjectFingerprints> projects = new HashMap<String, ProjectFingerprints>();
+	/** names of the projects whose saved fingerprints have been used or discarded */
+	private final Set<String> restored = new HashSet<String>();
+	private final Workspace workspace;
+
+	public RefreshFingerprints(Workspace workspace) {
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Starts a deep refresh of the given resource.  The saved fingerprints
+	 * of a project are only used by its first deep refresh.
+	 */
+	synchronized Traversal beginTraversal(IResource target) {
+		Map<IPath, Fingerprint> saved = Collections.emptyMap();
+		if (target.getType() == IResource.PROJECT && restored.add(target.getName()))
+			saved = read((IProject) target);
+		return new Traversal(target, saved);
+	}
+
+	/**
+	 * Keeps the fingerprints recorded by a traversal that completed.
+	 */
+	synchronized void endTraversal(Traversal traversal) {
+		IProject project = traversal.target.getProject();
+		//a project refreshed later was not refreshed with its saved fingerprints
+		restored.add(project.getName());
+		URI location = project.getLocationURI();
+		if (location == null)
+			return;
+		ProjectFingerprints fingerprints = projects.get(project.getName());
+		if (fingerprints == null || !location.equals(fingerprints.location)) {
+			fingerprints = new ProjectFingerprints(location);
+			projects.put(project.getName(), fingerprints);
+		}
+		fingerprints.folders.putAll(traversal.recorded);
+		fingerprints.dirty = true;
+	}
+
+	/**
+	 * Reads the fingerprints saved for the given project.  Returns an empty
+	 * map if there are none, or if they were saved for a different location
+	 * of the project.
+	 */
+	private Map<IPath, Fingerprint> read(IProject project) {
+		Map<IPath, Fingerprint> result = new HashMap<IPath, Fingerprint>();
+		URI location = project.getLocationURI();
+		IPath path = workspace.getMetaArea().getRefreshFingerprintsLocationFor(project);
+		java.io.File file = path.toFile();
+		if (location == null || !file.exists())
+			return result;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != VERSION || !location.toString().equals(input.readUTF()))
+				return result;
+			IPath projectPath = project.getFullPath();
+			for (int i = input.readInt(); i > 0; i--) {
+				IPath folder = projectPath.append(input.readUTF());
+				result.put(folder, new Fingerprint(input.readLong(), input.readInt()));
+			}
+		} catch (IOException e) {
+			//ignore and refresh every folder
+			result.clear();
+		} finally {
+			FileUtil.safeClose(input);
+		}
+		return result;
+	}
+
+	/**
+	 * Saves the fingerprints recorded for the given project, if they have
+	 * changed, dropping those of folders that are no longer in the workspace.
+	 */
+	public void save(IProject project) throws CoreException {
+		List<IPath> paths;
+		List<Fingerprint> values;
+		URI location;
+		synchronized (this) {
+			ProjectFingerprints fingerprints = projects.get(project.getName());
+			if (fingerprints == null || !fingerprints.dirty)
+				return;
+			fingerprints.dirty = false;
+			location = fingerprints.location;
+			paths = new ArrayList<IPath>(fingerprints.folders.size());
+			values = new ArrayList<Fingerprint>(fingerprints.folders.size());
+			for (Iterator<Map.Entry<IPath, Fingerprint>> it = fingerprints.folders.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<IPath, Fingerprint> entry = it.next();
+				if (workspace.getResourceInfo(entry.getKey(), false, false) == null) {
+					it.remove();
+					continue;
+				}
+				paths.add(entry.getKey().removeFirstSegments(1));
+				values.add(entry.getValue());
+			}
+		}
+		IPath path = workspace.getMetaArea().getRefreshFingerprintsLocationFor(project);
+		IPath tempPath = workspace.getMetaArea().getBackupLocationFor(path);
+		try {
+			SafeFileOutputStream safe = new SafeFileOutputStream(path.toOSString(), tempPath.toOSString());
+			try {
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(safe));
+				output.writeInt(VERSION);
+				output.writeUTF(location.toString());
+				output.writeInt(paths.size());
+				for (int i = 0; i < paths.size(); i++) {
+					Fingerprint fingerprint = values.get(i);
+					output.writeUTF(paths.get(i).toString());
+					output.writeLong(fingerprint.lastModified);
+					output.writeInt(fingerprint.entries);
+				}
+				output.close();
+			} finally {
+				FileUtil.safeClose(safe);
+			}
+		} catch (IOException e) {
+			String message = NLS.bind(Messages.resources_writeMeta, project.getFullPath());
+			throw new ResourceException(IResourceStatus.FAILED_WRITE_METADATA, path, message, e);
+		}
+	}
+}
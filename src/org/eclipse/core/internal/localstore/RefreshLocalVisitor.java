@@ -10,9 +10,15 @@
  *******************************************************************************/
 package org.eclipse.core.internal.localstore;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.internal.preferences.EclipsePreferences;
 import org.eclipse.core.internal.resources.*;
-import org.eclipse.core.internal.utils.Messages;
-import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.internal.utils.*;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.osgi.util.NLS;
@@ -25,6 +31,14 @@ import org.eclipse.osgi.util.NLS;
  * resource existence, gender, and timestamp.
  */
 public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreConstants {
+	/**
+	 * System property that makes refresh compare the contents of files whose
+	 * timestamp changed with their contents when last refreshed, and only
+	 * report a content change if they differ.
+	 */
+	public static final String PROP_CONTENT_HASH = ResourcesPlugin.PI_RESOURCES + ".refreshContentHash"; //$NON-NLS-1$
+	private static final boolean compareContents = Boolean.getBoolean(PROP_CONTENT_HASH);
+
 	/** control constants */
 	protected static final int RL_UNKNOWN = 0;
 	protected static final int RL_IN_SYNC = 1;
@@ -46,6 +60,13 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 
 	protected MultiStatus errors;
 	protected IProgressMonitor monitor;
+	/** the container of the pending files */
+	private Container pendingParent;
+	/**
+	 * The modification times of new files waiting to be added to the workspace
+	 * together, by name, or null if new files are added one at a time
+	 */
+	private TreeMap<String, Long> pendingFiles;
 	protected boolean resourceChanged;
 	protected Workspace workspace;
 
@@ -57,6 +78,16 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 		errors = new MultiStatus(ResourcesPlugin.PI_RESOURCES, IResourceStatus.FAILED_READ_LOCAL, msg, null);
 	}
 
+	/**
+	 * Makes new files found by the traversal be added to the workspace
+	 * together with their new siblings, rather than one at a time.  The
+	 * caller must call {@link #createPendingFiles()} once the traversal
+	 * is over.
+	 */
+	public void batchFileCreation() {
+		pendingFiles = new TreeMap<String, Long>();
+	}
+
 	/**
 	 * This method has the same implementation as resourceChanged but as they are different
 	 * cases, we prefer to use different methods.
@@ -65,11 +96,73 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 		resourceChanged(node, target);
 	}
 
+	/**
+	 * Returns a hash of the contents of the given file node, or <code>null</code>
+	 * if they could not be read.
+	 */
+	private byte[] computeContentHash(UnifiedTreeNode node) {
+		InputStream in = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			in = node.getStore().openInputStream(EFS.NONE, null);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+			return digest.digest();
+		} catch (CoreException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} finally {
+			FileUtil.safeClose(in);
+		}
+	}
+
+	/**
+	 * Adds the new files that are waiting to be added to the workspace.
+	 */
+	public void createPendingFiles() {
+		if (pendingFiles == null || pendingFiles.isEmpty())
+			return;
+		Container parent = pendingParent;
+		IPath parentPath = parent.getFullPath();
+		IResource[] files = new IResource[pendingFiles.size()];
+		long[] lastModified = new long[files.length];
+		int i = 0;
+		for (Map.Entry<String, Long> entry : pendingFiles.entrySet()) {
+			files[i] = workspace.newResource(parentPath.append(entry.getKey()), IResource.FILE);
+			lastModified[i++] = entry.getValue().longValue();
+		}
+		pendingFiles.clear();
+		pendingParent = null;
+		ResourceInfo[] infos = workspace.createResources(parent, files);
+		for (i = 0; i < infos.length; i++) {
+			/* Mark this resource as having unknown children */
+			infos[i].set(ICoreConstants.M_CHILDREN_UNKNOWN);
+			workspace.getFileSystemManager().updateLocalSync(infos[i], lastModified[i]);
+		}
+	}
+
 	protected void createResource(UnifiedTreeNode node, Resource target) throws CoreException {
 		ResourceInfo info = target.getResourceInfo(false, false);
 		int flags = target.getFlags(info);
 		if (target.exists(flags, false))
 			return;
+		/* new files below the root of the traversal can wait to be added with their siblings */
+		if (pendingFiles != null && info == null && node.getLevel() > 0 && target.getType() == IResource.FILE && !isMetadataFile(target)) {
+			IPath parentPath = target.getFullPath().removeLastSegments(1);
+			if (pendingParent != null && !parentPath.equals(pendingParent.getFullPath()))
+				createPendingFiles();
+			//the file is pending if it was found through an alias
+			if (pendingFiles.containsKey(target.getName()))
+				return;
+			pendingParent = (Container) target.getParent();
+			pendingFiles.put(target.getName(), new Long(node.getLastModified()));
+			return;
+		}
 		/* make sure target's parent exists */
 		if (node.getLevel() == 0) {
 			IContainer parent = target.getParent();
@@ -83,6 +176,19 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 		target.getLocalManager().updateLocalSync(info, node.getLastModified());
 	}
 
+	/**
+	 * Returns whether the given file is a project description or preference
+	 * file, which must be in the workspace as soon as it is found.
+	 * @see File#updateMetadataFiles()
+	 */
+	private static boolean isMetadataFile(Resource target) {
+		IPath path = target.getFullPath();
+		int count = path.segmentCount();
+		if (count == 2)
+			return IProjectDescription.DESCRIPTION_FILE_NAME.equals(path.segment(1));
+		return count == 3 && EclipsePreferences.DEFAULT_PREFERENCES_DIRNAME.equals(path.segment(1));
+	}
+
 	protected void deleteResource(UnifiedTreeNode node, Resource target) throws CoreException {
 		ResourceInfo info = target.getResourceInfo(false, false);
 		int flags = target.getFlags(info);
@@ -254,6 +360,10 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 	 * lastModified
 	 */
 	protected void synchronizeLastModified(UnifiedTreeNode node, Resource target) {
+		if (compareContents && target.getType() == IResource.FILE && !node.isFolder() && target.isLocal(IResource.DEPTH_ZERO)) {
+			synchronizeContents(node, target);
+			return;
+		}
 		if (target.isLocal(IResource.DEPTH_ZERO))
 			resourceChanged(node, target);
 		else
@@ -261,11 +371,37 @@ public class RefreshLocalVisitor implements IUnifiedTreeVisitor, ILocalStoreCons
 		resourceChanged = true;
 	}
 
+	/**
+	 * Synchronizes a file whose timestamp changed, reporting a content change
+	 * only if the hash of its contents differs from the hash recorded when it
+	 * was last refreshed.  The hash is forgotten whenever the contents change
+	 * through the workspace, so a file is reported as changed the first time
+	 * its timestamp changes after that.
+	 */
+	private void synchronizeContents(UnifiedTreeNode node, Resource target) {
+		ResourceInfo info = target.getResourceInfo(false, false);
+		byte[] oldHash = info == null ? null : info.getContentHash();
+		byte[] newHash = computeContentHash(node);
+		if (oldHash != null && Arrays.equals(oldHash, newHash)) {
+			//the same contents were written again
+			makeLocal(node, target);
+			return;
+		}
+		resourceChanged(node, target);
+		resourceChanged = true;
+		info = target.getResourceInfo(false, true);
+		if (info != null)
+			info.setContentHash(newHash);
+	}
+
 	public boolean visit(UnifiedTreeNode node) throws CoreException {
 		Policy.checkCanceled(monitor);
 		try {
 			Resource target = (Resource) node.getResource();
 			int targetType = target.getType();
+			//the siblings of the pending files have all been visited
+			if (pendingParent != null && !target.getFullPath().removeLastSegments(1).equals(pendingParent.getFullPath()))
+				createPendingFiles();
 			if (targetType == IResource.PROJECT)
 				return true;
 			if (node.existsInWorkspace() && node.existsInFileSystem()) {
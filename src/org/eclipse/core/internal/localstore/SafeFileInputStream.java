@@ -48,6 +48,6 @@ public class SafeFileInputStream extends FilterInputStream {
 				tempPath = target.getAbsolutePath() + EXTENSION;
 			target = new File(tempPath);
 		}
-		return new BufferedInputStream(new FileInputStream(target), bufferSize);
+		return new UnsynchronizedBufferedInputStream(new FileInputStream(target), bufferSize);
 	}
 }
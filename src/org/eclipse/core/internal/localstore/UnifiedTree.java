@@ -18,7 +18,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.regex.Pattern;
 import org.eclipse.core.filesystem.*;
-import org.eclipse.core.internal.refresh.RefreshJob;
+import org.eclipse.core.internal.refresh.ILinkHistories;
 import org.eclipse.core.internal.resources.*;
 import org.eclipse.core.internal.utils.Queue;
 import org.eclipse.core.resources.IContainer;
@@ -53,6 +53,21 @@ public class UnifiedTree {
 	/** an IFileTree which can be used to build a unified tree*/
 	protected IFileTree fileTree = null;
 
+	/** the folder fingerprints used and recorded by the traversal, or null */
+	private RefreshFingerprints.Traversal fingerprints;
+
+	/** canonical paths of the directories checked for symbolic link cycles, keyed by file key or path, or null */
+	private Map<Object, String> canonicalPaths;
+
+	/** the depth of the current traversal */
+	private int depth;
+
+	/** fetches the local children of folders ahead of the traversal, or null */
+	private ChildInfoPrefetcher prefetcher;
+
+	/** the number of threads fetching local children ahead of the traversal */
+	private int prefetchThreads;
+
 	/** Spare node objects available for reuse */
 	protected ArrayList<UnifiedTreeNode> freeNodes = new ArrayList<UnifiedTreeNode>();
 	/** tree's actual level */
@@ -95,29 +110,41 @@ public class UnifiedTree {
 	 */
 	public void accept(IUnifiedTreeVisitor visitor, int depth) throws CoreException {
 		Assert.isNotNull(root);
-		initializeQueue();
-		setLevel(0, depth);
-		while (!queue.isEmpty()) {
-			UnifiedTreeNode node = (UnifiedTreeNode) queue.remove();
-			if (isChildrenMarker(node))
-				continue;
-			if (isLevelMarker(node)) {
-				if (!setLevel(getLevel() + 1, depth))
-					break;
-				continue;
+		this.depth = depth;
+		//the file system may have changed since the last traversal
+		canonicalPaths = null;
+		if (prefetchThreads > 1 && fileTree == null)
+			prefetcher = new ChildInfoPrefetcher(prefetchThreads);
+		try {
+			initializeQueue();
+			setLevel(0, depth);
+			while (!queue.isEmpty()) {
+				UnifiedTreeNode node = (UnifiedTreeNode) queue.remove();
+				if (isChildrenMarker(node))
+					continue;
+				if (isLevelMarker(node)) {
+					if (!setLevel(getLevel() + 1, depth))
+						break;
+					continue;
+				}
+				if (visitor.visit(node))
+					addNodeChildrenToQueue(node);
+				else
+					removeNodeChildrenFromQueue(node);
+				//allow reuse of the node, but don't let the freeNodes list grow infinitely
+				if (freeNodes.size() < 32767) {
+					//free memory-consuming elements of the node for garbage collection
+					node.releaseForGc();
+					freeNodes.add(node);
+				}
+				//else, the whole node will be garbage collected since there is no
+				//reference to it any more.
 			}
-			if (visitor.visit(node))
-				addNodeChildrenToQueue(node);
-			else
-				removeNodeChildrenFromQueue(node);
-			//allow reuse of the node, but don't let the freeNodes list grow infinitely
-			if (freeNodes.size() < 32767) {
-				//free memory-consuming elements of the node for garbage collection
-				node.releaseForGc();
-				freeNodes.add(node);
+		} finally {
+			if (prefetcher != null) {
+				prefetcher.shutdown();
+				prefetcher = null;
 			}
-			//else, the whole node will be garbage collected since there is no
-			//reference to it any more.
 		}
 	}
 
@@ -133,18 +160,27 @@ public class UnifiedTree {
 		if (!parent.getProject().isAccessible())
 			return;
 
-		// get the list of resources in the file system
-		// don't ask for local children if we know it doesn't exist locally
-		IFileInfo[] list = node.existsInFileSystem() ? getLocalList(node) : NO_CHILDREN;
-		int localIndex = 0;
-
 		// See if the children of this resource have been computed before
 		ResourceInfo resourceInfo = parent.getResourceInfo(false, false);
 		int flags = parent.getFlags(resourceInfo);
 		boolean unknown = ResourceInfo.isSet(flags, ICoreConstants.M_CHILDREN_UNKNOWN);
+		boolean known = !unknown && (parentType == IResource.FOLDER || parentType == IResource.PROJECT) && parent.exists(flags, true);
+
+		// don't list a folder whose entries are unchanged since they were last refreshed
+		if (known && fingerprints != null && node.existsInFileSystem() && isUnchanged(node)) {
+			addFolderChildrenFromWorkspace(node, (IContainer) parent);
+			if (node.getFirstChild() != null)
+				addChildrenMarker();
+			return;
+		}
+
+		// get the list of resources in the file system
+		// don't ask for local children if we know it doesn't exist locally
+		IFileInfo[] list = node.existsInFileSystem() ? getLocalList(node) : NO_CHILDREN;
+		int localIndex = 0;
 
 		// get the list of resources in the workspace
-		if (!unknown && (parentType == IResource.FOLDER || parentType == IResource.PROJECT) && parent.exists(flags, true)) {
+		if (known) {
 			IResource target = null;
 			UnifiedTreeNode child = null;
 			IResource[] members;
@@ -222,6 +258,39 @@ public class UnifiedTree {
 		}
 	}
 
+	/**
+	 * Adds the children of a folder whose entries in the file system are
+	 * known to match the workspace.  Files are left out, and folders are
+	 * added so that their own entries are checked.
+	 */
+	private void addFolderChildrenFromWorkspace(UnifiedTreeNode node, IContainer parent) {
+		IResource[] members;
+		try {
+			members = parent.members(IContainer.INCLUDE_TEAM_PRIVATE_MEMBERS | IContainer.INCLUDE_HIDDEN);
+		} catch (CoreException e) {
+			members = NO_RESOURCES;
+		}
+		IFileStore parentStore = node.getStore();
+		for (int i = 0; i < members.length; i++) {
+			IResource target = members[i];
+			UnifiedTreeNode child;
+			if (target.isLinked()) {
+				child = createChildForLinkedResource(target);
+			} else if (target.getType() == IResource.FOLDER) {
+				IFileStore store = parentStore.getChild(target.getName());
+				IFileInfo localInfo = store.fetchInfo();
+				//create workspace-only node for symbolic link that creates a cycle
+				if (localInfo.getAttribute(EFS.ATTRIBUTE_SYMLINK) && localInfo.isDirectory() && isRecursiveLink(parentStore, localInfo))
+					child = createNode(target, null, null, true);
+				else
+					child = createNode(target, store, localInfo, true);
+			} else {
+				continue;
+			}
+			addChildToTree(node, child);
+		}
+	}
+
 	protected void addChildrenMarker() {
 		addElementToQueue(childrenMarker);
 	}
@@ -230,6 +299,11 @@ public class UnifiedTree {
 		if (node.getFirstChild() == null)
 			node.setFirstChild(child);
 		addElementToQueue(child);
+		//start fetching the children of the child if the traversal will need them
+		if (prefetcher != null && child.isFolder() && isValidLevel(level + 2, depth)) {
+			if (fingerprints == null || !fingerprints.mayBeUnchanged(child.getResource().getFullPath(), child.getLastModified()))
+				child.setPrefetch(prefetcher.request(child.getStore()));
+		}
 	}
 
 	protected void addElementToQueue(UnifiedTreeNode target) {
@@ -332,6 +406,57 @@ public class UnifiedTree {
 		return result.iterator();
 	}
 
+	/**
+	 * Returns the information of the children of the given store.  The children
+	 * of local directories are read with one directory stream when the Java
+	 * runtime provides one, instead of a listing followed by a separate
+	 * request per child.
+	 */
+	static IFileInfo[] fetchChildInfos(IFileStore store) throws CoreException {
+		if (FilesAccess.isAvailable() && EFS.SCHEME_FILE.equals(store.getFileSystem().getScheme())) {
+			java.io.File directory = store.toLocalFile(EFS.NONE, null);
+			if (directory != null) {
+				try {
+					return FilesAccess.childInfos(directory);
+				} catch (IOException e) {
+					//let the file store list the directory, and report the failure
+				}
+			}
+		}
+		return store.childInfos(EFS.NONE, null);
+	}
+
+	/**
+	 * Returns the canonical path of the given directory.  When the file system
+	 * identifies directories by file key, such as device and inode, canonical
+	 * paths are remembered by key for the rest of the refresh job, or of the
+	 * traversal outside of it.  The path of a directory reached through any
+	 * number of symbolic links is then only resolved once, and recognizing it
+	 * again costs a single attribute read.  Otherwise canonical paths are
+	 * remembered by path for the rest of the traversal.
+	 */
+	@SuppressWarnings("unchecked")
+	private String getCanonicalPath(java.io.File directory) throws IOException {
+		Object key = null;
+		if (FilesAccess.isAvailable())
+			key = FilesAccess.getFileKey(directory);
+		if (canonicalPaths == null) {
+			Job job = Job.getJobManager().currentJob();
+			if (key != null && job instanceof ILinkHistories)
+				canonicalPaths = ((ILinkHistories) job).getCanonicalPaths();
+			else
+				canonicalPaths = new HashMap<Object, String>();
+		}
+		if (key == null)
+			key = directory.getPath();
+		String canonicalPath = canonicalPaths.get(key);
+		if (canonicalPath == null) {
+			canonicalPath = directory.getCanonicalPath();
+			canonicalPaths.put(key, canonicalPath);
+		}
+		return canonicalPath;
+	}
+
 	protected int getLevel() {
 		return level;
 	}
@@ -339,12 +464,19 @@ public class UnifiedTree {
 	protected IFileInfo[] getLocalList(UnifiedTreeNode node) {
 		try {
 			final IFileStore store = node.getStore();
-			IFileInfo[] list = fileTree != null ? fileTree.getChildInfos(store) : store.childInfos(EFS.NONE, null);
+			IFileInfo[] list = null;
+			ChildInfoPrefetcher.Fetch fetch = node.takePrefetch();
+			if (fetch != null)
+				list = fetch.take();
+			if (list == null)
+				list = fileTree != null ? fileTree.getChildInfos(store) : fetchChildInfos(store);
+			if (fingerprints != null && list != null)
+				fingerprints.record(node.getResource().getFullPath(), node.getLastModified(), list.length);
 			if (list == null || list.length == 0)
 				return NO_CHILDREN;
 			list = ((Resource) node.getResource()).filterChildren(list, false);
 			int size = list.length;
-			if (size > 1)
+			if (size > 1 && !isSorted(list))
 				quickSort(list, 0, size - 1);
 			return list;
 		} catch (CoreException e) {
@@ -380,6 +512,19 @@ public class UnifiedTree {
 		return node == levelMarker;
 	}
 
+	/**
+	 * Returns whether the given infos are in ascending order.  Lists fetched
+	 * ahead of the traversal are sorted by the fetching thread, and some file
+	 * systems list directories in order, so checking first often saves sorting.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean isSorted(IFileInfo[] infos) {
+		for (int i = 1; i < infos.length; i++)
+			if (infos[i - 1].compareTo(infos[i]) > 0)
+				return false;
+		return true;
+	}
+
 	private static class PatternHolder {
 		//Initialize-on-demand Holder class to avoid compiling Pattern if never needed
 		//Pattern: A UNIX relative path that just points backward
@@ -394,9 +539,9 @@ public class UnifiedTree {
 		if (pathPrefixHistory == null) {
 			//Bug 232426: Check what life cycle we need for the histories
 			Job job = Job.getJobManager().currentJob();
-			if (job instanceof RefreshJob) {
-				//we are running from the RefreshJob: use the path history of the job
-				RefreshJob refreshJob = (RefreshJob) job;
+			if (job instanceof ILinkHistories) {
+				//we are running from a refresh job: use the path history of the job
+				ILinkHistories refreshJob = (ILinkHistories) job;
 				pathPrefixHistory = refreshJob.getPathPrefixHistory();
 				rootPathHistory = refreshJob.getRootPathHistory();
 			} else {
@@ -464,8 +609,8 @@ public class UnifiedTree {
 				return false;
 			//get canonical path for both child and parent
 			java.io.File childFile = new java.io.File(parentFile, localInfo.getName());
-			String parentPath = parentFile.getCanonicalPath() + '/';
-			String childPath = childFile.getCanonicalPath() + '/';
+			String parentPath = getCanonicalPath(parentFile) + '/';
+			String childPath = getCanonicalPath(childFile) + '/';
 			//get or instantiate the prefix and root path histories.
 			//Might be done earlier - for now, do it on demand.
 			initLinkHistoriesIfNeeded();
@@ -495,6 +640,24 @@ public class UnifiedTree {
 		return false;
 	}
 
+	/**
+	 * Returns whether the entries of the given folder node are unchanged
+	 * since its fingerprint was recorded.
+	 */
+	private boolean isUnchanged(UnifiedTreeNode node) {
+		IPath path = node.getResource().getFullPath();
+		long lastModified = node.getLastModified();
+		if (!fingerprints.mayBeUnchanged(path, lastModified))
+			return false;
+		try {
+			//counting the names does not fetch the information of each entry
+			String[] names = node.getStore().childNames(EFS.NONE, null);
+			return fingerprints.isUnchanged(path, lastModified, names.length);
+		} catch (CoreException e) {
+			return false;
+		}
+	}
+
 	protected boolean isValidLevel(int currentLevel, int depth) {
 		switch (depth) {
 			case IResource.DEPTH_INFINITE :
@@ -546,7 +709,9 @@ public class UnifiedTree {
 		if (first == null)
 			return;
 		while (true) {
-			if (first.equals(queue.removeTail()))
+			UnifiedTreeNode removed = (UnifiedTreeNode) queue.removeTail();
+			removed.cancelPrefetch();
+			if (first.equals(removed))
 				break;
 		}
 		node.setFirstChild(null);
@@ -562,6 +727,27 @@ public class UnifiedTree {
 		return isValidLevel(level, depth);
 	}
 
+	/**
+	 * Sets the folder fingerprints used and recorded by the traversal.  The
+	 * entries of folders whose fingerprint is unchanged are not listed.
+	 */
+	void setFingerprints(RefreshFingerprints.Traversal fingerprints) {
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Sets the number of threads on which the local children of folders are
+	 * fetched ahead of the traversal.  Fetching ahead lets a traversal of a
+	 * deep tree on a file system with a high latency, such as a network
+	 * file system, wait for several folders at once.  The traversal itself
+	 * still happens on the calling thread.  With fewer than two threads, or
+	 * when the tree is built from a file tree, children are fetched when
+	 * the traversal reaches them.
+	 */
+	public void setPrefetchThreads(int threads) {
+		this.prefetchThreads = threads;
+	}
+
 	private void setRoot(IResource root) {
 		this.root = root;
 	}
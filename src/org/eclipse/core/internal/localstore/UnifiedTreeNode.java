@@ -25,6 +25,8 @@ public class UnifiedTreeNode implements ILocalStoreConstants {
 	protected UnifiedTreeNode child;
 	protected boolean existsWorkspace;
 	protected IFileInfo fileInfo;
+	/** the fetch of the local children of this node, if started ahead of the traversal */
+	private ChildInfoPrefetcher.Fetch prefetch;
 	protected IResource resource;
 	protected IFileStore store;
 	protected UnifiedTree tree;
@@ -52,6 +54,16 @@ public class UnifiedTreeNode implements ILocalStoreConstants {
 		return tree.getChildren(this);
 	}
 
+	/**
+	 * Cancels the fetch of the local children of this node, if any.
+	 */
+	void cancelPrefetch() {
+		if (prefetch != null) {
+			prefetch.cancel();
+			prefetch = null;
+		}
+	}
+
 	protected UnifiedTreeNode getFirstChild() {
 		return child;
 	}
@@ -104,6 +116,7 @@ public class UnifiedTreeNode implements ILocalStoreConstants {
 	public void reuse(UnifiedTree aTree, IResource aResource, IFileStore aStore, IFileInfo info, boolean existsInWorkspace) {
 		this.tree = aTree;
 		this.child = null;
+		cancelPrefetch();
 		this.resource = aResource;
 		this.store = aStore;
 		this.fileInfo = info;
@@ -116,6 +129,7 @@ public class UnifiedTreeNode implements ILocalStoreConstants {
 	 */
 	public void releaseForGc() {
 		this.child = null;
+		cancelPrefetch();
 		this.resource = null;
 		this.store = null;
 		this.fileInfo = null;
@@ -129,10 +143,25 @@ public class UnifiedTreeNode implements ILocalStoreConstants {
 		this.child = child;
 	}
 
+	void setPrefetch(ChildInfoPrefetcher.Fetch fetch) {
+		cancelPrefetch();
+		prefetch = fetch;
+	}
+
 	public void setResource(IResource resource) {
 		this.resource = resource;
 	}
 
+	/**
+	 * Returns the fetch of the local children of this node, if any, and
+	 * forgets it.
+	 */
+	ChildInfoPrefetcher.Fetch takePrefetch() {
+		ChildInfoPrefetcher.Fetch fetch = prefetch;
+		prefetch = null;
+		return fetch;
+	}
+
 	public String toString() {
 		String s = resource == null ? "null" : resource.getFullPath().toString(); //$NON-NLS-1$
 		return "Node: " + s; //$NON-NLS-1$
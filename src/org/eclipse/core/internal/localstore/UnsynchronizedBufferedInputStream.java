@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.localstore;
+
+import java.io.*;
+
+/**
+ * A buffered input stream for use by a single thread.  Unlike
+ * <code>BufferedInputStream</code>, reading does not acquire a lock, which
+ * matters when restoring the workspace state, since the readers decode the
+ * state files with many reads of a few bytes each.  Marks are only
+ * supported for read limits no larger than the buffer.
+ */
+class UnsynchronizedBufferedInputStream extends InputStream {
+	private final InputStream in;
+	private final byte[] buffer;
+	/* index of the next byte to return from the buffer */
+	private int position;
+	/* number of valid bytes in the buffer */
+	private int count;
+	/* index of the marked byte in the buffer, or -1 if there is no valid mark */
+	private int markPosition = -1;
+
+	UnsynchronizedBufferedInputStream(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public int available() throws IOException {
+		return (count - position) + in.available();
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Refills the buffer.  Returns false if the end of the stream was reached.
+	 */
+	private boolean fill() throws IOException {
+		markPosition = -1;
+		position = 0;
+		count = 0;
+		int read = in.read(buffer, 0, buffer.length);
+		if (read <= 0)
+			return false;
+		count = read;
+		return true;
+	}
+
+	/**
+	 * Marks the current position.  Subsequent reads of up to
+	 * <code>readLimit</code> bytes are served from the buffer, so that
+	 * the position can be reset to the mark.
+	 */
+	public void mark(int readLimit) {
+		markPosition = -1;
+		if (readLimit > buffer.length)
+			return;
+		try {
+			// move the unread bytes to the front and top up the buffer
+			int remaining = count - position;
+			if (remaining < readLimit) {
+				System.arraycopy(buffer, position, buffer, 0, remaining);
+				position = 0;
+				count = remaining;
+				while (count < readLimit) {
+					int read = in.read(buffer, count, buffer.length - count);
+					if (read <= 0)
+						break;
+					count += read;
+				}
+			}
+			markPosition = position;
+		} catch (IOException e) {
+			// leave the stream without a mark; reset will fail
+		}
+	}
+
+	public boolean markSupported() {
+		return true;
+	}
+
+	public int read() throws IOException {
+		if (position >= count && !fill())
+			return -1;
+		return buffer[position++] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int available = count - position;
+		if (available <= 0) {
+			// large reads bypass the buffer
+			if (len >= buffer.length) {
+				markPosition = -1;
+				return in.read(b, off, len);
+			}
+			if (!fill())
+				return -1;
+			available = count;
+		}
+		int n = available < len ? available : len;
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	public void reset() throws IOException {
+		if (markPosition < 0)
+			throw new IOException("Resetting to invalid mark"); //$NON-NLS-1$
+		position = markPosition;
+	}
+
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		long available = count - position;
+		if (available <= 0) {
+			markPosition = -1;
+			return in.skip(n);
+		}
+		long skipped = available < n ? available : n;
+		position += (int) skipped;
+		return skipped;
+	}
+}
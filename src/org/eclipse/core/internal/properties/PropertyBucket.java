@@ -216,6 +216,13 @@ public class PropertyBucket extends Bucket {
 		super();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.internal.localstore.Bucket#beginIndexFile()
+	 */
+	protected void beginIndexFile() {
+		qualifierIndex.clear();
+	}
+
 	protected Entry createEntry(IPath path, Object value) {
 		return new PropertyEntry(path, (String[][]) value);
 	}
@@ -253,11 +260,6 @@ public class PropertyBucket extends Bucket {
 		return "properties.version"; //$NON-NLS-1$
 	}
 
-	public void load(String newProjectName, File baseLocation, boolean force) throws CoreException {
-		qualifierIndex.clear();
-		super.load(newProjectName, baseLocation, force);
-	}
-
 	protected Object readEntryValue(DataInputStream source) throws IOException, CoreException {
 		int length = source.readUnsignedShort();
 		String[][] properties = new String[length][3];
@@ -286,11 +288,6 @@ public class PropertyBucket extends Bucket {
 		return properties;
 	}
 
-	public void save() throws CoreException {
-		qualifierIndex.clear();
-		super.save();
-	}
-
 	public void setProperties(PropertyEntry entry) {
 		IPath path = entry.getPath();
 		String[][] additions = (String[][]) entry.getValue();
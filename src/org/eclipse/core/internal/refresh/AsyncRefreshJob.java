@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.refresh;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.core.internal.localstore.PrefixPool;
+import org.eclipse.core.internal.resources.Workspace;
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Refreshes a resource and its descendants in the background, without
+ * holding the workspace lock for the whole refresh.  Containers are refreshed
+ * to depth one in short workspace operations of at most {@link #BATCH_SIZE}
+ * containers, so that other operations, and resource change notifications,
+ * can run between batches.  Each container is listed once, by its refresh.
+ * After each batch, the job reports the share of the containers found so far
+ * that have been refreshed as its progress.
+ * <p>
+ * The job is also the future of its result: cancelling the future cancels
+ * the refresh.  The future cannot be waited for by a thread that would keep
+ * the batches from running, see {@link #get()}.  The symbolic links followed
+ * by a batch are remembered by the next ones, like the refresh job does.
+ */
+class AsyncRefreshJob extends Job implements Future<IStatus>, ILinkHistories {
+	/**
+	 * The maximum number of containers refreshed in one workspace operation
+	 */
+	private static final int BATCH_SIZE = 64;
+	/**
+	 * The total work reported to the progress monitor
+	 */
+	private static final int TOTAL_WORK = 1000;
+
+	/**
+	 * The canonical paths of the directories resolved during this run of the
+	 * job, keyed by the objects that identify the directories in the file system.
+	 */
+	private Map<Object, String> canonicalPaths;
+	/** whether the future was cancelled */
+	private boolean cancelled;
+	/**
+	 * The history of path prefixes visited during this run of the job.
+	 * This is used to prevent infinite refresh loops caused by symbolic links in the file system.
+	 */
+	private PrefixPool pathPrefixHistory, rootPathHistory;
+	private final IResource resource;
+	/** the result of the job, or null if it is not done */
+	private IStatus result;
+	private final IWorkspace workspace;
+
+	AsyncRefreshJob(IWorkspace workspace, IResource resource) {
+		super(NLS.bind(Messages.refresh_asyncJob, resource.getFullPath()));
+		this.workspace = workspace;
+		this.resource = resource;
+		addJobChangeListener(new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				finished(event.getResult());
+			}
+		});
+	}
+
+	/**
+	 * Adds the children of the given resource that may have children to the
+	 * given list.
+	 */
+	private void addChildren(IResource parent, List<IResource> pending) {
+		if (parent.getType() == IResource.FILE || !parent.isAccessible())
+			return;
+		IResource[] members;
+		try {
+			members = ((IContainer) parent).members(IContainer.INCLUDE_TEAM_PRIVATE_MEMBERS | IContainer.INCLUDE_HIDDEN);
+		} catch (CoreException e) {
+			//not accessible any more - nothing to refresh
+			return;
+		}
+		for (int i = 0; i < members.length; i++)
+			if (members[i].getType() != IResource.FILE)
+				pending.add(members[i]);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#belongsTo(Object)
+	 */
+	public boolean belongsTo(Object family) {
+		return family == ResourcesPlugin.FAMILY_MANUAL_REFRESH;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone())
+				return false;
+			//the future is done at once, even though the job may still finish its current batch
+			cancelled = true;
+			notifyAll();
+		}
+		cancel();
+		return true;
+	}
+
+	/**
+	 * Fails if the calling thread holds the workspace lock, or a scheduling
+	 * rule that conflicts with the batches, unless the refresh is done.  The
+	 * batches could then not run, and waiting for them would never end.
+	 */
+	private void checkCanWait() {
+		if (isDone())
+			return;
+		boolean blocking = false;
+		try {
+			blocking = workspace instanceof Workspace && ((Workspace) workspace).getWorkManager().isLockAlreadyAcquired();
+		} catch (CoreException e) {
+			//the workspace is shut down, and the job cancelled
+		}
+		ISchedulingRule held = Job.getJobManager().currentRule();
+		if (held != null && held.isConflicting(workspace.getRuleFactory().refreshRule(resource)))
+			blocking = true;
+		if (blocking)
+			throw new IllegalStateException(NLS.bind(Messages.refresh_asyncWaitInOperation, resource.getFullPath()));
+	}
+
+	/**
+	 * Waits for the refresh to be done and returns its result.  Must not be
+	 * called while holding the workspace lock or a scheduling rule that
+	 * conflicts with refreshing the resource, since the refresh could then not
+	 * proceed.
+	 * @exception IllegalStateException if it is
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public synchronized IStatus get() throws InterruptedException {
+		checkCanWait();
+		while (!isDone())
+			wait();
+		return getStatus();
+	}
+
+	/**
+	 * Waits for the refresh to be done for at most the given time, and returns
+	 * its result.  Like {@link #get()}, must not be called while holding the
+	 * workspace lock or a conflicting scheduling rule.
+	 * @exception IllegalStateException if it is
+	 * @see java.util.concurrent.Future#get(long, TimeUnit)
+	 */
+	public synchronized IStatus get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		checkCanWait();
+		long end = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (!isDone()) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			wait(remaining);
+		}
+		return getStatus();
+	}
+
+	/* (non-Javadoc)
+	 * @see ILinkHistories#getCanonicalPaths()
+	 */
+	public Map getCanonicalPaths() {
+		if (canonicalPaths == null)
+			canonicalPaths = new HashMap<Object, String>();
+		return canonicalPaths;
+	}
+
+	/* (non-Javadoc)
+	 * @see ILinkHistories#getPathPrefixHistory()
+	 */
+	public PrefixPool getPathPrefixHistory() {
+		if (pathPrefixHistory == null)
+			pathPrefixHistory = new PrefixPool(20);
+		return pathPrefixHistory;
+	}
+
+	/* (non-Javadoc)
+	 * @see ILinkHistories#getRootPathHistory()
+	 */
+	public PrefixPool getRootPathHistory() {
+		if (rootPathHistory == null)
+			rootPathHistory = new PrefixPool(20);
+		return rootPathHistory;
+	}
+
+	/**
+	 * Returns the result of the job.  Must be called while synchronized on
+	 * the job, once it is done.
+	 */
+	private IStatus getStatus() {
+		if (isCancelled())
+			throw new CancellationException();
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled || (result != null && result.getSeverity() == IStatus.CANCEL);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public synchronized boolean isDone() {
+		return cancelled || result != null;
+	}
+
+	/**
+	 * Refreshes the given containers to depth one in a single workspace
+	 * operation.
+	 */
+	private void refreshBatch(final List<IResource> batch, MultiStatus errors) {
+		ISchedulingRule[] rules = new ISchedulingRule[batch.size()];
+		IResourceRuleFactory factory = workspace.getRuleFactory();
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = factory.refreshRule(batch.get(i));
+		try {
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					for (Iterator<IResource> it = batch.iterator(); it.hasNext();)
+						it.next().refreshLocal(IResource.DEPTH_ONE, null);
+				}
+			}, MultiRule.combine(rules), IWorkspace.AVOID_UPDATE, null);
+		} catch (CoreException e) {
+			errors.merge(e.getStatus());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#run(IProgressMonitor)
+	 */
+	protected IStatus run(IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		MultiStatus errors = new MultiStatus(ResourcesPlugin.PI_RESOURCES, 1, Messages.refresh_refreshErr, null);
+		int refreshed = 0;
+		try {
+			monitor.beginTask("", TOTAL_WORK); //$NON-NLS-1$
+			int worked = 0;
+			LinkedList<IResource> pending = new LinkedList<IResource>();
+			pending.add(resource);
+			List<IResource> batch = new ArrayList<IResource>(BATCH_SIZE);
+			while (!pending.isEmpty()) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				batch.clear();
+				while (!pending.isEmpty() && batch.size() < BATCH_SIZE)
+					batch.add(pending.removeFirst());
+				refreshBatch(batch, errors);
+				refreshed += batch.size();
+				//the children of refreshed containers are now known
+				for (Iterator<IResource> it = batch.iterator(); it.hasNext();)
+					addChildren(it.next(), pending);
+				//the share of the containers found so far that are refreshed, which never goes back
+				int found = refreshed + pending.size();
+				int done = (int) ((long) TOTAL_WORK * refreshed / found);
+				if (done > worked) {
+					monitor.worked(done - worked);
+					worked = done;
+				}
+				monitor.subTask(NLS.bind(Messages.refresh_asyncProgress, Integer.toString(refreshed), Integer.toString(found)));
+			}
+		} finally {
+			pathPrefixHistory = null;
+			rootPathHistory = null;
+			canonicalPaths = null;
+			monitor.done();
+			if (RefreshManager.DEBUG)
+				System.out.println(RefreshManager.DEBUG_PREFIX + " refreshed " + refreshed + " containers below " + resource.getFullPath() + " in: " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		if (!errors.isOK())
+			return errors;
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Records the result of the job once it is done, whether it ran or not.
+	 */
+	synchronized void finished(IStatus result) {
+		this.result = result;
+		notifyAll();
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.refresh;
+
+import java.util.Map;
+import org.eclipse.core.internal.localstore.PrefixPool;
+
+/**
+ * Implemented by the jobs that refresh resources in several steps, to keep
+ * the symbolic links followed by one step known to the next ones.  Without
+ * them, a link pointing to an ancestor outside of the refreshed resource
+ * would be followed again by every step.  The histories are kept for one
+ * run of the job.
+ *
+ * @see org.eclipse.core.internal.localstore.UnifiedTree
+ */
+public interface ILinkHistories {
+	/**
+	 * Returns the canonical paths of the directories resolved by this job so far.
+	 */
+	public Map getCanonicalPaths();
+
+	/**
+	 * Returns the path prefixes visited by this job so far.
+	 */
+	public PrefixPool getPathPrefixHistory();
+
+	/**
+	 * Returns the root paths visited by this job so far.
+	 */
+	public PrefixPool getRootPathHistory();
+}
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.refresh;
 
-import java.util.ArrayList;
+import java.util.*;
 import org.eclipse.core.internal.resources.Resource;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.resources.*;
@@ -23,44 +23,57 @@ import org.osgi.framework.Bundle;
  * The <code>PollingMonitor</code> is an <code>IRefreshMonitor</code> that
  * polls the file system rather than registering natively for call-backs.
  * 
- * The polling monitor operates in iterations that span multiple invocations
- * of the job's run method.  At the beginning of an iteration, a set of 
- * all resource roots is collected.  Each time the job runs, it removes items
- * from the set and searches for changes for a fixed period of time.
- * This ensures that the refresh job is broken into very small discrete
- * operations that do not interrupt the user's main-line activity.
+ * The polling monitor keeps statistics for each resource root: how long
+ * polling it takes, and how many polls in a row found no change.  Each root
+ * is due for polling after an interval that doubles with every poll that
+ * finds no change, so roots that change often are polled often and cold
+ * roots back off.  Each time the job runs, it polls due roots, most overdue
+ * first, until the expected cost of the next poll would exceed a fixed
+ * budget.  This ensures that the refresh job is broken into very small
+ * discrete operations that do not interrupt the user's main-line activity.
  * 
  * @since 3.0
  */
 public class PollingMonitor extends Job implements IRefreshMonitor {
 	/**
-	 * The maximum duration of a single polling iteration
+	 * Polling statistics for a resource root.
 	 */
-	private static final long MAX_DURATION = 250;
+	private static final class RootStatistics {
+		/** the average time, in milliseconds, taken to poll the root */
+		long averageCost;
+		/** the number of polls in a row that found no change */
+		int coldPolls;
+		/** the time at which the root is next due for polling */
+		long nextPoll;
+		final IResource root;
+
+		RootStatistics(IResource root, long nextPoll) {
+			this.root = root;
+			this.nextPoll = nextPoll;
+		}
+	}
+
 	/**
-	 * The amount of time that a changed root should remain hot.
+	 * The expected cost, in milliseconds, of the polls done each time the job runs
 	 */
-	private static final long HOT_ROOT_DECAY = 90000;
+	private static final long COST_BUDGET = 250;
 	/**
-	 * The minimum delay between executions of the polling monitor
+	 * The maximum number of times the polling interval of a root is doubled
+	 */
+	private static final int MAX_BACKOFF = 5;
+	/**
+	 * The minimum delay between executions of the polling monitor, and the
+	 * polling interval of a root that has just changed
 	 */
 	private static final long MIN_FREQUENCY = 4000;
 	/**
-	 * The roots of resources which should be polled
+	 * The statistics of the roots of resources which should be polled
 	 */
 	private final ArrayList resourceRoots;
 	/**
-	 * The resources remaining to be refreshed in this iteration
+	 * The resources remaining to be refreshed once
 	 */
 	private final ArrayList toRefresh;
-	/**
-	 * The root that has most recently been out of sync
-	 */
-	private IResource hotRoot;
-	/**
-	 * The time the hot root was last refreshed
-	 */
-	private long hotRootTime;
 
 	private final RefreshManager refreshManager;
 	/**
@@ -84,10 +97,42 @@ public class PollingMonitor extends Job implements IRefreshMonitor {
 	 * Add the given root to the list of roots that need to be polled.
 	 */
 	public synchronized void monitor(IResource root) {
-		resourceRoots.add(root);
+		resourceRoots.add(new RootStatistics(root, System.currentTimeMillis() + MIN_FREQUENCY));
 		schedule(MIN_FREQUENCY);
 	}
 
+	/**
+	 * Returns the roots that are due for polling, most overdue first.
+	 */
+	private synchronized RootStatistics[] getDueRoots(long now) {
+		ArrayList due = new ArrayList();
+		for (int i = 0; i < resourceRoots.size(); i++) {
+			RootStatistics statistics = (RootStatistics) resourceRoots.get(i);
+			if (statistics.nextPoll <= now)
+				due.add(statistics);
+		}
+		RootStatistics[] result = (RootStatistics[]) due.toArray(new RootStatistics[due.size()]);
+		Arrays.sort(result, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long next1 = ((RootStatistics) o1).nextPoll;
+				long next2 = ((RootStatistics) o2).nextPoll;
+				return next1 < next2 ? -1 : (next1 == next2 ? 0 : 1);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns the time at which the next root is due for polling, or
+	 * <code>Long.MAX_VALUE</code> if there are no roots.
+	 */
+	private synchronized long getNextPoll() {
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < resourceRoots.size(); i++)
+			next = Math.min(next, ((RootStatistics) resourceRoots.get(i)).nextPoll);
+		return next;
+	}
+
 	/**
 	 * Polls the file system under the root containers for changes.
 	 */
@@ -109,36 +154,52 @@ public class PollingMonitor extends Job implements IRefreshMonitor {
 			}
 		}
 		long time = System.currentTimeMillis();
-		//check to see if we need to start an iteration
-		if (toRefresh.isEmpty()) {
-			beginIteration();
-			if (RefreshManager.DEBUG)
-				System.out.println(RefreshManager.DEBUG_PREFIX + "New polling iteration on " + toRefresh.size() + " roots"); //$NON-NLS-1$ //$NON-NLS-2$
-		}
-		final int oldSize = toRefresh.size();
 		if (RefreshManager.DEBUG)
 			System.out.println(RefreshManager.DEBUG_PREFIX + "started polling"); //$NON-NLS-1$
-		//refresh the hot root if applicable
-		if (time - hotRootTime > HOT_ROOT_DECAY)
-			hotRoot = null;
-		else if (hotRoot != null && !monitor.isCanceled())
-			poll(hotRoot);
-		//process roots that have not yet been refreshed this iteration
-		final long loopStart = System.currentTimeMillis();
-		while (!toRefresh.isEmpty()) {
-			if (monitor.isCanceled())
-				break;
-			poll((IResource) toRefresh.remove(toRefresh.size() - 1));
-			//stop the iteration if we have exceed maximum duration
-			if (System.currentTimeMillis() - loopStart > MAX_DURATION)
+		int polled = 0;
+		long budget = COST_BUDGET;
+		//process roots that only need to be refreshed once
+		while (budget > 0 && !monitor.isCanceled()) {
+			IResource resource;
+			synchronized (this) {
+				if (toRefresh.isEmpty())
+					break;
+				resource = (IResource) toRefresh.remove(toRefresh.size() - 1);
+			}
+			long start = System.currentTimeMillis();
+			poll(resource);
+			budget -= System.currentTimeMillis() - start;
+			polled++;
+		}
+		//poll due roots within the remaining budget, but always make progress
+		RootStatistics[] due = getDueRoots(time);
+		for (int i = 0; i < due.length && !monitor.isCanceled(); i++) {
+			RootStatistics statistics = due[i];
+			if (polled > 0 && statistics.averageCost > budget)
 				break;
+			long start = System.currentTimeMillis();
+			boolean changed = poll(statistics.root);
+			long end = System.currentTimeMillis();
+			budget -= end - start;
+			polled++;
+			synchronized (this) {
+				statistics.averageCost = statistics.averageCost == 0 ? end - start : (statistics.averageCost * 3 + end - start) / 4;
+				statistics.coldPolls = changed ? 0 : statistics.coldPolls + 1;
+				statistics.nextPoll = end + (MIN_FREQUENCY << Math.min(statistics.coldPolls, MAX_BACKOFF));
+			}
 		}
-		time = System.currentTimeMillis() - time;
+		long now = System.currentTimeMillis();
+		time = now - time;
 		if (RefreshManager.DEBUG)
-			System.out.println(RefreshManager.DEBUG_PREFIX + "polled " + (oldSize - toRefresh.size()) + " roots in " + time + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			System.out.println(RefreshManager.DEBUG_PREFIX + "polled " + polled + " roots in " + time + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		//reschedule automatically - shouldRun will cancel if not needed
 		//make sure it doesn't run more than 5% of the time
 		long delay = Math.max(MIN_FREQUENCY, time * 20);
+		synchronized (this) {
+			//wait for the next root to become due, unless there are roots left to refresh once
+			if (toRefresh.isEmpty())
+				delay = Math.max(delay, Math.min(getNextPoll() - now, MIN_FREQUENCY << MAX_BACKOFF));
+		}
 		//back off even more if there are other jobs running
 		if (!getJobManager().isIdle())
 			delay *= 2;
@@ -168,47 +229,42 @@ public class PollingMonitor extends Job implements IRefreshMonitor {
 		schedule(MIN_FREQUENCY);
 	}
 
-	private void poll(IResource resource) {
+	/**
+	 * Polls the given resource, and requests a refresh if it is out of sync.
+	 * Returns whether a refresh was requested.
+	 */
+	private boolean poll(IResource resource) {
 		if (resource.isSynchronized(IResource.DEPTH_INFINITE))
-			return;
+			return false;
 		//don't refresh links with no local content
 		if (resource.isLinked() && !((Resource) resource).getStore().fetchInfo().exists())
-			return;
+			return false;
 		//submit refresh request
 		refreshManager.refresh(resource);
-		hotRoot = resource;
-		hotRootTime = System.currentTimeMillis();
 		if (RefreshManager.DEBUG)
-			System.out.println(RefreshManager.DEBUG_PREFIX + "new hot root: " + resource); //$NON-NLS-1$
+			System.out.println(RefreshManager.DEBUG_PREFIX + "changed root: " + resource); //$NON-NLS-1$
+		return true;
 	}
 
 	/* (non-Javadoc)
 	 * @see Job#shouldRun
 	 */
-	public boolean shouldRun() {
+	public synchronized boolean shouldRun() {
 		//only run if there is something to refresh
 		return !resourceRoots.isEmpty() || !toRefresh.isEmpty();
 	}
 
-	/**
-	 * Copies the resources to be polled into the list of resources
-	 * to refresh this iteration. This method is synchronized to
-	 * guard against concurrent access to the resourceRoots field.
-	 */
-	private synchronized void beginIteration() {
-		toRefresh.addAll(resourceRoots);
-		if (hotRoot != null)
-			toRefresh.remove(hotRoot);
-	}
-
 	/*
 	 * @see org.eclipse.core.resources.refresh.IRefreshMonitor#unmonitor(IContainer)
 	 */
 	public synchronized void unmonitor(IResource resource) {
-		if (resource == null)
+		if (resource == null) {
 			resourceRoots.clear();
-		else
-			resourceRoots.remove(resource);
+		} else {
+			for (Iterator i = resourceRoots.iterator(); i.hasNext();)
+				if (((RootStatistics) i.next()).root.equals(resource))
+					i.remove();
+		}
 		if (resourceRoots.isEmpty())
 			cancel();
 	}
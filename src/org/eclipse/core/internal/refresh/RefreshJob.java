@@ -25,15 +25,13 @@ import org.eclipse.osgi.util.NLS;
  * 
  * @since 3.0
  */
-public class RefreshJob extends WorkspaceJob {
+public class RefreshJob extends WorkspaceJob implements ILinkHistories {
 	private static final long UPDATE_DELAY = 200;
 	/**
-	 * List of refresh requests. Requests are processed in order from
-	 * the end of the list. Requests can be added to either the beginning
-	 * or the end of the list depending on whether they are explicit user
-	 * requests or background refresh requests.
+	 * The pending refresh requests. Explicit requests are processed before
+	 * the requests for the children of refreshed resources.
 	 */
-	private final List fRequests;
+	private final RefreshRequestQueue fRequests;
 
 	/**
 	 * The history of path prefixes visited during this refresh job invocation.
@@ -41,9 +39,16 @@ public class RefreshJob extends WorkspaceJob {
 	 */
 	private PrefixPool pathPrefixHistory, rootPathHistory;
 
+	/**
+	 * The canonical paths of the directories resolved during this refresh job
+	 * invocation, keyed by the objects that identify the directories in the file
+	 * system.
+	 */
+	private Map canonicalPaths;
+
 	public RefreshJob() {
 		super(Messages.refresh_jobName);
-		fRequests = new ArrayList(1);
+		fRequests = new RefreshRequestQueue();
 	}
 
 	/**
@@ -52,23 +57,15 @@ public class RefreshJob extends WorkspaceJob {
 	 * @param resource
 	 */
 	private synchronized void addRequest(IResource resource) {
-		IPath toAdd = resource.getFullPath();
-		for (Iterator it = fRequests.iterator(); it.hasNext();) {
-			IPath request = ((IResource) it.next()).getFullPath();
-			//discard any existing requests the same or below the resource to be added
-			if (toAdd.isPrefixOf(request))
-				it.remove();
-			//nothing to do if the resource to be added is a child of an existing request
-			else if (request.isPrefixOf(toAdd))
-				return;
-		}
-		//finally add the new request to the front of the queue
-		fRequests.add(resource);
+		//add the new request to the front of the queue
+		fRequests.add(resource, true);
 	}
 
 	private synchronized void addRequests(List list) {
-		//add requests to the end of the queue
-		fRequests.addAll(0, list);
+		//add requests to the end of the queue, without collapsing them into
+		//the resource they were collected from
+		for (Iterator it = list.iterator(); it.hasNext();)
+			fRequests.add((IResource) it.next(), false);
 	}
 
 	/* (non-Javadoc)
@@ -103,6 +100,15 @@ public class RefreshJob extends WorkspaceJob {
 		return children;
 	}
 	
+	/**
+	 * Returns the canonical paths of the directories resolved by this job so far.
+	 */
+	public Map getCanonicalPaths() {
+		if (canonicalPaths == null)
+			canonicalPaths = new HashMap();
+		return canonicalPaths;
+	}
+
 	/**
 	 * Returns the path prefixes visited by this job so far.
 	 */
@@ -121,15 +127,19 @@ public class RefreshJob extends WorkspaceJob {
 		return rootPathHistory;
 	}
 
+	/**
+	 * Returns the number of pending refresh requests.
+	 */
+	synchronized int getRequestCount() {
+		return fRequests.size();
+	}
+
 	/**
 	 * Returns the next item to refresh, or <code>null</code> if there are no requests
 	 */
 	private synchronized IResource nextRequest() {
 		// synchronized: in order to atomically obtain and clear requests
-		int len = fRequests.size();
-		if (len == 0)
-			return null;
-		return (IResource) fRequests.remove(len - 1);
+		return fRequests.remove();
 	}
 
 	/* (non-Javadoc)
@@ -169,7 +179,7 @@ public class RefreshJob extends WorkspaceJob {
 						longestRefresh = refreshTime;
 					//show occasional progress
 					if (refreshCount % 100 == 0)
-						monitor.subTask(NLS.bind(Messages.refresh_task, Integer.toString(fRequests.size())));
+						monitor.subTask(NLS.bind(Messages.refresh_task, Integer.toString(getRequestCount())));
 					if (refreshCount % 1000 == 0) {
 						//be polite to other threads (no effect on some platforms)
 						Thread.yield();
@@ -190,9 +200,14 @@ public class RefreshJob extends WorkspaceJob {
 		} finally {
 			pathPrefixHistory = null;
 			rootPathHistory = null;
+			canonicalPaths = null;
 			monitor.done();
-			if (RefreshManager.DEBUG)
+			if (RefreshManager.DEBUG) {
 				System.out.println(RefreshManager.DEBUG_PREFIX + " finished refresh job in: " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+				synchronized (this) {
+					System.out.println(RefreshManager.DEBUG_PREFIX + " refresh requests pending: " + fRequests.size() + ", coalesced: " + fRequests.getCoalescedCount() + " of " + fRequests.getAddedCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				}
+			}
 		}
 		if (!errors.isOK())
 			return errors;
@@ -10,12 +10,14 @@
  *******************************************************************************/
 package org.eclipse.core.internal.refresh;
 
+import java.util.concurrent.Future;
 import org.eclipse.core.internal.resources.IManager;
 import org.eclipse.core.internal.utils.Policy;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.resources.refresh.IRefreshMonitor;
 import org.eclipse.core.resources.refresh.IRefreshResult;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Preferences;
 import org.eclipse.core.runtime.Preferences.PropertyChangeEvent;
 
@@ -86,6 +88,21 @@ public class RefreshManager implements IRefreshResult, IManager, Preferences.IPr
 			refreshJob.refresh(resource);
 	}
 
+	/**
+	 * Refreshes the given resource and all its descendants in the background,
+	 * and returns the future status of the refresh.  Unlike
+	 * {@link IResource#refreshLocal(int, IProgressMonitor)}, the workspace is
+	 * only locked while refreshing small batches of folders, so a refresh of
+	 * a large tree does not hold up other operations.  Cancelling the future
+	 * cancels the refresh.  The future must not be waited for while holding
+	 * the workspace lock.
+	 */
+	public Future<IStatus> refreshAsync(IResource resource) {
+		AsyncRefreshJob job = new AsyncRefreshJob(workspace, resource);
+		job.schedule();
+		return job;
+	}
+
 	/**
 	 * Shuts down the refresh manager.  This only happens when
 	 * the resources plugin is going away.
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.refresh;
+
+import java.util.*;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * The pending requests of the refresh job, kept in a tree of path segments
+ * so that a request covered by another one is found in time proportional
+ * to the depth of its path.  A request for a resource below a requested
+ * resource is dropped, and a request for a resource above requested
+ * resources replaces them.  When many children of a folder are urgently
+ * requested, they are replaced by a request for the folder.  Other requests
+ * are neither counted nor replaced this way: they are added by the refresh
+ * job for the children of the folder it has just refreshed.
+ * <p>
+ * Requests are taken in the order of a double ended queue: urgent requests
+ * are taken before all others, most recent first, and other requests are
+ * taken after all requests added before them.  Entries of the queue whose
+ * request has been replaced are skipped when taken.
+ * <p>
+ * This class is not thread safe.
+ */
+class RefreshRequestQueue {
+	/**
+	 * The number of requested children of a folder above which an urgent
+	 * request replaces them by a request for the folder.
+	 */
+	private static final int MAX_REQUESTED_CHILDREN = 64;
+
+	private static final class Node {
+		Map children;
+		/* set when this node has been removed from the tree */
+		boolean detached;
+		final Node parent;
+		/* the number of children with an urgent request */
+		int requestedChildren;
+		/* the requested resource, or null */
+		IResource request;
+		final String segment;
+		/* whether the request of this node is urgent */
+		boolean urgent;
+
+		Node(Node parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		/**
+		 * Returns whether this node is still in the tree.
+		 */
+		boolean isAttached() {
+			for (Node node = this; node != null; node = node.parent)
+				if (node.detached)
+					return false;
+			return true;
+		}
+	}
+
+	private int added;
+	private int coalesced;
+	private final LinkedList queue = new LinkedList();
+	private final Node root = new Node(null, null);
+	private int size;
+
+	/**
+	 * Adds a request to refresh the given resource.  Urgent requests are
+	 * taken before all requests added so far, other requests after them.
+	 * Only urgent requests replace the requested children of a folder by
+	 * a request for the folder.  An urgent request for a resource that is
+	 * already requested makes the pending request urgent.
+	 */
+	void add(IResource resource, boolean urgent) {
+		added++;
+		IPath path = resource.getFullPath();
+		Node node = root;
+		for (int i = 0, count = path.segmentCount(); i < count; i++) {
+			if (node.request != null) {
+				//covered by the request of an ancestor
+				coalesced++;
+				return;
+			}
+			if (node.children == null)
+				node.children = new HashMap();
+			Node child = (Node) node.children.get(path.segment(i));
+			if (child == null) {
+				child = new Node(node, path.segment(i));
+				node.children.put(child.segment, child);
+			}
+			node = child;
+		}
+		if (node.request != null) {
+			coalesced++;
+			if (urgent && !node.urgent) {
+				//take the pending request as urgent; its other queue entry is skipped once taken
+				node.urgent = true;
+				queue.addLast(node);
+				countUrgentChild(node);
+			}
+			return;
+		}
+		//this request covers the requests below it
+		if (node.children != null) {
+			for (Iterator it = node.children.values().iterator(); it.hasNext();)
+				detach((Node) it.next());
+			node.children = null;
+			node.requestedChildren = 0;
+		}
+		node.request = resource;
+		node.urgent = urgent;
+		size++;
+		if (urgent) {
+			queue.addLast(node);
+			countUrgentChild(node);
+		} else
+			queue.addFirst(node);
+	}
+
+	/**
+	 * Counts the given node as an urgently requested child of its parent, and
+	 * replaces the requests below the parent by a request for the parent when
+	 * it has too many of them.
+	 */
+	private void countUrgentChild(Node node) {
+		Node parent = node.parent;
+		if (parent == null || parent == root || ++parent.requestedChildren <= MAX_REQUESTED_CHILDREN)
+			return;
+		IContainer container = node.request.getParent();
+		if (container.getType() != IResource.ROOT) {
+			//counted as one of the requests it replaces
+			added--;
+			add(container, true);
+		}
+	}
+
+	/**
+	 * Removes the given node and the nodes below it from the tree.
+	 */
+	private void detach(Node node) {
+		node.detached = true;
+		if (node.request != null) {
+			size--;
+			coalesced++;
+		}
+		if (node.children != null)
+			for (Iterator it = node.children.values().iterator(); it.hasNext();)
+				detach((Node) it.next());
+	}
+
+	/**
+	 * Returns the number of requests added since the queue was created.
+	 */
+	int getAddedCount() {
+		return added;
+	}
+
+	/**
+	 * Returns the number of requests that were dropped or replaced because
+	 * they were covered by another request.
+	 */
+	int getCoalescedCount() {
+		return coalesced;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes and returns the next resource to refresh, or <code>null</code>
+	 * if there are no requests.
+	 */
+	IResource remove() {
+		while (!queue.isEmpty()) {
+			Node node = (Node) queue.removeLast();
+			if (node.request == null || !node.isAttached())
+				continue;
+			IResource resource = node.request;
+			node.request = null;
+			size--;
+			if (node.urgent && node.parent != null && node.parent != root)
+				node.parent.requestedChildren--;
+			node.urgent = false;
+			//prune nodes that hold no requests
+			while (node != root && node.request == null && node.children == null) {
+				node.detached = true;
+				Node parent = node.parent;
+				parent.children.remove(node.segment);
+				if (parent.children.isEmpty())
+					parent.children = null;
+				node = parent;
+			}
+			return resource;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of pending requests.
+	 */
+	int size() {
+		return size;
+	}
+}
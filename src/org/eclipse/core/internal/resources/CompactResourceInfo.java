@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A resource info that keeps its fixed-width fields outside the heap, in a
+ * slot of a slab of direct memory shared with other infos.  The info itself
+ * only holds its slab, the offset of its slot, and the fields that refer to
+ * other objects, so it takes less than half the heap of a {@link HeapResourceInfo}.
+ * The workspace uses these infos for files and folders when the
+ * <code>org.eclipse.core.resources.compactInfos</code> system property is set.
+ * <p>
+ * Each clone of an info takes a new slot, as each tree layer keeps its own
+ * copy of an info.  Slots are never reused.  The direct memory of a slab is
+ * released when the slab and every info with a slot in it have been garbage
+ * collected, and counts against the limit on direct memory of the VM.
+ * </p>
+ * <p>
+ * Unlike those of a {@link HeapResourceInfo}, the fields are not volatile:
+ * a thread reading an info that another thread is changing, rather than one
+ * published in an immutable tree, may not see the latest values.
+ * </p>
+ */
+public class CompactResourceInfo extends ResourceInfo {
+	/* the offsets of the fields in a slot */
+	private static final int LOCAL_INFO = 0;
+	private static final int NODE_ID = 8;
+	private static final int MOD_STAMP = 16;
+	private static final int FLAGS = 24;
+	private static final int CHARSET_AND_CONTENT_ID = 28;
+	private static final int MARKER_AND_SYNC_STAMP = 32;
+
+	/**
+	 * The size of a slot, rounded up so that the long fields stay aligned.
+	 */
+	static final int SLOT_SIZE = 40;
+
+	/**
+	 * The number of slots in a slab.
+	 */
+	private static final int SLOTS_PER_SLAB = 1024;
+
+	/**
+	 * The slab new slots are taken from, and the offset of its next free slot.
+	 */
+	private static ByteBuffer currentSlab;
+	private static int nextOffset;
+	private static final Object slabLock = new Object();
+
+	/**
+	 * The slab holding the fields of this info.
+	 */
+	private ByteBuffer slab;
+
+	/**
+	 * The offset of the slot of this info in its slab.
+	 */
+	private int offset;
+
+	public CompactResourceInfo() {
+		allocate();
+		setLocalSyncInfo(I_NULL_SYNC_INFO);
+	}
+
+	/**
+	 * Takes a new slot for the fields of this info.  The slot is zeroed.
+	 */
+	private void allocate() {
+		synchronized (slabLock) {
+			if (currentSlab == null || nextOffset == SLOTS_PER_SLAB * SLOT_SIZE) {
+				currentSlab = ByteBuffer.allocateDirect(SLOTS_PER_SLAB * SLOT_SIZE).order(ByteOrder.nativeOrder());
+				nextOffset = 0;
+			}
+			slab = currentSlab;
+			offset = nextOffset;
+			nextOffset += SLOT_SIZE;
+		}
+	}
+
+	public Object clone() {
+		CompactResourceInfo copy = (CompactResourceInfo) super.clone();
+		copy.allocate();
+		for (int i = 0; i < SLOT_SIZE; i += 8)
+			copy.slab.putLong(copy.offset + i, slab.getLong(offset + i));
+		return copy;
+	}
+
+	protected int getCharsetAndContentId() {
+		return slab.getInt(offset + CHARSET_AND_CONTENT_ID);
+	}
+
+	public int getFlags() {
+		return slab.getInt(offset + FLAGS);
+	}
+
+	public long getLocalSyncInfo() {
+		return slab.getLong(offset + LOCAL_INFO);
+	}
+
+	protected int getMarkerAndSyncStamp() {
+		return slab.getInt(offset + MARKER_AND_SYNC_STAMP);
+	}
+
+	public long getModificationStamp() {
+		return slab.getLong(offset + MOD_STAMP);
+	}
+
+	public long getNodeId() {
+		return slab.getLong(offset + NODE_ID);
+	}
+
+	protected void internalSetNodeId(long id) {
+		slab.putLong(offset + NODE_ID, id);
+	}
+
+	protected void setCharsetAndContentId(int value) {
+		slab.putInt(offset + CHARSET_AND_CONTENT_ID, value);
+	}
+
+	protected void setFlags(int value) {
+		slab.putInt(offset + FLAGS, value);
+	}
+
+	public void setLocalSyncInfo(long info) {
+		slab.putLong(offset + LOCAL_INFO, info);
+	}
+
+	protected void setMarkerAndSyncStamp(int value) {
+		slab.putInt(offset + MARKER_AND_SYNC_STAMP, value);
+	}
+
+	public void setModificationStamp(long value) {
+		slab.putLong(offset + MOD_STAMP, value);
+	}
+}
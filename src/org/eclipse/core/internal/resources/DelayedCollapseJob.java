@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Collapses the delta chains of the retained workspace trees once lookups
+ * search too many of their layers, without waiting for the next snapshot.
+ */
+public class DelayedCollapseJob extends Job {
+
+	private static final String MSG_COLLAPSE = Messages.resources_collapsingTrees;
+	private SaveManager saveManager;
+
+	public DelayedCollapseJob(SaveManager manager) {
+		super(MSG_COLLAPSE);
+		this.saveManager = manager;
+		setRule(ResourcesPlugin.getWorkspace().getRoot());
+		setSystem(true);
+	}
+
+	/*
+	 * @see Job#run()
+	 */
+	public IStatus run(IProgressMonitor monitor) {
+		if (monitor.isCanceled())
+			return Status.CANCEL_STATUS;
+		if (ResourcesPlugin.getWorkspace() == null)
+			return Status.OK_STATUS;
+		try {
+			saveManager.collapseTreesIfNeeded(monitor);
+			return Status.OK_STATUS;
+		} catch (CoreException e) {
+			return e.getStatus();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+/**
+ * A resource info that keeps its fixed-width fields in the info itself.  This
+ * is the info of every resource, except for files and folders when the
+ * workspace keeps compact infos.
+ * @see CompactResourceInfo
+ */
+public class HeapResourceInfo extends ResourceInfo {
+	/**
+	 * This field stores the resource modification stamp in the lower two bytes,
+	 * and the character set generation count in the higher two bytes.
+	 */
+	protected volatile int charsetAndContentId = 0;
+
+	/** Set of flags which reflect various states of the info (used, derived, ...). */
+	protected int flags = 0;
+
+	/** Local sync info */
+	// thread safety: (Concurrency004)
+	protected volatile long localInfo = I_NULL_SYNC_INFO;
+
+	/**
+	 * This field stores the sync info generation in the lower two bytes, and
+	 * the marker generation count in the upper two bytes.
+	 */
+	protected volatile int markerAndSyncStamp;
+
+	/** Modification stamp */
+	protected long modStamp = 0;
+
+	/** Unique node identifier */
+	// thread safety: (Concurrency004)
+	protected volatile long nodeId = 0;
+
+	protected int getCharsetAndContentId() {
+		return charsetAndContentId;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public long getLocalSyncInfo() {
+		return localInfo;
+	}
+
+	protected int getMarkerAndSyncStamp() {
+		return markerAndSyncStamp;
+	}
+
+	public long getModificationStamp() {
+		return modStamp;
+	}
+
+	public long getNodeId() {
+		return nodeId;
+	}
+
+	protected void internalSetNodeId(long id) {
+		nodeId = id;
+	}
+
+	protected void setCharsetAndContentId(int value) {
+		charsetAndContentId = value;
+	}
+
+	protected void setFlags(int value) {
+		flags = value;
+	}
+
+	public void setLocalSyncInfo(long info) {
+		localInfo = info;
+	}
+
+	protected void setMarkerAndSyncStamp(int value) {
+		markerAndSyncStamp = value;
+	}
+
+	public void setModificationStamp(long value) {
+		this.modStamp = value;
+	}
+}
@@ -116,6 +116,8 @@ public interface ICoreConstants {
 
 	public static final int WORKSPACE_TREE_VERSION_1 = 67305985;
 	public static final int WORKSPACE_TREE_VERSION_2 = 67305986;
+	// 67305987 was written into some version 2 files, see WorkspaceTreeReader_2
+	public static final int WORKSPACE_TREE_VERSION_3 = 67305988;
 
 	// helper constants for empty structures
 	public static final IBuildConfiguration[] EMPTY_BUILD_CONFIG_ARRAY = new IBuildConfiguration[0];
@@ -31,6 +31,7 @@ public class LocalMetaArea implements ICoreConstants {
 	/* package */static final String F_BACKUP_FILE_EXTENSION = ".bak"; //$NON-NLS-1$
 	/* package */static final String F_DESCRIPTION = ".workspace"; //$NON-NLS-1$
 	
+	/* package */static final String F_FINGERPRINTS = ".fingerprints"; //$NON-NLS-1$
 	/* package */static final String F_HISTORY_STORE = ".history"; //$NON-NLS-1$
 	/* package */static final String F_MARKERS = ".markers"; //$NON-NLS-1$
 	/* package */static final String F_OLD_PROJECT = ".prj"; //$NON-NLS-1$
@@ -170,6 +171,15 @@ public class LocalMetaArea implements ICoreConstants {
 		return locationFor(project).append(F_REFRESH);
 	}
 
+	/**
+	 * Returns the path of the file in which to save the fingerprints of the
+	 * folders of the given project that were refreshed.
+	 */
+	public IPath getRefreshFingerprintsLocationFor(IProject project) {
+		Assert.isNotNull(project);
+		return locationFor(project).append(F_FINGERPRINTS);
+	}
+
 	public IPath getSafeTableLocationFor(String pluginId) {
 		IPath prefix = metaAreaLocation.append(F_SAFE_TABLE);
 		// if the plugin is the resources plugin, we return the master table
@@ -16,7 +16,7 @@ import org.eclipse.core.resources.ICommand;
 import org.eclipse.core.resources.IProjectNature;
 import org.eclipse.core.runtime.content.IContentTypeMatcher;
 
-public class ProjectInfo extends ResourceInfo {
+public class ProjectInfo extends HeapResourceInfo {
 
 	/** The description of this object */
 	protected ProjectDescription description = null;
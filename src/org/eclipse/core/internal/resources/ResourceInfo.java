@@ -21,62 +21,51 @@ import org.eclipse.core.runtime.QualifiedName;
 
 /**
  * A data structure containing the in-memory state of a resource in the workspace.
+ * <p>
+ * The fixed-width fields of an info, its flags, stamps, node id and local sync
+ * info, are kept by subclasses: in the info itself by {@link HeapResourceInfo},
+ * or outside the heap by {@link CompactResourceInfo}.
+ * </p>
  */
-public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPoolParticipant {
+public abstract class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPoolParticipant {
 	protected static final int LOWER = 0xFFFF;
 	protected static final int UPPER = 0xFFFF0000;
 
-	/** 
-	 * This field stores the resource modification stamp in the lower two bytes,
-	 * and the character set generation count in the higher two bytes.
-	 */
-	protected volatile int charsetAndContentId = 0;
-
 	/**
-	 * The file system root that this resource is stored in
-	 */
-	protected FileStoreRoot fileStoreRoot;
-
-	/** Set of flags which reflect various states of the info (used, derived, ...). */
-	protected int flags = 0;
+	 * The markers, session properties and sync information of a resource,
+	 * and the hash of its contents.  Most resources have none of these, so
+	 * they are kept out of line to keep the info of every other resource smaller.
+	 */
+	private static final class Attachments implements Cloneable {
+		byte[] contentHash;
+		MarkerSet markers;
+		ObjectMap sessionProperties;
+		ObjectMap syncInfo;
+
+		Attachments copy() {
+			try {
+				return (Attachments) clone();
+			} catch (CloneNotSupportedException e) {
+				return null; // never gets here.
+			}
+		}
 
-	/** Local sync info */
-	// thread safety: (Concurrency004)
-	protected volatile long localInfo = I_NULL_SYNC_INFO;
+		boolean isEmpty() {
+			return contentHash == null && markers == null && sessionProperties == null && syncInfo == null;
+		}
+	}
 
 	/**
-	 * This field stores the sync info generation in the lower two bytes, and
-	 * the marker generation count in the upper two bytes.
+	 * The markers, session properties and sync information of this resource,
+	 * or <code>null</code> if it has none.  Each clone of an info has its own
+	 * attachments, though the collections they refer to are shared as before.
 	 */
-	protected volatile int markerAndSyncStamp;
-
-	/** The collection of markers for this resource. */
-	protected MarkerSet markers = null;
+	private volatile Attachments attachments;
 
-	/** Modification stamp */
-	protected long modStamp = 0;
-
-	/** Unique node identifier */
-	// thread safety: (Concurrency004)
-	protected volatile long nodeId = 0;
-
-	/** 
-	 * The properties which are maintained for the lifecycle of the workspace.
-	 * <p>
-	 * This field is declared as the implementing class rather than the
-	 * interface so we ensure that we get it right since we are making certain
-	 * assumptions about the object type w.r.t. casting.
-	 */
-	protected ObjectMap sessionProperties = null;
-
-	/** 
-	 * The table of sync information. 
-	 * <p>
-	 * This field is declared as the implementing class rather than the
-	 * interface so we ensure that we get it right since we are making certain
-	 * assumptions about the object type w.r.t. casting.
+	/**
+	 * The file system root that this resource is stored in
 	 */
-	protected ObjectMap syncInfo = null;
+	protected FileStoreRoot fileStoreRoot;
 
 	/** 
 	 * Returns the integer value stored in the indicated part of this info's flags.
@@ -104,31 +93,45 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * Clears all of the bits indicated by the mask.
 	 */
 	public void clear(int mask) {
-		flags &= ~mask;
+		setFlags(getFlags() & ~mask);
 	}
 
 	public void clearModificationStamp() {
-		modStamp = IResource.NULL_STAMP;
+		setModificationStamp(IResource.NULL_STAMP);
 	}
 
 	public synchronized void clearSessionProperties() {
-		sessionProperties = null;
+		Attachments temp = attachments;
+		if (temp == null)
+			return;
+		temp.sessionProperties = null;
+		releaseIfEmpty(temp);
 	}
 
 	public Object clone() {
 		try {
-			return super.clone();
+			ResourceInfo copy = (ResourceInfo) super.clone();
+			Attachments temp = attachments;
+			if (temp != null)
+				copy.attachments = temp.copy();
+			return copy;
 		} catch (CloneNotSupportedException e) {
 			return null; // never gets here.
 		}
 	}
 
+	/**
+	 * Returns the field storing the content id in the lower two bytes, and
+	 * the character set generation count in the higher two bytes.
+	 */
+	protected abstract int getCharsetAndContentId();
+
 	public int getCharsetGenerationCount() {
-		return charsetAndContentId >> 16;
+		return getCharsetAndContentId() >> 16;
 	}
 
 	public int getContentId() {
-		return charsetAndContentId & LOWER;
+		return getCharsetAndContentId() & LOWER;
 	}
 
 	public FileStoreRoot getFileStoreRoot() {
@@ -138,23 +141,25 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	/** 
 	 * Returns the set of flags for this info.
 	 */
-	public int getFlags() {
-		return flags;
-	}
+	public abstract int getFlags();
 
 	/** 
 	 * Gets the local-relative sync information.
 	 */
-	public long getLocalSyncInfo() {
-		return localInfo;
-	}
+	public abstract long getLocalSyncInfo();
+
+	/**
+	 * Returns the field storing the sync info generation count in the lower
+	 * two bytes, and the marker generation count in the upper two bytes.
+	 */
+	protected abstract int getMarkerAndSyncStamp();
 
 	/** 
 	 * Returns the marker generation count.
 	 * The count is incremented whenever markers on the resource change.
 	 */
 	public int getMarkerGenerationCount() {
-		return markerAndSyncStamp >> 16;
+		return getMarkerAndSyncStamp() >> 16;
 	}
 
 	/** 
@@ -165,23 +170,30 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 		return getMarkers(true);
 	}
 
+	/**
+	 * Returns the hash of the contents of this file when it was last
+	 * refreshed, or <code>null</code> if it is not known.
+	 */
+	public byte[] getContentHash() {
+		Attachments temp = attachments;
+		return temp == null ? null : temp.contentHash;
+	}
+
 	/** 
 	 * Returns the collection of makers on this resource.
 	 * <code>null</code> is returned if there are none.
 	 */
 	public MarkerSet getMarkers(boolean makeCopy) {
+		Attachments temp = attachments;
+		MarkerSet markers = temp == null ? null : temp.markers;
 		if (markers == null)
 			return null;
 		return makeCopy ? (MarkerSet) markers.clone() : markers;
 	}
 
-	public long getModificationStamp() {
-		return modStamp;
-	}
+	public abstract long getModificationStamp();
 
-	public long getNodeId() {
-		return nodeId;
-	}
+	public abstract long getNodeId();
 
 	/**
 	 * Returns the property store associated with this info.  The return value may be null.
@@ -196,11 +208,12 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public Map getSessionProperties() {
 		// thread safety: (Concurrency001)
-		ObjectMap temp = sessionProperties;
+		Attachments current = attachments;
+		ObjectMap temp = current == null ? null : current.sessionProperties;
 		if (temp == null)
 			temp = new ObjectMap(5);
 		else
-			temp = (ObjectMap) sessionProperties.clone();
+			temp = (ObjectMap) temp.clone();
 		return temp;
 	}
 	
@@ -209,7 +222,8 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public Object getSessionProperty(QualifiedName name) {
 		// thread safety: (Concurrency001)
-		Map temp = sessionProperties;
+		Attachments current = attachments;
+		Map temp = current == null ? null : current.sessionProperties;
 		if (temp == null)
 			return null;
 		return temp.get(name);
@@ -221,6 +235,7 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * assumptions about the object type w.r.t. casting.
 	 */
 	public synchronized ObjectMap getSyncInfo(boolean makeCopy) {
+		ObjectMap syncInfo = getSyncInfo();
 		if (syncInfo == null)
 			return null;
 		return makeCopy ? (ObjectMap) syncInfo.clone() : syncInfo;
@@ -229,18 +244,24 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	public synchronized byte[] getSyncInfo(QualifiedName id, boolean makeCopy) {
 		// thread safety: (Concurrency001)
 		byte[] b;
+		ObjectMap syncInfo = getSyncInfo();
 		if (syncInfo == null)
 			return null;
 		b = (byte[]) syncInfo.get(id);
 		return b == null ? null : (makeCopy ? (byte[]) b.clone() : b);
 	}
 
+	private ObjectMap getSyncInfo() {
+		Attachments temp = attachments;
+		return temp == null ? null : temp.syncInfo;
+	}
+
 	/** 
 	 * Returns the sync information generation count.
 	 * The count is incremented whenever sync info on the resource changes.
 	 */
 	public int getSyncInfoGenerationCount() {
-		return markerAndSyncStamp & LOWER;
+		return getMarkerAndSyncStamp() & LOWER;
 	}
 
 	/** 
@@ -248,7 +269,7 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * FILE, FOLDER, PROJECT, 
 	 */
 	public int getType() {
-		return getType(flags);
+		return getType(getFlags());
 	}
 
 	/** 
@@ -257,7 +278,8 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public void incrementCharsetGenerationCount() {
 		//increment high order bits
-		charsetAndContentId = ((charsetAndContentId + LOWER + 1) & UPPER) + (charsetAndContentId & LOWER);
+		int charsetAndContentId = getCharsetAndContentId();
+		setCharsetAndContentId(((charsetAndContentId + LOWER + 1) & UPPER) + (charsetAndContentId & LOWER));
 	}
 
 	/** 
@@ -265,7 +287,11 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public void incrementContentId() {
 		//increment low order bits
-		charsetAndContentId = (charsetAndContentId & UPPER) + ((charsetAndContentId + 1) & LOWER);
+		int charsetAndContentId = getCharsetAndContentId();
+		setCharsetAndContentId((charsetAndContentId & UPPER) + ((charsetAndContentId + 1) & LOWER));
+		//the hash of the previous contents no longer applies
+		if (attachments != null)
+			setContentHash(null);
 	}
 
 	/** 
@@ -274,7 +300,8 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public void incrementMarkerGenerationCount() {
 		//increment high order bits
-		markerAndSyncStamp = ((markerAndSyncStamp + LOWER + 1) & UPPER) + (markerAndSyncStamp & LOWER);
+		int markerAndSyncStamp = getMarkerAndSyncStamp();
+		setMarkerAndSyncStamp(((markerAndSyncStamp + LOWER + 1) & UPPER) + (markerAndSyncStamp & LOWER));
 	}
 
 	/** 
@@ -283,7 +310,7 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * distinguish two arbitrary resource generations.
 	 */
 	public void incrementModificationStamp() {
-		modStamp++;
+		setModificationStamp(getModificationStamp() + 1);
 	}
 
 	/** 
@@ -292,32 +319,33 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public void incrementSyncInfoGenerationCount() {
 		//increment low order bits
-		markerAndSyncStamp = (markerAndSyncStamp & UPPER) + ((markerAndSyncStamp + 1) & LOWER);
+		int markerAndSyncStamp = getMarkerAndSyncStamp();
+		setMarkerAndSyncStamp((markerAndSyncStamp & UPPER) + ((markerAndSyncStamp + 1) & LOWER));
 	}
 
 	/** 
 	 * Returns true if all of the bits indicated by the mask are set.
 	 */
 	public boolean isSet(int mask) {
-		return (flags & mask) == mask;
+		return (getFlags() & mask) == mask;
 	}
 
 	public void readFrom(int newFlags, DataInput input) throws IOException {
 		// The flags for this info are read by the visitor (flattener). 
 		// See Workspace.readElement().  This allows the reader to look ahead 
 		// and see what type of info is being loaded.
-		this.flags = newFlags;
-		localInfo = input.readLong();
-		nodeId = input.readLong();
-		charsetAndContentId = input.readInt() & LOWER;
-		modStamp = input.readLong();
+		setFlags(newFlags);
+		setLocalSyncInfo(input.readLong());
+		internalSetNodeId(input.readLong());
+		setCharsetAndContentId(input.readInt() & LOWER);
+		setModificationStamp(input.readLong());
 	}
 
 	/** 
 	 * Sets all of the bits indicated by the mask.
 	 */
 	public void set(int mask) {
-		flags |= mask;
+		setFlags(getFlags() | mask);
 	}
 
 	/** 
@@ -327,12 +355,19 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 		int baseMask = mask >> start;
 		int newValue = (value & baseMask) << start;
 		// thread safety: (guarantee atomic assignment)
-		int temp = flags;
+		int temp = getFlags();
 		temp &= ~mask;
 		temp |= newValue;
-		flags = temp;
+		setFlags(temp);
 	}
 
+	/**
+	 * Sets the field storing the content id and the character set
+	 * generation count.
+	 * @see #getCharsetAndContentId()
+	 */
+	protected abstract void setCharsetAndContentId(int value);
+
 	public void setFileStoreRoot(FileStoreRoot fileStoreRoot) {
 		this.fileStoreRoot = fileStoreRoot;
 	}
@@ -340,43 +375,72 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	/** 
 	 * Sets the flags for this info.
 	 */
-	protected void setFlags(int value) {
-		flags = value;
-	}
+	protected abstract void setFlags(int value);
 
 	/** 
 	 * Sets the local-relative sync information.
 	 */
-	public void setLocalSyncInfo(long info) {
-		localInfo = info;
+	public abstract void setLocalSyncInfo(long info);
+
+	/**
+	 * Sets the hash of the contents of this file.  The hash is forgotten
+	 * whenever the content id is incremented.
+	 */
+	public synchronized void setContentHash(byte[] value) {
+		if (value == null) {
+			Attachments temp = attachments;
+			if (temp == null)
+				return;
+			temp.contentHash = null;
+			releaseIfEmpty(temp);
+		} else {
+			useAttachments().contentHash = value;
+		}
 	}
 
 	/** 
 	 * Sets the collection of makers for this resource.
 	 * <code>null</code> is passed in if there are no markers.
 	 */
-	public void setMarkers(MarkerSet value) {
-		markers = value;
+	public synchronized void setMarkers(MarkerSet value) {
+		if (value == null) {
+			Attachments temp = attachments;
+			if (temp == null)
+				return;
+			temp.markers = null;
+			releaseIfEmpty(temp);
+		} else {
+			useAttachments().markers = value;
+		}
 	}
 
+	/**
+	 * Sets the field storing the sync info and marker generation counts.
+	 * @see #getMarkerAndSyncStamp()
+	 */
+	protected abstract void setMarkerAndSyncStamp(int value);
+
 	/**
 	 * Sets the resource modification stamp.
 	 */
-	public void setModificationStamp(long value) {
-		this.modStamp = value;
-	}
+	public abstract void setModificationStamp(long value);
 
 	/** 
 	 *
 	 */
 	public void setNodeId(long id) {
-		nodeId = id;
+		internalSetNodeId(id);
 		// Resource modification stamp starts from current nodeId
 		// so future generations are distinguishable (bug 160728)
-		if (modStamp == 0)
-			modStamp = nodeId;
+		if (getModificationStamp() == 0)
+			setModificationStamp(id);
 	}
 
+	/**
+	 * Sets the node id, without changing the modification stamp.
+	 */
+	protected abstract void internalSetNodeId(long id);
+
 	/**
 	 * Sets the property store associated with this info.  The value may be null.
 	 */
@@ -390,15 +454,19 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 */
 	public synchronized void setSessionProperty(QualifiedName name, Object value) {
 		// thread safety: (Concurrency001)
+		Attachments current = attachments;
+		ObjectMap sessionProperties = current == null ? null : current.sessionProperties;
 		if (value == null) {
 			if (sessionProperties == null)
 				return;
 			ObjectMap temp = (ObjectMap) sessionProperties.clone();
 			temp.remove(name);
-			if (temp.isEmpty())
-				sessionProperties = null;
-			else
-				sessionProperties = temp;
+			if (temp.isEmpty()) {
+				current.sessionProperties = null;
+				releaseIfEmpty(current);
+			} else {
+				current.sessionProperties = temp;
+			}
 		} else {
 			ObjectMap temp = sessionProperties;
 			if (temp == null)
@@ -406,7 +474,7 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 			else
 				temp = (ObjectMap) sessionProperties.clone();
 			temp.put(name, value);
-			sessionProperties = temp;
+			useAttachments().sessionProperties = temp;
 		}
 	}
 
@@ -415,22 +483,31 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * interface so we ensure that we get it right since we are making certain
 	 * assumptions about the object type w.r.t. casting.
 	 */
-	protected void setSyncInfo(ObjectMap syncInfo) {
-		this.syncInfo = syncInfo;
+	protected synchronized void setSyncInfo(ObjectMap syncInfo) {
+		if (syncInfo == null) {
+			Attachments temp = attachments;
+			if (temp == null)
+				return;
+			temp.syncInfo = null;
+			releaseIfEmpty(temp);
+		} else {
+			useAttachments().syncInfo = syncInfo;
+		}
 	}
 
 	public synchronized void setSyncInfo(QualifiedName id, byte[] value) {
+		ObjectMap syncInfo = getSyncInfo();
 		if (value == null) {
 			//delete sync info
 			if (syncInfo == null)
 				return;
 			syncInfo.remove(id);
 			if (syncInfo.isEmpty())
-				syncInfo = null;
+				setSyncInfo(null);
 		} else {
 			//add sync info
 			if (syncInfo == null)
-				syncInfo = new ObjectMap(5);
+				setSyncInfo(syncInfo = new ObjectMap(5));
 			syncInfo.put(id, value.clone());
 		}
 	}
@@ -447,24 +524,47 @@ public class ResourceInfo implements IElementTreeData, ICoreConstants, IStringPo
 	 * Method declared on IStringPoolParticipant
 	 */
 	public void shareStrings(StringPool set) {
-		ObjectMap map = syncInfo;
+		Attachments current = attachments;
+		if (current == null)
+			return;
+		ObjectMap map = current.syncInfo;
 		if (map != null)
 			map.shareStrings(set);
-		map = sessionProperties;
+		map = current.sessionProperties;
 		if (map != null)
 			map.shareStrings(set);
-		MarkerSet markerSet = markers;
+		MarkerSet markerSet = current.markers;
 		if (markerSet != null)
 			markerSet.shareStrings(set);
 	}
 
+	/**
+	 * Returns the attachments of this info, creating them if necessary.
+	 * Must be called while holding this info's lock.
+	 */
+	private Attachments useAttachments() {
+		Attachments temp = attachments;
+		if (temp == null)
+			attachments = temp = new Attachments();
+		return temp;
+	}
+
+	/**
+	 * Drops the given attachments of this info if they no longer hold anything.
+	 * Must be called while holding this info's lock.
+	 */
+	private void releaseIfEmpty(Attachments current) {
+		if (current.isEmpty() && attachments == current)
+			attachments = null;
+	}
+
 	public void writeTo(DataOutput output) throws IOException {
 		// The flags for this info are written by the visitor (flattener). 
 		// See SaveManager.writeElement().  This allows the reader to look ahead 
 		// and see what type of info is being loaded.
-		output.writeLong(localInfo);
-		output.writeLong(nodeId);
+		output.writeLong(getLocalSyncInfo());
+		output.writeLong(getNodeId());
 		output.writeInt(getContentId());
-		output.writeLong(modStamp);
+		output.writeLong(getModificationStamp());
 	}
 }
@@ -12,7 +12,7 @@ package org.eclipse.core.internal.resources;
 
 import org.eclipse.core.runtime.QualifiedName;
 
-public class RootInfo extends ResourceInfo {
+public class RootInfo extends HeapResourceInfo {
 	/** The property store for this resource */
 	protected Object propertyStore = null;
 
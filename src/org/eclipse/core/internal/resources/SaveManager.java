@@ -16,8 +16,11 @@ package org.eclipse.core.internal.resources;
 import java.io.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.*;
 import org.eclipse.core.filesystem.*;
+import org.eclipse.core.internal.dtree.DeltaDataTree;
 import org.eclipse.core.internal.events.*;
 import org.eclipse.core.internal.localstore.*;
 import org.eclipse.core.internal.utils.*;
@@ -29,6 +32,47 @@ import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.osgi.util.NLS;
 
 public class SaveManager implements IElementInfoFlattener, IManager, IStringPoolParticipant {
+	/**
+	 * Where the chain of the subtree of each project is in the workspace tree
+	 * file last written or read, and the trees the chains were written from.
+	 * @see WorkspaceTreeReader_3
+	 */
+	private static final class TreeSections {
+		/**
+		 * The trees the chains were written from, in the order they were written.
+		 */
+		final ElementTree[] trees;
+		/**
+		 * Maps String (project name)-> long[] (offset of the chain from the
+		 * first chain, length of the chain).
+		 */
+		final Map chains;
+		/**
+		 * The length of all the chains, which end the file.
+		 */
+		final long length;
+		/**
+		 * The file holding the chains, and its length and modification time
+		 * when it was written or read.
+		 */
+		java.io.File file;
+		long fileLength;
+		long fileModified;
+
+		TreeSections(ElementTree[] trees, Map chains, long length) {
+			this.trees = trees;
+			this.chains = chains;
+			this.length = length;
+		}
+
+		/**
+		 * Returns whether the chains are still in the given file.
+		 */
+		boolean isIn(java.io.File otherFile) {
+			return otherFile.equals(file) && otherFile.length() == fileLength && otherFile.lastModified() == fileModified;
+		}
+	}
+
 	protected static final String CLEAR_DELTA_PREFIX = "clearDelta_"; //$NON-NLS-1$
 	protected static final String DELTA_EXPIRATION_PREFIX = "deltaExpiration_"; //$NON-NLS-1$
 	protected static final int DONE_SAVING = 3;
@@ -37,6 +81,24 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 * The minimum delay, in milliseconds, between workspace snapshots
 	 */
 	private static final long MIN_SNAPSHOT_DELAY = 1000 * 30L; //30 seconds
+	/**
+	 * System property naming the average number of delta chain layers a tree
+	 * lookup may search before the retained workspace trees are collapsed.
+	 * Collapsing between snapshots, and the lookup statistics it relies on,
+	 * are off unless this property is set to a positive value.
+	 */
+	private static final String PROP_MAX_LOOKUP_DEPTH = ResourcesPlugin.PI_RESOURCES + ".maxLookupDepth"; //$NON-NLS-1$
+	private static final int DEFAULT_MAX_LOOKUP_DEPTH = 0;
+	/**
+	 * The number of tree changing operations between checks of the lookup depth.
+	 */
+	private static final int COLLAPSE_CHECK_INTERVAL = 100;
+
+	/**
+	 * The maximum number of threads restoring the markers and sync info of
+	 * projects on startup.
+	 */
+	private static final int MAX_RESTORE_THREADS = 4;
 
 	/**
 	 * The number of empty operations that are equivalent to a single non-
@@ -88,9 +150,38 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 */
 	protected Map saveParticipants;
 
+	/**
+	 * Where the chains of the project subtrees are in the workspace tree file,
+	 * or <code>null</code> if that file has none.  Holding the trees they were
+	 * written from keeps alive the delta layers between the last saved current
+	 * tree and the current tree, which are as large as the changes since.
+	 */
+	private TreeSections treeSections;
+
 	protected final DelayedSnapshotJob snapshotJob;
 
+	/**
+	 * Collapses the retained trees when lookups search too many layers of their delta chains.
+	 */
+	protected final DelayedCollapseJob collapseJob;
+
+	/**
+	 * The number of tree changing operations since the lookup depth was last checked.
+	 */
+	protected int layersSinceCollapse = 0;
+
+	/**
+	 * The average number of layers per lookup above which the retained trees
+	 * are collapsed, or zero if they are only collapsed on save.
+	 */
+	protected final int maxLookupDepth;
+
 	protected boolean snapshotRequested;
+	/**
+	 * Threads helping to restore markers and sync info, created on demand.
+	 * @see #getRestoreHelpers()
+	 */
+	private ThreadPoolExecutor restoreHelpers;
 	protected Workspace workspace;
 	//declare debug messages as fields to get sharing
 	private static final String DEBUG_START = " starting..."; //$NON-NLS-1$
@@ -102,7 +193,10 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	public SaveManager(Workspace workspace) {
 		this.workspace = workspace;
 		this.snapshotJob = new DelayedSnapshotJob(this);
+		this.collapseJob = new DelayedCollapseJob(this);
+		this.maxLookupDepth = getMaxLookupDepth();
 		snapshotRequested = false;
+		DeltaDataTree.setCollectLookupStatistics(isCheckingLookupDepth());
 		saveParticipants = Collections.synchronizedMap(new HashMap(10));
 	}
 
@@ -235,8 +329,6 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 * and removes references to any other trees.
 	 */
 	protected void collapseTrees(Map contexts) throws CoreException {
-		//collect trees we're interested in
-		
 		//forget saved trees, if they are not used by registered participants
 		synchronized (savedStates) {
 			for (Iterator i = contexts.values().iterator(); i.hasNext();) {
@@ -244,52 +336,99 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 				forgetSavedTree(context.getPluginId());
 			}
 		}
+		collapseTrees();
+	}
+
+	/**
+	 * Collapses the delta chains of the ElementTrees we are still interested in
+	 * onto each other, so that lookups in old trees need not search the layers
+	 * in between.
+	 */
+	protected void collapseTrees() throws CoreException {
+		layersSinceCollapse = 0;
+		ElementTree[] treeArray = getRetainedTrees(workspace.getElementTree());
+
+		//no need to collapse if there are no trees other than the complete tree
+		if (treeArray.length == 1)
+			return;
+
+		//collapse the trees
+		//sort trees in topological order, and set the parent of each
+		//tree to its parent in the topological ordering.
+		ElementTree[] sorted = sortTrees(treeArray);
+		// if there was a problem sorting the tree, bail on trying to collapse.  
+		// We will be able to GC the layers at a later time.
+		if (sorted == null)
+			return;
+		for (int i = 1; i < sorted.length; i++)
+			sorted[i].collapseTo(sorted[i - 1]);
+	}
+
+	/**
+	 * Collapses the retained trees if lookups have searched more layers of
+	 * their delta chains on average than the configured maximum since the
+	 * last check.
+	 */
+	protected void collapseTreesIfNeeded(IProgressMonitor monitor) throws CoreException {
+		double lookupDepth = DeltaDataTree.getAverageLookupDepth();
+		DeltaDataTree.resetLookupStatistics();
+		boolean collapse = maxLookupDepth > 0 && lookupDepth > maxLookupDepth;
+		if (!collapse && !Policy.DEBUG_TREE_DEPTH)
+			return;
+		monitor = Policy.monitorFor(monitor);
+		final ISchedulingRule rule = workspace.getRoot();
+		try {
+			workspace.prepareOperation(rule, monitor);
+			workspace.beginOperation(false);
+			ElementTree current = workspace.getElementTree();
+			ElementTree[] trees = getRetainedTrees(current);
+			int depth = trees[ElementTree.findOldest(trees)].getDeltaDepth();
+			if (Policy.DEBUG_TREE_DEPTH)
+				Policy.debug("Tree delta chain depth: " + depth + ", average layers per lookup: " + lookupDepth); //$NON-NLS-1$ //$NON-NLS-2$
+			//the chain is already collapsed if it has no layers besides the retained trees
+			if (collapse && depth >= trees.length) {
+				// this runs as a top level operation that creates no working tree, so
+				// the current tree was already made immutable when the previous
+				// operation ended, and no operation can change it until this one ends
+				current.immutable();
+				collapseTrees();
+			}
+		} finally {
+			workspace.endOperation(rule, false, monitor);
+		}
+	}
 
+	/**
+	 * Returns the trees retained by saved states and builders, followed by
+	 * the given current tree.
+	 */
+	private ElementTree[] getRetainedTrees(ElementTree current) throws CoreException {
 		//trees for plugin saved states
 		ArrayList trees = new ArrayList();
 		synchronized (savedStates) {
 			for (Iterator i = savedStates.values().iterator(); i.hasNext();) {
 				SavedState state = (SavedState) i.next();
-				if (state.oldTree != null) {
+				if (state.oldTree != null)
 					trees.add(state.oldTree);
-				}
 			}
 		}
-
 		//trees for builders
 		IProject[] projects = workspace.getRoot().getProjects(IContainer.INCLUDE_HIDDEN);
 		for (int i = 0; i < projects.length; i++) {
-			IProject project = projects[i];
-			if (project.isOpen()) {
-				ArrayList builderInfos = workspace.getBuildManager().createBuildersPersistentInfo(project);
-				if (builderInfos != null) {
-					for (Iterator it = builderInfos.iterator(); it.hasNext();) {
-						BuilderPersistentInfo info = (BuilderPersistentInfo) it.next();
-						trees.add(info.getLastBuiltTree());
-					}
-				}
+			if (!projects[i].isOpen())
+				continue;
+			ArrayList builderInfos = workspace.getBuildManager().createBuildersPersistentInfo(projects[i]);
+			if (builderInfos == null)
+				continue;
+			for (Iterator it = builderInfos.iterator(); it.hasNext();) {
+				ElementTree tree = ((BuilderPersistentInfo) it.next()).getLastBuiltTree();
+				if (tree != null)
+					trees.add(tree);
 			}
 		}
-
-		//no need to collapse if there are no trees at this point
-		if (trees.isEmpty())
-			return;
-
 		//the complete tree
-		trees.add(workspace.getElementTree());
-
-		//collapse the trees
-		//sort trees in topological order, and set the parent of each
-		//tree to its parent in the topological ordering.
-		ElementTree[] treeArray = new ElementTree[trees.size()];
-		trees.toArray(treeArray);
-		ElementTree[] sorted = sortTrees(treeArray);
-		// if there was a problem sorting the tree, bail on trying to collapse.  
-		// We will be able to GC the layers at a later time.
-		if (sorted == null)
-			return;
-		for (int i = 1; i < sorted.length; i++)
-			sorted[i].collapseTo(sorted[i - 1]);
+		trees.add(current);
+		return (ElementTree[]) trees.toArray(new ElementTree[trees.size()]);
 	}
 
 	protected void commit(Map contexts) throws CoreException {
@@ -395,6 +534,29 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		return masterTable;
 	}
 
+	/**
+	 * Returns whether the lookup depth of the workspace trees is checked between
+	 * snapshots, either to collapse them or to trace it.
+	 */
+	private boolean isCheckingLookupDepth() {
+		return maxLookupDepth > 0 || Policy.DEBUG_TREE_DEPTH;
+	}
+
+	/**
+	 * Returns the average number of layers per lookup above which the
+	 * retained trees are collapsed, as configured by system property.
+	 */
+	private static int getMaxLookupDepth() {
+		String value = System.getProperty(PROP_MAX_LOOKUP_DEPTH);
+		if (value == null)
+			return DEFAULT_MAX_LOOKUP_DEPTH;
+		try {
+			return Math.max(0, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			return DEFAULT_MAX_LOOKUP_DEPTH;
+		}
+	}
+
 	public int getSaveNumber(String pluginId) {
 		String value = masterTable.getProperty(SAVE_NUMBER_PREFIX + pluginId);
 		return (value == null) ? 0 : new Integer(value).intValue();
@@ -508,6 +670,22 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		return info;
 	}
 
+	/**
+	 * Records that the chains of the project subtrees just written or read are
+	 * in the given workspace tree file, or forgets them if it does not exist.
+	 */
+	private void rememberTreeFile(java.io.File file) {
+		if (treeSections == null)
+			return;
+		if (!file.exists()) {
+			treeSections = null;
+			return;
+		}
+		treeSections.file = file;
+		treeSections.fileLength = file.length();
+		treeSections.fileModified = file.lastModified();
+	}
+
 	/**
 	 * Remove marks from current save participants. This marks prevent them to receive their
 	 * deltas when they register themselves as save participants.
@@ -655,28 +833,26 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 				String msg = Messages.resources_startupProblems;
 				MultiStatus problems = new MultiStatus(ResourcesPlugin.PI_RESOURCES, IResourceStatus.FAILED_READ_METADATA, msg, null);
 
+				long phase = start;
 				restoreMasterTable();
+				phase = restorePhaseDone("master table", phase); //$NON-NLS-1$
 				// restore the saved tree and overlay the snapshots if any
 				restoreTree(Policy.subMonitorFor(monitor, 10));
+				phase = restorePhaseDone("tree", phase); //$NON-NLS-1$
 				restoreSnapshots(Policy.subMonitorFor(monitor, 10));
+				phase = restorePhaseDone("snapshots", phase); //$NON-NLS-1$
 
 				// tolerate failure for non-critical information
 				// if startup fails, the entire workspace is shot
-				try {
-					restoreMarkers(workspace.getRoot(), false, Policy.subMonitorFor(monitor, 10));
-				} catch (CoreException e) {
-					problems.merge(e.getStatus());
-				}
-				try {
-					restoreSyncInfo(workspace.getRoot(), Policy.subMonitorFor(monitor, 10));
-				} catch (CoreException e) {
-					problems.merge(e.getStatus());
-				}
+				restoreMarkersAndSyncInfo(problems, Policy.subMonitorFor(monitor, 20));
+				phase = restorePhaseDone("markers and sync info", phase); //$NON-NLS-1$
 				// restore meta info last because it might close a project if its description is not readable
 				restoreMetaInfo(problems, Policy.subMonitorFor(monitor, 10));
+				phase = restorePhaseDone("meta info", phase); //$NON-NLS-1$
 				IProject[] roots = workspace.getRoot().getProjects(IContainer.INCLUDE_HIDDEN);
 				for (int i = 0; i < roots.length; i++)
 					((Project) roots[i]).startup();
+				restorePhaseDone("project startup", phase); //$NON-NLS-1$
 				if (!problems.isOK())
 					Policy.log(problems);
 			} finally {
@@ -689,6 +865,17 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			System.out.println("Restore workspace: " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Prints the time taken by a phase of the workspace restore, if restore
+	 * debugging is enabled, and returns the time at which the next phase starts.
+	 */
+	private long restorePhaseDone(String phase, long start) {
+		long now = System.currentTimeMillis();
+		if (Policy.DEBUG_RESTORE)
+			System.out.println("Restore workspace " + phase + ": " + (now - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return now;
+	}
+
 	/**
 	 * Restores the contents of this project.  Throw
 	 * an exception if the project could not be restored.
@@ -758,6 +945,76 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		return status;
 	}
 
+	/**
+	 * Returns the pool of threads helping to restore the workspace.  The pool
+	 * has at most <code>MAX_RESTORE_THREADS - 1</code> threads, which end once
+	 * they have been idle for a few seconds.  When every thread is busy,
+	 * further helpers are discarded and the caller does the work.
+	 */
+	private synchronized Executor getRestoreHelpers() {
+		if (restoreHelpers == null) {
+			ThreadFactory factory = new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Workspace restore"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			restoreHelpers = new ThreadPoolExecutor(0, MAX_RESTORE_THREADS - 1, 5, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory, new ThreadPoolExecutor.DiscardPolicy());
+		}
+		return restoreHelpers;
+	}
+
+	/**
+	 * Runs the given tasks on at most the given number of threads, the calling
+	 * thread included, and returns once they have all completed.  The other
+	 * threads are taken from the restore pool.  Runtime exceptions and errors
+	 * thrown by a task are rethrown once the other tasks have completed.
+	 */
+	void runConcurrently(final Runnable[] tasks, int threads) {
+		threads = Math.min(threads, tasks.length);
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(tasks.length);
+		final Throwable[] failure = new Throwable[1];
+		Runnable worker = new Runnable() {
+			public void run() {
+				for (int i; (i = next.getAndIncrement()) < tasks.length;) {
+					try {
+						tasks[i].run();
+					} catch (Throwable t) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = t;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}
+		};
+		Executor helpers = getRestoreHelpers();
+		for (int i = threads - 1; i > 0; i--)
+			helpers.execute(worker);
+		worker.run();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		synchronized (failure) {
+			if (failure[0] instanceof RuntimeException)
+				throw (RuntimeException) failure[0];
+			if (failure[0] instanceof Error)
+				throw (Error) failure[0];
+		}
+	}
+
 	/**
 	 * Reads the markers which were originally saved
 	 * for the tree rooted by the given resource.
@@ -786,6 +1043,65 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		}
 	}
 
+	/**
+	 * Reads the markers and sync info which were originally saved for the
+	 * workspace root and for each of its projects, merging any failures into
+	 * the given status.  The projects are restored concurrently on a bounded
+	 * number of threads.  This is safe because each project only updates the
+	 * resource infos of its own resources, and the workspace tree synchronizes
+	 * its own updates.
+	 */
+	protected void restoreMarkersAndSyncInfo(final MultiStatus problems, IProgressMonitor monitor) {
+		monitor = Policy.monitorFor(monitor);
+		try {
+			monitor.beginTask("", 2); //$NON-NLS-1$
+			long start = System.currentTimeMillis();
+			IWorkspaceRoot root = workspace.getRoot();
+			try {
+				workspace.getMarkerManager().restore(root, false, null);
+			} catch (CoreException e) {
+				problems.merge(e.getStatus());
+			}
+			try {
+				((Synchronizer) workspace.getSynchronizer()).restore(root, null);
+			} catch (CoreException e) {
+				problems.merge(e.getStatus());
+			}
+			monitor.worked(1);
+			final IProject[] projects = root.getProjects(IContainer.INCLUDE_HIDDEN);
+			Runnable[] tasks = new Runnable[projects.length];
+			for (int i = 0; i < projects.length; i++) {
+				final IProject project = projects[i];
+				tasks[i] = new Runnable() {
+					public void run() {
+						MultiStatus projectProblems = new MultiStatus(ResourcesPlugin.PI_RESOURCES, IResourceStatus.FAILED_READ_METADATA, problems.getMessage(), null);
+						try {
+							restoreMarkers(project, false, null);
+						} catch (CoreException e) {
+							projectProblems.merge(e.getStatus());
+						}
+						try {
+							restoreSyncInfo(project, null);
+						} catch (CoreException e) {
+							projectProblems.merge(e.getStatus());
+						}
+						if (!projectProblems.isOK()) {
+							synchronized (problems) {
+								problems.merge(projectProblems);
+							}
+						}
+					}
+				};
+			}
+			runConcurrently(tasks, Math.min(MAX_RESTORE_THREADS, Runtime.getRuntime().availableProcessors()));
+			monitor.worked(1);
+			if (Policy.DEBUG_RESTORE_MARKERS || Policy.DEBUG_RESTORE_SYNCINFO)
+				System.out.println("Restore Markers and SyncInfo for workspace: " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			monitor.done();
+		}
+	}
+
 	protected void restoreMasterTable() throws CoreException {
 		long start = System.currentTimeMillis();
 		masterTable = new Properties();
@@ -974,6 +1290,7 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			} finally {
 				input.close();
 			}
+			rememberTreeFile(treeLocation.toFile());
 		} catch (IOException e) {
 			String msg = NLS.bind(Messages.resources_readMeta, treeLocation.toOSString());
 			throw new ResourceException(IResourceStatus.FAILED_READ_METADATA, treeLocation, msg, e);
@@ -1249,9 +1566,17 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			String msg = NLS.bind(Messages.resources_missingProjectMetaRepaired, project.getName());
 			return new ResourceStatus(IResourceStatus.MISSING_DESCRIPTION_REPAIRED, project.getFullPath(), msg);
 		}
+		//the fingerprints of refreshed folders are not critical, so failing to save them is a warning
+		IStatus result = Status.OK_STATUS;
+		try {
+			workspace.getFileSystemManager().saveRefreshFingerprints(project);
+		} catch (CoreException e) {
+			IStatus status = e.getStatus();
+			result = new ResourceStatus(IStatus.WARNING, status.getCode(), project.getFullPath(), status.getMessage(), e);
+		}
 		if (Policy.DEBUG_SAVE_METAINFO)
 			System.out.println("Save metainfo for " + project.getFullPath() + ": " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-		return Status.OK_STATUS;
+		return result;
 	}
 
 	/**
@@ -1316,18 +1641,24 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 */
 	protected void saveTree(Map contexts, IProgressMonitor monitor) throws CoreException {
 		long start = System.currentTimeMillis();
+		// the chains of unchanged projects are copied from the previous file
+		java.io.File previousFile = workspace.getMetaArea().getTreeLocationFor(workspace.getRoot(), false).toFile();
+		if (treeSections != null && !treeSections.isIn(previousFile))
+			treeSections = null;
 		IPath treeLocation = workspace.getMetaArea().getTreeLocationFor(workspace.getRoot(), true);
 		try {
 			IPath tempLocation = workspace.getMetaArea().getBackupLocationFor(treeLocation);
 			DataOutputStream output = new DataOutputStream(new SafeFileOutputStream(treeLocation.toOSString(), tempLocation.toOSString()));
 			try {
-				output.writeInt(ICoreConstants.WORKSPACE_TREE_VERSION_2);
+				output.writeInt(ICoreConstants.WORKSPACE_TREE_VERSION_3);
 				writeTree(computeStatesToSave(contexts, workspace.getElementTree()), output, monitor);
 				output.close();
 			} finally {
 				FileUtil.safeClose(output);
 			}
+			rememberTreeFile(treeLocation.toFile());
 		} catch (Exception e) {
+			treeSections = null;
 			String msg = NLS.bind(Messages.resources_writeWorkspaceMeta, treeLocation);
 			throw new ResourceException(IResourceStatus.FAILED_WRITE_METADATA, Path.ROOT, msg, e);
 		}
@@ -1342,6 +1673,21 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		this.savedStates = Collections.synchronizedMap(savedStates);
 	}
 
+	/**
+	 * Remembers that the subtrees of the given projects in the given trees
+	 * were written at the end of the workspace tree file, each as a chain of
+	 * the given length, in the given order.
+	 */
+	void setTreeSections(ElementTree[] trees, String[] projects, int[] lengths) {
+		Map chains = new HashMap(projects.length * 2 + 1);
+		long offset = 0;
+		for (int i = 0; i < projects.length; i++) {
+			chains.put(projects[i], new long[] {offset, lengths[i]});
+			offset += lengths[i];
+		}
+		treeSections = new TreeSections((ElementTree[]) trees.clone(), chains, offset);
+	}
+
 	protected void setSaveNumber(String pluginId, int number) {
 		masterTable.setProperty(SAVE_NUMBER_PREFIX + pluginId, new Integer(number).toString());
 	}
@@ -1363,6 +1709,12 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			snapshotJob.run(Policy.monitorFor(monitor));
 		// cancel the snapshot job
 		snapshotJob.cancel();
+		collapseJob.cancel();
+		synchronized (this) {
+			if (restoreHelpers != null)
+				restoreHelpers.shutdown();
+			restoreHelpers = null;
+		}
 	}
 
 	/**
@@ -1382,6 +1734,12 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 		} else {
 			if (hasTreeChanges) {
 				operationCount++;
+				if (isCheckingLookupDepth() && ++layersSinceCollapse >= COLLAPSE_CHECK_INTERVAL && collapseJob.getState() == Job.NONE) {
+					layersSinceCollapse = 0;
+					if (Policy.DEBUG_TREE_DEPTH)
+						Policy.debug("Scheduling check of workspace tree lookup depth"); //$NON-NLS-1$
+					collapseJob.schedule();
+				}
 				if (snapshotJob.getState() == Job.NONE) {
 					if (Policy.DEBUG_SAVE)
 						System.out.println("Scheduling workspace snapshot"); //$NON-NLS-1$
@@ -1840,14 +2198,14 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 	 * <li> Workspace information </li>
 	 * <li> A list of plugin info </li>
 	 * <li> Builder info for all the builders for each project's active build config </li>
-	 * <li> Workspace trees for all plugins and builders </li>
-	 * <li> And since 3.7: </li>
+	 * <li> Workspace trees for all plugins and builders, down to the projects </li>
 	 * <li> Builder info for all the builders of all the other project's buildConfigs </li>
 	 * <li> The names of the buildConfigs for each of the builders </li>
+	 * <li> The subtree of each project in the workspace trees </li>
 	 * </ul>
-	 * This format is designed to work with WorkspaceTreeReader versions 2.
+	 * This format is designed to work with WorkspaceTreeReader versions 3.
 	 * 
-	 * @see WorkspaceTreeReader_2
+	 * @see WorkspaceTreeReader_3
 	 */
 	protected void writeTree(Map statesToSave, DataOutputStream output, IProgressMonitor monitor) throws IOException, CoreException {
 		monitor = Policy.monitorFor(monitor);
@@ -1891,11 +2249,12 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 				// add the current tree in the list as the last tree in the chain
 				trees.add(current);
 
-				/* save the forest! */
+				/* save the forest, down to the projects */
 				ElementTreeWriter writer = new ElementTreeWriter(this);
 				ElementTree[] treesToSave = (ElementTree[]) trees.toArray(new ElementTree[trees.size()]);
-				writer.writeDeltaChain(treesToSave, Path.ROOT, ElementTreeWriter.D_INFINITE, output, ResourceComparator.getSaveComparator());
-				monitor.worked(Policy.totalWork * 40 / 100);
+				ElementTreeWriter.DeltaChain chain = writer.prepareDeltaChain(treesToSave, ResourceComparator.getSaveComparator());
+				writer.writeDeltaChain(chain, Path.ROOT, 1, output);
+				monitor.worked(Policy.totalWork * 5 / 100);
 
 				// Since 3.7: Save the additional builders info
 				writeBuilderPersistentInfo(output, additionalBuilderInfos, Policy.subMonitorFor(monitor, Policy.totalWork * 10 / 100));
@@ -1905,6 +2264,10 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 					output.writeUTF((String) it.next());
 				for (Iterator it = additionalConfigNames.iterator(); it.hasNext();)
 					output.writeUTF((String) it.next());
+
+				// save the subtree of each project
+				writeProjectTrees(writer, chain, treesToSave, output);
+				monitor.worked(Policy.totalWork * 35 / 100);
 			} finally {
 				if (!wasImmutable)
 					workspace.newWorkingTree();
@@ -2005,6 +2368,86 @@ public class SaveManager implements IElementInfoFlattener, IManager, IStringPool
 			System.out.println("Save tree for " + project.getFullPath() + ": " + (System.currentTimeMillis() - start) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
 
+	/**
+	 * Writes the subtree of each project in the given trees as a chain of its
+	 * own, after an index of the project names and the lengths of their
+	 * chains.  The chain of a project whose subtree has not changed in any of
+	 * the trees since the workspace tree file was last written or read is
+	 * copied from that file.
+	 * @see WorkspaceTreeReader_3
+	 */
+	private void writeProjectTrees(ElementTreeWriter writer, ElementTreeWriter.DeltaChain chain, ElementTree[] trees, DataOutputStream output) throws IOException {
+		// the projects in any of the trees
+		TreeSet projects = new TreeSet();
+		for (int i = 0; i < trees.length; i++) {
+			IPath[] children = trees[i].getChildren(Path.ROOT);
+			for (int j = 0; j < children.length; j++)
+				projects.add(children[j].lastSegment());
+		}
+		String[] names = (String[]) projects.toArray(new String[projects.size()]);
+		byte[][] chains = new byte[names.length][];
+		long[][] copies = new long[names.length][];
+		int[] lengths = new int[names.length];
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		for (int i = 0; i < names.length; i++) {
+			copies[i] = getUnchangedProjectTree(names[i], trees);
+			if (copies[i] != null) {
+				lengths[i] = (int) copies[i][1];
+				continue;
+			}
+			buffer.reset();
+			writer.writeDeltaChain(chain, Path.ROOT.append(names[i]), ElementTreeWriter.D_INFINITE, new DataOutputStream(buffer));
+			chains[i] = buffer.toByteArray();
+			lengths[i] = chains[i].length;
+		}
+
+		output.writeInt(names.length);
+		for (int i = 0; i < names.length; i++) {
+			output.writeUTF(names[i]);
+			output.writeInt(lengths[i]);
+		}
+		RandomAccessFile previous = null;
+		try {
+			byte[] bytes = new byte[8192];
+			for (int i = 0; i < names.length; i++) {
+				if (chains[i] != null) {
+					output.write(chains[i]);
+					continue;
+				}
+				if (previous == null)
+					previous = new RandomAccessFile(treeSections.file, "r"); //$NON-NLS-1$
+				previous.seek(treeSections.fileLength - treeSections.length + copies[i][0]);
+				for (int left = lengths[i]; left > 0; left -= bytes.length) {
+					int count = Math.min(left, bytes.length);
+					previous.readFully(bytes, 0, count);
+					output.write(bytes, 0, count);
+				}
+			}
+		} finally {
+			FileUtil.safeClose(previous);
+		}
+		setTreeSections(trees, names, lengths);
+	}
+
+	/**
+	 * Returns the offset and length of the chain of the given project in the
+	 * workspace tree file, if its subtree has the same content in each of the
+	 * given trees as in the tree at the same index when the file was written
+	 * or read, and <code>null</code> otherwise.
+	 */
+	private long[] getUnchangedProjectTree(String project, ElementTree[] trees) {
+		if (treeSections == null || treeSections.trees.length != trees.length)
+			return null;
+		long[] chain = (long[]) treeSections.chains.get(project);
+		if (chain == null)
+			return null;
+		IPath path = Path.ROOT.append(project);
+		for (int i = 0; i < trees.length; i++)
+			if (trees[i].getDataTree().mayDifferAt(treeSections.trees[i].getDataTree(), path))
+				return null;
+		return chain;
+	}
+
 	protected void writeWorkspaceFields(DataOutputStream output, IProgressMonitor monitor) throws IOException {
 		monitor = Policy.monitorFor(monitor);
 		try {
@@ -20,6 +20,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import org.eclipse.core.filesystem.URIUtil;
+import org.eclipse.core.internal.dtree.DeltaDataTree;
 import org.eclipse.core.internal.events.*;
 import org.eclipse.core.internal.localstore.FileSystemResourceManager;
 import org.eclipse.core.internal.properties.IPropertyManager;
@@ -80,6 +81,21 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	// whether the resources plugin is in debug mode.
 	public static boolean DEBUG = false;
 
+	/**
+	 * System property that makes old workspace trees keep complete snapshots,
+	 * so that reading them does not search their delta chains.
+	 * @see DeltaDataTree#keepSnapshots
+	 */
+	private static final String PROP_TREE_SNAPSHOTS = ResourcesPlugin.PI_RESOURCES + ".treeSnapshots"; //$NON-NLS-1$
+
+	/**
+	 * System property that makes the infos of files and folders keep their
+	 * fixed-width fields outside the heap.
+	 * @see CompactResourceInfo
+	 */
+	private static final String PROP_COMPACT_INFOS = ResourcesPlugin.PI_RESOURCES + ".compactInfos"; //$NON-NLS-1$
+	private final boolean compactInfos = Boolean.getBoolean(PROP_COMPACT_INFOS);
+
 	/**
 	 * Work manager should never be accessed directly because accessor
 	 * asserts that workspace is still open.
@@ -301,6 +317,7 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	public Workspace() {
 		super();
 		localMetaArea = new LocalMetaArea();
+		DeltaDataTree.keepSnapshots = Boolean.getBoolean(PROP_TREE_SNAPSHOTS);
 		tree = new ElementTree();
 		/* tree should only be modified during operations */
 		tree.immutable();
@@ -1394,6 +1411,25 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 		return info;
 	}
 
+	/**
+	 * Creates the given resources in the tree and returns their new resource
+	 * info objects, in the same order.  The resources must be children of the
+	 * given container, must have distinct names, and there must be no element
+	 * in the tree for any of them, not even a phantom.  This has the same
+	 * effect as calling <code>createResource(resource, false)</code> for each
+	 * resource, but all of them are added to the parent in a single step.
+	 */
+	public ResourceInfo[] createResources(IContainer parent, IResource[] resources) {
+		String[] names = new String[resources.length];
+		ResourceInfo[] infos = new ResourceInfo[resources.length];
+		for (int i = 0; i < resources.length; i++) {
+			names[i] = resources[i].getName();
+			infos[i] = newElement(resources[i].getType());
+		}
+		tree.createElements(parent.getFullPath(), names, infos);
+		return infos;
+	}
+
 	/* (non-Javadoc)
 	 * @see IWorkspace#delete(IResource[], boolean, IProgressMonitor)
 	 */
@@ -2123,23 +2159,28 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 	 * Create and return a new tree element of the given type.
 	 */
 	protected ResourceInfo newElement(int type) {
-		ResourceInfo result = null;
+		ResourceInfo result = newInfo(type);
+		result.setNodeId(nextNodeId());
+		updateModificationStamp(result);
+		result.setType(type);
+		return result;
+	}
+
+	/**
+	 * Returns a new info for a resource of the given type, without a node id.
+	 * Safe to call from any thread.
+	 */
+	ResourceInfo newInfo(int type) {
 		switch (type) {
 			case IResource.FILE :
 			case IResource.FOLDER :
-				result = new ResourceInfo();
-				break;
+				return compactInfos ? (ResourceInfo) new CompactResourceInfo() : new HeapResourceInfo();
 			case IResource.PROJECT :
-				result = new ProjectInfo();
-				break;
+				return new ProjectInfo();
 			case IResource.ROOT :
-				result = new RootInfo();
-				break;
+				return new RootInfo();
 		}
-		result.setNodeId(nextNodeId());
-		updateModificationStamp(result);
-		result.setType(type);
-		return result;
+		return null;
 	}
 
 	/* (non-Javadoc)
@@ -2464,6 +2505,7 @@ public class Workspace extends PlatformObject implements IWorkspace, ICoreConsta
 			refreshManager = null;
 			charsetManager = null;
 			contentDescriptionManager = null;
+			DeltaDataTree.shutdownComparisons();
 			if (!status.isOK())
 				throw new CoreException(status);
 		} finally {
@@ -52,6 +52,10 @@ public abstract class WorkspaceTreeReader {
 				w = new WorkspaceTreeReader_2(workspace);
 				w.renameProjectNode = renameProjectNode;
 				return w;
+			case ICoreConstants.WORKSPACE_TREE_VERSION_3 :
+				w = new WorkspaceTreeReader_3(workspace);
+				w.renameProjectNode = renameProjectNode;
+				return w;
 			default :
 				// Unknown tree version - fail to read the tree
 				String msg = NLS.bind(Messages.resources_format, new Integer(version));
@@ -47,7 +47,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
  */
 public class WorkspaceTreeReader_2 extends WorkspaceTreeReader_1 {
 
-	private List builderInfos;
+	protected List builderInfos;
 
 	public WorkspaceTreeReader_2(Workspace workspace) {
 		super(workspace);
@@ -211,7 +211,7 @@ public class WorkspaceTreeReader_2 extends WorkspaceTreeReader_1 {
 	/**
 	 * Given a list of builder infos, group them by project and set them on the project.
 	 */
-	private void setBuilderInfos(List infos) {
+	protected void setBuilderInfos(List infos) {
 		Map groupedInfos = new HashMap();
 		for (Iterator it = infos.iterator(); it.hasNext();) {
 			BuilderPersistentInfo info = (BuilderPersistentInfo) it.next();
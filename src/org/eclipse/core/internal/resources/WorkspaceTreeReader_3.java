@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.internal.events.BuilderPersistentInfo;
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.internal.utils.Policy;
+import org.eclipse.core.internal.watson.*;
+import org.eclipse.core.resources.IResourceStatus;
+import org.eclipse.core.runtime.*;
+
+/**
+ * Reads version 3 of the workspace tree file format.
+ * <p>
+ * This version differs from version 2 in how the workspace trees are
+ * written.  The chain of trees only goes down to the projects, and the
+ * subtree of each project is written as a chain of its own at the end of the
+ * file, after an index of the project names and the lengths of their chains.
+ * The chains of the projects are decoded concurrently, and a save copies the
+ * chain of a project that has not changed from the previous file rather
+ * than writing it again.
+ * </p>
+ * <p>
+ * The builder information and configuration names of version 2 are written
+ * in the same way, between the chain of trees and the index.
+ * </p>
+ * @see SaveManager#writeTree(Map, DataOutputStream, IProgressMonitor)
+ */
+public class WorkspaceTreeReader_3 extends WorkspaceTreeReader_2 {
+
+	/**
+	 * Reads element infos like the save manager, except that it does not draw
+	 * a node id from the workspace for each info, as several threads read
+	 * infos at once.  The node id of each info is read anyway.
+	 */
+	private final IElementInfoFlattener concurrentFlattener = new IElementInfoFlattener() {
+		public Object readElement(IPath path, DataInput input) throws IOException {
+			int flags = input.readInt();
+			int type = (flags & ICoreConstants.M_TYPE) >> ICoreConstants.M_TYPE_START;
+			ResourceInfo info = workspace.newInfo(type);
+			info.readFrom(flags, input);
+			return info;
+		}
+
+		public void writeElement(IPath path, Object element, DataOutput output) {
+			//not needed
+		}
+	};
+
+	public WorkspaceTreeReader_3(Workspace workspace) {
+		super(workspace);
+	}
+
+	protected int getVersion() {
+		return ICoreConstants.WORKSPACE_TREE_VERSION_3;
+	}
+
+	/**
+	 * Read a workspace tree storing information about multiple projects.
+	 * Overrides {@link WorkspaceTreeReader_2#readTree(DataInputStream, IProgressMonitor)}
+	 */
+	public void readTree(DataInputStream input, IProgressMonitor monitor) throws CoreException {
+		monitor = Policy.monitorFor(monitor);
+		String message;
+		try {
+			message = Messages.resources_reading;
+			monitor.beginTask(message, Policy.totalWork);
+
+			builderInfos = new ArrayList(20);
+
+			readWorkspaceFields(input, Policy.subMonitorFor(monitor, Policy.opWork * 20 / 100));
+
+			HashMap savedStates = new HashMap(20);
+			List pluginsToBeLinked = new ArrayList(20);
+			readPluginsSavedStates(input, savedStates, pluginsToBeLinked, Policy.subMonitorFor(monitor, Policy.opWork * 10 / 100));
+			workspace.getSaveManager().setPluginsSavedState(savedStates);
+
+			List buildersToBeLinked = new ArrayList(20);
+			readBuildersPersistentInfo(null, input, buildersToBeLinked, Policy.subMonitorFor(monitor, Policy.opWork * 10 / 100));
+
+			ElementTreeReader treeReader = new ElementTreeReader(concurrentFlattener);
+			ElementTree[] trees = treeReader.readDeltaChain(input);
+
+			List additionalBuildersToBeLinked = new ArrayList(20);
+			readBuildersPersistentInfo(null, input, additionalBuildersToBeLinked, Policy.subMonitorFor(monitor, Policy.opWork * 10 / 100));
+			String[] configNames = new String[buildersToBeLinked.size() + additionalBuildersToBeLinked.size()];
+			for (int i = 0; i < configNames.length; i++)
+				configNames[i] = input.readUTF();
+
+			trees = readProjectTrees(treeReader, trees, input, Policy.subMonitorFor(monitor, Policy.opWork * 30 / 100));
+			//the last tree in the chain is the complete tree
+			ElementTree newTree = trees[trees.length - 1];
+			newTree.setTreeData(workspace.tree.getTreeData());
+			workspace.tree = newTree;
+
+			linkPluginsSavedStateToTrees(pluginsToBeLinked, trees, Policy.subMonitorFor(monitor, Policy.opWork * 10 / 100));
+			linkBuildersToTrees(buildersToBeLinked, trees, pluginsToBeLinked.size(), Policy.subMonitorFor(monitor, Policy.opWork * 5 / 100));
+			linkBuildersToTrees(additionalBuildersToBeLinked, trees, 0, Policy.subMonitorFor(monitor, Policy.opWork * 5 / 100));
+			for (int i = 0; i < configNames.length; i++)
+				((BuilderPersistentInfo) builderInfos.get(i)).setConfigName(configNames[i]);
+
+			// Set the builder infos on the projects
+			setBuilderInfos(builderInfos);
+
+		} catch (IOException e) {
+			message = Messages.resources_readProjectTree;
+			throw new ResourceException(IResourceStatus.FAILED_READ_METADATA, null, message, e);
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Reads the index and the chains of the subtrees of the projects, decodes
+	 * the chains concurrently, and joins them with the given chain of trees
+	 * down to the projects.
+	 */
+	private ElementTree[] readProjectTrees(final ElementTreeReader treeReader, ElementTree[] trees, DataInputStream input, IProgressMonitor monitor) throws IOException {
+		monitor = Policy.monitorFor(monitor);
+		try {
+			int count = input.readInt();
+			String[] names = new String[count];
+			int[] lengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				names[i] = input.readUTF();
+				lengths[i] = input.readInt();
+			}
+			final byte[][] chains = new byte[count][];
+			for (int i = 0; i < count; i++)
+				input.readFully(chains[i] = new byte[lengths[i]]);
+			monitor.worked(1);
+
+			final ElementTree[][] subtreeChains = new ElementTree[count][];
+			final IOException[] failure = new IOException[1];
+			Runnable[] tasks = new Runnable[count];
+			for (int i = 0; i < count; i++) {
+				final int index = i;
+				tasks[i] = new Runnable() {
+					public void run() {
+						try {
+							subtreeChains[index] = treeReader.readDeltaChain(new DataInputStream(new ByteArrayInputStream(chains[index])));
+							chains[index] = null;
+						} catch (IOException e) {
+							synchronized (failure) {
+								failure[0] = e;
+							}
+						}
+					}
+				};
+			}
+			SaveManager saveManager = workspace.getSaveManager();
+			saveManager.runConcurrently(tasks, Runtime.getRuntime().availableProcessors());
+			synchronized (failure) {
+				if (failure[0] != null)
+					throw failure[0];
+			}
+			trees = treeReader.joinDeltaChains(trees, names, subtreeChains);
+			saveManager.setTreeSections(trees, names, lengths);
+			return trees;
+		} finally {
+			monitor.done();
+		}
+	}
+}
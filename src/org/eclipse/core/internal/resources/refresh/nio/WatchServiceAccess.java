@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources.refresh.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives access to the <code>java.nio.file.WatchService</code> of the default
+ * file system.  This bundle is compiled against J2SE-1.5, so the API is
+ * accessed reflectively, and is only available when running on Java 7 or
+ * later.  Watch services, watch keys and watch events are handled as plain
+ * objects.
+ */
+final class WatchServiceAccess {
+	private static Method cancel;
+	private static Method close;
+	private static Method context;
+	private static Object defaultFileSystem;
+	private static Object entryCreate;
+	private static Method kind;
+	private static Method newWatchService;
+	private static Object overflow;
+	private static Method poll;
+	private static Method pollEvents;
+	private static Method register;
+	private static Method reset;
+	private static Method toPath;
+	private static Object watchedKinds;
+	private static final boolean available = initialize();
+
+	private WatchServiceAccess() {
+		super();
+	}
+
+	static void cancel(Object key) {
+		try {
+			invoke(cancel, key, new Object[0]);
+		} catch (IOException e) {
+			//cannot happen
+		}
+	}
+
+	static void close(Object service) throws IOException {
+		invoke(close, service, new Object[0]);
+	}
+
+	/**
+	 * Returns the name of the directory entry that the given event is about,
+	 * or <code>null</code> for an overflow event.
+	 */
+	static String getName(Object event) throws IOException {
+		Object name = invoke(context, event, new Object[0]);
+		return name == null ? null : name.toString();
+	}
+
+	private static boolean initialize() {
+		try {
+			ClassLoader loader = WatchServiceAccess.class.getClassLoader();
+			Class fileSystems = Class.forName("java.nio.file.FileSystems", true, loader); //$NON-NLS-1$
+			Class fileSystem = Class.forName("java.nio.file.FileSystem", true, loader); //$NON-NLS-1$
+			Class path = Class.forName("java.nio.file.Path", true, loader); //$NON-NLS-1$
+			Class service = Class.forName("java.nio.file.WatchService", true, loader); //$NON-NLS-1$
+			Class key = Class.forName("java.nio.file.WatchKey", true, loader); //$NON-NLS-1$
+			Class event = Class.forName("java.nio.file.WatchEvent", true, loader); //$NON-NLS-1$
+			Class eventKind = Class.forName("java.nio.file.WatchEvent$Kind", true, loader); //$NON-NLS-1$
+			Class standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds", true, loader); //$NON-NLS-1$
+			defaultFileSystem = fileSystems.getMethod("getDefault", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			newWatchService = fileSystem.getMethod("newWatchService", new Class[0]); //$NON-NLS-1$
+			toPath = File.class.getMethod("toPath", new Class[0]); //$NON-NLS-1$
+			Object kindArray = Array.newInstance(eventKind, 3);
+			register = path.getMethod("register", new Class[] {service, kindArray.getClass()}); //$NON-NLS-1$
+			poll = service.getMethod("poll", new Class[] {long.class, TimeUnit.class}); //$NON-NLS-1$
+			close = service.getMethod("close", new Class[0]); //$NON-NLS-1$
+			pollEvents = key.getMethod("pollEvents", new Class[0]); //$NON-NLS-1$
+			reset = key.getMethod("reset", new Class[0]); //$NON-NLS-1$
+			cancel = key.getMethod("cancel", new Class[0]); //$NON-NLS-1$
+			kind = event.getMethod("kind", new Class[0]); //$NON-NLS-1$
+			context = event.getMethod("context", new Class[0]); //$NON-NLS-1$
+			entryCreate = standardKinds.getField("ENTRY_CREATE").get(null); //$NON-NLS-1$
+			overflow = standardKinds.getField("OVERFLOW").get(null); //$NON-NLS-1$
+			Array.set(kindArray, 0, entryCreate);
+			Array.set(kindArray, 1, standardKinds.getField("ENTRY_DELETE").get(null)); //$NON-NLS-1$
+			Array.set(kindArray, 2, standardKinds.getField("ENTRY_MODIFY").get(null)); //$NON-NLS-1$
+			watchedKinds = kindArray;
+			return true;
+		} catch (Exception e) {
+			//not running on Java 7 or later
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static Object invoke(Method method, Object target, Object[] arguments) throws IOException {
+		try {
+			return method.invoke(target, arguments);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e.getMessage());
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getTargetException();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			//the only other checked exception is an interrupt while polling
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	static boolean isAvailable() {
+		return available;
+	}
+
+	static boolean isCreate(Object event) throws IOException {
+		return invoke(kind, event, new Object[0]) == entryCreate;
+	}
+
+	static boolean isOverflow(Object event) throws IOException {
+		return invoke(kind, event, new Object[0]) == overflow;
+	}
+
+	static Object newWatchService() throws IOException {
+		return invoke(newWatchService, defaultFileSystem, new Object[0]);
+	}
+
+	/**
+	 * Returns the next signalled key, waiting at most the given number of
+	 * milliseconds, or <code>null</code> if no key was signalled.
+	 */
+	static Object poll(Object service, long timeout) throws IOException {
+		return invoke(poll, service, new Object[] {new Long(timeout), TimeUnit.MILLISECONDS});
+	}
+
+	/**
+	 * Returns and removes the pending events of the given key.
+	 */
+	static List pollEvents(Object key) throws IOException {
+		return (List) invoke(pollEvents, key, new Object[0]);
+	}
+
+	/**
+	 * Registers the given directory for creation, deletion and modification
+	 * of its entries, and returns the watch key.
+	 */
+	static Object register(Object service, File directory) throws IOException {
+		Object path = invoke(toPath, directory, new Object[0]);
+		return invoke(register, path, new Object[] {service, watchedKinds});
+	}
+
+	/**
+	 * Resets the given key so it is signalled again.  Returns false if
+	 * the key is no longer valid.
+	 */
+	static boolean reset(Object key) throws IOException {
+		return ((Boolean) invoke(reset, key, new Object[0])).booleanValue();
+	}
+}
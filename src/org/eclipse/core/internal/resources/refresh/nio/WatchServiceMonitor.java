@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources.refresh.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.eclipse.core.internal.refresh.RefreshManager;
+import org.eclipse.core.internal.utils.Messages;
+import org.eclipse.core.resources.*;
+import org.eclipse.core.resources.refresh.IRefreshMonitor;
+import org.eclipse.core.resources.refresh.IRefreshResult;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.osgi.framework.Bundle;
+
+/**
+ * A refresh monitor that watches every directory below the monitored
+ * resources with a <code>java.nio.file.WatchService</code>.  Watch services
+ * only report changes to the entries of a watched directory, so each
+ * directory is registered separately, and directories created later are
+ * registered as they are reported.  Directories are registered by the job,
+ * one at a time, and listed without holding the monitor, so that starting
+ * to monitor a large tree neither blocks the caller nor the refreshes.
+ * <p>
+ * Each time the job runs it waits briefly for changes, then collects all
+ * changes that are pending.  Changes are coalesced per directory: a refresh
+ * is requested for each changed entry, or for the directory itself when
+ * many of its entries changed or the watch service lost track of them.
+ * If a directory cannot be watched, for example because the system limit
+ * on watches is reached, its root falls back to polling.
+ */
+class WatchServiceMonitor extends Job implements IRefreshMonitor {
+	/**
+	 * A watched directory.
+	 */
+	private static class Watch {
+		final File directory;
+		/** the path of the directory relative to the location of the root */
+		final IPath path;
+		final IResource root;
+
+		Watch(IResource root, IPath path, File directory) {
+			this.root = root;
+			this.path = path;
+			this.directory = directory;
+		}
+
+		/**
+		 * Returns the container corresponding to the watched directory.
+		 */
+		IContainer getContainer() {
+			if (path.isEmpty())
+				return (IContainer) root;
+			return ((IContainer) root).getFolder(path);
+		}
+	}
+
+	/**
+	 * A directory to register, with the directories below it.
+	 */
+	private static class Registration {
+		final File directory;
+		/** the path of the directory relative to the location of the root */
+		final IPath path;
+		final IResource root;
+		/** the canonical paths of the directories registered by the same walk */
+		final Set visited;
+
+		Registration(IResource root, IPath path, File directory, Set visited) {
+			this.root = root;
+			this.path = path;
+			this.directory = directory;
+			this.visited = visited;
+		}
+	}
+
+	private static final String DEBUG_PREFIX = "WatchServiceMonitor: "; //$NON-NLS-1$
+	/**
+	 * The number of changed entries of a directory above which the
+	 * directory is refreshed, rather than each of the entries.
+	 */
+	private static final int MAX_CHANGES_PER_DIRECTORY = 64;
+	private static final long RESCHEDULE_DELAY = 1000;
+	private static final long WAIT_TIMEOUT = 1000;
+
+	/**
+	 * Mapping of watch keys to the list of watches of the key, one per root.
+	 * Roots that overlap, or that reach the same directory through symbolic
+	 * links, share the key of the directory.
+	 */
+	private final Map keys = new HashMap();
+	/**
+	 * The directories waiting to be registered, in the order they were found.
+	 */
+	private final LinkedList pending = new LinkedList();
+	private final IRefreshResult refreshResult;
+	/**
+	 * Mapping of monitored resources to the set of keys watching the
+	 * directories below them.
+	 */
+	private final Map roots = new HashMap();
+	/**
+	 * The watch service, or <code>null</code> if nothing is monitored.
+	 */
+	private Object service;
+
+	WatchServiceMonitor(IRefreshResult result) {
+		super(Messages.refresh_watchJob);
+		this.refreshResult = result;
+		setPriority(Job.DECORATE);
+		setSystem(true);
+	}
+
+	/**
+	 * Adds the refreshes needed for the given event on the given watch to the
+	 * given map of requests.  Newly created directories are queued to be
+	 * registered.
+	 */
+	private void addRequests(Watch watch, Object event, Map requests) {
+		Set changed = (Set) requests.get(watch);
+		if (changed == null) {
+			changed = new HashSet();
+			requests.put(watch, changed);
+		}
+		if (WatchServiceAccess.isOverflow(event)) {
+			//changes were lost: watch any new directories and refresh the whole directory
+			synchronized (this) {
+				pending.add(new Registration(watch.root, watch.path, watch.directory, new HashSet()));
+			}
+			changed.clear();
+			changed.add(watch.getContainer());
+			return;
+		}
+		String name = WatchServiceAccess.getName(event);
+		File file = new File(watch.directory, name);
+		IContainer container = watch.getContainer();
+		IResource resource;
+		if (file.isDirectory()) {
+			if (!WatchServiceAccess.isCreate(event))
+				//the contents of existing directories are watched separately
+				return;
+			synchronized (this) {
+				pending.add(new Registration(watch.root, watch.path.append(name), file, new HashSet()));
+			}
+			resource = container.getFolder(new Path(name));
+		} else if (file.exists()) {
+			resource = container.getFile(new Path(name));
+		} else {
+			//deleted: nothing to do if the workspace does not know about it
+			resource = container.findMember(name);
+			if (resource == null)
+				return;
+		}
+		//new directories are registered even if the whole directory is refreshed
+		if (changed.contains(container))
+			return;
+		changed.add(resource);
+		if (changed.size() > MAX_CHANGES_PER_DIRECTORY) {
+			changed.clear();
+			changed.add(container);
+		}
+	}
+
+	/**
+	 * Cancels the watches of the directories below the given root, the keys
+	 * that no other root uses, and the registrations still pending for the
+	 * root.  Must be called while synchronized on this monitor.
+	 */
+	private void cancelKeys(IResource root) {
+		for (Iterator i = pending.iterator(); i.hasNext();)
+			if (((Registration) i.next()).root.equals(root))
+				i.remove();
+		Set rootKeys = (Set) roots.remove(root);
+		if (rootKeys == null)
+			return;
+		for (Iterator i = rootKeys.iterator(); i.hasNext();) {
+			Object key = i.next();
+			List watches = (List) keys.get(key);
+			if (watches != null) {
+				removeWatch(watches, root);
+				if (!watches.isEmpty())
+					continue;
+				keys.remove(key);
+			}
+			WatchServiceAccess.cancel(key);
+		}
+	}
+
+	/**
+	 * Starts watching the directories below the given resource.  Returns
+	 * false if there is no watch service.  The directories are registered by
+	 * the job; if they cannot all be watched, the monitor reports the failure
+	 * of the resource to the refresh result then.
+	 */
+	boolean monitor(IResource resource) {
+		IPath location = resource.getLocation();
+		if (location == null)
+			return false;
+		synchronized (this) {
+			if (roots.containsKey(resource))
+				return true;
+			try {
+				if (service == null)
+					service = WatchServiceAccess.newWatchService();
+			} catch (IOException e) {
+				if (RefreshManager.DEBUG)
+					System.out.println(DEBUG_PREFIX + "cannot watch " + resource + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				return false;
+			}
+			roots.put(resource, new HashSet());
+			pending.add(new Registration(resource, Path.EMPTY, location.toFile(), new HashSet()));
+		}
+		schedule();
+		if (RefreshManager.DEBUG)
+			System.out.println(DEBUG_PREFIX + " added monitor for: " + resource); //$NON-NLS-1$
+		return true;
+	}
+
+	/**
+	 * Registers the directories waiting to be registered, and queues the
+	 * directories below them.  Directories are only registered once per walk,
+	 * which stops symbolic link cycles.  The monitor is only held to record
+	 * each registration; directories are listed without holding it.  Adds
+	 * the roots of the directories that cannot be watched to the given set.
+	 */
+	private void registerPending(IProgressMonitor monitor, Set failedRoots) {
+		while (!monitor.isCanceled()) {
+			Registration next;
+			synchronized (this) {
+				if (pending.isEmpty())
+					return;
+				next = (Registration) pending.removeFirst();
+			}
+			try {
+				if (!next.visited.add(next.directory.getCanonicalPath()))
+					continue;
+				synchronized (this) {
+					Set rootKeys = (Set) roots.get(next.root);
+					//the root is no longer monitored
+					if (rootKeys == null || service == null)
+						continue;
+					Object key = WatchServiceAccess.register(service, next.directory);
+					List watches = (List) keys.get(key);
+					if (watches == null) {
+						watches = new ArrayList(1);
+						keys.put(key, watches);
+					}
+					removeWatch(watches, next.root);
+					watches.add(new Watch(next.root, next.path, next.directory));
+					rootKeys.add(key);
+				}
+			} catch (IOException e) {
+				if (RefreshManager.DEBUG)
+					System.out.println(DEBUG_PREFIX + "cannot watch " + next.directory + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				failedRoots.add(next.root);
+				continue;
+			}
+			File[] children = next.directory.listFiles();
+			if (children == null)
+				continue;
+			List found = new ArrayList();
+			for (int i = 0; i < children.length; i++)
+				if (children[i].isDirectory())
+					found.add(new Registration(next.root, next.path.append(children[i].getName()), children[i], next.visited));
+			synchronized (this) {
+				if (roots.containsKey(next.root))
+					pending.addAll(found);
+			}
+		}
+	}
+
+	/**
+	 * Removes the watch of the given root from the given list, if any.
+	 */
+	private static void removeWatch(List watches, IResource root) {
+		for (Iterator i = watches.iterator(); i.hasNext();)
+			if (((Watch) i.next()).root.equals(root))
+				i.remove();
+	}
+
+	protected IStatus run(IProgressMonitor monitor) {
+		Object watchService;
+		synchronized (this) {
+			watchService = service;
+		}
+		if (watchService == null)
+			return Status.OK_STATUS;
+		//maps watches to the set of resources to refresh
+		Map requests = new HashMap();
+		Set failedRoots = new HashSet();
+		registerPending(monitor, failedRoots);
+		try {
+			Object key = WatchServiceAccess.poll(watchService, WAIT_TIMEOUT);
+			while (key != null && !monitor.isCanceled()) {
+				List watches;
+				synchronized (this) {
+					watches = (List) keys.get(key);
+					watches = watches == null ? Collections.EMPTY_LIST : new ArrayList(watches);
+				}
+				List events = WatchServiceAccess.pollEvents(key);
+				for (Iterator i = watches.iterator(); i.hasNext();) {
+					Watch watch = (Watch) i.next();
+					for (Iterator j = events.iterator(); j.hasNext();)
+						addRequests(watch, j.next(), requests);
+				}
+				if (!WatchServiceAccess.reset(key)) {
+					//the directory is gone
+					synchronized (this) {
+						keys.remove(key);
+						for (Iterator i = watches.iterator(); i.hasNext();) {
+							Set rootKeys = (Set) roots.get(((Watch) i.next()).root);
+							if (rootKeys != null)
+								rootKeys.remove(key);
+						}
+					}
+				}
+				key = WatchServiceAccess.poll(watchService, 0);
+			}
+		} catch (IOException e) {
+			//fall through and refresh what has been collected
+		} catch (RuntimeException e) {
+			//the watch service was closed
+		}
+		//watch the directories created meanwhile before their changes are refreshed
+		registerPending(monitor, failedRoots);
+		for (Iterator i = requests.values().iterator(); i.hasNext();)
+			for (Iterator j = ((Set) i.next()).iterator(); j.hasNext();)
+				refreshResult.refresh((IResource) j.next());
+		for (Iterator i = failedRoots.iterator(); i.hasNext();) {
+			IResource root = (IResource) i.next();
+			synchronized (this) {
+				cancelKeys(root);
+			}
+			refreshResult.monitorFailed(this, root);
+		}
+		final Bundle bundle = Platform.getBundle(ResourcesPlugin.PI_RESOURCES);
+		//if the bundle is null then the framework has shutdown - just bail out completely (bug 98219)
+		if (bundle == null)
+			return Status.OK_STATUS;
+		//don't reschedule the job if the resources plugin has been shut down
+		if (bundle.getState() == Bundle.ACTIVE)
+			schedule(RESCHEDULE_DELAY);
+		return Status.OK_STATUS;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#shouldRun()
+	 */
+	public synchronized boolean shouldRun() {
+		return !roots.isEmpty();
+	}
+
+	/*
+	 * @see org.eclipse.core.resources.refresh.IRefreshMonitor#unmonitor(IContainer)
+	 */
+	public void unmonitor(IResource resource) {
+		synchronized (this) {
+			if (resource == null) {
+				for (Iterator i = new ArrayList(roots.keySet()).iterator(); i.hasNext();)
+					cancelKeys((IResource) i.next());
+			} else {
+				cancelKeys(resource);
+			}
+			if (roots.isEmpty() && service != null) {
+				try {
+					WatchServiceAccess.close(service);
+				} catch (IOException e) {
+					//ignore
+				}
+				service = null;
+			}
+		}
+		//stop the job if there is nothing left to watch
+		if (!shouldRun())
+			cancel();
+	}
+}
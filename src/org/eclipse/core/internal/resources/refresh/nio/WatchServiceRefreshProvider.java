@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.resources.refresh.nio;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.refresh.*;
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * The <code>WatchServiceRefreshProvider</code> creates monitors that 
+ * use the watch service of the Java runtime, when running on Java 7 or
+ * later on Linux, where the watch service uses inotify.  On other platforms
+ * it polls the file system, or a native monitor is available.
+ * 
+ * @see org.eclipse.core.resources.refresh.RefreshProvider
+ */
+public class WatchServiceRefreshProvider extends RefreshProvider {
+	private WatchServiceMonitor monitor;
+
+	/**
+	 * Creates a watch service monitor if the given resource is local.
+	 * 
+	 * @see org.eclipse.core.resources.refresh.RefreshProvider#installMonitor(IResource,IRefreshResult)
+	 */
+	public IRefreshMonitor installMonitor(IResource resource, IRefreshResult result) {
+		if (!Platform.OS_LINUX.equals(Platform.getOS()) || !WatchServiceAccess.isAvailable())
+			return null;
+		if (resource.getLocation() == null || !resource.exists() || resource.getType() == IResource.FILE)
+			return null;
+		if (monitor == null)
+			monitor = new WatchServiceMonitor(result);
+		if (monitor.monitor(resource))
+			return monitor;
+		return null;
+	}
+}
@@ -40,6 +40,7 @@ public class Messages extends NLS {
 	public static String events_skippingBuilder;
 	public static String events_unknown;
 
+	public static String history_compacting;
 	public static String history_copyToNull;
 	public static String history_copyToSelf;
 	public static String history_errorContentDescription;
@@ -148,11 +149,15 @@ public class Messages extends NLS {
 	public static String properties_valueTooLong;
 
 	// auto-refresh
+	public static String refresh_asyncJob;
+	public static String refresh_asyncProgress;
+	public static String refresh_asyncWaitInOperation;
 	public static String refresh_installError;
 	public static String refresh_jobName;
 	public static String refresh_pollJob;
 	public static String refresh_refreshErr;
 	public static String refresh_task;
+	public static String refresh_watchJob;
 
 	public static String resources_cannotModify;
 	public static String resources_changeInAdd;
@@ -160,6 +165,7 @@ public class Messages extends NLS {
 	public static String resources_charsetUpdating;
 	public static String resources_closing_0;
 	public static String resources_closing_1;
+	public static String resources_collapsingTrees;
 	public static String resources_copyDestNotSub;
 	public static String resources_copying;
 	public static String resources_copying_0;
@@ -54,6 +54,7 @@ public class Policy {
 	public static boolean DEBUG_SAVE_SYNCINFO = false;
 	public static boolean DEBUG_SAVE_TREE = false;
 	public static boolean DEBUG_STRINGS = false;
+	public static boolean DEBUG_TREE_DEPTH = false;
 	public static int endOpWork = 1;
 	public static final long MAX_BUILD_DELAY = 1000;
 
@@ -98,6 +99,7 @@ public class Policy {
 			DEBUG_SAVE_TREE = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/save/tree")); //$NON-NLS-1$ 
 
 			DEBUG_STRINGS = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/strings")); //$NON-NLS-1$
+			DEBUG_TREE_DEPTH = sTrue.equalsIgnoreCase(Platform.getDebugOption(ResourcesPlugin.PI_RESOURCES + "/tree/depth")); //$NON-NLS-1$
 		}
 	}
 
@@ -15,6 +15,7 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.Random;
 import org.eclipse.core.runtime.Assert;
@@ -215,7 +216,8 @@ public class UniversalUniqueIdentifier implements java.io.Serializable {
 	}
 
 	public int hashCode() {
-		return fBits[0] + fBits[3] + fBits[7] + fBits[11] + fBits[15];
+		// all bytes are hashed, as large maps are keyed by UUIDs
+		return Arrays.hashCode(fBits);
 	}
 
 	private static int nextClockSequence() {
@@ -283,9 +285,12 @@ public class UniversalUniqueIdentifier implements java.io.Serializable {
 		fBits[TIME_HIGH_AND_VERSION] = (byte) (timeHigh | version);
 	}
 
-	protected synchronized void setTimeValues() {
-		this.setTimestamp(timestamp());
-		this.setClockSequence(fgClockSequence);
+	protected void setTimeValues() {
+		// the clock values are shared by all instances
+		synchronized (UniversalUniqueIdentifier.class) {
+			this.setTimestamp(timestamp());
+			this.setClockSequence(fgClockSequence);
+		}
 	}
 
 	protected int setVariant(int variantIdentifier) {
@@ -47,7 +47,9 @@ import org.eclipse.osgi.util.NLS;
  * frozen, and can never again be modified.  A tree must be immutable before
  * a new tree generation can start.  Since all ancestor trees are immutable,
  * different active trees can have ancestors in common without fear of 
- * thread corruption problems. 
+ * thread corruption problems.  For the same reason, read operations on an
+ * immutable tree do not synchronize on the tree, so that any number of
+ * threads can query it concurrently.
  * 
  * Internally, any single tree generation is simply stored as the 
  * set of changes between itself and its most recent ancestor (its parent).
@@ -93,6 +95,22 @@ public class ElementTree {
 
 	private volatile DataTreeLookup lookupCacheIgnoreCase = null;
 
+	/**
+	 * Set once this tree has been made immutable and its delta chain rerooted.
+	 * From then on, read operations no longer synchronize on the tree, and
+	 * the caches above are published to concurrent readers as a whole.
+	 */
+	private volatile boolean frozen = false;
+
+	/**
+	 * Incremented before and after a frozen tree is collapsed.  Collapsing does
+	 * not change the contents of the tree, which the data tree publishes to
+	 * readers layer by layer, but it changes which layer a lookup finds its
+	 * result in.  Read operations that do not hold the lock use it to avoid
+	 * caching such results, and retry under the lock.
+	 */
+	private volatile int collapseStamp = 0;
+
 	private static int treeCounter = 0;
 	private int treeStamp;
 
@@ -154,7 +172,12 @@ public class ElementTree {
 			return this;
 		}
 		//collapse my tree to be a forward delta of the parent's tree.
-		tree.collapseTo(parent.tree, DefaultElementComparator.getComparator());
+		collapseStamp++;
+		try {
+			tree.collapseTo(parent.tree, DefaultElementComparator.getComparator());
+		} finally {
+			collapseStamp++;
+		}
 		return this;
 	}
 
@@ -187,6 +210,29 @@ public class ElementTree {
 		lookupCacheIgnoreCase = null;
 	}
 
+	/**
+	 * Creates the indicated children of the given parent element and sets
+	 * their element infos, in a single step.  The parent element must be
+	 * present, otherwise an IllegalArgumentException is thrown.  The result
+	 * is the same as that of calling <code>createElement</code> for each
+	 * child, but much cheaper when adding many children to a parent.
+	 *
+	 * @param parentKey key of the parent element
+	 * @param names distinct names of the children
+	 * @param data element data of the children, in the same order as the names
+	 */
+	public synchronized void createElements(IPath parentKey, String[] names, Object[] data) {
+		// Clear the child IDs cache in case it's referring to this parent.
+		childIDsCache = null;
+		// Clear the lookup cache, in case it refers to one of the new elements.
+		lookupCache = lookupCacheIgnoreCase = null;
+		try {
+			tree.createChildren(parentKey, names, data);
+		} catch (ObjectNotFoundException e) {
+			elementNotFound(parentKey);
+		}
+	}
+
 	/**
 	 * Creates or replaces the subtree below the given path with 
 	 * the given tree. The subtree can only have one child below 
@@ -311,9 +357,8 @@ public class ElementTree {
 	 * specified by the given path.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized int getChildCount(IPath key) {
-		Assert.isNotNull(key);
-		return getChildIDs(key).length;
+	public int getChildCount(IPath key) {
+		return getChildren(key).length;
 	}
 
 	/**
@@ -342,9 +387,42 @@ public class ElementTree {
 	 * specified by the given path.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized IPath[] getChildren(IPath key) {
+	public IPath[] getChildren(IPath key) {
 		Assert.isNotNull(key);
-		return getChildIDs(key);
+		int stamp = beginUnsynchronizedRead();
+		if (stamp >= 0) {
+			ChildIDsCache cache = childIDsCache;
+			if (cache != null && cache.path == key)
+				return cache.childPaths;
+			try {
+				IPath[] children = tree.getChildren(key);
+				if (endUnsynchronizedRead(stamp)) {
+					childIDsCache = new ChildIDsCache(key, children);
+					return children;
+				}
+			} catch (RuntimeException e) {
+				if (endUnsynchronizedRead(stamp)) {
+					if (e instanceof ObjectNotFoundException)
+						elementNotFound(key);
+					throw e;
+				}
+			}
+		}
+		synchronized (this) {
+			return getChildIDs(key);
+		}
+	}
+
+	/**
+	 * Returns the number of delta layers between this tree and the complete
+	 * tree its delta chain is based on.  Lookups in this tree may have to
+	 * search this many layers before reaching the complete tree.
+	 */
+	public int getDeltaDepth() {
+		int depth = 0;
+		for (DeltaDataTree layer = tree.getParent(); layer != null; layer = layer.getParent())
+			depth++;
+		return depth;
 	}
 
 	/**
@@ -358,14 +436,18 @@ public class ElementTree {
 	 * Returns the element data for the given element identifier.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized Object getElementData(IPath key) {
+	public Object getElementData(IPath key) {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key)
-			lookupCache = lookup = tree.lookup(key);
-		if (lookup.isPresent)
+		DataTreeLookup lookup = unsynchronizedLookup(key, false);
+		if (lookup == null) {
+			synchronized (this) {
+				lookup = cachedLookup(key, false);
+				if (lookup.isPresent)
+					return lookup.data;
+			}
+		} else if (lookup.isPresent)
 			return lookup.data;
 		elementNotFound(key);
 		return null; // can't get here
@@ -375,14 +457,18 @@ public class ElementTree {
 	 * Returns the element data for the given element identifier.
 	 * The given element must be present in this tree.
 	 */
-	public synchronized Object getElementDataIgnoreCase(IPath key) {
+	public Object getElementDataIgnoreCase(IPath key) {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCacheIgnoreCase; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key)
-			lookupCacheIgnoreCase = lookup = tree.lookupIgnoreCase(key);
-		if (lookup.isPresent)
+		DataTreeLookup lookup = unsynchronizedLookup(key, true);
+		if (lookup == null) {
+			synchronized (this) {
+				lookup = cachedLookup(key, true);
+				if (lookup.isPresent)
+					return lookup.data;
+			}
+		} else if (lookup.isPresent)
 			return lookup.data;
 		elementNotFound(key);
 		return null; // can't get here
@@ -393,14 +479,30 @@ public class ElementTree {
 	 * The specified element must exist in the tree.
 	 * If the specified element is null, returns the root element path.
 	 */
-	public synchronized String[] getNamesOfChildren(IPath key) {
-		try {
-			if (key == null)
-				return new String[] {""}; //$NON-NLS-1$
-			return tree.getNamesOfChildren(key);
-		} catch (ObjectNotFoundException e) {
-			elementNotFound(key);
-			return null; // can't get here
+	public String[] getNamesOfChildren(IPath key) {
+		if (key == null)
+			return new String[] {""}; //$NON-NLS-1$
+		int stamp = beginUnsynchronizedRead();
+		if (stamp >= 0) {
+			try {
+				String[] names = tree.getNamesOfChildren(key);
+				if (endUnsynchronizedRead(stamp))
+					return names;
+			} catch (RuntimeException e) {
+				if (endUnsynchronizedRead(stamp)) {
+					if (e instanceof ObjectNotFoundException)
+						elementNotFound(key);
+					throw e;
+				}
+			}
+		}
+		synchronized (this) {
+			try {
+				return tree.getNamesOfChildren(key);
+			} catch (ObjectNotFoundException e) {
+				elementNotFound(key);
+				return null; // can't get here
+			}
 		}
 	}
 
@@ -515,6 +617,8 @@ public class ElementTree {
 			lookupCache = lookupCacheIgnoreCase = null;
 			/* reroot the delta chain at this tree */
 			tree.reroot();
+			/* from now on readers can bypass the lock */
+			frozen = true;
 		}
 	}
 
@@ -522,12 +626,13 @@ public class ElementTree {
 	 * Returns true if this element tree includes an element with the given
 	 * key, false otherwise.
 	 */
-	public synchronized boolean includes(IPath key) {
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCache = lookup = tree.lookup(key);
+	public boolean includes(IPath key) {
+		DataTreeLookup lookup = unsynchronizedLookup(key, false);
+		if (lookup != null)
+			return lookup.isPresent;
+		synchronized (this) {
+			return cachedLookup(key, false).isPresent;
 		}
-		return lookup.isPresent;
 	}
 
 	/**
@@ -535,11 +640,57 @@ public class ElementTree {
 	 * key, ignoring the case of the key, and false otherwise.
 	 */
 	public boolean includesIgnoreCase(IPath key) {
-		DataTreeLookup lookup = lookupCacheIgnoreCase; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCacheIgnoreCase = lookup = tree.lookupIgnoreCase(key);
+		DataTreeLookup lookup = unsynchronizedLookup(key, true);
+		if (lookup != null)
+			return lookup.isPresent;
+		synchronized (this) {
+			return cachedLookup(key, true).isPresent;
+		}
+	}
+
+	/**
+	 * Returns the result of looking up the given key, using the lookup cache
+	 * where possible.  Must be called while synchronized on this tree.
+	 * While the tree is mutable, cache misses are stored into the cached
+	 * lookup object itself rather than a new one, so the result must not be
+	 * used after the lock is released.  The caches of a frozen tree are read
+	 * without the lock, so a new lookup object is published instead.
+	 */
+	private DataTreeLookup cachedLookup(IPath key, boolean ignoreCase) {
+		DataTreeLookup lookup = ignoreCase ? lookupCacheIgnoreCase : lookupCache;
+		if (lookup != null && lookup.key == key)
+			return lookup;
+		if (lookup == null || frozen)
+			lookup = new DataTreeLookup();
+		if (ignoreCase) {
+			tree.lookupIgnoreCase(key, lookup);
+			lookupCacheIgnoreCase = lookup;
+		} else {
+			tree.lookup(key, lookup);
+			lookupCache = lookup;
 		}
-		return lookup.isPresent;
+		return lookup;
+	}
+
+	/**
+	 * Starts a read operation that does not synchronize on this tree.
+	 * Returns a stamp to be passed to <code>endUnsynchronizedRead</code>, or
+	 * -1 if the tree is not frozen or is being collapsed, in which case
+	 * the caller must synchronize.
+	 */
+	private int beginUnsynchronizedRead() {
+		if (!frozen)
+			return -1;
+		int stamp = collapseStamp;
+		return (stamp & 1) == 0 ? stamp : -1;
+	}
+
+	/**
+	 * Returns whether a read started with the given stamp did not overlap
+	 * a collapse of this tree, and its result can therefore be used.
+	 */
+	private boolean endUnsynchronizedRead(int stamp) {
+		return collapseStamp == stamp;
 	}
 
 	protected void initialize(DataTreeNode rootNode) {
@@ -563,6 +714,28 @@ public class ElementTree {
 		return tree.isImmutable();
 	}
 
+	/**
+	 * Looks up the given key without synchronizing on this tree.  Returns
+	 * <code>null</code> if the lookup could not be performed safely, in which
+	 * case the caller must synchronize and use <code>cachedLookup</code>.
+	 */
+	private DataTreeLookup unsynchronizedLookup(IPath key, boolean ignoreCase) {
+		int stamp = beginUnsynchronizedRead();
+		if (stamp < 0)
+			return null;
+		DataTreeLookup lookup = ignoreCase ? lookupCacheIgnoreCase : lookupCache; // Grab it in case it's replaced concurrently.
+		if (lookup != null && lookup.key == key)
+			return lookup;
+		lookup = ignoreCase ? tree.lookupIgnoreCase(key) : tree.lookup(key);
+		if (!endUnsynchronizedRead(stamp))
+			return null;
+		if (ignoreCase)
+			lookupCacheIgnoreCase = lookup;
+		else
+			lookupCache = lookup;
+		return lookup;
+	}
+
 	/**
 	 * Merges a chain of deltas for a certain subtree to this tree.
 	 * If this tree has any data in the specified subtree, it will
@@ -642,10 +815,7 @@ public class ElementTree {
 		/* don't allow modification of the implicit root */
 		if (key.isRoot())
 			return null;
-		DataTreeLookup lookup = lookupCache; // Grab it in case it's replaced concurrently.
-		if (lookup == null || lookup.key != key) {
-			lookupCache = lookup = tree.lookup(key);
-		}
+		DataTreeLookup lookup = cachedLookup(key, false);
 		if (lookup.isPresent) {
 			if (lookup.foundInFirstDelta)
 				return lookup.data;
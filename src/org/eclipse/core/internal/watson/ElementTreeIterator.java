@@ -43,6 +43,8 @@ public class ElementTreeIterator implements IPathRequestor {
 	//for path requestor
 	private String[] segments = new String[10];
 	private int nextFreeSegment;
+	/* paths[i] is the path of the first i + 1 segments, or null if not yet requested */
+	private IPath[] paths = new IPath[10];
 
 	/* the tree being visited */
 	private ElementTree tree;
@@ -76,6 +78,7 @@ public class ElementTreeIterator implements IPathRequestor {
 		if (nextFreeSegment >= segments.length) {
 			grow();
 		}
+		paths[nextFreeSegment] = null;
 		segments[nextFreeSegment++] = node.getName();
 
 		//do the visit
@@ -99,9 +102,12 @@ public class ElementTreeIterator implements IPathRequestor {
 	private void grow() {
 		//grow the segments array
 		int oldLen = segments.length;
-		String[] newPaths = new String[oldLen * 2];
-		System.arraycopy(segments, 0, newPaths, 0, oldLen);
-		segments = newPaths;
+		String[] newSegments = new String[oldLen * 2];
+		System.arraycopy(segments, 0, newSegments, 0, oldLen);
+		segments = newSegments;
+		IPath[] newPaths = new IPath[oldLen * 2];
+		System.arraycopy(paths, 0, newPaths, 0, oldLen);
+		paths = newPaths;
 	}
 
 	/**
@@ -138,6 +144,7 @@ public class ElementTreeIterator implements IPathRequestor {
 			if (nextFreeSegment >= segments.length) {
 				grow();
 			}
+			paths[nextFreeSegment] = null;
 			segments[nextFreeSegment++] = pathToPush.segment(i);
 		}
 	}
@@ -148,18 +155,35 @@ public class ElementTreeIterator implements IPathRequestor {
 		return segments[nextFreeSegment - 1];
 	}
 
+	/**
+	 * Returns the path of the element being visited.  Paths are built by appending
+	 * a segment to the cached path of the parent element, so each element's path
+	 * is created at most once, and only if requested.
+	 */
 	public IPath requestPath() {
 		if (nextFreeSegment == 0)
 			return Path.ROOT;
-		int length = nextFreeSegment;
-		for (int i = 0; i < nextFreeSegment; i++) {
-			length += segments[i].length();
-		}
-		StringBuffer pathBuf = new StringBuffer(length);
-		for (int i = 0; i < nextFreeSegment; i++) {
-			pathBuf.append('/');
-			pathBuf.append(segments[i]);
-		}
-		return new Path(null, pathBuf.toString());
+		int last = nextFreeSegment - 1;
+		if (paths[last] != null)
+			return paths[last];
+		//find the nearest ancestor whose path is already known
+		int known = last;
+		while (known >= 0 && paths[known] == null)
+			known--;
+		IPath result = known < 0 ? Path.ROOT : paths[known];
+		for (int i = known + 1; i <= last; i++)
+			paths[i] = result = append(result, segments[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the given path with the given segment appended.  Segments that
+	 * IPath#append(String) would parse as more than a segment are appended
+	 * literally, as when building the path from a string.
+	 */
+	private static IPath append(IPath parent, String segment) {
+		if (segment.indexOf(IPath.DEVICE_SEPARATOR) == -1 && segment.indexOf('\\') == -1)
+			return parent.append(segment);
+		return new Path(null, parent.addTrailingSeparator().toString() + segment);
 	}
 }
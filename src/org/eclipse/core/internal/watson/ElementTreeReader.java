@@ -12,8 +12,9 @@
 package org.eclipse.core.internal.watson;
 
 import java.io.*;
-import org.eclipse.core.internal.dtree.DataTreeReader;
-import org.eclipse.core.internal.dtree.IDataFlattener;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.eclipse.core.internal.dtree.*;
 import org.eclipse.core.internal.utils.Messages;
 import org.eclipse.core.runtime.*;
 
@@ -110,6 +111,70 @@ s	 */
 		return realReader.readDeltaChain(input, newProjectName);
 	}
 
+	/**
+	 * Joins a chain of ElementTrees read by <code>readDeltaChain</code>
+	 * from a chain written down to the children of the root, with the chains
+	 * read for the subtrees of some of those children, which were written
+	 * from the same array of trees.  The subtree chains may have been written
+	 * with the trees in a different order.
+	 * @param trees The chain of the root and its children.
+	 * @param names The names of the children whose subtrees were written
+	 * separately, in sorted order.
+	 * @param subtreeChains The chain read for the subtree of each named child.
+	 * @return A chain of ElementTrees with the same content as the chain
+	 * written for the whole trees.
+	 */
+	public ElementTree[] joinDeltaChains(ElementTree[] trees, String[] names, ElementTree[][] subtreeChains) {
+		int treeCount = trees.length;
+		ElementTree[] results = new ElementTree[treeCount];
+
+		/* each tree read is a delta on the previous one in the written order,
+		 * or that same tree if the delta was empty, so sorting them by depth
+		 * gives that order */
+		final int[] depths = new int[treeCount];
+		Integer[] order = new Integer[treeCount];
+		for (int i = 0; i < treeCount; i++) {
+			depths[i] = trees[i].getDeltaDepth();
+			order[i] = new Integer(i);
+		}
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return depths[((Integer) o1).intValue()] - depths[((Integer) o2).intValue()];
+			}
+		});
+
+		DeltaDataTree[] subtrees = new DeltaDataTree[names.length];
+		DeltaDataTree[] subtreeParents = new DeltaDataTree[names.length];
+		int previous = -1;
+		for (int k = 0; k < treeCount; k++) {
+			int i = order[k].intValue();
+			if (previous >= 0 && trees[i] == trees[previous]) {
+				results[i] = results[previous];
+				continue;
+			}
+			for (int j = 0; j < names.length; j++) {
+				subtrees[j] = subtreeChains[j][i].getDataTree();
+				subtreeParents[j] = previous < 0 ? null : subtreeChains[j][previous].getDataTree();
+			}
+			DeltaDataTree parent = previous < 0 ? null : results[previous].getDataTree();
+			DeltaDataTree joined = trees[i].getDataTree().joinSubtrees(parent, names, subtrees, subtreeParents);
+			ElementTree result = new ElementTree(joined);
+
+			//copy the user data forward
+			IElementTreeData data = trees[i].getTreeData();
+			if (data != null) {
+				result.setTreeData((IElementTreeData) data.clone());
+			}
+
+			//make the underlying data tree of a delta immutable, like readDelta
+			if (parent != null)
+				joined.immutable();
+			results[i] = result;
+			previous = i;
+		}
+		return results;
+	}
+
 	/** 
 	 * Reads an integer stored in compact format.  Numbers between
 	 * 0 and 254 inclusive occupy 1 byte; other numbers occupy 5 bytes,
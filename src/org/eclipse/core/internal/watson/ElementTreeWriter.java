@@ -46,6 +46,23 @@ public class ElementTreeWriter {
 	 */
 	protected DataTreeWriter dataTreeWriter;
 
+	/**
+	 * A chain of ElementTrees sorted in ancestral order, with the data tree
+	 * to write for each: a copy of the first tree, and the delta from each
+	 * tree to the next.  Several subtrees of the chain can be written from it
+	 * without computing the deltas again.
+	 * @see ElementTreeWriter#prepareDeltaChain(ElementTree[], IElementComparator)
+	 */
+	public static final class DeltaChain {
+		final int[] order;
+		final DeltaDataTree[] dataTrees;
+
+		DeltaChain(int[] order, DeltaDataTree[] dataTrees) {
+			this.order = order;
+			this.dataTrees = dataTrees;
+		}
+	}
+
 	/**
 	 * Constructs a new element tree writer that works for
 	 * the given element info flattener. 
@@ -79,11 +96,25 @@ public class ElementTreeWriter {
 	 * The sort order is written to the given output stream.
 	 */
 	protected ElementTree[] sortTrees(ElementTree[] trees, DataOutput output) throws IOException {
+		int[] order = new int[trees.length];
+		ElementTree[] sorted = sortTrees(trees, order);
+
+		/* write the order array */
+		for (int i = 0; i < order.length; i++) {
+			writeNumber(order[i], output);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Sorts the given array of trees like <code>sortTrees(ElementTree[], DataOutput)</code>,
+	 * and stores the sort order in the given array instead of writing it.
+	 */
+	private ElementTree[] sortTrees(ElementTree[] trees, int[] order) {
 
 		/* the sorted list */
 		int numTrees = trees.length;
 		ElementTree[] sorted = new ElementTree[numTrees];
-		int[] order = new int[numTrees];
 
 		/* first build a table of ElementTree -> Vector of Integers(indices in trees array) */
 		HashMap table = new HashMap(numTrees * 2 + 1);
@@ -122,11 +153,6 @@ public class ElementTreeWriter {
 				oldest = parent;
 			}
 		}
-
-		/* write the order array */
-		for (i = 0; i < numTrees; i++) {
-			writeNumber(order[i], output);
-		}
 		return sorted;
 	}
 
@@ -198,6 +224,63 @@ public class ElementTreeWriter {
 		}
 	}
 
+	/**
+	 * Writes a chain of ElementTrees prepared by <code>prepareDeltaChain</code>
+	 * to the given output stream, in the same format as
+	 * <code>writeDeltaChain(ElementTree[], IPath, int, DataOutput, IElementComparator)</code>.
+	 * @param chain The prepared chain of trees.
+	 * @param path The path of the subtree to write.  All nodes on the path above
+	 *  the subtree are represented as empty nodes.
+	 * @param depth The depth of the subtree to write.  A depth of zero writes a
+	 *  single node, and a depth of D_INFINITE writes the whole subtree.
+	 * @param output The stream to write the subtree to.
+	 */
+	public void writeDeltaChain(DeltaChain chain, IPath path, int depth, DataOutput output) throws IOException {
+		/* Write the format version number */
+		writeNumber(CURRENT_FORMAT, output);
+
+		/* Write the number of trees */
+		int treeCount = chain.order.length;
+		writeNumber(treeCount, output);
+
+		if (treeCount <= 0) {
+			return;
+		}
+
+		/* Write the tree order */
+		for (int i = 0; i < treeCount; i++) {
+			writeNumber(chain.order[i], output);
+		}
+
+		/* Write the complete tree, then the deltas for each of the remaining trees */
+		for (int i = 0; i < treeCount; i++) {
+			writeNumber(CURRENT_FORMAT, output);
+			dataTreeWriter.writeTree(chain.dataTrees[i], path, depth, output);
+		}
+	}
+
+	/**
+	 * Sorts a chain of ElementTrees in ancestral order, and computes the
+	 * deltas between them, so that subtrees of the chain can be written with
+	 * <code>writeDeltaChain(DeltaChain, IPath, int, DataOutput)</code>.
+	 * @param trees A chain of ElementTrees, where one tree in the list is
+	 * complete, and all other trees are deltas on the previous tree in the list.
+	 */
+	public DeltaChain prepareDeltaChain(ElementTree[] trees, IElementComparator comparator) {
+		int treeCount = trees.length;
+		int[] order = new int[treeCount];
+		DeltaDataTree[] dataTrees = new DeltaDataTree[treeCount];
+		if (treeCount > 0) {
+			ElementTree[] sortedTrees = sortTrees(trees, order);
+			dataTrees[0] = new DeltaDataTree(sortedTrees[0].getDataTree().copyCompleteSubtree(Path.ROOT));
+			for (int i = 1; i < treeCount; i++) {
+				dataTrees[i] = sortedTrees[i - 1].getDataTree().forwardDeltaWith(sortedTrees[i].getDataTree(), comparator);
+				Assert.isTrue(dataTrees[i].isImmutable());
+			}
+		}
+		return new DeltaChain(order, dataTrees);
+	}
+
 	/** 
 	 * Writes an integer in a compact format biased towards
 	 * small non-negative numbers. Numbers between